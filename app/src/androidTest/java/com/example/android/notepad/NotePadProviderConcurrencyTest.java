@@ -0,0 +1,369 @@
+package com.example.android.notepad;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how the note pad provider behaves when reads and writes run at the same time, and
+ * how the storage of long note bodies affects database size and note read latency.
+ *
+ * The benchmarks log their timings under the "NotePadBenchmark" tag rather than asserting on
+ * them, since absolute numbers depend on the device. Run this class on its own to read them:
+ * adb shell am instrument -w -e class com.example.android.notepad.NotePadProviderConcurrencyTest
+ *     com.example.android.notepad.tests/android.test.InstrumentationTestRunner
+ */
+public class NotePadProviderConcurrencyTest extends ProviderTestCase2<NotePadProvider> {
+
+    private static final String TAG = "NotePadBenchmark";
+
+    // Number of notes in the table while the benchmarks run.
+    private static final int NOTE_COUNT = 2000;
+
+    // Number of list queries timed in each run.
+    private static final int READ_ITERATIONS = 200;
+
+    // Number of notes changed by each write transaction of the background writer.
+    private static final int WRITE_BATCH = 50;
+
+    // Number of long notes written for the body compression benchmark.
+    private static final int LONG_NOTE_COUNT = 100;
+
+    // Approximate length in characters of each long note.
+    private static final int LONG_NOTE_LENGTH = 32 * 1024;
+
+    // Columns read by the notes list.
+    private static final String[] LIST_PROJECTION = new String[] {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
+    };
+
+    private NotePadProvider mProvider;
+    private SQLiteDatabase mDb;
+
+    public NotePadProviderConcurrencyTest() {
+        super(NotePadProvider.class, NotePad.AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProvider = getProvider();
+        mDb = mProvider.getOpenHelperForTest().getWritableDatabase();
+        insertNotes(NOTE_COUNT);
+    }
+
+    /*
+     * The database must be in write-ahead-log mode, which is what lets readers run on their
+     * own connections while a write transaction is open.
+     */
+    public void testJournalModeIsWal() {
+        Cursor cursor = mDb.rawQuery("PRAGMA journal_mode", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("wal", cursor.getString(0).toLowerCase());
+        } finally {
+            cursor.close();
+        }
+        assertTrue(mDb.isWriteAheadLoggingEnabled());
+    }
+
+    /*
+     * Holds a write transaction open on another thread and checks that a list query still
+     * completes, and that it sees the last committed state rather than the pending write.
+     */
+    public void testReaderDoesNotBlockOnOpenWriteTransaction() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mDb.beginTransaction();
+                try {
+                    mDb.insert(NotePad.Notes.TABLE_NAME, null, note("Pending", 0));
+                    writing.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                    mDb.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    failed.set(true);
+                } finally {
+                    mDb.endTransaction();
+                }
+            }
+        });
+        writer.start();
+        try {
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            assertEquals(NOTE_COUNT, countNotes());
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Log.i(TAG, "read during open write transaction: " + elapsedMs + " ms");
+        } finally {
+            release.countDown();
+            writer.join();
+        }
+
+        assertFalse(failed.get());
+        assertEquals(NOTE_COUNT + 1, countNotes());
+    }
+
+    /*
+     * Times the notes list query on its own and again while another thread keeps committing
+     * batches of updates, and logs the latency percentiles of both runs.
+     */
+    public void testReadLatencyUnderConcurrentWrites() throws Exception {
+        long[] idle = timeListQueries(READ_ITERATIONS);
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger commits = new AtomicInteger();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long id = 1;
+                while (!stop.get()) {
+                    mDb.beginTransaction();
+                    try {
+                        for (int i = 0; i < WRITE_BATCH; i++) {
+                            Uri uri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE,
+                                    id);
+                            mProvider.update(uri, note("Edited " + id, System.currentTimeMillis()),
+                                    null, null);
+                            id = id % NOTE_COUNT + 1;
+                        }
+                        mDb.setTransactionSuccessful();
+                    } finally {
+                        mDb.endTransaction();
+                    }
+                    commits.incrementAndGet();
+                }
+            }
+        });
+        writer.start();
+        long[] loaded;
+        try {
+            loaded = timeListQueries(READ_ITERATIONS);
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+
+        Log.i(TAG, "list query, idle:            " + describe(idle));
+        Log.i(TAG, "list query, concurrent write: " + describe(loaded)
+                + ", " + commits.get() + " write transactions");
+        assertTrue(commits.get() > 0);
+    }
+
+    /*
+     * Writes long notes as they were stored before compression, runs the background migration,
+     * and logs the stored body size and the note read latency before and after, along with the
+     * latency of reads served by the provider's note cache.
+     */
+    public void testCompressedBodySizeAndReadLatency() {
+        long[] ids = insertLongNotes(LONG_NOTE_COUNT, LONG_NOTE_LENGTH);
+        long textBytes = storedBodyBytes();
+        long textPages = usedPages();
+        long[] textReads = timeNoteReads(ids, false);
+        Cursor cursor = mProvider.query(
+                ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, ids[0]),
+                new String[] { NotePad.Notes.COLUMN_NAME_NOTE }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        String expected = cursor.getString(0);
+        cursor.close();
+
+        NoteBodyCodec.createMigrationQueue(mDb);
+        long start = System.nanoTime();
+        assertEquals(LONG_NOTE_COUNT, NoteBodyCodec.compressQueuedNotes(mDb));
+        long migrationNanos = System.nanoTime() - start;
+
+        long blobBytes = storedBodyBytes();
+        long blobPages = usedPages();
+        long[] blobReads = timeNoteReads(ids, false);
+        mProvider.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        cursor = mProvider.query(
+                ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, ids[0]),
+                new String[] { NotePad.Notes.COLUMN_NAME_NOTE }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(expected, cursor.getString(0));
+        cursor.close();
+
+        // Repeated reads of a few notes, as when an editor is reopened, come from the cache.
+        long[] cachedIds = Arrays.copyOf(ids, 4);
+        timeNoteReads(cachedIds, true);
+        long[] cachedReads = timeNoteReads(cachedIds, true);
+
+        Log.i(TAG, "note bodies, text:       " + textBytes + " bytes, " + textPages + " pages");
+        Log.i(TAG, "note bodies, compressed: " + blobBytes + " bytes, " + blobPages + " pages, "
+                + "migration " + toMillis(migrationNanos) + " ms");
+        Log.i(TAG, "note read, text:       " + describe(textReads));
+        Log.i(TAG, "note read, compressed: " + describe(blobReads));
+        Log.i(TAG, "note read, cached:     " + describe(cachedReads));
+        assertTrue(blobBytes < textBytes / 2);
+    }
+
+    // Runs the notes list query the given number of times and returns each latency in
+    // nanoseconds, sorted ascending.
+    private long[] timeListQueries(int iterations) {
+        long[] latencies = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(NotePad.Notes.CONTENT_URI, LIST_PROJECTION, null,
+                    null, NotePad.Notes.DEFAULT_SORT_ORDER);
+            try {
+                // Fills the whole cursor window, as a list scrolling to the end would.
+                while (cursor.moveToNext()) {
+                    cursor.getString(1);
+                }
+            } finally {
+                cursor.close();
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    // Reads the body of each given note through the provider, as the editor does, and returns
+    // each latency in nanoseconds, sorted ascending. Unless cached is set, the provider's note
+    // cache is emptied before each read so that every read goes to the database.
+    private long[] timeNoteReads(long[] ids, boolean cached) {
+        long[] latencies = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            if (!cached) {
+                mProvider.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(
+                    ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, ids[i]),
+                    new String[] { NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_NOTE },
+                    null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                cursor.getString(1);
+            } finally {
+                cursor.close();
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    // Returns the number of bytes the notes table spends on note bodies, text or compressed.
+    private long storedBodyBytes() {
+        Cursor cursor = mDb.rawQuery("SELECT SUM(LENGTH(CAST(" + NotePad.Notes.COLUMN_NAME_NOTE
+                + " AS BLOB))) + IFNULL(SUM(LENGTH(" + NoteBodyCodec.COLUMN_NOTE_BLOB + ")), 0)"
+                + " FROM " + NotePad.Notes.TABLE_NAME, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Returns the number of database pages in use, not counting pages on the free list.
+    private long usedPages() {
+        return pragmaLong("page_count") - pragmaLong("freelist_count");
+    }
+
+    private long pragmaLong(String pragma) {
+        Cursor cursor = mDb.rawQuery("PRAGMA " + pragma, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String describe(long[] sortedNanos) {
+        return "p50 " + toMillis(percentile(sortedNanos, 50))
+                + " ms, p95 " + toMillis(percentile(sortedNanos, 95))
+                + " ms, max " + toMillis(sortedNanos[sortedNanos.length - 1]) + " ms";
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.2f", nanos / 1000000.0);
+    }
+
+    private int countNotes() {
+        Cursor cursor = mProvider.query(NotePad.Notes.CONTENT_URI,
+                new String[] { NotePad.Notes._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void insertNotes(int count) {
+        long now = System.currentTimeMillis();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                ContentValues values = note("Note" + i, now + i);
+                values.put(NotePad.Notes.COLUMN_NAME_NOTE, "This is note " + i);
+                values.put(NotePad.Notes.COLUMN_NAME_CREATE_DATE, now + i);
+                mDb.insert(NotePad.Notes.TABLE_NAME, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    // Writes long notes straight into the table, uncompressed, and returns their ids. The text
+    // is made of ordinary words so that it compresses like a real note.
+    private long[] insertLongNotes(int count, int length) {
+        String[] words = { "the", "note", "meeting", "tomorrow", "list", "project", "draft",
+                "review", "call", "write", "idea", "plan", "remember", "buy", "send", "update" };
+        Random random = new Random(42);
+        long[] ids = new long[count];
+        long now = System.currentTimeMillis();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                StringBuilder text = new StringBuilder(length + 16);
+                while (text.length() < length) {
+                    text.append(words[random.nextInt(words.length)]);
+                    text.append(random.nextInt(8) == 0 ? '\n' : ' ');
+                }
+                ContentValues values = note("Long note " + i, now + i);
+                values.put(NotePad.Notes.COLUMN_NAME_NOTE, text.toString());
+                ids[i] = mDb.insert(NotePad.Notes.TABLE_NAME, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return ids;
+    }
+
+    private static ContentValues note(String title, long modified) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
+        values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, modified);
+        return values;
+    }
+}
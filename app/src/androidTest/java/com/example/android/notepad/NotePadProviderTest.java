@@ -16,12 +16,20 @@
 
 package com.example.android.notepad;
 
+import android.content.ComponentCallbacks2;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.res.AssetFileDescriptor;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
 import android.test.ProviderTestCase2;
 import android.test.mock.MockContentResolver;
@@ -31,8 +39,12 @@ import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
 
 /*
  */
@@ -740,6 +752,299 @@ public class NotePadProviderTest extends ProviderTestCase2<NotePadProvider> {
         assertEquals(0, cursor.getCount());
     }
 
+    /*
+     * Tests that deleting moves notes and todos to the trash, where they can be restored or
+     * permanently deleted, and that expired trash is purged and the free pages released.
+     */
+    public void testTrash() {
+        insertData();
+        Cursor cursor = mMockResolver.query(NotePad.Notes.CONTENT_URI,
+                new String[] { NotePad.Notes._ID }, NotePad.Notes.COLUMN_NAME_TITLE + " = ?",
+                new String[] { TEST_NOTES[0].title }, null);
+        assertTrue(cursor.moveToFirst());
+        long noteId = cursor.getLong(0);
+        cursor.close();
+        Uri noteUri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, noteId);
+        Uri trashUri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_TRASH_ID_URI_BASE, noteId);
+        assertEquals(NotePad.Notes.CONTENT_TYPE,
+                mMockResolver.getType(NotePad.Notes.CONTENT_TRASH_URI));
+        assertEquals(NotePad.Notes.CONTENT_ITEM_TYPE, mMockResolver.getType(trashUri));
+
+        // Deleting the note hides it from the list, the note URI and search, and fills the trash.
+        assertEquals(1, mMockResolver.delete(noteUri, null, null));
+        assertEquals(0, mMockResolver.delete(noteUri, null, null));
+        cursor = mMockResolver.query(NotePad.Notes.CONTENT_URI, null, null, null, null);
+        assertEquals(TEST_NOTES.length - 1, cursor.getCount());
+        cursor.close();
+        cursor = mMockResolver.query(noteUri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        cursor = mMockResolver.query(NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, "note 0")
+                .build(), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Changed");
+        assertEquals(0, mMockResolver.update(noteUri, values, null, null));
+
+        cursor = mMockResolver.query(NotePad.Notes.CONTENT_TRASH_URI, new String[] {
+                NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_NOTE,
+                NotePad.Notes.COLUMN_NAME_DELETED }, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(noteId, cursor.getLong(0));
+        assertEquals(TEST_NOTES[0].note, cursor.getString(1));
+        assertTrue(cursor.getLong(2) > 0);
+        cursor.close();
+
+        // Only the deletion time can be written in the trash, and only to restore.
+        try {
+            mMockResolver.update(trashUri, values, null, null);
+            fail("Expected the trash to reject updates other than a restore");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // Restoring brings the note back unchanged.
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_DELETED, 0);
+        assertEquals(1, mMockResolver.update(trashUri, values, null, null));
+        cursor = mMockResolver.query(noteUri,
+                new String[] { NotePad.Notes.COLUMN_NAME_NOTE }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(TEST_NOTES[0].note, cursor.getString(0));
+        cursor.close();
+        cursor = mMockResolver.query(NotePad.Notes.CONTENT_TRASH_URI, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        // Deleting from the trash is permanent.
+        mMockResolver.delete(noteUri, null, null);
+        assertEquals(1, mMockResolver.delete(trashUri, null, null));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDb, NotePad.Notes.TABLE_NAME,
+                NotePad.Notes._ID + " = " + noteId));
+
+        // "Clear completed" moves the completed todos to the trash.
+        values = new ContentValues();
+        values.put(NotePad.Todos.COLUMN_NAME_TITLE, "Done");
+        values.put(NotePad.Todos.COLUMN_NAME_COMPLETED, 1);
+        mMockResolver.insert(NotePad.Todos.CONTENT_URI, values);
+        assertEquals(1, mMockResolver.delete(NotePad.Todos.CONTENT_URI,
+                NotePad.Todos.COLUMN_NAME_COMPLETED + " = 1", null));
+        cursor = mMockResolver.query(NotePad.Todos.CONTENT_URI, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        cursor = mMockResolver.query(NotePad.Todos.CONTENT_TRASH_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        // Only trash older than the retention period is purged.
+        mMockResolver.delete(NotePad.Notes.CONTENT_URI, null, null);
+        ContentValues expired = new ContentValues();
+        expired.put(NoteTrash.COLUMN_DELETED,
+                System.currentTimeMillis() - NoteTrash.RETENTION_MS - 1000);
+        mDb.update(NotePad.Notes.TABLE_NAME, expired, NotePad.Notes.COLUMN_NAME_TITLE + " = ?",
+                new String[] { TEST_NOTES[1].title });
+        mDb.update(NotePad.Todos.TABLE_NAME, expired, null, null);
+        assertTrue(runMaintenance(NotePad.MAINTENANCE_PURGE_TRASH));
+        assertTrue(runMaintenance(NotePad.MAINTENANCE_VACUUM));
+        assertEquals(TEST_NOTES.length - 2,
+                DatabaseUtils.queryNumEntries(mDb, NotePad.Notes.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDb, NotePad.Todos.TABLE_NAME));
+
+        // Purging leaves the database in incremental vacuum mode with no free pages.
+        assertEquals(NoteTrash.AUTO_VACUUM_INCREMENTAL,
+                DatabaseUtils.longForQuery(mDb, "PRAGMA auto_vacuum", null));
+        assertEquals(0, DatabaseUtils.longForQuery(mDb, "PRAGMA freelist_count", null));
+    }
+
+    /*
+     * Tests that maintenance runs every job that is due, records when and how each job ran, and
+     * does not run a job again before its interval has passed.
+     */
+    public void testMaintenance() {
+        insertData();
+        Bundle extras = new Bundle();
+        extras.putLong(NotePad.KEY_MAINTENANCE_BUDGET, 60 * 1000);
+        Bundle result = mMockResolver.call(NotePad.Notes.CONTENT_URI,
+                NotePad.METHOD_RUN_MAINTENANCE, null, extras);
+        assertTrue(result.getBoolean(NotePad.KEY_MAINTENANCE_DONE));
+
+        Bundle status = mMockResolver.call(NotePad.Notes.CONTENT_URI,
+                NotePad.METHOD_MAINTENANCE_STATUS, null, null);
+        String[] jobs = { NotePad.MAINTENANCE_PURGE_TRASH, NotePad.MAINTENANCE_VACUUM,
+                NotePad.MAINTENANCE_CHECKPOINT, NotePad.MAINTENANCE_ANALYZE,
+                NotePad.MAINTENANCE_INTEGRITY_CHECK };
+        long[] lastRuns = new long[jobs.length];
+        for (int i = 0; i < jobs.length; i++) {
+            Bundle job = status.getBundle(jobs[i]);
+            assertNotNull(jobs[i], job);
+            assertEquals(jobs[i], "ok", job.getString(NotePad.KEY_RESULT));
+            assertTrue(jobs[i], job.getLong(NotePad.KEY_LAST_RUN) > 0);
+            assertTrue(jobs[i], job.getLong(NotePad.KEY_DURATION) >= 0);
+            lastRuns[i] = job.getLong(NotePad.KEY_LAST_RUN);
+        }
+        // ANALYZE collected statistics for the query planner.
+        assertTrue(DatabaseUtils.queryNumEntries(mDb, "sqlite_stat1") > 0);
+
+        // Nothing is due right after a complete run.
+        assertTrue(mMockResolver.call(NotePad.Notes.CONTENT_URI,
+                NotePad.METHOD_RUN_MAINTENANCE, null, extras)
+                .getBoolean(NotePad.KEY_MAINTENANCE_DONE));
+        status = mMockResolver.call(NotePad.Notes.CONTENT_URI,
+                NotePad.METHOD_MAINTENANCE_STATUS, null, null);
+        for (int i = 0; i < jobs.length; i++) {
+            assertEquals(jobs[i], lastRuns[i],
+                    status.getBundle(jobs[i]).getLong(NotePad.KEY_LAST_RUN));
+        }
+
+        // An exhausted budget leaves the due jobs for the next slice.
+        mDb.delete("maintenance_log", null, null);
+        extras.putLong(NotePad.KEY_MAINTENANCE_BUDGET, 0);
+        assertFalse(mMockResolver.call(NotePad.Notes.CONTENT_URI,
+                NotePad.METHOD_RUN_MAINTENANCE, null, extras)
+                .getBoolean(NotePad.KEY_MAINTENANCE_DONE));
+
+        try {
+            runMaintenance("no_such_job");
+            fail("Expected an unknown maintenance job to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /*
+     * Tests that a database created without incremental vacuum is converted right away while
+     * it is small, and that a large one is only converted when the device is idle, since the
+     * full VACUUM can't be stopped when the time slice runs out.
+     */
+    public void testVacuumConversion() {
+        insertData();
+        mDb.execSQL("PRAGMA auto_vacuum = NONE");
+        mDb.execSQL("VACUUM");
+        assertFalse(NoteTrash.isIncrementalVacuum(mDb));
+        assertTrue(NoteTrash.databaseSize(mDb) <= NoteTrash.SMALL_DATABASE_BYTES);
+        assertTrue(runMaintenance(NotePad.MAINTENANCE_VACUUM));
+        assertTrue(NoteTrash.isIncrementalVacuum(mDb));
+
+        // Grow the database past the limit and convert it back.
+        mDb.execSQL("CREATE TABLE padding (data BLOB)");
+        ContentValues values = new ContentValues();
+        values.put("data", new byte[64 * 1024]);
+        while (NoteTrash.databaseSize(mDb) <= NoteTrash.SMALL_DATABASE_BYTES) {
+            mDb.insert("padding", null, values);
+        }
+        mDb.execSQL("PRAGMA auto_vacuum = NONE");
+        mDb.execSQL("VACUUM");
+        assertFalse(NoteTrash.isIncrementalVacuum(mDb));
+
+        assertTrue(runMaintenance(NotePad.MAINTENANCE_VACUUM));
+        assertFalse(NoteTrash.isIncrementalVacuum(mDb));
+        Bundle status = mMockResolver.call(NotePad.Notes.CONTENT_URI,
+                NotePad.METHOD_MAINTENANCE_STATUS, null, null);
+        assertEquals(NoteMaintenance.RESULT_DEFERRED,
+                status.getBundle(NotePad.MAINTENANCE_VACUUM).getString(NotePad.KEY_RESULT));
+
+        assertTrue(runMaintenance(NotePad.MAINTENANCE_VACUUM, true));
+        assertTrue(NoteTrash.isIncrementalVacuum(mDb));
+        mDb.execSQL("DROP TABLE padding");
+    }
+
+    // Runs a single maintenance job right away and returns whether it completed.
+    private boolean runMaintenance(String job) {
+        return runMaintenance(job, false);
+    }
+
+    private boolean runMaintenance(String job, boolean idle) {
+        Bundle extras = new Bundle();
+        extras.putBoolean(NotePad.KEY_MAINTENANCE_IDLE, idle);
+        extras.putString(NotePad.KEY_MAINTENANCE_JOB, job);
+        extras.putLong(NotePad.KEY_MAINTENANCE_BUDGET, 60 * 1000);
+        return mMockResolver.call(NotePad.Notes.CONTENT_URI, NotePad.METHOD_RUN_MAINTENANCE,
+                null, extras).getBoolean(NotePad.KEY_MAINTENANCE_DONE);
+    }
+
+    /*
+     * Tests the per-operation metrics and the slow query log.
+     */
+    public void testMetrics() throws IOException {
+        insertData();
+
+        Cursor cursor = mMockResolver.query(NotePad.Notes.CONTENT_URI, null, null, null, null);
+        int noteCount = cursor.getCount();
+        while (cursor.moveToNext()) {
+            cursor.getString(cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE));
+        }
+        cursor.close();
+
+        Uri noteUri = mMockResolver.insert(NotePad.Notes.CONTENT_URI,
+                new NoteInfo("Metrics", "Metered note").getContentValues());
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Metrics 2");
+        assertEquals(1, mMockResolver.update(noteUri, values, null, null));
+        assertEquals(1, mMockResolver.delete(noteUri, null, null));
+
+        Bundle metrics = mMockResolver.call(NotePad.Notes.CONTENT_URI, NotePad.METHOD_METRICS,
+                null, null);
+        assertNotNull(metrics.getLongArray(NotePad.KEY_HISTOGRAM_BOUNDS));
+
+        Bundle query = metrics.getBundle("query/NOTES");
+        assertNotNull(query);
+        assertEquals(1, query.getLong(NotePad.KEY_OPERATION_COUNT));
+        assertEquals(noteCount, query.getLong(NotePad.KEY_OPERATION_ROWS));
+        assertTrue(query.getLong(NotePad.KEY_OPERATION_BYTES) > 0);
+        assertTrue(query.getLong(NotePad.KEY_OPERATION_MAX_MICROS)
+                <= query.getLong(NotePad.KEY_OPERATION_TOTAL_MICROS));
+        long histogramTotal = 0;
+        for (long bucket : query.getLongArray(NotePad.KEY_OPERATION_HISTOGRAM)) {
+            histogramTotal += bucket;
+        }
+        assertEquals(1, histogramTotal);
+
+        assertEquals(1, metrics.getBundle("insert/NOTES").getLong(NotePad.KEY_OPERATION_ROWS));
+        assertEquals(1, metrics.getBundle("update/NOTE_ID").getLong(NotePad.KEY_OPERATION_ROWS));
+        assertEquals(1, metrics.getBundle("delete/NOTE_ID").getLong(NotePad.KEY_OPERATION_ROWS));
+        assertTrue(metrics.<Bundle>getParcelableArrayList(NotePad.KEY_SLOW_QUERIES).isEmpty());
+
+        // Opening a note as a text stream is counted as one openTypedAssetFile, not as a query.
+        cursor = mMockResolver.query(NotePad.Notes.CONTENT_URI,
+                new String[] { NotePad.Notes._ID }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        Uri streamUri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE,
+                cursor.getLong(0));
+        cursor.close();
+        AssetFileDescriptor stream = mMockResolver.openTypedAssetFileDescriptor(streamUri,
+                MIME_TYPE_TEXT, null);
+        stream.close();
+        metrics = mMockResolver.call(NotePad.Notes.CONTENT_URI, NotePad.METHOD_METRICS,
+                null, null);
+        assertNull(metrics.getBundle("query/NOTE_ID"));
+        assertEquals(1, metrics.getBundle("openTypedAssetFile/NOTE_ID")
+                .getLong(NotePad.KEY_OPERATION_COUNT));
+
+        // Every URI type is recorded under its own name, up to the last match code.
+        mMockResolver.query(ContentUris.withAppendedId(NotePad.Todos.CONTENT_TRASH_ID_URI_BASE,
+                1), null, null, null, null).close();
+        metrics = mMockResolver.call(NotePad.Notes.CONTENT_URI, NotePad.METHOD_METRICS,
+                null, null);
+        assertEquals(1, metrics.getBundle("query/TODO_TRASH_ID")
+                .getLong(NotePad.KEY_OPERATION_COUNT));
+
+        // With a zero threshold every query is logged together with its plan.
+        getProvider().getMetricsForTest().setSlowQueryThresholdForTest(0);
+        mMockResolver.query(NotePad.Notes.CONTENT_URI, null, null, null, null).close();
+        metrics = mMockResolver.call(NotePad.Notes.CONTENT_URI, NotePad.METHOD_METRICS,
+                null, null);
+        List<Bundle> slowQueries = metrics.getParcelableArrayList(NotePad.KEY_SLOW_QUERIES);
+        assertEquals(1, slowQueries.size());
+        Bundle slowQuery = slowQueries.get(0);
+        assertEquals("NOTES", slowQuery.getString(NotePad.KEY_SLOW_QUERY_URI_TYPE));
+        assertTrue(slowQuery.getString(NotePad.KEY_SLOW_QUERY_SQL)
+                .contains(NotePad.Notes.TABLE_NAME));
+        assertTrue(slowQuery.getString(NotePad.KEY_SLOW_QUERY_PLAN).length() > 0);
+    }
+
     /*
      * Tests updates to the data model.
      */
@@ -790,6 +1095,929 @@ public class NotePadProviderTest extends ProviderTestCase2<NotePadProvider> {
 
     }
 
+    /*
+     * Tests the batch entry points. bulkInsert() and applyBatch() run in a single transaction, so
+     * either every row is written or none is.
+     */
+    public void testBatchOperations() throws Exception {
+        // Subtest 1.
+        // Bulk inserts the test notes and checks that every row arrived.
+        ContentValues[] values = new ContentValues[TEST_NOTES.length];
+        for (int index = 0; index < TEST_NOTES.length; index++) {
+            values[index] = TEST_NOTES[index].getContentValues();
+        }
+        assertEquals(TEST_NOTES.length, mMockResolver.bulkInsert(NotePad.Notes.CONTENT_URI, values));
+
+        Cursor cursor = mMockResolver.query(NotePad.Notes.CONTENT_URI, null, null, null, null);
+        assertEquals(TEST_NOTES.length, cursor.getCount());
+
+        // Subtest 2.
+        // A batch that inserts a todo and then fails must roll back the todo as well.
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(NotePad.Todos.CONTENT_URI)
+                .withValue(NotePad.Todos.COLUMN_NAME_TITLE, "Todo0")
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(NotePad.Notes.CONTENT_URI)
+                .withValue(NotePad.Notes.COLUMN_NAME_NOTE, "updated")
+                .withExpectedCount(0)
+                .build());
+        try {
+            mMockResolver.applyBatch(NotePad.AUTHORITY, operations);
+            fail("Expected the batch to fail on the expected count check");
+        } catch (OperationApplicationException e) {
+            // continue
+        }
+        cursor = mMockResolver.query(NotePad.Todos.CONTENT_URI, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+
+        // Subtest 3.
+        // Without the failing operation the insert is committed.
+        operations.remove(1);
+        ContentProviderResult[] results = mMockResolver.applyBatch(NotePad.AUTHORITY, operations);
+        assertEquals(1, results.length);
+        assertNotNull(results[0].uri);
+        cursor = mMockResolver.query(NotePad.Todos.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+    }
+
+    /*
+     * Tests how pending change notifications are merged: each record is notified once with its net
+     * change type, and a table with too many changed records is notified as a whole.
+     */
+    public void testChangeSetCoalescing() {
+        final List<Uri> notified = new ArrayList<Uri>();
+        MockContentResolver resolver = new MockContentResolver() {
+            @Override
+            public void notifyChange(Uri uri, ContentObserver observer) {
+                notified.add(uri);
+            }
+        };
+
+        ChangeSet changes = new ChangeSet();
+        changes.addItem(NotePad.Notes.CONTENT_URI, 1, NotePad.CHANGE_INSERT);
+        changes.addItem(NotePad.Notes.CONTENT_URI, 1, NotePad.CHANGE_UPDATE);
+        changes.addItem(NotePad.Notes.CONTENT_URI, 2, NotePad.CHANGE_INSERT);
+        changes.addItem(NotePad.Notes.CONTENT_URI, 2, NotePad.CHANGE_DELETE);
+        changes.addItem(NotePad.Notes.CONTENT_URI, 3, NotePad.CHANGE_UPDATE);
+        changes.addItem(NotePad.Notes.CONTENT_URI, 3, NotePad.CHANGE_DELETE);
+        changes.addItem(NotePad.Notes.CONTENT_URI, 4, NotePad.CHANGE_UPDATE);
+        changes.addItem(NotePad.Notes.CONTENT_URI, 4, NotePad.CHANGE_UPDATE);
+        changes.addItem(NotePad.Todos.CONTENT_URI, 7, NotePad.CHANGE_UPDATE);
+        assertTrue(changes.contains(NotePad.Notes.CONTENT_URI));
+        changes.dispatch(resolver);
+
+        assertEquals(4, notified.size());
+        assertEquals(changeUri(NotePad.Notes.CONTENT_URI, 1, NotePad.CHANGE_INSERT), notified.get(0));
+        assertEquals(changeUri(NotePad.Notes.CONTENT_URI, 3, NotePad.CHANGE_DELETE), notified.get(1));
+        assertEquals(changeUri(NotePad.Notes.CONTENT_URI, 4, NotePad.CHANGE_UPDATE), notified.get(2));
+        assertEquals(changeUri(NotePad.Todos.CONTENT_URI, 7, NotePad.CHANGE_UPDATE), notified.get(3));
+        assertTrue(changes.isEmpty());
+
+        // Past the per-table limit the notes table is notified once, without a change type.
+        notified.clear();
+        for (int id = 1; id <= ChangeSet.MAX_ITEM_CHANGES + 1; id++) {
+            changes.addItem(NotePad.Notes.CONTENT_URI, id, NotePad.CHANGE_UPDATE);
+        }
+        changes.addItem(NotePad.Todos.CONTENT_URI, 7, NotePad.CHANGE_DELETE);
+        changes.dispatch(resolver);
+        assertEquals(2, notified.size());
+        assertEquals(NotePad.Notes.CONTENT_URI, notified.get(0));
+        assertEquals(changeUri(NotePad.Todos.CONTENT_URI, 7, NotePad.CHANGE_DELETE), notified.get(1));
+    }
+
+    private static Uri changeUri(Uri tableUri, long id, String change) {
+        return ContentUris.withAppendedId(tableUri, id).buildUpon()
+                .appendQueryParameter(NotePad.QUERY_PARAMETER_CHANGE, change)
+                .build();
+    }
+
+    /*
+     * Tests full-text search through the notes/search URI. The full-text index is maintained by
+     * triggers, so rows written straight into the database must be searchable as well.
+     */
+    public void testFullTextSearch() {
+        // Inserts the test data into the provider's underlying data source.
+        insertData();
+
+        // Builds a search URI that requires both "note" and "3" to appear as word prefixes.
+        Uri searchUri = NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, "note 3")
+                .build();
+
+        // The search URI returns a directory of notes.
+        assertEquals(NotePad.Notes.CONTENT_TYPE, mMockResolver.getType(searchUri));
+
+        Cursor cursor = mMockResolver.query(
+            searchUri,                                  // the search URI
+            new String[] { NotePad.Notes.COLUMN_NAME_TITLE },
+            null,                                       // the keyword is in the URI
+            null,
+            null                                        // default sort order
+        );
+
+        // Only "This is note 3" matches both terms.
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(TEST_NOTES[3].title, cursor.getString(0));
+
+        // Deleting the note must remove it from the search results too.
+        mMockResolver.delete(NotePad.Notes.CONTENT_URI,
+                NotePad.Notes.COLUMN_NAME_TITLE + " = ?", new String[] { TEST_NOTES[3].title });
+        cursor = mMockResolver.query(searchUri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+    }
+
+    /*
+     * Tests keyset paging on the notes list, on search results and on the todo list, including
+     * rows inserted without a paging time.
+     */
+    public void testPagedQueries() {
+        insertData();
+        String[] projection = new String[] {
+                NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE };
+
+        // Walking the notes list three rows at a time returns every note once, newest first.
+        List<Long> ids = readAllPages(NotePad.Notes.CONTENT_URI, projection, 3);
+        assertEquals(TEST_NOTES.length, ids.size());
+
+        // Search results continue after the key just like the list: the keyset condition is
+        // joined to the full-text condition.
+        Uri searchUri = NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, "note")
+                .build();
+        List<Long> found = readAllPages(searchUri, projection, 4);
+        assertEquals(ids, found);
+
+        // A note or todo inserted with a null paging time gets the current time and is paged.
+        ContentValues values = new ContentValues();
+        values.putNull(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        long noteId = ContentUris.parseId(mMockResolver.insert(NotePad.Notes.CONTENT_URI, values));
+        ids = readAllPages(NotePad.Notes.CONTENT_URI, projection, 3);
+        assertEquals(TEST_NOTES.length + 1, ids.size());
+        assertEquals(noteId, (long) ids.get(0));
+
+        values = new ContentValues();
+        values.putNull(NotePad.Todos.COLUMN_NAME_CREATE_DATE);
+        Uri todoUri = mMockResolver.insert(NotePad.Todos.CONTENT_URI, values);
+        ids = readAllPages(NotePad.Todos.CONTENT_URI, new String[] {
+                NotePad.Todos._ID, NotePad.Todos.COLUMN_NAME_CREATE_DATE }, 3);
+        assertEquals(1, ids.size());
+
+        // The paging time of a todo cannot be cleared.
+        try {
+            mMockResolver.update(todoUri, values, null, null);
+            fail("Cleared the paging time of " + todoUri);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    // Reads every page of a paged list URI, continuing after the last (time, _id) of each page.
+    private List<Long> readAllPages(Uri uri, String[] projection, int pageSize) {
+        List<Long> ids = new ArrayList<Long>();
+        String after = null;
+        while (true) {
+            Uri.Builder builder = uri.buildUpon()
+                    .appendQueryParameter(NotePad.QUERY_PARAMETER_LIMIT, String.valueOf(pageSize));
+            if (after != null) {
+                builder.appendQueryParameter(NotePad.QUERY_PARAMETER_AFTER, after);
+            }
+            Cursor cursor = mMockResolver.query(builder.build(), projection, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    assertFalse(ids.contains(cursor.getLong(0)));
+                    ids.add(cursor.getLong(0));
+                    after = cursor.getLong(1) + "," + cursor.getLong(0);
+                }
+                if (cursor.getCount() < pageSize) {
+                    return ids;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /*
+     * Tests that saving a note records delta-encoded revisions that can be listed, read back in
+     * full and restored, and that old revisions are pruned without breaking the delta chain.
+     */
+    public void testNoteRevisions() {
+        Uri noteUri = mMockResolver.insert(NotePad.Notes.CONTENT_URI, null);
+        long noteId = ContentUris.parseId(noteUri);
+        Uri revisionsUri = NotePad.NoteRevisions.buildRevisionsUri(noteId);
+        assertEquals(NotePad.NoteRevisions.CONTENT_TYPE, mMockResolver.getType(revisionsUri));
+
+        // Two saves in quick succession are merged into a single revision.
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, "first draft");
+        mMockResolver.update(noteUri, values, null, null);
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, "second draft");
+        mMockResolver.update(noteUri, values, null, null);
+        Cursor cursor = mMockResolver.query(revisionsUri, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        // Records a long note followed by small edits, spaced out beyond the merge window.
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("Line ").append(i).append('\n');
+        }
+        int saves = NoteRevisionStore.MAX_REVISIONS + NoteRevisionStore.SNAPSHOT_INTERVAL;
+        String[] versions = new String[saves];
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < saves; i++) {
+            text.insert(text.length() / 2, "edit " + i + "\n");
+            versions[i] = text.toString();
+            time += NoteRevisionStore.MERGE_WINDOW_MILLIS;
+            mDb.beginTransaction();
+            try {
+                NoteRevisionStore.record(mDb, noteId, "Title", versions[i], time);
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+        }
+
+        // Only the newest revisions are kept, newest first.
+        cursor = mMockResolver.query(revisionsUri,
+                new String[] { NotePad.NoteRevisions._ID, NotePad.NoteRevisions.COLUMN_NAME_LENGTH },
+                null, null, null);
+        assertEquals(NoteRevisionStore.MAX_REVISIONS, cursor.getCount());
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+            assertEquals(versions[saves - 1 - i].length(), cursor.getInt(1));
+        }
+        cursor.close();
+
+        // Every kept revision, including the oldest one, reads back in full.
+        for (int i = 0; i < ids.length; i++) {
+            Uri revisionUri = NotePad.NoteRevisions.buildRevisionUri(noteId, ids[i]);
+            cursor = mMockResolver.query(revisionUri,
+                    new String[] { NotePad.NoteRevisions.COLUMN_NAME_NOTE }, null, null, null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals(versions[saves - 1 - i], cursor.getString(0));
+            cursor.close();
+        }
+
+        // Most revisions are stored as deltas much smaller than the note itself.
+        cursor = mDb.rawQuery("SELECT COUNT(*), SUM(LENGTH(" + NoteRevisionStore.COLUMN_MIDDLE
+                + ")) FROM " + NotePad.NoteRevisions.TABLE_NAME + " WHERE "
+                + NoteRevisionStore.COLUMN_PREFIX + " IS NOT NULL", null);
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.getInt(0) > NoteRevisionStore.MAX_REVISIONS / 2);
+        assertTrue(cursor.getLong(1) < text.length());
+        cursor.close();
+
+        // Restoring the oldest kept revision puts its text back into the note.
+        Uri oldest = NotePad.NoteRevisions.buildRevisionUri(noteId, ids[ids.length - 1]);
+        assertEquals(1, mMockResolver.update(oldest, null, null, null));
+        cursor = mMockResolver.query(noteUri,
+                new String[] { NotePad.Notes.COLUMN_NAME_NOTE }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(versions[saves - NoteRevisionStore.MAX_REVISIONS], cursor.getString(0));
+        cursor.close();
+
+        // Deleting the note permanently deletes its revisions.
+        mMockResolver.delete(noteUri, null, null);
+        mMockResolver.delete(
+                ContentUris.withAppendedId(NotePad.Notes.CONTENT_TRASH_ID_URI_BASE, noteId),
+                null, null);
+        cursor = mMockResolver.query(revisionsUri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+     * Tests that a note larger than a CursorWindow (about 2 MB) can still be saved once it has
+     * revisions: large snapshots and deltas are stored in small compressed segments, and every
+     * revision reads back in full.
+     */
+    public void testLargeNoteRevisions() {
+        StringBuilder builder = new StringBuilder();
+        for (int line = 0; builder.length() < 3 * 1024 * 1024; line++) {
+            builder.append("Line ").append(line).append(" of a note larger than a window.\n");
+        }
+        String large = builder.toString();
+        int third = large.length() / 3;
+        String[] versions = {
+                large,
+                // A small edit, stored as a small delta.
+                large + "One more line.\n",
+                // A large edit, stored as a delta whose middle is segmented.
+                large.substring(0, third) + large.substring(third, 2 * third).toUpperCase()
+                        + large.substring(2 * third) + "One more line.\n",
+        };
+
+        Uri noteUri = mMockResolver.insert(NotePad.Notes.CONTENT_URI, null);
+        long noteId = ContentUris.parseId(noteUri);
+        long time = System.currentTimeMillis();
+        for (String version : versions) {
+            time += NoteRevisionStore.MERGE_WINDOW_MILLIS;
+            ContentValues values = new ContentValues();
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE, version);
+            values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, time);
+            assertEquals(1, mMockResolver.update(noteUri, values, null, null));
+        }
+
+        Uri revisionsUri = NotePad.NoteRevisions.buildRevisionsUri(noteId);
+        Cursor cursor = mMockResolver.query(revisionsUri,
+                new String[] { NotePad.NoteRevisions._ID }, null, null, null);
+        assertEquals(versions.length, cursor.getCount());
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(versions[versions.length - 1 - i], readRevision(noteId, ids[i]));
+        }
+
+        // No revision row holds a large value; the segments are small and compressed.
+        cursor = mDb.rawQuery("SELECT MAX(LENGTH(" + NoteRevisionStore.COLUMN_SNAPSHOT
+                + ")), MAX(LENGTH(" + NoteRevisionStore.COLUMN_MIDDLE + ")), SUM("
+                + NoteRevisionStore.COLUMN_SEGMENT_COUNT + ") FROM "
+                + NotePad.NoteRevisions.TABLE_NAME + " WHERE "
+                + NotePad.NoteRevisions.COLUMN_NAME_NOTE_ID + " = " + noteId, null);
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.getInt(0) < NoteRevisionStore.SEGMENTED_CHARS);
+        assertTrue(cursor.getInt(1) < NoteRevisionStore.SEGMENTED_CHARS);
+        assertTrue(cursor.getInt(2) > 1);
+        cursor.close();
+        cursor = mDb.rawQuery("SELECT MAX(LENGTH(text)), MAX(LENGTH(data)) FROM "
+                + NoteRevisionStore.SEGMENTS_TABLE_NAME, null);
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.getInt(0) < NoteRevisionStore.SEGMENTED_CHARS);
+        assertTrue(cursor.getInt(1) < NoteRevisionStore.SEGMENTED_CHARS);
+        cursor.close();
+
+        // Restoring the first revision saves the large note once more.
+        assertEquals(1, mMockResolver.update(
+                NotePad.NoteRevisions.buildRevisionUri(noteId, ids[ids.length - 1]),
+                null, null, null));
+        cursor = mMockResolver.query(revisionsUri,
+                new String[] { NotePad.NoteRevisions._ID }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(versions[0], readRevision(noteId, cursor.getLong(0)));
+        cursor.close();
+
+        // Deleting the note permanently deletes the segments of its revisions.
+        mMockResolver.delete(noteUri, null, null);
+        mMockResolver.delete(
+                ContentUris.withAppendedId(NotePad.Notes.CONTENT_TRASH_ID_URI_BASE, noteId),
+                null, null);
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDb,
+                NoteRevisionStore.SEGMENTS_TABLE_NAME));
+    }
+
+    private String readRevision(long noteId, long revisionId) {
+        Cursor cursor = mMockResolver.query(
+                NotePad.NoteRevisions.buildRevisionUri(noteId, revisionId),
+                new String[] { NotePad.NoteRevisions.COLUMN_NAME_NOTE }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * Tests that long note bodies are stored compressed and read back unchanged through the
+     * provider, while search, revisions and list queries keep working on the original text.
+     */
+    public void testNoteBodyCompression() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() <= NoteBodyCodec.COMPRESSION_THRESHOLD; i++) {
+            builder.append("Paragraph ").append(i).append(" of a long note.\n");
+        }
+        builder.append("zebra");
+        String longText = builder.toString();
+
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Long note");
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, longText);
+        Uri noteUri = mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+        long noteId = ContentUris.parseId(noteUri);
+
+        // The body is stored in the blob column only, and in far fewer bytes.
+        Cursor cursor = mDb.rawQuery("SELECT " + NotePad.Notes.COLUMN_NAME_NOTE + ", LENGTH("
+                + NoteBodyCodec.COLUMN_NOTE_BLOB + ") FROM " + NotePad.Notes.TABLE_NAME
+                + " WHERE " + NotePad.Notes._ID + " = " + noteId, null);
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.isNull(0));
+        assertTrue(cursor.getInt(1) < longText.length() / 2);
+        cursor.close();
+
+        // Reading the note returns the original text, without exposing the blob column.
+        cursor = mMockResolver.query(noteUri, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(-1, cursor.getColumnIndex(NoteBodyCodec.COLUMN_NOTE_BLOB));
+        assertEquals(longText,
+                cursor.getString(cursor.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_NOTE)));
+        cursor.close();
+
+        // The full-text index holds the original text.
+        Uri searchUri = NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, "zebra")
+                .build();
+        cursor = mMockResolver.query(searchUri,
+                new String[] { NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_NOTE }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(noteId, cursor.getLong(0));
+        assertEquals(longText, cursor.getString(1));
+        cursor.close();
+
+        // A title-only update keeps the indexed body.
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Renamed");
+        mMockResolver.update(noteUri, values, null, null);
+        cursor = mMockResolver.query(searchUri, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        // Saving the text through update() compresses it too, and the revision holds the original.
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, longText);
+        mMockResolver.update(noteUri, values, null, null);
+        cursor = mMockResolver.query(noteUri,
+                new String[] { NotePad.Notes.COLUMN_NAME_NOTE }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(longText, cursor.getString(0));
+        cursor.close();
+        cursor = mMockResolver.query(NotePad.NoteRevisions.buildRevisionsUri(noteId),
+                new String[] { NotePad.NoteRevisions.COLUMN_NAME_LENGTH }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(longText.length(), cursor.getInt(0));
+        cursor.close();
+
+        // Shortening the note stores it as text again and drops the blob.
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, "short");
+        mMockResolver.update(noteUri, values, null, null);
+        cursor = mDb.rawQuery("SELECT " + NotePad.Notes.COLUMN_NAME_NOTE + ", "
+                + NoteBodyCodec.COLUMN_NOTE_BLOB + " FROM " + NotePad.Notes.TABLE_NAME
+                + " WHERE " + NotePad.Notes._ID + " = " + noteId, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("short", cursor.getString(0));
+        assertTrue(cursor.isNull(1));
+        cursor.close();
+        cursor = mMockResolver.query(searchUri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        // Long notes written before compression existed are compressed by the migration.
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Old note");
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, longText);
+        long oldId = mDb.insert(NotePad.Notes.TABLE_NAME, null, values);
+        NoteBodyCodec.createMigrationQueue(mDb);
+        assertEquals(1, NoteBodyCodec.compressQueuedNotes(mDb));
+        assertEquals(0, NoteBodyCodec.compressQueuedNotes(mDb));
+        cursor = mMockResolver.query(
+                ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, oldId),
+                new String[] { NotePad.Notes.COLUMN_NAME_NOTE }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(longText, cursor.getString(0));
+        cursor.close();
+        cursor = mMockResolver.query(searchUri, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        // Clearing the body with an explicit null stores an empty note and clears the index.
+        Uri oldUri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, oldId);
+        values = new ContentValues();
+        values.putNull(NotePad.Notes.COLUMN_NAME_NOTE);
+        mMockResolver.update(oldUri, values, null, null);
+        cursor = mMockResolver.query(oldUri,
+                new String[] { NotePad.Notes.COLUMN_NAME_NOTE }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("", cursor.getString(0));
+        cursor.close();
+        cursor = mMockResolver.query(searchUri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+     * Tests that very long bodies are stored as chunks, that clients still read and search a normal
+     * note column, and that editing the middle of the note rewrites only the chunks around the edit.
+     */
+    public void testChunkedNoteStorage() {
+        String[] words = { "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf" };
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder();
+        for (int line = 0; builder.length() < 5 * NoteChunkStore.CHUNKED_NOTE_CHARS; line++) {
+            builder.append("Line ").append(line).append(':');
+            for (int i = 0; i < 8; i++) {
+                builder.append(' ').append(words[random.nextInt(words.length)]);
+            }
+            builder.append('\n');
+        }
+        String longText = builder.toString();
+
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, longText);
+        Uri noteUri = mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+        long noteId = ContentUris.parseId(noteUri);
+
+        // Neither the text column nor the blob column holds the body; the chunks do.
+        Cursor cursor = mDb.query(NotePad.Notes.TABLE_NAME, new String[] {
+                NotePad.Notes.COLUMN_NAME_NOTE, NoteBodyCodec.COLUMN_NOTE_BLOB,
+                NoteChunkStore.COLUMN_CHUNK_COUNT }, NotePad.Notes._ID + " = " + noteId,
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.isNull(0));
+        assertTrue(cursor.isNull(1));
+        int chunkCount = cursor.getInt(2);
+        assertTrue(chunkCount > 1);
+        cursor.close();
+        List<Long> chunkRows = queryChunkRows();
+        assertEquals(chunkCount, chunkRows.size());
+
+        cursor = mMockResolver.query(noteUri, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(-1, cursor.getColumnIndex(NoteChunkStore.COLUMN_CHUNKED_NOTE_ID));
+        assertEquals(longText,
+                cursor.getString(cursor.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_NOTE)));
+        cursor.close();
+
+        // Inserting a line in the middle rewrites only the chunk or two around it.
+        int middle = longText.indexOf('\n', longText.length() / 2) + 1;
+        String editedText = longText.substring(0, middle) + "A zebra line\n"
+                + longText.substring(middle);
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, editedText);
+        mMockResolver.update(noteUri, values, null, null);
+        List<Long> editedRows = queryChunkRows();
+        List<Long> rewrittenRows = new ArrayList<Long>(editedRows);
+        rewrittenRows.removeAll(chunkRows);
+        assertTrue(rewrittenRows.size() >= 1 && rewrittenRows.size() <= 2);
+        assertTrue(chunkRows.size() - (editedRows.size() - rewrittenRows.size()) <= 2);
+
+        cursor = mMockResolver.query(noteUri,
+                new String[] { NotePad.Notes.COLUMN_NAME_NOTE }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(editedText, cursor.getString(0));
+        cursor.close();
+
+        // Saving the same text again rewrites nothing.
+        mMockResolver.update(noteUri, values, null, null);
+        assertEquals(editedRows, queryChunkRows());
+
+        // The full-text index holds the edited text.
+        Uri searchUri = NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, "zebra")
+                .build();
+        cursor = mMockResolver.query(searchUri,
+                new String[] { NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_NOTE }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(noteId, cursor.getLong(0));
+        assertEquals(editedText, cursor.getString(1));
+        cursor.close();
+
+        // Shortening the note stores it as text again and drops the chunks.
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, "short");
+        mMockResolver.update(noteUri, values, null, null);
+        assertTrue(queryChunkRows().isEmpty());
+        cursor = mMockResolver.query(noteUri,
+                new String[] { NotePad.Notes.COLUMN_NAME_NOTE }, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("short", cursor.getString(0));
+        cursor.close();
+
+        // Permanently deleting a chunked note deletes its chunks; the trash keeps them.
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, longText);
+        mMockResolver.update(noteUri, values, null, null);
+        assertFalse(queryChunkRows().isEmpty());
+        mMockResolver.delete(noteUri, null, null);
+        assertFalse(queryChunkRows().isEmpty());
+        mMockResolver.delete(
+                ContentUris.withAppendedId(NotePad.Notes.CONTENT_TRASH_ID_URI_BASE, noteId),
+                null, null);
+        assertTrue(queryChunkRows().isEmpty());
+    }
+
+    /*
+     * Tests reading and writing note bodies through the body stream for each way a body can be
+     * stored, and that a write which ends early leaves the note unchanged.
+     */
+    public void testNoteBodyStream() throws Exception {
+        assertEquals(MIME_TYPE_TEXT, mMockResolver.getType(NotePad.Notes.buildBodyUri(1)));
+
+        // A body stored as text, longer than one read segment and with characters outside the BMP.
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < 20000; i++) {
+            builder.append("Line ").append(i).append(" \u7b14\u8bb0 \ud83d\udcdd\n");
+        }
+        String plainText = builder.toString();
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Streamed");
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, plainText);
+        long noteId = mDb.insertOrThrow(NotePad.Notes.TABLE_NAME, null, values);
+        Uri noteUri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, noteId);
+        assertEquals(plainText, NoteBodyStream.read(mMockResolver, noteUri));
+
+        // A long body written through the stream is saved in chunks and recorded as a revision.
+        Random random = new Random(7);
+        builder = new StringBuilder();
+        while (builder.length() < 3 * NoteChunkStore.CHUNKED_NOTE_CHARS) {
+            builder.append(Long.toString(random.nextLong(), 36))
+                    .append(random.nextInt(8) == 0 ? '\n' : ' ');
+        }
+        String longText = builder.toString();
+        NoteBodyStream.write(mMockResolver, noteUri, longText);
+        getProvider().waitForBodyWritesForTest();
+        Cursor cursor = mDb.query(NotePad.Notes.TABLE_NAME,
+                new String[] { NoteChunkStore.COLUMN_CHUNK_COUNT },
+                NotePad.Notes._ID + " = " + noteId, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertTrue(cursor.getInt(0) > 1);
+        cursor.close();
+        assertEquals(longText, NoteBodyStream.read(mMockResolver, noteUri));
+        cursor = mMockResolver.query(NotePad.NoteRevisions.buildRevisionsUri(noteId),
+                null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+
+        // A compressible body is stored compressed and streamed back while being decompressed.
+        builder = new StringBuilder();
+        for (int i = 0; builder.length() <= NoteBodyCodec.COMPRESSION_THRESHOLD * 2; i++) {
+            builder.append("Paragraph ").append(i).append(" of a streamed note.\n");
+        }
+        String compressedText = builder.toString();
+        NoteBodyStream.write(mMockResolver, noteUri, compressedText);
+        getProvider().waitForBodyWritesForTest();
+        cursor = mDb.query(NotePad.Notes.TABLE_NAME,
+                new String[] { NoteBodyCodec.COLUMN_NOTE_BLOB },
+                NotePad.Notes._ID + " = " + noteId, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertFalse(cursor.isNull(0));
+        cursor.close();
+        assertEquals(compressedText, NoteBodyStream.read(mMockResolver, noteUri));
+
+        // A write that delivers fewer characters than it declared is discarded.
+        Uri bodyUri = NotePad.Notes.buildBodyUri(noteId).buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_LENGTH,
+                        String.valueOf(longText.length()))
+                .build();
+        OutputStream out = mMockResolver.openOutputStream(bodyUri);
+        out.write("truncated".getBytes("UTF-8"));
+        out.close();
+        getProvider().waitForBodyWritesForTest();
+        assertEquals(compressedText, NoteBodyStream.read(mMockResolver, noteUri));
+
+        // A title written with the body is saved in the same update; a discarded write keeps
+        // the old title as well as the old body.
+        bodyUri = bodyUri.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_TITLE, "Discarded")
+                .build();
+        out = mMockResolver.openOutputStream(bodyUri);
+        out.write("truncated".getBytes("UTF-8"));
+        out.close();
+        NoteBodyStream.write(mMockResolver, noteUri, plainText, "Retitled");
+        getProvider().waitForBodyWritesForTest();
+        assertEquals(plainText, NoteBodyStream.read(mMockResolver, noteUri));
+        cursor = mMockResolver.query(noteUri, new String[] { NotePad.Notes.COLUMN_NAME_TITLE },
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Retitled", cursor.getString(0));
+        cursor.close();
+
+        // Reading the body of a note that doesn't exist fails.
+        try {
+            NoteBodyStream.read(mMockResolver,
+                    ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, noteId + 1));
+            fail();
+        } catch (FileNotFoundException e) {
+            // continue
+        }
+    }
+
+    /**
+     * Returns the row ids of all stored note chunks, in order.
+     */
+    private List<Long> queryChunkRows() {
+        List<Long> rows = new ArrayList<Long>();
+        Cursor cursor = mDb.rawQuery("SELECT rowid FROM " + NoteChunkStore.TABLE_NAME
+                + " ORDER BY rowid", null);
+        while (cursor.moveToNext()) {
+            rows.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return rows;
+    }
+
+    /*
+     * Tests that the provider maintains the preview, character count and line count columns on
+     * insert and update, for both short and compressed bodies, and ignores values written to them.
+     */
+    public void testDerivedNoteColumns() {
+        String[] projection = new String[] { NotePad.Notes.COLUMN_NAME_PREVIEW,
+                NotePad.Notes.COLUMN_NAME_CHAR_COUNT, NotePad.Notes.COLUMN_NAME_LINE_COUNT };
+
+        // A new note without a body has an empty preview and no lines.
+        Uri noteUri = mMockResolver.insert(NotePad.Notes.CONTENT_URI, null);
+        Cursor cursor = mMockResolver.query(noteUri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("", cursor.getString(0));
+        assertEquals(0, cursor.getInt(1));
+        assertEquals(0, cursor.getInt(2));
+        cursor.close();
+
+        // Line breaks become spaces in the preview; values passed for the columns are ignored.
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, "first line\nsecond line\n");
+        values.put(NotePad.Notes.COLUMN_NAME_CHAR_COUNT, 999);
+        mMockResolver.update(noteUri, values, null, null);
+        cursor = mMockResolver.query(noteUri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("first line second line ", cursor.getString(0));
+        assertEquals(23, cursor.getInt(1));
+        assertEquals(3, cursor.getInt(2));
+        cursor.close();
+
+        // A long, compressed body gets a preview of the first characters only.
+        StringBuilder text = new StringBuilder();
+        int lines = 0;
+        while (text.length() <= NoteBodyCodec.COMPRESSION_THRESHOLD) {
+            text.append("Line number ").append(lines++).append('\n');
+        }
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, text.toString());
+        Uri longUri = mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+        cursor = mMockResolver.query(longUri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(text.substring(0, NotePad.Notes.PREVIEW_LENGTH).replace('\n', ' '),
+                cursor.getString(0));
+        assertEquals(text.length(), cursor.getInt(1));
+        assertEquals(lines + 1, cursor.getInt(2));
+        cursor.close();
+
+        // The upgrade backfill computes the same values for text and compressed bodies.
+        mDb.execSQL("UPDATE " + NotePad.Notes.TABLE_NAME + " SET "
+                + NotePad.Notes.COLUMN_NAME_PREVIEW + " = NULL, "
+                + NotePad.Notes.COLUMN_NAME_CHAR_COUNT + " = NULL, "
+                + NotePad.Notes.COLUMN_NAME_LINE_COUNT + " = NULL");
+        NoteSummary.backfill(mDb);
+        // The columns were changed behind the provider's back, so drop its cached rows.
+        getProvider().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        cursor = mMockResolver.query(noteUri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("first line second line ", cursor.getString(0));
+        assertEquals(23, cursor.getInt(1));
+        assertEquals(3, cursor.getInt(2));
+        cursor.close();
+        cursor = mMockResolver.query(longUri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(text.length(), cursor.getInt(1));
+        assertEquals(lines + 1, cursor.getInt(2));
+        cursor.close();
+    }
+
+    /*
+     * Tests that single-note reads are served from the provider's cache, and that updates and
+     * deletes invalidate the cached note.
+     */
+    public void testNoteCache() {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Cached");
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, "cached body");
+        Uri noteUri = mMockResolver.insert(NotePad.Notes.CONTENT_URI, values);
+        String[] projection = new String[] {
+                NotePad.Notes.COLUMN_NAME_TITLE, NotePad.Notes.COLUMN_NAME_NOTE };
+
+        // The first read misses, the second one hits.
+        Bundle before = mMockResolver.call(NotePad.Notes.CONTENT_URI,
+                NotePad.METHOD_CACHE_STATS, null, null);
+        assertNoteEquals(noteUri, projection, "Cached", "cached body");
+        assertNoteEquals(noteUri, projection, "Cached", "cached body");
+        Bundle after = mMockResolver.call(NotePad.Notes.CONTENT_URI,
+                NotePad.METHOD_CACHE_STATS, null, null);
+        assertEquals(1, after.getInt(NotePad.KEY_CACHE_MISSES)
+                - before.getInt(NotePad.KEY_CACHE_MISSES));
+        assertEquals(1, after.getInt(NotePad.KEY_CACHE_HITS)
+                - before.getInt(NotePad.KEY_CACHE_HITS));
+        assertTrue(after.getInt(NotePad.KEY_CACHE_SIZE) > 0);
+
+        // A cached read returns the same columns as a read from the database.
+        Cursor cursor = mMockResolver.query(noteUri, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(ContentUris.parseId(noteUri),
+                cursor.getLong(cursor.getColumnIndexOrThrow(NotePad.Notes._ID)));
+        assertEquals(11, cursor.getInt(
+                cursor.getColumnIndexOrThrow(NotePad.Notes.COLUMN_NAME_CHAR_COUNT)));
+        cursor.close();
+
+        // Updates through the note URI and through the notes URI are both visible.
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, "edited body");
+        mMockResolver.update(noteUri, values, null, null);
+        assertNoteEquals(noteUri, projection, "Cached", "edited body");
+        values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, "Renamed");
+        mMockResolver.update(NotePad.Notes.CONTENT_URI, values, null, null);
+        assertNoteEquals(noteUri, projection, "Renamed", "edited body");
+
+        // Trimming memory empties the cache.
+        getProvider().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        after = mMockResolver.call(NotePad.Notes.CONTENT_URI, NotePad.METHOD_CACHE_STATS,
+                null, null);
+        assertEquals(0, after.getInt(NotePad.KEY_CACHE_SIZE));
+
+        // A deleted note is not served from the cache.
+        assertNoteEquals(noteUri, projection, "Renamed", "edited body");
+        mMockResolver.delete(noteUri, null, null);
+        cursor = mMockResolver.query(noteUri, projection, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    // Reads a note through the provider and checks its title and body.
+    private void assertNoteEquals(Uri noteUri, String[] projection, String title, String note) {
+        Cursor cursor = mMockResolver.query(noteUri, projection, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(title, cursor.getString(0));
+            assertEquals(note, cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * Tests that the list and filter access paths are served by indexes. The query plans for the
+     * default list orders must not build a temporary B-tree to sort, and the todo filters must
+     * search an index instead of scanning the table.
+     */
+    public void testQueryPlansUseIndexes() {
+        // The notes list: _id, title and modification date, newest first.
+        String notesList = SQLiteQueryBuilder.buildQueryString(false, NotePad.Notes.TABLE_NAME,
+                new String[] { NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_TITLE,
+                        NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE },
+                NoteTrash.LIVE, null, null, NotePad.Notes.DEFAULT_SORT_ORDER, null);
+        String plan = explainQueryPlan(notesList, null);
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+        assertTrue(plan, plan.contains("notes_modified_index"));
+
+        // A notes list with previews reads only the index, never the table rows with the bodies.
+        String previewList = SQLiteQueryBuilder.buildQueryString(false, NotePad.Notes.TABLE_NAME,
+                new String[] { NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_TITLE,
+                        NotePad.Notes.COLUMN_NAME_PREVIEW, NotePad.Notes.COLUMN_NAME_CHAR_COUNT,
+                        NotePad.Notes.COLUMN_NAME_LINE_COUNT },
+                NoteTrash.LIVE, null, null, NotePad.Notes.DEFAULT_SORT_ORDER, null);
+        plan = explainQueryPlan(previewList, null);
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+        assertTrue(plan, plan.contains("COVERING INDEX notes_modified_index"));
+
+        // The todo list: _id, title, completed flag and due date, newest first.
+        String todosList = SQLiteQueryBuilder.buildQueryString(false, NotePad.Todos.TABLE_NAME,
+                new String[] { NotePad.Todos._ID, NotePad.Todos.COLUMN_NAME_TITLE,
+                        NotePad.Todos.COLUMN_NAME_COMPLETED, NotePad.Todos.COLUMN_NAME_DUE_DATE },
+                NoteTrash.LIVE, null, null, NotePad.Todos.DEFAULT_SORT_ORDER, null);
+        plan = explainQueryPlan(todosList, null);
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+        assertTrue(plan, plan.contains("todos_created_index"));
+
+        // The notes trash, most recently deleted first.
+        String trashList = SQLiteQueryBuilder.buildQueryString(false, NotePad.Notes.TABLE_NAME,
+                new String[] { NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_TITLE },
+                NoteTrash.TRASHED, null, null, NotePad.Notes.TRASH_SORT_ORDER, null);
+        plan = explainQueryPlan(trashList, null);
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+        assertTrue(plan, plan.contains("notes_modified_index"));
+
+        // "Clear completed" in the todo list moves the completed todos to the trash.
+        plan = explainQueryPlan("UPDATE " + NotePad.Todos.TABLE_NAME + " SET "
+                + NotePad.Todos.COLUMN_NAME_DELETED + " = 1 WHERE " + NoteTrash.LIVE + " AND ("
+                + NotePad.Todos.COLUMN_NAME_COMPLETED + " = 1)", null);
+        assertTrue(plan, plan.contains("todos_completed_index"));
+
+        // Todos due before a given time.
+        plan = explainQueryPlan("SELECT " + NotePad.Todos._ID + " FROM " + NotePad.Todos.TABLE_NAME
+                + " WHERE " + NotePad.Todos.COLUMN_NAME_DUE_DATE + " < ?",
+                new String[] { String.valueOf(START_DATE) });
+        assertTrue(plan, plan.contains("todos_due_date_index"));
+    }
+
+    // Returns the "detail" column of every step of the statement's query plan, one per line.
+    private String explainQueryPlan(String sql, String[] selectionArgs) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        StringBuilder plan = new StringBuilder();
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailIndex)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
     // A utility for converting note data to a ContentValues map.
     private static class NoteInfo {
         String title;
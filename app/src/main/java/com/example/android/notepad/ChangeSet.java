@@ -0,0 +1,112 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 等待通知的数据变化，供 {@link NotePadProvider} 合并一个事务或一小段时间内的写入。
+ *
+ * 按表记录每条记录的变化类型，同一条记录的多次变化合并为一次：插入后更新仍是插入，
+ * 插入后删除相互抵消，更新后删除是删除。某个表变化的记录超过 {@link #MAX_ITEM_CHANGES} 条，
+ * 或有无法确定具体记录的变化时，这个表改为整表通知。
+ * 通知URI的格式见 {@link NotePad#QUERY_PARAMETER_CHANGE}。不是线程安全的。
+ */
+final class ChangeSet {
+
+    /** 每个表最多逐条通知的记录数 */
+    static final int MAX_ITEM_CHANGES = 50;
+
+    // 表的目录URI -> (记录ID -> 变化类型)；值为null表示整表变化
+    private final LinkedHashMap<Uri, LinkedHashMap<Long, String>> mChanges =
+            new LinkedHashMap<Uri, LinkedHashMap<Long, String>>();
+
+    /**
+     * 记录一条记录的变化
+     * @param tableUri 表的目录URI
+     * @param change 变化类型，见 {@link NotePad#CHANGE_INSERT} 等常量
+     */
+    void addItem(Uri tableUri, long id, String change) {
+        LinkedHashMap<Long, String> items = mChanges.get(tableUri);
+        if (items == null) {
+            if (mChanges.containsKey(tableUri)) {
+                return;
+            }
+            items = new LinkedHashMap<Long, String>();
+            mChanges.put(tableUri, items);
+        }
+
+        String previous = items.get(id);
+        if (NotePad.CHANGE_INSERT.equals(previous)) {
+            if (NotePad.CHANGE_DELETE.equals(change)) {
+                items.remove(id);
+            }
+            return;
+        }
+        items.put(id, previous != null && NotePad.CHANGE_DELETE.equals(previous)
+                ? NotePad.CHANGE_UPDATE : change);
+        if (items.size() > MAX_ITEM_CHANGES) {
+            mChanges.put(tableUri, null);
+        }
+    }
+
+    /**
+     * 记录整表的变化（例如影响行数很多或无法确定具体记录的写入）
+     */
+    void addTable(Uri tableUri) {
+        mChanges.put(tableUri, null);
+    }
+
+    /**
+     * 合并另一组变化
+     */
+    void addAll(ChangeSet other) {
+        for (Map.Entry<Uri, LinkedHashMap<Long, String>> entry : other.mChanges.entrySet()) {
+            if (entry.getValue() == null) {
+                addTable(entry.getKey());
+                continue;
+            }
+            for (Map.Entry<Long, String> item : entry.getValue().entrySet()) {
+                addItem(entry.getKey(), item.getKey(), item.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return 这个表是否有变化
+     */
+    boolean contains(Uri tableUri) {
+        return mChanges.containsKey(tableUri);
+    }
+
+    boolean isEmpty() {
+        return mChanges.isEmpty();
+    }
+
+    void clear() {
+        mChanges.clear();
+    }
+
+    /**
+     * 发出所有通知并清空
+     */
+    void dispatch(ContentResolver resolver) {
+        for (Map.Entry<Uri, LinkedHashMap<Long, String>> entry : mChanges.entrySet()) {
+            Uri tableUri = entry.getKey();
+            if (entry.getValue() == null) {
+                resolver.notifyChange(tableUri, null);
+                continue;
+            }
+            for (Map.Entry<Long, String> item : entry.getValue().entrySet()) {
+                resolver.notifyChange(ContentUris.withAppendedId(tableUri, item.getKey())
+                        .buildUpon()
+                        .appendQueryParameter(NotePad.QUERY_PARAMETER_CHANGE, item.getValue())
+                        .build(), null);
+            }
+        }
+        clear();
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.notepad;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * 在读取时还原笔记内容的游标。
+ *
+ * 被包装的游标在调用方请求的列之后多查询了两列：{@link NoteBodyCodec#COLUMN_NOTE_BLOB} 和
+ * {@link NoteChunkStore#COLUMN_CHUNKED_NOTE_ID}。这两列对调用方不可见；读取内容列时，
+ * 如果该行的内容是压缩存储的，就从压缩列解压出来，如果是分块存储的，就从分块表读取并拼接。
+ * 只在读取到内容列时才还原，并缓存当前行的结果。
+ */
+class CompressedNoteCursor extends CursorWrapper {
+    private final SQLiteDatabase mDb;
+    private final String[] mColumnNames;
+    private final int mNoteColumn;
+    private final int mBlobColumn;
+    private final int mChunkedIdColumn;
+
+    private int mDecodedPosition = -1;
+    private String mDecoded;
+
+    /**
+     * @param db 读取分块使用的数据库
+     * @param cursor 最后两列为压缩内容列和分块笔记ID列的游标
+     */
+    CompressedNoteCursor(SQLiteDatabase db, Cursor cursor) {
+        super(cursor);
+        mDb = db;
+        String[] names = cursor.getColumnNames();
+        mChunkedIdColumn = names.length - 1;
+        mBlobColumn = names.length - 2;
+        mColumnNames = new String[mBlobColumn];
+        System.arraycopy(names, 0, mColumnNames, 0, mBlobColumn);
+        int noteColumn = -1;
+        for (int i = 0; i < mBlobColumn; i++) {
+            if (NotePad.Notes.COLUMN_NAME_NOTE.equals(mColumnNames[i])) {
+                noteColumn = i;
+                break;
+            }
+        }
+        mNoteColumn = noteColumn;
+    }
+
+    private String getNote() {
+        int position = getPosition();
+        if (position != mDecodedPosition) {
+            Cursor cursor = getWrappedCursor();
+            if (!cursor.isNull(mNoteColumn)) {
+                mDecoded = cursor.getString(mNoteColumn);
+            } else if (!cursor.isNull(mBlobColumn)) {
+                mDecoded = NoteBodyCodec.decompress(cursor.getBlob(mBlobColumn));
+            } else if (!cursor.isNull(mChunkedIdColumn)) {
+                mDecoded = NoteChunkStore.read(mDb, cursor.getLong(mChunkedIdColumn));
+            } else {
+                mDecoded = null;
+            }
+            mDecodedPosition = position;
+        }
+        return mDecoded;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return mColumnNames.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames.clone();
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return mColumnNames[columnIndex];
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        int index = super.getColumnIndex(columnName);
+        return index >= mBlobColumn ? -1 : index;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        int index = getColumnIndex(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+        return index;
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return columnIndex == mNoteColumn ? getNote() : super.getString(columnIndex);
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        if (columnIndex != mNoteColumn) {
+            return super.getBlob(columnIndex);
+        }
+        String note = getNote();
+        try {
+            return note == null ? null : note.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+        if (columnIndex != mNoteColumn) {
+            super.copyStringToBuffer(columnIndex, buffer);
+            return;
+        }
+        String note = getNote();
+        if (note == null) {
+            buffer.sizeCopied = 0;
+            return;
+        }
+        if (buffer.data == null || buffer.data.length < note.length()) {
+            buffer.data = note.toCharArray();
+        } else {
+            note.getChars(0, note.length(), buffer.data, 0);
+        }
+        buffer.sizeCopied = note.length();
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return columnIndex == mNoteColumn ? getNote() == null : super.isNull(columnIndex);
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        if (columnIndex == mNoteColumn) {
+            return getNote() == null ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+        }
+        return super.getType(columnIndex);
+    }
+
+    @Override
+    public boolean requery() {
+        mDecodedPosition = -1;
+        mDecoded = null;
+        return super.requery();
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.notepad;
+
+/**
+ * 大笔记窗口之外的内容，供 {@link LargeNoteWindow} 使用，不依赖编辑框。
+ *
+ * 窗口之前的内容保存在 mHead 中，之后的内容倒序保存在 mTailReversed 中，
+ * 这样换入换出都只在两个缓冲区的末尾追加或截断，开销与笔记总长度无关。
+ * 只有取得完整内容（保存时）才需要拼接整篇笔记。
+ */
+final class LargeNoteBuffer {
+
+    // 窗口之前的内容，除非遇到很长的段落，总是以完整的行结束
+    private final StringBuilder mHead = new StringBuilder();
+
+    // 窗口之后的内容，倒序存放：最后一个字符是紧接窗口的第一个字符
+    private final StringBuilder mTailReversed = new StringBuilder();
+
+    /**
+     * 清空缓冲区，把整篇笔记放在窗口之后
+     */
+    void load(CharSequence note) {
+        mHead.setLength(0);
+        mTailReversed.setLength(0);
+        appendReversed(mTailReversed, note, 0, note.length());
+    }
+
+    boolean hasHead() {
+        return mHead.length() > 0;
+    }
+
+    boolean hasTail() {
+        return mTailReversed.length() > 0;
+    }
+
+    /**
+     * @return 笔记的完整内容：窗口之前的内容、窗口和窗口之后的内容
+     */
+    String getText(CharSequence window) {
+        StringBuilder text = new StringBuilder(
+                mHead.length() + window.length() + mTailReversed.length());
+        text.append(mHead).append(window);
+        for (int i = mTailReversed.length() - 1; i >= 0; i--) {
+            text.append(mTailReversed.charAt(i));
+        }
+        return text.toString();
+    }
+
+    /**
+     * 取出紧接窗口之后的最多 maxLines 行（或大约 maxChars 个字符）
+     */
+    String takeFromTail(int maxLines, int maxChars) {
+        int end = mTailReversed.length();
+        int stop = end;
+        int lines = 0;
+        while (stop > 0 && lines < maxLines && end - stop < maxChars) {
+            if (mTailReversed.charAt(--stop) == '\n') {
+                lines++;
+            }
+        }
+        // 不要把代理对拆开：取出的最后一个字符是高代理时连同低代理一起取出
+        if (stop > 0 && Character.isHighSurrogate(mTailReversed.charAt(stop))) {
+            stop--;
+        }
+        StringBuilder taken = new StringBuilder(end - stop);
+        for (int i = end - 1; i >= stop; i--) {
+            taken.append(mTailReversed.charAt(i));
+        }
+        mTailReversed.setLength(stop);
+        return taken.toString();
+    }
+
+    /**
+     * 取出紧接窗口之前的最多 maxLines 行（或大约 maxChars 个字符），从一行的开头开始
+     */
+    String takeFromHead(int maxLines, int maxChars) {
+        int end = mHead.length();
+        int start = end;
+        int lines = 0;
+        while (start > 0 && end - start < maxChars) {
+            // mHead 以换行结束，遇到再前一行的换行时停在它之后，取出的内容从一行的开头开始
+            if (mHead.charAt(start - 1) == '\n' && start < end && ++lines >= maxLines) {
+                break;
+            }
+            start--;
+        }
+        if (start > 0 && start < end && Character.isLowSurrogate(mHead.charAt(start))) {
+            start--;
+        }
+        String taken = mHead.substring(start);
+        mHead.setLength(start);
+        return taken;
+    }
+
+    /**
+     * 把窗口开头移出的内容放回窗口之前
+     */
+    void putHead(CharSequence text, int start, int end) {
+        mHead.append(text, start, end);
+    }
+
+    /**
+     * 把窗口末尾移出的内容放回窗口之后
+     */
+    void putTail(CharSequence text, int start, int end) {
+        appendReversed(mTailReversed, text, start, end);
+    }
+
+    private static void appendReversed(StringBuilder out, CharSequence text, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            out.append(text.charAt(i));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.android.notepad;
+
+import android.text.Editable;
+import android.text.Layout;
+import android.view.ViewTreeObserver;
+import android.widget.EditText;
+
+/**
+ * 大笔记的编辑模式，供 {@link NoteEditor} 使用。
+ *
+ * 编辑框只放入笔记的一个窗口（最多 {@link #WINDOW_LINES} 行），排版和绘制的开销只与窗口大小有关。
+ * 滚动接近窗口边缘时，从另一端移出 {@link #SHIFT_LINES} 行，并从相邻内容中换入同样多的行，
+ * 同时调整滚动位置，屏幕上的内容保持不动；窗口内已排好的行不会重新排版。
+ * 窗口之外的内容保存在 {@link LargeNoteBuffer} 中。
+ */
+final class LargeNoteWindow implements ViewTreeObserver.OnScrollChangedListener {
+
+    /** 内容达到这么多字符的笔记使用大笔记模式 */
+    static final int LARGE_NOTE_CHARS = 256 * 1024;
+
+    /** 窗口的最大行数 */
+    private static final int WINDOW_LINES = 1500;
+
+    /** 每次换入换出的行数 */
+    private static final int SHIFT_LINES = 500;
+
+    /** 每次换入的最大字符数，避免很长的行使窗口过大 */
+    private static final int SHIFT_CHARS = 32 * 1024;
+
+    private final EditText mText;
+
+    // 窗口之前和之后的内容
+    private final LargeNoteBuffer mBuffer = new LargeNoteBuffer();
+
+    // 正在换入换出窗口内容，此时编辑框的文本变化不是用户的编辑
+    private boolean mShifting;
+
+    LargeNoteWindow(EditText text) {
+        mText = text;
+    }
+
+    /**
+     * 载入笔记内容，显示开头的窗口
+     */
+    void load(String note) {
+        mBuffer.load(note);
+
+        StringBuilder window = new StringBuilder();
+        for (int i = 0; i < WINDOW_LINES / SHIFT_LINES && mBuffer.hasTail(); i++) {
+            window.append(mBuffer.takeFromTail(SHIFT_LINES, SHIFT_CHARS));
+        }
+        mShifting = true;
+        try {
+            mText.setText(window);
+            mText.setSelection(0);
+        } finally {
+            mShifting = false;
+        }
+    }
+
+    /**
+     * @return 是否正在换入换出窗口内容（编辑框的文本变化应忽略）
+     */
+    boolean isShifting() {
+        return mShifting;
+    }
+
+    /**
+     * @return 笔记的完整内容：窗口之前的内容、编辑框中的窗口和窗口之后的内容
+     */
+    String getText() {
+        return mBuffer.getText(mText.getText());
+    }
+
+    /**
+     * 编辑框滚动时检查是否接近窗口边缘，距边缘不足一屏时换入相邻的内容
+     */
+    @Override
+    public void onScrollChanged() {
+        Layout layout = mText.getLayout();
+        if (layout == null || mShifting) {
+            return;
+        }
+        int scrollY = mText.getScrollY();
+        int height = mText.getHeight();
+        if (mBuffer.hasTail() && scrollY + 2 * height > layout.getHeight()) {
+            shiftForward(layout);
+        } else if (mBuffer.hasHead() && scrollY < height) {
+            shiftBackward(layout);
+        }
+    }
+
+    /**
+     * 窗口向后移动：开头的行移到窗口之前，末尾接上后面的内容
+     */
+    private void shiftForward(Layout layout) {
+        Editable window = mText.getText();
+        String added = mBuffer.takeFromTail(SHIFT_LINES, SHIFT_CHARS);
+
+        // 窗口达到最大行数时才移出开头的行
+        int cut = 0;
+        if (layout.getLineCount() >= WINDOW_LINES) {
+            cut = paragraphStartAtOrBefore(window,
+                    layout.getLineStart(Math.min(SHIFT_LINES, layout.getLineCount() - 1)));
+        }
+        int removedHeight = layout.getLineTop(layout.getLineForOffset(cut));
+        boolean selectionRemoved = mText.getSelectionStart() < cut;
+
+        mShifting = true;
+        try {
+            window.append(added);
+            if (cut > 0) {
+                mBuffer.putHead(window, 0, cut);
+                window.delete(0, cut);
+                // 开头移出的行有多高，内容就上移多少，屏幕上的文字位置不变
+                mText.scrollBy(0, -removedHeight);
+            }
+            if (selectionRemoved) {
+                moveSelectionToScreen();
+            }
+        } finally {
+            mShifting = false;
+        }
+    }
+
+    /**
+     * 窗口向前移动：开头接上前面的内容，末尾的行移到窗口之后
+     */
+    private void shiftBackward(Layout layout) {
+        Editable window = mText.getText();
+        String added = mBuffer.takeFromHead(SHIFT_LINES, SHIFT_CHARS);
+
+        // 窗口达到最大行数时才移出末尾的行
+        int cut = window.length();
+        if (layout.getLineCount() >= WINDOW_LINES) {
+            cut = paragraphStartAtOrBefore(window,
+                    layout.getLineStart(Math.max(1, layout.getLineCount() - SHIFT_LINES)));
+        }
+        boolean selectionRemoved = mText.getSelectionEnd() > cut;
+
+        mShifting = true;
+        try {
+            if (cut > 0 && cut < window.length()) {
+                mBuffer.putTail(window, cut, window.length());
+                window.delete(cut, window.length());
+            }
+            window.insert(0, added);
+            // 开头加入的行有多高，内容就下移多少
+            Layout newLayout = mText.getLayout();
+            if (newLayout != null) {
+                mText.scrollBy(0, newLayout.getLineTop(newLayout.getLineForOffset(added.length())));
+            }
+            if (selectionRemoved) {
+                moveSelectionToScreen();
+            }
+        } finally {
+            mShifting = false;
+        }
+    }
+
+    /**
+     * 光标所在的行被移出窗口时，把光标放到屏幕上第一行的开头，
+     * 否则编辑框会为了显示光标而跳到窗口的另一端
+     */
+    private void moveSelectionToScreen() {
+        Layout layout = mText.getLayout();
+        if (layout != null) {
+            mText.setSelection(layout.getLineStart(layout.getLineForVertical(mText.getScrollY())));
+        }
+    }
+
+    /**
+     * 返回不晚于 offset 的段落开头（紧跟换行符的位置）。之前没有换行符时（整个窗口是一个很长的段落）
+     * 返回 offset 本身，即在折行处切开。
+     */
+    private static int paragraphStartAtOrBefore(CharSequence text, int offset) {
+        int start = offset;
+        while (start > 0 && text.charAt(start - 1) != '\n') {
+            start--;
+        }
+        return start > 0 ? start : offset;
+    }
+}
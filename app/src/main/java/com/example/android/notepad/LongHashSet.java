@@ -0,0 +1,102 @@
+package com.example.android.notepad;
+
+import java.util.Arrays;
+
+/**
+ * 存放long值的哈希集合（开放寻址），避免 HashSet&lt;Long&gt; 为每个元素装箱。
+ * 用于恢复、备份合并等需要在内存里记录大量笔记ID的场景。
+ */
+final class LongHashSet {
+    // 0 作为空槽标记，集合中是否包含 0 单独记录
+    private static final long EMPTY = 0L;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] mKeys;
+    private int mSize;
+    private boolean mHasZero;
+
+    LongHashSet() {
+        this(16);
+    }
+
+    LongHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        mKeys = new long[capacity];
+    }
+
+    /**
+     * 添加一个值
+     * @return 集合中原本没有这个值时返回true
+     */
+    boolean add(long key) {
+        if (key == EMPTY) {
+            if (mHasZero) {
+                return false;
+            }
+            mHasZero = true;
+            mSize++;
+            return true;
+        }
+        int mask = mKeys.length - 1;
+        int index = hash(key) & mask;
+        while (mKeys[index] != EMPTY) {
+            if (mKeys[index] == key) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        mKeys[index] = key;
+        if (++mSize > mKeys.length * LOAD_FACTOR) {
+            rehash(mKeys.length << 1);
+        }
+        return true;
+    }
+
+    boolean contains(long key) {
+        if (key == EMPTY) {
+            return mHasZero;
+        }
+        int mask = mKeys.length - 1;
+        int index = hash(key) & mask;
+        while (mKeys[index] != EMPTY) {
+            if (mKeys[index] == key) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void clear() {
+        Arrays.fill(mKeys, EMPTY);
+        mSize = 0;
+        mHasZero = false;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = mKeys;
+        mKeys = new long[capacity];
+        int mask = capacity - 1;
+        for (long key : oldKeys) {
+            if (key != EMPTY) {
+                int index = hash(key) & mask;
+                while (mKeys[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                mKeys[index] = key;
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
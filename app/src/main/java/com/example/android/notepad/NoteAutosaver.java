@@ -0,0 +1,106 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * 笔记自动保存的后台写入队列。
+ *
+ * 所有编辑器共用一个写线程，写入按提交顺序串行执行，主线程不再等待数据库。
+ * 同一笔记URI在写入之前被多次提交时只保留最后一次的内容，中间的版本直接丢弃，
+ * 因此无论输入多快，每条笔记在队列里最多只有一次待执行的写入。
+ * 笔记内容和标题通过 {@link NoteBodyStream} 的管道一起写入，由Provider在同一次更新中保存，
+ * 不会出现标题已更新而内容还是旧的情况；其余的列用普通的更新写入。
+ */
+final class NoteAutosaver {
+    private static final String TAG = "NoteAutosaver";
+
+    private static NoteAutosaver sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mWriter;
+
+    // 等待写入的内容，按笔记URI合并；只在持有自身锁时访问
+    private final HashMap<Uri, ContentValues> mPending = new HashMap<Uri, ContentValues>();
+
+    static synchronized NoteAutosaver getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NoteAutosaver(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    private NoteAutosaver(ContentResolver resolver) {
+        mResolver = resolver;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWriter = new Handler(thread.getLooper());
+    }
+
+    /**
+     * 提交一次保存。该笔记已有尚未写入的内容时直接替换，不再另外排队。
+     */
+    void save(final Uri uri, ContentValues values) {
+        synchronized (mPending) {
+            if (mPending.put(uri, new ContentValues(values)) != null) {
+                return;
+            }
+        }
+        mWriter.post(new Runnable() {
+            @Override
+            public void run() {
+                write(uri);
+            }
+        });
+    }
+
+    /**
+     * 丢弃该笔记尚未写入的内容，例如笔记即将被删除时
+     */
+    void cancel(Uri uri) {
+        synchronized (mPending) {
+            mPending.remove(uri);
+        }
+    }
+
+    private void write(Uri uri) {
+        ContentValues values;
+        synchronized (mPending) {
+            values = mPending.remove(uri);
+        }
+        if (values == null) {
+            // 已被取消
+            return;
+        }
+        try {
+            String text = values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE);
+            if (text == null) {
+                mResolver.update(uri, values, null, null);
+                return;
+            }
+            // 内容通过管道写入，不受 CursorWindow 和跨进程传输大小的限制；
+            // 标题随内容一起保存，修改时间由Provider保存内容时设置
+            String title = values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE);
+            values.remove(NotePad.Notes.COLUMN_NAME_NOTE);
+            values.remove(NotePad.Notes.COLUMN_NAME_TITLE);
+            values.remove(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+            if (values.size() > 0) {
+                mResolver.update(uri, values, null, null);
+            }
+            NoteBodyStream.write(mResolver, uri, text, title);
+        } catch (IOException e) {
+            Log.e(TAG, "Autosave failed for " + uri, e);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Autosave failed for " + uri, e);
+        }
+    }
+}
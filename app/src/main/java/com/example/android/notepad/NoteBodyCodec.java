@@ -0,0 +1,224 @@
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 笔记内容的存储编码，供 {@link NotePadProvider} 使用。
+ *
+ * 超过 {@link #COMPRESSION_THRESHOLD} 个字符的内容用Deflate压缩后写入
+ * {@link #COLUMN_NOTE_BLOB}，此时内容列为NULL；较短的内容照常写入内容列，压缩列为NULL。
+ * 压缩后节省不到 1/8 的内容（例如已经压缩过的数据）仍以文本存储。
+ *
+ * 升级前已有的长笔记登记在 {@link #QUEUE_TABLE_NAME} 中，由后台线程分批压缩，
+ * 每批一个短事务，不会长时间占用写锁；全部完成后删除该表。
+ */
+final class NoteBodyCodec {
+
+    /**
+     * 压缩后的笔记内容列，只在Provider内部使用
+     * <P>类型: BLOB</P>
+     */
+    static final String COLUMN_NOTE_BLOB = "note_blob";
+
+    /** 超过这么多字符的笔记内容才压缩 */
+    static final int COMPRESSION_THRESHOLD = 4096;
+
+    /** 等待压缩的已有笔记 */
+    static final String QUEUE_TABLE_NAME = "note_compression_queue";
+
+    /** 后台迁移每个事务压缩的笔记数 */
+    private static final int MIGRATION_BATCH_SIZE = 20;
+
+    private static final String CHARSET = "UTF-8";
+
+    private NoteBodyCodec() {
+    }
+
+    /**
+     * 把写入值中的笔记内容转换为存储格式：较长的内容压缩到压缩列，否则清空压缩列。
+     * @return 内容被压缩时返回原始内容（全文索引需要单独写入），否则返回null
+     */
+    static String encode(ContentValues values) {
+        if (!values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)) {
+            return null;
+        }
+        String text = values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE);
+        byte[] compressed = compress(text);
+        if (compressed == null) {
+            values.putNull(COLUMN_NOTE_BLOB);
+            return null;
+        }
+        values.putNull(NotePad.Notes.COLUMN_NAME_NOTE);
+        values.put(COLUMN_NOTE_BLOB, compressed);
+        return text;
+    }
+
+    /**
+     * 压缩笔记内容。内容较短或压缩收益不足时返回null，表示应以文本存储。
+     */
+    static byte[] compress(String text) {
+        if (text == null || text.length() < COMPRESSION_THRESHOLD) {
+            return null;
+        }
+        byte[] input = toUtf8(text);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+                if (out.size() > input.length - input.length / 8) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 解压笔记内容
+     */
+    static String decompress(byte[] compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated note body");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toString(CHARSET);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt note body", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 边读边解压笔记内容，不在内存中还原完整的内容
+     */
+    static Reader openReader(byte[] compressed) {
+        try {
+            return new InputStreamReader(
+                    new InflaterInputStream(new ByteArrayInputStream(compressed)), CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * 把内容超过阈值的已有笔记登记到待压缩队列，由 {@link #compressQueuedNotes} 在后台处理
+     */
+    static void createMigrationQueue(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + QUEUE_TABLE_NAME + " ("
+                + NotePad.Notes._ID + " INTEGER PRIMARY KEY)");
+        db.execSQL("INSERT OR IGNORE INTO " + QUEUE_TABLE_NAME + " SELECT " + NotePad.Notes._ID
+                + " FROM " + NotePad.Notes.TABLE_NAME + " WHERE length("
+                + NotePad.Notes.COLUMN_NAME_NOTE + ") >= " + COMPRESSION_THRESHOLD);
+    }
+
+    /**
+     * 压缩队列中的全部笔记，队列为空后删除队列表。没有队列表时直接返回。
+     *
+     * 只有内容与读取时相同的行才会被改写，期间被编辑过的笔记已由新的写入按需压缩。
+     * 全文索引中的内容不受影响：索引的更新触发器在内容列变为NULL时保留原有内容。
+     * @return 压缩的笔记数
+     */
+    static int compressQueuedNotes(SQLiteDatabase db) {
+        if (!hasMigrationQueue(db)) {
+            return 0;
+        }
+        SQLiteStatement update = db.compileStatement("UPDATE " + NotePad.Notes.TABLE_NAME
+                + " SET " + NotePad.Notes.COLUMN_NAME_NOTE + " = NULL, " + COLUMN_NOTE_BLOB
+                + " = ? WHERE " + NotePad.Notes._ID + " = ? AND "
+                + NotePad.Notes.COLUMN_NAME_NOTE + " = ?");
+        try {
+            return drainMigrationQueue(db, update);
+        } finally {
+            update.close();
+        }
+    }
+
+    private static int drainMigrationQueue(SQLiteDatabase db, SQLiteStatement update) {
+        int compressedCount = 0;
+        while (true) {
+            int batchCount = 0;
+            db.beginTransaction();
+            try {
+                Cursor c = db.rawQuery("SELECT q." + NotePad.Notes._ID + ", n."
+                        + NotePad.Notes.COLUMN_NAME_NOTE + " FROM " + QUEUE_TABLE_NAME + " q LEFT JOIN "
+                        + NotePad.Notes.TABLE_NAME + " n ON n." + NotePad.Notes._ID + " = q."
+                        + NotePad.Notes._ID + " LIMIT " + MIGRATION_BATCH_SIZE, null);
+                try {
+                    while (c.moveToNext()) {
+                        long id = c.getLong(0);
+                        String text = c.getString(1);
+                        byte[] compressed = compress(text);
+                        if (compressed != null) {
+                            update.bindBlob(1, compressed);
+                            update.bindLong(2, id);
+                            update.bindString(3, text);
+                            compressedCount += update.executeUpdateDelete();
+                        }
+                        db.execSQL("DELETE FROM " + QUEUE_TABLE_NAME + " WHERE "
+                                + NotePad.Notes._ID + " = " + id);
+                        batchCount++;
+                    }
+                } finally {
+                    c.close();
+                }
+                if (batchCount == 0) {
+                    db.execSQL("DROP TABLE " + QUEUE_TABLE_NAME);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (batchCount == 0) {
+                return compressedCount;
+            }
+        }
+    }
+
+    private static boolean hasMigrationQueue(SQLiteDatabase db) {
+        Cursor c = db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[] { QUEUE_TABLE_NAME });
+        try {
+            return c.moveToFirst();
+        } finally {
+            c.close();
+        }
+    }
+
+    private static byte[] toUtf8(String text) {
+        try {
+            return text.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.notepad;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * 加载单条笔记的 {@link CursorLoader}：投影中的列照常查询，笔记内容通过
+ * {@link NoteBodyStream} 的管道另外读取，追加为结果游标的最后一列
+ * （列名为 {@link NotePad.Notes#COLUMN_NAME_NOTE}）。内容再长也不经过 CursorWindow。
+ *
+ * 投影中不应包含内容列。笔记变化时和 {@link CursorLoader} 一样重新加载。
+ */
+class NoteBodyLoader extends CursorLoader {
+    private static final String TAG = "NoteBodyLoader";
+
+    NoteBodyLoader(Context context, Uri noteUri, String[] projection) {
+        super(context, noteUri, projection, null, null, null);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null || !cursor.moveToFirst()) {
+            return cursor;
+        }
+        try {
+            return new BodyCursor(cursor,
+                    NoteBodyStream.read(getContext().getContentResolver(), getUri()));
+        } catch (IOException e) {
+            // 例如笔记在两次读取之间被删除，按查询失败处理
+            Log.w(TAG, "Unable to read note body for " + getUri(), e);
+            cursor.close();
+            return null;
+        }
+    }
+
+    /**
+     * 在被包装游标的列之后追加内容列。只有一行。
+     * 变化通知仍注册在被包装的游标上。
+     */
+    private static class BodyCursor extends CursorWrapper {
+        private final String mBody;
+        private final int mBodyColumn;
+
+        BodyCursor(Cursor cursor, String body) {
+            super(cursor);
+            mBody = body;
+            mBodyColumn = cursor.getColumnCount();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return mBodyColumn + 1;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            String[] names = new String[mBodyColumn + 1];
+            System.arraycopy(super.getColumnNames(), 0, names, 0, mBodyColumn);
+            names[mBodyColumn] = NotePad.Notes.COLUMN_NAME_NOTE;
+            return names;
+        }
+
+        @Override
+        public String getColumnName(int columnIndex) {
+            return columnIndex == mBodyColumn
+                    ? NotePad.Notes.COLUMN_NAME_NOTE : super.getColumnName(columnIndex);
+        }
+
+        @Override
+        public int getColumnIndex(String columnName) {
+            return NotePad.Notes.COLUMN_NAME_NOTE.equals(columnName)
+                    ? mBodyColumn : super.getColumnIndex(columnName);
+        }
+
+        @Override
+        public int getColumnIndexOrThrow(String columnName) {
+            return NotePad.Notes.COLUMN_NAME_NOTE.equals(columnName)
+                    ? mBodyColumn : super.getColumnIndexOrThrow(columnName);
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            return columnIndex == mBodyColumn ? mBody : super.getString(columnIndex);
+        }
+
+        @Override
+        public boolean isNull(int columnIndex) {
+            return columnIndex == mBodyColumn ? mBody == null : super.isNull(columnIndex);
+        }
+
+        @Override
+        public int getType(int columnIndex) {
+            if (columnIndex == mBodyColumn) {
+                return mBody == null ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+            }
+            return super.getType(columnIndex);
+        }
+    }
+}
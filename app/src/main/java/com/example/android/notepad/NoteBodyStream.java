@@ -0,0 +1,197 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * 以字符流读写笔记内容，不经过游标。
+ *
+ * 通过游标传递时，一行数据必须整个放进一个 CursorWindow（约2MB），内容很长的笔记会查询失败。
+ * {@link NotePadProvider} 在 {@link NotePad.Notes#buildBodyUri} 上提供管道：读取时按存储格式
+ * 分段把内容写入管道——分块存储的笔记每次只解压一个分块，压缩存储的笔记边解压边写，
+ * 以文本存储的笔记用 substr() 分段查询——Provider一侧任何时刻只有一小段内容在内存中。
+ * 写入时Provider从管道读完内容，字符数与URI上声明的一致才按普通的更新保存，
+ * 写入方中途失败不会把笔记截断。
+ *
+ * 另有编辑器和自动保存使用的客户端方法 {@link #read(ContentResolver, Uri)} 和
+ * {@link #write(ContentResolver, Uri, String)}。
+ */
+final class NoteBodyStream {
+
+    /** 以文本存储的内容每次查询的字符数，也是读写管道的缓冲区大小 */
+    private static final int SEGMENT_CHARS = 8192;
+
+    private static final String CHARSET = "UTF-8";
+
+    private NoteBodyStream() {
+    }
+
+    /**
+     * 把笔记内容分段写出。读取期间笔记被修改时，写出的内容可能新旧混杂；
+     * 修改会另外发出通知，读取方重新读取即可。
+     * @return 笔记不存在时返回false
+     */
+    static boolean copyNote(SQLiteDatabase db, long noteId, Writer out) throws IOException {
+        long chunkCount;
+        byte[] compressed;
+        long length;
+        Cursor c = db.query(NotePad.Notes.TABLE_NAME, new String[] {
+                NoteChunkStore.COLUMN_CHUNK_COUNT,
+                NoteBodyCodec.COLUMN_NOTE_BLOB,
+                "length(" + NotePad.Notes.COLUMN_NAME_NOTE + ")" },
+                NotePad.Notes._ID + " = " + noteId, null, null, null, null);
+        try {
+            if (!c.moveToFirst()) {
+                return false;
+            }
+            chunkCount = c.getLong(0);
+            compressed = c.getBlob(1);
+            length = c.getLong(2);
+        } finally {
+            c.close();
+        }
+
+        if (chunkCount > 0) {
+            NoteChunkStore.read(db, noteId, out);
+        } else if (compressed != null) {
+            Reader in = NoteBodyCodec.openReader(compressed);
+            try {
+                copy(in, out);
+            } finally {
+                in.close();
+            }
+        } else {
+            copyText(db, noteId, length, out);
+        }
+        return true;
+    }
+
+    /**
+     * 按 SQLite 的字符计数分段读取内容列
+     */
+    private static void copyText(SQLiteDatabase db, long noteId, long length, Writer out)
+            throws IOException {
+        SQLiteStatement segment = db.compileStatement("SELECT substr("
+                + NotePad.Notes.COLUMN_NAME_NOTE + ", ?, " + SEGMENT_CHARS + ") FROM "
+                + NotePad.Notes.TABLE_NAME + " WHERE " + NotePad.Notes._ID + " = " + noteId);
+        try {
+            for (long start = 1; start <= length; start += SEGMENT_CHARS) {
+                segment.bindLong(1, start);
+                String text = segment.simpleQueryForString();
+                if (text == null) {
+                    // 内容在读取期间改为其他存储格式
+                    break;
+                }
+                out.write(text);
+            }
+        } catch (SQLiteDoneException e) {
+            // 笔记在读取期间被删除
+        } finally {
+            segment.close();
+        }
+    }
+
+    /**
+     * 从管道读取写入的内容
+     * @param length 写入方声明的字符数
+     * @return 内容；读到的字符数与声明的不一致（写入方中途失败）时返回null
+     */
+    static String readText(InputStream stream, long length) throws IOException {
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            return null;
+        }
+        Reader in = new InputStreamReader(stream, CHARSET);
+        StringBuilder text = new StringBuilder((int) Math.min(length, 1024 * 1024));
+        char[] buffer = new char[SEGMENT_CHARS];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            if (text.length() + count > length) {
+                return null;
+            }
+            text.append(buffer, 0, count);
+        }
+        return text.length() == length ? text.toString() : null;
+    }
+
+    /**
+     * 通过管道读取笔记的完整内容，不能在主线程调用
+     * @param noteUri 单条笔记的URI
+     * @throws FileNotFoundException 笔记不存在时
+     */
+    static String read(ContentResolver resolver, Uri noteUri) throws IOException {
+        InputStream stream = resolver.openInputStream(
+                NotePad.Notes.buildBodyUri(ContentUris.parseId(noteUri)));
+        if (stream == null) {
+            throw new FileNotFoundException("Unable to open " + noteUri);
+        }
+        Reader in = new InputStreamReader(stream, CHARSET);
+        try {
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[SEGMENT_CHARS];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                text.append(buffer, 0, count);
+            }
+            return text.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 通过管道把内容写入笔记，不能在主线程调用。
+     * 流关闭后由Provider异步保存，同一进程中的写入按打开的顺序依次保存。
+     * @param noteUri 单条笔记的URI
+     */
+    static void write(ContentResolver resolver, Uri noteUri, String text) throws IOException {
+        write(resolver, noteUri, text, null);
+    }
+
+    /**
+     * 同 {@link #write(ContentResolver, Uri, String)}，并在保存内容的同一次更新中修改标题
+     * @param title 新标题，为null时不修改
+     */
+    static void write(ContentResolver resolver, Uri noteUri, String text, String title)
+            throws IOException {
+        Uri.Builder builder = NotePad.Notes.buildBodyUri(ContentUris.parseId(noteUri)).buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_LENGTH,
+                        String.valueOf(text.length()));
+        if (title != null) {
+            builder.appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_TITLE, title);
+        }
+        Uri bodyUri = builder.build();
+        OutputStream stream = resolver.openOutputStream(bodyUri);
+        if (stream == null) {
+            throw new FileNotFoundException("Unable to open " + bodyUri);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, CHARSET), SEGMENT_CHARS);
+        try {
+            out.write(text);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void copy(Reader in, Writer out) throws IOException {
+        char[] buffer = new char[SEGMENT_CHARS];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.android.notepad;
+
+import android.os.Bundle;
+import android.util.LruCache;
+
+/**
+ * 单条笔记读取的内存缓存，供 {@link NotePadProvider} 使用，按笔记ID缓存完整的一行。
+ *
+ * 容量按字节计算（字符串按每字符2字节估算），超过容量 1/4 的笔记不缓存，避免一条长笔记挤掉其他所有笔记。
+ *
+ * 写入后由Provider调用 {@link #remove} 或 {@link #clear} 使缓存失效。为避免读取线程把失效之前
+ * 从数据库读到的旧内容放回缓存，每次失效都会增加代数，读取前取得的代数与当前不一致时不再写入缓存。
+ */
+final class NoteCache {
+
+    private final LruCache<Long, Object[]> mCache;
+
+    // 失效次数，只在持有自身锁时访问
+    private long mGeneration;
+
+    NoteCache(int maxBytes) {
+        mCache = new LruCache<Long, Object[]>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Object[] row) {
+                return estimateSize(row);
+            }
+        };
+    }
+
+    /**
+     * @return 缓存的一行，未缓存时返回null（计为一次未命中）
+     */
+    Object[] get(long id) {
+        return mCache.get(id);
+    }
+
+    /**
+     * 读取数据库之前调用，返回的代数传给 {@link #put}
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * 缓存从数据库读到的一行。读取期间缓存已失效，或者这一行太大时不缓存。
+     */
+    synchronized void put(long id, Object[] row, long generation) {
+        if (generation != mGeneration || estimateSize(row) > mCache.maxSize() / 4) {
+            return;
+        }
+        mCache.put(id, row);
+    }
+
+    synchronized void remove(long id) {
+        mGeneration++;
+        mCache.remove(id);
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mCache.evictAll();
+    }
+
+    /**
+     * 内存紧张时缩小占用，最近访问的笔记保留在缓存中
+     */
+    void trimToSize(int maxBytes) {
+        mCache.trimToSize(maxBytes);
+    }
+
+    int maxSize() {
+        return mCache.maxSize();
+    }
+
+    Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putInt(NotePad.KEY_CACHE_HITS, mCache.hitCount());
+        stats.putInt(NotePad.KEY_CACHE_MISSES, mCache.missCount());
+        stats.putInt(NotePad.KEY_CACHE_EVICTIONS, mCache.evictionCount());
+        stats.putInt(NotePad.KEY_CACHE_SIZE, mCache.size());
+        stats.putInt(NotePad.KEY_CACHE_MAX_SIZE, mCache.maxSize());
+        return stats;
+    }
+
+    private static int estimateSize(Object[] row) {
+        int size = 16 + 8 * row.length;
+        for (Object value : row) {
+            if (value instanceof String) {
+                size += 40 + 2 * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else if (value != null) {
+                size += 16;
+            }
+        }
+        return size;
+    }
+}
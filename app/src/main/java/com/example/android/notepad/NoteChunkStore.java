@@ -0,0 +1,281 @@
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 大笔记内容的分块存储，供 {@link NotePadProvider} 使用。
+ *
+ * 达到 {@link #CHUNKED_NOTE_CHARS} 个字符的内容按内容切分为若干块，存入 {@link #TABLE_NAME}，
+ * 笔记表中的内容列和压缩列都为NULL，{@link #COLUMN_CHUNK_COUNT} 记录块数；
+ * 读取时由 {@link CompressedNoteCursor} 按序拼接，调用方看到的仍是普通的内容列。
+ * 切分点由滚动哈希决定（平均约 8K 字符一块），只取决于附近的内容：在笔记中间插入或删除文字时，
+ * 只有改动所在的块发生变化，前后的块保持不变。保存时按哈希比较新旧块的序列，
+ * 只删除和插入中间变化的块，一个字符的修改只重写一两个块，而不是整篇笔记。
+ *
+ * 块的序号之间留有间隔，在两个块之间插入新块时不需要给后面的块重新编号；
+ * 间隔用完时才重写该笔记的所有块。每个块单独用 {@link NoteBodyCodec} 压缩。
+ */
+final class NoteChunkStore {
+
+    /** 内容达到这么多字符的笔记分块存储 */
+    static final int CHUNKED_NOTE_CHARS = 64 * 1024;
+
+    static final String TABLE_NAME = "note_chunks";
+
+    /**
+     * 笔记表中的块数列，不分块的笔记为0
+     * <P>类型: INTEGER</P>
+     */
+    static final String COLUMN_CHUNK_COUNT = "chunk_count";
+
+    /**
+     * 查询笔记时附加的内部列：分块存储的笔记为其ID，否则为NULL
+     */
+    static final String COLUMN_CHUNKED_NOTE_ID = "chunked_note_id";
+
+    /** {@link #COLUMN_CHUNKED_NOTE_ID} 在笔记表查询中的表达式 */
+    static final String CHUNKED_NOTE_ID_EXPRESSION = "CASE WHEN " + COLUMN_CHUNK_COUNT + " > 0 THEN "
+            + NotePad.Notes._ID + " END AS " + COLUMN_CHUNKED_NOTE_ID;
+
+    private static final String COLUMN_NOTE_ID = "note_id";
+    private static final String COLUMN_SEQUENCE = "seq";
+    private static final String COLUMN_HASH = "hash";
+    private static final String COLUMN_TEXT = "text";
+    private static final String COLUMN_DATA = "data";
+
+    /** 块的最小、最大字符数 */
+    private static final int MIN_CHUNK_CHARS = 2 * 1024;
+    private static final int MAX_CHUNK_CHARS = 32 * 1024;
+
+    /** 滚动哈希的高13位全为0时切分，超过最小长度后平均每 8K 字符切分一次 */
+    private static final long BOUNDARY_MASK = 0x1FFFL << 51;
+
+    /** 新写入的块之间的序号间隔 */
+    private static final long SEQUENCE_STEP = 1L << 32;
+
+    // 滚动哈希用的随机表，固定种子，切分点在不同版本和进程间保持一致
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6e6f74657061644cL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private NoteChunkStore() {
+    }
+
+    /**
+     * 创建分块表，以及删除笔记时清理其分块的触发器
+     */
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NAME + " ("
+                + COLUMN_NOTE_ID + " INTEGER NOT NULL,"
+                + COLUMN_SEQUENCE + " INTEGER NOT NULL,"
+                + COLUMN_HASH + " INTEGER NOT NULL,"
+                + COLUMN_TEXT + " TEXT,"
+                + COLUMN_DATA + " BLOB,"
+                + "PRIMARY KEY (" + COLUMN_NOTE_ID + ", " + COLUMN_SEQUENCE + ")"
+                + ");");
+
+        db.execSQL("CREATE TRIGGER note_chunks_delete AFTER DELETE ON "
+                + NotePad.Notes.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + TABLE_NAME + " WHERE "
+                + COLUMN_NOTE_ID + " = old." + NotePad.Notes._ID + "; END");
+
+        // 内容改为不分块存储时删除原有的分块
+        db.execSQL("CREATE TRIGGER note_chunks_clear AFTER UPDATE OF " + COLUMN_CHUNK_COUNT
+                + " ON " + NotePad.Notes.TABLE_NAME + " WHEN new." + COLUMN_CHUNK_COUNT
+                + " = 0 BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_NOTE_ID
+                + " = old." + NotePad.Notes._ID + "; END");
+    }
+
+    /**
+     * 把写入值中的笔记内容转换为存储格式：达到阈值的内容切分为分块，内容列和压缩列置为NULL；
+     * 否则把块数置为0（原有的分块由触发器删除），内容留给 {@link NoteBodyCodec#encode} 处理。
+     * @return 分块存储时返回分块，由调用方在写入笔记行之后用 {@link #write} 写入；否则返回null
+     */
+    static List<String> encode(ContentValues values) {
+        if (!values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)) {
+            return null;
+        }
+        String text = values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE);
+        if (text == null || text.length() < CHUNKED_NOTE_CHARS) {
+            values.put(COLUMN_CHUNK_COUNT, 0);
+            return null;
+        }
+        List<String> chunks = split(text);
+        values.putNull(NotePad.Notes.COLUMN_NAME_NOTE);
+        values.putNull(NoteBodyCodec.COLUMN_NOTE_BLOB);
+        values.put(COLUMN_CHUNK_COUNT, chunks.size());
+        return chunks;
+    }
+
+    /**
+     * 按内容切分。切分点只取决于它之前的一小段内容，不会把代理对拆开。
+     */
+    static List<String> split(String text) {
+        List<String> chunks = new ArrayList<String>();
+        int start = 0;
+        long hash = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            hash = (hash << 1) + GEAR[(c ^ (c >>> 8)) & 0xFF];
+            int size = i + 1 - start;
+            if (size >= MAX_CHUNK_CHARS
+                    || (size >= MIN_CHUNK_CHARS && (hash & BOUNDARY_MASK) == 0)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length) {
+                    continue;
+                }
+                chunks.add(text.substring(start, i + 1));
+                start = i + 1;
+                hash = 0;
+            }
+        }
+        if (start < length) {
+            chunks.add(text.substring(start));
+        }
+        return chunks;
+    }
+
+    /**
+     * 把笔记内容写为分块，只改写与已有分块不同的部分。调用方负责开启事务。
+     * @param chunks {@link #split} 的结果
+     * @return 有分块被改写时返回true
+     */
+    static boolean write(SQLiteDatabase db, long noteId, List<String> chunks) {
+        long[] hashes = new long[chunks.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = hash(chunks.get(i));
+        }
+
+        // 已有分块的序号和哈希，按顺序排列
+        ArrayList<long[]> old = new ArrayList<long[]>();
+        Cursor c = db.query(TABLE_NAME, new String[] { COLUMN_SEQUENCE, COLUMN_HASH },
+                COLUMN_NOTE_ID + " = " + noteId, null, null, null, COLUMN_SEQUENCE);
+        try {
+            while (c.moveToNext()) {
+                old.add(new long[] { c.getLong(0), c.getLong(1) });
+            }
+        } finally {
+            c.close();
+        }
+
+        // 开头和结尾相同的分块保持不动
+        int prefix = 0;
+        while (prefix < old.size() && prefix < hashes.length
+                && old.get(prefix)[1] == hashes[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < old.size() - prefix && suffix < hashes.length - prefix
+                && old.get(old.size() - 1 - suffix)[1] == hashes[hashes.length - 1 - suffix]) {
+            suffix++;
+        }
+        int oldEnd = old.size() - suffix;
+        int newEnd = hashes.length - suffix;
+        if (prefix == oldEnd && prefix == newEnd) {
+            return false;
+        }
+
+        // 新分块的序号取前后两个不变分块之间的等分点，间隔不够时重写全部分块
+        long low = prefix > 0 ? old.get(prefix - 1)[0] : 0;
+        long high = suffix > 0 ? old.get(oldEnd)[0]
+                : low + (newEnd - prefix + 1) * SEQUENCE_STEP;
+        long step = (high - low) / (newEnd - prefix + 1);
+        if (step < 1) {
+            db.delete(TABLE_NAME, COLUMN_NOTE_ID + " = " + noteId, null);
+            for (int i = 0; i < hashes.length; i++) {
+                insertChunk(db, noteId, (i + 1) * SEQUENCE_STEP, hashes[i], chunks.get(i));
+            }
+            return true;
+        }
+
+        if (prefix < oldEnd) {
+            db.delete(TABLE_NAME, COLUMN_NOTE_ID + " = " + noteId + " AND " + COLUMN_SEQUENCE
+                    + " >= " + old.get(prefix)[0] + " AND " + COLUMN_SEQUENCE + " <= "
+                    + old.get(oldEnd - 1)[0], null);
+        }
+        for (int i = prefix; i < newEnd; i++) {
+            insertChunk(db, noteId, low + step * (i - prefix + 1), hashes[i], chunks.get(i));
+        }
+        return true;
+    }
+
+    private static void insertChunk(SQLiteDatabase db, long noteId, long sequence, long hash,
+                                    String text) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_NOTE_ID, noteId);
+        values.put(COLUMN_SEQUENCE, sequence);
+        values.put(COLUMN_HASH, hash);
+        byte[] compressed = NoteBodyCodec.compress(text);
+        if (compressed != null) {
+            values.put(COLUMN_DATA, compressed);
+        } else {
+            values.put(COLUMN_TEXT, text);
+        }
+        db.insert(TABLE_NAME, null, values);
+    }
+
+    /**
+     * 按顺序拼接笔记的所有分块
+     */
+    static String read(SQLiteDatabase db, long noteId) {
+        StringBuilder text = new StringBuilder();
+        try {
+            read(db, noteId, text);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return text.toString();
+    }
+
+    /**
+     * 按顺序把笔记的分块逐个写出，每次只解压一个分块
+     */
+    static void read(SQLiteDatabase db, long noteId, Appendable out) throws IOException {
+        Cursor c = db.query(TABLE_NAME, new String[] { COLUMN_TEXT, COLUMN_DATA },
+                COLUMN_NOTE_ID + " = " + noteId, null, null, null, COLUMN_SEQUENCE);
+        try {
+            while (c.moveToNext()) {
+                if (c.isNull(0)) {
+                    out.append(NoteBodyCodec.decompress(c.getBlob(1)));
+                } else {
+                    out.append(c.getString(0));
+                }
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * 分块内容的64位摘要（SHA-1的前8个字节），用于判断分块是否变化
+     */
+    private static long hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -19,6 +19,7 @@ package com.example.android.notepad;
 import static com.example.android.notepad.R.*;
 
 import android.app.Activity;
+import android.app.LoaderManager;
 import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.ComponentName;
@@ -26,6 +27,7 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.Loader;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Canvas;
@@ -33,6 +35,10 @@ import android.graphics.Paint;
 import android.graphics.Rect;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.Layout;
+import android.text.TextWatcher;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.Menu;
@@ -40,24 +46,47 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.widget.EditText;
 
+import com.example.android.notepad.core.NoteTitles;
 
-public class NoteEditor extends Activity {
+
+
+public class NoteEditor extends Activity implements LoaderManager.LoaderCallbacks<Cursor> {
     // For logging and debugging purposes
     private static final String TAG = "NoteEditor";
 
     /*
-     * Creates a projection that returns the note ID and the note contents.
+     * Creates a projection that returns the note ID and title. The note contents are not part of
+     * the query; they are streamed from the provider, so that a note of any size can be loaded.
      */
     private static final String[] PROJECTION =
         new String[] {
             NotePad.Notes._ID,
-            NotePad.Notes.COLUMN_NAME_TITLE,
-            NotePad.Notes.COLUMN_NAME_NOTE
+            NotePad.Notes.COLUMN_NAME_TITLE
     };
 
+    // The index of the title column in the projection
+    private static final int COLUMN_INDEX_TITLE = 1;
+    // The index of the note column that NoteBodyLoader appends after the projection
+    private static final int COLUMN_INDEX_NOTE = 2;
+
+    // The ID of the loader that queries the note being edited
+    private static final int LOADER_NOTE = 0;
+    // The ID of the loader that reads a note pasted from the clipboard
+    private static final int LOADER_PASTE = 1;
+    // The loader argument that holds the URI of the pasted note
+    private static final String ARG_PASTE_URI = "pasteUri";
+
+    // How long to wait after the last keystroke before the note is saved in the background
+    private static final long AUTOSAVE_DELAY_MILLIS = 2000;
+
     // A label for the saved state of the activity
     private static final String ORIGINAL_CONTENT = "origContent";
 
+    // The longest original text kept in the saved state. The state travels in a binder
+    // transaction limited to 1 MB for the whole process, and a Java string takes two bytes per
+    // character, so the text is kept well below that.
+    private static final int MAX_SAVED_CONTENT_CHARS = 16 * 1024;
+
     // This Activity can be started by more than one action. Each action is represented
     // as a "state" constant
     private static final int STATE_EDIT = 0;
@@ -69,6 +98,34 @@ public class NoteEditor extends Activity {
     private Cursor mCursor;
     private EditText mText;
     private String mOriginalContent;
+    // The note text most recently delivered by the loader
+    private String mLoadedNote;
+    // The clipboard note that is being read for a paste, or null once it has been pasted
+    private Uri mPasteUri;
+
+    /*
+     * Dirty tracking for autosave. mEditGeneration counts edits to the text; mSavedGeneration is
+     * its value when the text was last loaded or saved, and mSavedText is that text. Saves go to
+     * the shared background writer, which only keeps the latest pending text for each note.
+     */
+    private NoteAutosaver mAutosaver;
+    private final Handler mHandler = new Handler();
+    private int mEditGeneration;
+    private int mSavedGeneration;
+    private String mSavedText;
+
+    // Set while a large note is open. Only a window of the note's lines is in the EditText then.
+    private LargeNoteWindow mLargeNote;
+
+    // Saves the note once the user has stopped typing for AUTOSAVE_DELAY_MILLIS
+    private final Runnable mAutosaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mCursor != null && isDirty()) {
+                updateNote(getNoteText(), null);
+            }
+        }
+    };
 
     /**
      * Defines a custom EditText View that draws lines between each line of text that is displayed.
@@ -95,27 +152,33 @@ public class NoteEditor extends Activity {
         @Override
         protected void onDraw(Canvas canvas) {
 
-            // Gets the number of lines of text in the View.
-            int count = getLineCount();
-
             // Gets the global Rect and Paint objects
             Rect r = mRect;
             Paint paint = mPaint;
 
             /*
-             * Draws one line in the rectangle for every line of text in the EditText
+             * Only the lines inside the area being redrawn need a rule. The clip bounds are in
+             * the same scrolled coordinates as the line bounds, so this skips every line above
+             * and below the screen instead of walking the whole document on each frame.
              */
-            for (int i = 0; i < count; i++) {
-
-                // Gets the baseline coordinates for the current line of text
-                int baseline = getLineBounds(i, r);
-
-                /*
-                 * Draws a line in the background from the left of the rectangle to the right,
-                 * at a vertical position one dip below the baseline, using the "paint" object
-                 * for details.
-                 */
-                canvas.drawLine(r.left, baseline + 1, r.right, baseline + 1, paint);
+            Layout layout = getLayout();
+            if (layout != null && canvas.getClipBounds(r)) {
+                int top = getExtendedPaddingTop();
+                int first = layout.getLineForVertical(r.top - top);
+                int last = layout.getLineForVertical(r.bottom - top);
+
+                for (int i = first; i <= last; i++) {
+
+                    // Gets the baseline coordinates for the current line of text
+                    int baseline = getLineBounds(i, r);
+
+                    /*
+                     * Draws a line in the background from the left of the rectangle to the
+                     * right, at a vertical position one dip below the baseline, using the
+                     * "paint" object for details.
+                     */
+                    canvas.drawLine(r.left, baseline + 1, r.right, baseline + 1, paint);
+                }
             }
 
             // Finishes up by calling the parent method
@@ -137,6 +200,8 @@ public class NoteEditor extends Activity {
          */
         final Intent intent = getIntent();
 
+        mAutosaver = NoteAutosaver.getInstance(this);
+
         /*
          *  Sets up for the edit, based on the action specified for the incoming Intent.
          */
@@ -189,24 +254,7 @@ public class NoteEditor extends Activity {
             return;
         }
 
-        /*
-         * Using the URI passed in with the triggering Intent, gets the note or notes in
-         * the provider.
-         * Note: This is being done on the UI thread. It will block the thread until the query
-         * completes. In a sample app, going against a simple provider based on a local database,
-         * the block will be momentary, but in a real app you should use
-         * android.content.AsyncQueryHandler or android.os.AsyncTask.
-         */
-        mCursor = managedQuery(
-            mUri,         // The URI that gets multiple notes from the provider.
-            PROJECTION,   // A projection that returns the note ID and note content for each note.
-            null,         // No "where" clause selection criteria.
-            null,         // No "where" clause selection values.
-            null          // Use the default sort order (modification date, descending)
-        );
-
         // For a paste, initializes the data from clipboard.
-        // (Must be done after mCursor is initialized.)
         if (Intent.ACTION_PASTE.equals(action)) {
             // Does the paste
             performPaste();
@@ -219,6 +267,28 @@ public class NoteEditor extends Activity {
 
         // Gets a handle to the EditText in the the layout.
         mText = (EditText) findViewById(R.id.note);
+        mText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // Moving the window of a large note over the text isn't an edit.
+                if (mLargeNote != null && mLargeNote.isShifting()) {
+                    return;
+                }
+                // Every change restarts the countdown, so a save happens only after a pause in
+                // typing rather than on every keystroke.
+                mEditGeneration++;
+                mHandler.removeCallbacks(mAutosaveRunnable);
+                mHandler.postDelayed(mAutosaveRunnable, AUTOSAVE_DELAY_MILLIS);
+            }
+        });
 
         /*
          * If this Activity had stopped previously, its state was written the ORIGINAL_CONTENT
@@ -227,73 +297,122 @@ public class NoteEditor extends Activity {
         if (savedInstanceState != null) {
             mOriginalContent = savedInstanceState.getString(ORIGINAL_CONTENT);
         }
+
+        /*
+         * Queries the note on a background thread. The loader survives configuration changes,
+         * and requeries on its own whenever the note changes in the provider, so the results
+         * arrive in onLoadFinished() instead of being requeried on the UI thread in onResume().
+         */
+        getLoaderManager().initLoader(LOADER_NOTE, null, this);
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        if (id == LOADER_PASTE) {
+            // The pasted note is read the same way as the note being edited.
+            return new NoteBodyLoader(this, (Uri) args.getParcelable(ARG_PASTE_URI), PROJECTION);
+        }
+        return new NoteBodyLoader(
+            this,
+            mUri,         // The URI of the note to edit.
+            PROJECTION    // A projection that returns the note ID and title. The loader reads
+                          // the content through a pipe and appends it as the last column.
+        );
     }
 
     /**
-     * This method is called when the Activity is about to come to the foreground. This happens
-     * when the Activity comes to the top of the task stack, OR when it is first starting.
+     * Called with the note when the query first completes, and again every time the note
+     * changes in the provider.
      *
-     * Moves to the first note in the list, sets an appropriate title for the action chosen by
-     * the user, puts the note contents into the TextView, and saves the original text as a
-     * backup.
+     * Sets an appropriate title for the action chosen by the user, puts the note contents into
+     * the TextView, and saves the original text as a backup.
      */
     @Override
-    protected void onResume() {
-        super.onResume();
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        if (loader.getId() == LOADER_PASTE) {
+            onPasteLoaded(cursor);
+            return;
+        }
 
         /*
-         * mCursor is initialized, since onCreate() always precedes onResume for any running
-         * process. This tests that it's not null, since it should always contain data.
+         * Something is wrong. The Cursor should always contain data. Report an error in the
+         * note, and leave mCursor null so that onPause() doesn't write the error over the note.
          */
-        if (mCursor != null) {
-            // Requery in case something changed while paused (such as the title)
-            mCursor.requery();
+        if (cursor == null || !cursor.moveToFirst()) {
+            mCursor = null;
+            setTitle(getText(R.string.error_title));
+            mText.setText(getText(R.string.error_message));
+            return;
+        }
+        mCursor = cursor;
 
-            /* Moves to the first record. Always call moveToFirst() before accessing data in
-             * a Cursor for the first time. The semantics of using a Cursor are that when it is
-             * created, its internal index is pointing to a "place" immediately before the first
-             * record.
-             */
-            mCursor.moveToFirst();
+        // Modifies the window title for the Activity according to the current Activity state.
+        if (mState == STATE_EDIT) {
+            // Set the title of the Activity to include the note title
+            String title = cursor.getString(COLUMN_INDEX_TITLE);
+            Resources res = getResources();
+            String text = String.format(res.getString(R.string.title_edit), title);
+            setTitle(text);
+        // Sets the title to "create" for inserts
+        } else if (mState == STATE_INSERT) {
+            setTitle(getText(R.string.title_create));
+        }
 
-            // Modifies the window title for the Activity according to the current Activity state.
-            if (mState == STATE_EDIT) {
-                // Set the title of the Activity to include the note title
-                int colTitleIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE);
-                String title = mCursor.getString(colTitleIndex);
-                Resources res = getResources();
-                String text = String.format(res.getString(R.string.title_edit), title);
-                setTitle(text);
-            // Sets the title to "create" for inserts
-            } else if (mState == STATE_INSERT) {
-                setTitle(getText(R.string.title_create));
-            }
+        /*
+         * Puts the note text into the TextView without moving the text cursor. The text is only
+         * replaced if the user hasn't changed it since the previous load, so a reload never
+         * overwrites edits that haven't been saved yet.
+         */
+        String note = cursor.getString(COLUMN_INDEX_NOTE);
+        if (mLoadedNote == null || mLoadedNote.equals(getNoteText())) {
+            showNote(note);
+            // The text now matches the provider, so there is nothing to autosave.
+            mHandler.removeCallbacks(mAutosaveRunnable);
+            mSavedText = note;
+            mSavedGeneration = mEditGeneration;
+        }
+        mLoadedNote = note;
 
-            /*
-             * onResume() may have been called after the Activity lost focus (was paused).
-             * The user was either editing or creating a note when the Activity paused.
-             * The Activity should re-display the text that had been retrieved previously, but
-             * it should not move the cursor. This helps the user to continue editing or entering.
-             */
+        // Stores the original note text, to allow the user to revert changes.
+        if (mOriginalContent == null) {
+            mOriginalContent = note;
+        }
+    }
 
-            // Gets the note text from the Cursor and puts it in the TextView, but doesn't change
-            // the text cursor's position.
-            int colNoteIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE);
-            String note = mCursor.getString(colNoteIndex);
+    /**
+     * Puts the note text into the EditText. A large note is shown through a LargeNoteWindow,
+     * so that only a window of its lines is laid out and drawn at a time; the window moves as
+     * the user scrolls.
+     */
+    private void showNote(String note) {
+        if (note.length() >= LargeNoteWindow.LARGE_NOTE_CHARS) {
+            if (mLargeNote == null) {
+                mLargeNote = new LargeNoteWindow(mText);
+                mText.getViewTreeObserver().addOnScrollChangedListener(mLargeNote);
+            }
+            mLargeNote.load(note);
+        } else {
+            if (mLargeNote != null) {
+                mText.getViewTreeObserver().removeOnScrollChangedListener(mLargeNote);
+                mLargeNote = null;
+            }
             mText.setTextKeepState(note);
+        }
+    }
 
-            // Stores the original note text, to allow the user to revert changes.
-            if (mOriginalContent == null) {
-                mOriginalContent = note;
-            }
+    /**
+     * Returns the full text of the note being edited, including the parts of a large note that
+     * are outside the window shown in the EditText.
+     */
+    private String getNoteText() {
+        return mLargeNote != null ? mLargeNote.getText() : mText.getText().toString();
+    }
 
-        /*
-         * Something is wrong. The Cursor should always contain data. Report an error in the
-         * note.
-         */
-        } else {
-            setTitle(getText(R.string.error_title));
-            mText.setText(getText(R.string.error_message));
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        // The loader closes the cursor itself.
+        if (loader.getId() == LOADER_NOTE) {
+            mCursor = null;
         }
     }
 
@@ -308,8 +427,12 @@ public class NoteEditor extends Activity {
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         // Save away the original text, so we still have it if the activity
-        // needs to be killed while paused.
-        outState.putString(ORIGINAL_CONTENT, mOriginalContent);
+        // needs to be killed while paused. Longer text is too big for the saved state; its
+        // revert falls back to the text loaded after the activity is recreated.
+        if (mOriginalContent != null
+                && mOriginalContent.length() <= MAX_SAVED_CONTENT_CHARS) {
+            outState.putString(ORIGINAL_CONTENT, mOriginalContent);
+        }
     }
 
     /**
@@ -328,6 +451,9 @@ public class NoteEditor extends Activity {
     protected void onPause() {
         super.onPause();
 
+        // Saves now instead of waiting for the autosave countdown
+        mHandler.removeCallbacks(mAutosaveRunnable);
+
         /*
          * Tests to see that the query operation didn't fail (see onCreate()). The Cursor object
          * will exist, even if no records were returned, unless the query failed because of some
@@ -337,7 +463,7 @@ public class NoteEditor extends Activity {
         if (mCursor != null) {
 
             // Get the current note text.
-            String text = mText.getText().toString();
+            String text = getNoteText();
             int length = text.length();
 
             /*
@@ -350,6 +476,13 @@ public class NoteEditor extends Activity {
                 setResult(RESULT_CANCELED);
                 deleteNote();
 
+                /*
+                 * Nothing has changed since the note was loaded or last saved. Skips the write,
+                 * so the modification date isn't bumped and the notes list isn't reordered.
+                 */
+            } else if (!isDirty()) {
+                return;
+
                 /*
                  * Writes the edits to the provider. The note has been edited if an existing note was
                  * retrieved into the editor *or* if a new note was inserted. In the latter case,
@@ -401,10 +534,8 @@ public class NoteEditor extends Activity {
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         // Check if note has changed and enable/disable the revert option
-        int colNoteIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE);
-        String savedNote = mCursor.getString(colNoteIndex);
-        String currentNote = mText.getText().toString();
-        if (savedNote.equals(currentNote)) {
+        String currentNote = getNoteText();
+        if (mCursor == null || currentNote.equals(mLoadedNote)) {
             menu.findItem(R.id.menu_revert).setVisible(false);
         } else {
             menu.findItem(R.id.menu_revert).setVisible(true);
@@ -426,8 +557,10 @@ public class NoteEditor extends Activity {
         // Handle all of the possible menu actions.
         int id = item.getItemId();
         if(id== R.id.menu_save) {
-            String text = mText.getText().toString();
-            updateNote(text, null);
+            mHandler.removeCallbacks(mAutosaveRunnable);
+            if (isDirty()) {
+                updateNote(getNoteText(), null);
+            }
             finish();
         } else if (id == R.id.menu_delete) {
             deleteNote();
@@ -441,6 +574,8 @@ public class NoteEditor extends Activity {
 //BEGIN_INCLUDE(paste)
     /**
      * A helper method that replaces the note's data with the contents of the clipboard.
+     * A note on the clipboard is read by a loader, so that a long note isn't read on the UI
+     * thread; it is pasted when the loader finishes, in onPasteLoaded().
      */
     private final void performPaste() {
 
@@ -455,9 +590,6 @@ public class NoteEditor extends Activity {
         ClipData clip = clipboard.getPrimaryClip();
         if (clip != null) {
 
-            String text=null;
-            String title=null;
-
             // Gets the first item from the clipboard data
             ClipData.Item item = clip.getItemAt(0);
 
@@ -469,39 +601,55 @@ public class NoteEditor extends Activity {
             // as the MIME type supported by the Note pad provider.
             if (uri != null && NotePad.Notes.CONTENT_ITEM_TYPE.equals(cr.getType(uri))) {
 
-                // The clipboard holds a reference to data with a note MIME type. This copies it.
-                Cursor orig = cr.query(
-                        uri,            // URI for the content provider
-                        PROJECTION,     // Get the columns referred to in the projection
-                        null,           // No selection variables
-                        null,           // No selection variables, so no criteria are needed
-                        null            // Use the default sort order
-                );
-
-                // If the Cursor is not null, and it contains at least one record
-                // (moveToFirst() returns true), then this gets the note data from it.
-                if (orig != null) {
-                    if (orig.moveToFirst()) {
-                        int colNoteIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE);
-                        int colTitleIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE);
-                        text = orig.getString(colNoteIndex);
-                        title = orig.getString(colTitleIndex);
-                    }
-
-                    // Closes the cursor.
-                    orig.close();
-                }
+                // The clipboard holds a reference to data with a note MIME type. This copies it
+                // once the loader has read its title and contents.
+                mPasteUri = uri;
+                Bundle args = new Bundle();
+                args.putParcelable(ARG_PASTE_URI, uri);
+                getLoaderManager().initLoader(LOADER_PASTE, args, this);
+                return;
             }
 
             // If the contents of the clipboard wasn't a reference to a note, then
-            // this converts whatever it is to text.
-            if (text == null) {
-                text = item.coerceToText(this).toString();
+            // this converts whatever it is to text, and updates the current note with it.
+            updateNote(item.coerceToText(this).toString(), null);
+        }
+    }
+
+    /**
+     * Pastes the clipboard note read by the paste loader into the current note.
+     */
+    private void onPasteLoaded(Cursor cursor) {
+        Uri uri = mPasteUri;
+        if (uri == null) {
+            // Already pasted; the loader delivers again when the pasted note changes.
+            return;
+        }
+        mPasteUri = null;
+        // The loader isn't needed any more. It is destroyed after this callback returns.
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                getLoaderManager().destroyLoader(LOADER_PASTE);
             }
+        });
 
-            // Updates the current note with the retrieved title and text.
-            updateNote(text, title);
+        String text;
+        String title = null;
+        if (cursor != null && cursor.moveToFirst()) {
+            title = cursor.getString(COLUMN_INDEX_TITLE);
+            text = cursor.getString(COLUMN_INDEX_NOTE);
+        } else {
+            // The note couldn't be read, for example because it was deleted. Pastes its URI,
+            // as ClipData.Item.coerceToText() does for a URI it can't open.
+            Log.w(TAG, "Unable to read pasted note " + uri);
+            text = uri.toString();
+        }
+        if (title == null) {
+            // The note was created for the paste, so it gets a title like any new note.
+            title = NoteTitles.fromText(text);
         }
+        updateNote(text, title);
     }
 //END_INCLUDE(paste)
 
@@ -521,22 +669,8 @@ public class NoteEditor extends Activity {
 
             // If no title was provided as an argument, create one from the note text.
             if (title == null) {
-  
-                // Get the note's length
-                int length = text.length();
-
-                // Sets the title by getting a substring of the text that is 31 characters long
-                // or the number of characters in the note plus one, whichever is smaller.
-                title = text.substring(0, Math.min(30, length));
-  
-                // If the resulting length is more than 30 characters, chops off any
-                // trailing spaces
-                if (length > 30) {
-                    int lastSpace = title.lastIndexOf(' ');
-                    if (lastSpace > 0) {
-                        title = title.substring(0, lastSpace);
-                    }
-                }
+                // Takes the first 30 characters, cut back to the last space if the note is longer.
+                title = NoteTitles.fromText(text);
             }
             // In the values map, sets the value of the title
             values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
@@ -549,24 +683,33 @@ public class NoteEditor extends Activity {
         values.put(NotePad.Notes.COLUMN_NAME_NOTE, text);
 
         /*
-         * Updates the provider with the new values in the map. The ListView is updated
+         * Queues the new values for the background writer. The ListView is updated
          * automatically. The provider sets this up by setting the notification URI for
          * query Cursor objects to the incoming URI. The content resolver is thus
          * automatically notified when the Cursor for the URI changes, and the UI is
-         * updated.
-         * Note: This is being done on the UI thread. It will block the thread until the
-         * update completes. In a sample app, going against a simple provider based on a
-         * local database, the block will be momentary, but in a real app you should use
-         * android.content.AsyncQueryHandler or android.os.AsyncTask.
+         * updated. If an earlier save of this note is still waiting in the queue, it is
+         * replaced, so only the latest text is written.
          */
-        getContentResolver().update(
-                mUri,    // The URI for the record to update.
-                values,  // The map of column names and new values to apply to them.
-                null,    // No selection criteria are used, so no where columns are necessary.
-                null     // No where columns are used, so no where arguments are necessary.
-            );
+        mAutosaver.save(mUri, values);
 
+        // The queued text is now the saved state of the note.
+        mSavedText = text;
+        mSavedGeneration = mEditGeneration;
+    }
 
+    /**
+     * Returns true if the text has been edited since it was last loaded or saved, and differs
+     * from the text that was saved. Edits that end up restoring the saved text don't count.
+     */
+    private boolean isDirty() {
+        if (mEditGeneration == mSavedGeneration) {
+            return false;
+        }
+        if (getNoteText().equals(mSavedText)) {
+            mSavedGeneration = mEditGeneration;
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -577,11 +720,12 @@ public class NoteEditor extends Activity {
         if (mCursor != null) {
             if (mState == STATE_EDIT) {
                 // Put the original note text back into the database
-                mCursor.close();
-                mCursor = null;
+                stopLoadingNote();
+                mHandler.removeCallbacks(mAutosaveRunnable);
                 ContentValues values = new ContentValues();
                 values.put(NotePad.Notes.COLUMN_NAME_NOTE, mOriginalContent);
-                getContentResolver().update(mUri, values, null, null);
+                // Replaces any autosave of this note that is still waiting to be written
+                mAutosaver.save(mUri, values);
             } else if (mState == STATE_INSERT) {
                 // We inserted an empty note, make sure to delete it
                 deleteNote();
@@ -592,14 +736,31 @@ public class NoteEditor extends Activity {
     }
 
     /**
-     * Take care of deleting a note.  Simply deletes the entry.
+     * Take care of deleting a note.  The provider moves it to the trash.
      */
     private final void deleteNote() {
         if (mCursor != null) {
-            mCursor.close();
-            mCursor = null;
+            stopLoadingNote();
+            // Drops any pending autosave, so it isn't written after the delete
+            mHandler.removeCallbacks(mAutosaveRunnable);
+            mAutosaver.cancel(mUri);
             getContentResolver().delete(mUri, null, null);
-            mText.setText("");
+            showNote("");
         }
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mHandler.removeCallbacks(mAutosaveRunnable);
+    }
+
+    /**
+     * Stops the loader before the note is reverted or deleted, so that the change doesn't
+     * trigger a reload. The loader closes its cursor.
+     */
+    private final void stopLoadingNote() {
+        getLoaderManager().destroyLoader(LOADER_NOTE);
+        mCursor = null;
+    }
 }
@@ -0,0 +1,256 @@
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 数据库的定期维护，由 {@link NotePadProvider#call} 按时间片执行。
+ *
+ * 每个项目有各自的间隔，只执行到期的项目：清理回收站中过期的记录、释放空闲页、
+ * 截断WAL文件、更新查询优化器使用的统计信息、检查数据库完整性。
+ * 清理回收站和释放空闲页分批进行，时间片用完时停在两批之间，记为未完成，下一个时间片继续；
+ * 其他项目都是单条语句，只在开始前检查时间片。每个项目的开始时间、耗时和结果记录在
+ * {@link #TABLE_NAME} 表中，见 {@link NotePad#METHOD_MAINTENANCE_STATUS}。
+ *
+ * 在 Android 5.0 及以上由 {@link NoteMaintenanceService} 在设备空闲且充电时调度，
+ * 更早的版本在Provider启动时执行一个时间片。
+ */
+final class NoteMaintenance {
+    private static final String TAG = "NoteMaintenance";
+
+    /** 各项目最近一次执行情况的表 */
+    static final String TABLE_NAME = "maintenance_log";
+
+    private static final String COLUMN_JOB = "job";
+    private static final String COLUMN_LAST_RUN = "last_run";
+    private static final String COLUMN_DURATION = "duration";
+    private static final String COLUMN_RESULT = "result";
+
+    /** 未指定时一个时间片的长度 */
+    static final long DEFAULT_BUDGET_MS = 500;
+
+    static final String RESULT_OK = "ok";
+    static final String RESULT_INCOMPLETE = "incomplete";
+    /** 项目这次不能执行（例如较大的数据库要等设备空闲时才转换为增量清理），下一个时间片再试 */
+    static final String RESULT_DEFERRED = "deferred";
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    // 按顺序执行：先清理回收站再释放空闲页，然后截断WAL，最后更新统计信息和检查完整性
+    private static final String[] JOBS = {
+            NotePad.MAINTENANCE_PURGE_TRASH,
+            NotePad.MAINTENANCE_VACUUM,
+            NotePad.MAINTENANCE_CHECKPOINT,
+            NotePad.MAINTENANCE_ANALYZE,
+            NotePad.MAINTENANCE_INTEGRITY_CHECK,
+    };
+    private static final long[] INTERVALS = {
+            DAY_MS,
+            DAY_MS,
+            DAY_MS,
+            7 * DAY_MS,
+            7 * DAY_MS,
+    };
+
+    /**
+     * 永久删除了回收站中的记录时调用，在执行维护的线程上
+     */
+    interface Listener {
+        void onTrashPurged();
+    }
+
+    private final SQLiteOpenHelper mOpenHelper;
+    private final Listener mListener;
+    private volatile boolean mStopRequested;
+
+    NoteMaintenance(SQLiteOpenHelper openHelper, Listener listener) {
+        mOpenHelper = openHelper;
+        mListener = listener;
+    }
+
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NAME + " ("
+                + COLUMN_JOB + " TEXT PRIMARY KEY,"
+                + COLUMN_LAST_RUN + " INTEGER,"
+                + COLUMN_DURATION + " INTEGER,"
+                + COLUMN_RESULT + " TEXT"
+                + ");");
+    }
+
+    /**
+     * 执行一个时间片的维护，不执行无法按时间片停止的操作
+     * @see #run(long, String, boolean)
+     */
+    boolean run(long budgetMs, String job) {
+        return run(budgetMs, job, false);
+    }
+
+    /**
+     * 执行一个时间片的维护，同一时间只有一个时间片在执行
+     * @param budgetMs 时间片长度，用完后不再开始新的项目或新的一批
+     * @param job 只执行这一项（不论是否到期），为null时按顺序执行到期的项目
+     * @param idle 设备是否空闲：为true时才允许执行无法按时间片停止的操作，
+     *             即较大的数据库转换为增量清理时的完整 VACUUM，它可能远远超出 budgetMs
+     * @return 到期的项目是否已全部完成；执行失败或推迟的项目按已完成处理，
+     *         失败的到下一个间隔再执行，推迟的在下一个时间片再试
+     */
+    synchronized boolean run(long budgetMs, String job, boolean idle) {
+        if (job != null && indexOf(job) < 0) {
+            throw new IllegalArgumentException("Unknown maintenance job " + job);
+        }
+        mStopRequested = false;
+        long deadline = SystemClock.uptimeMillis() + budgetMs;
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        HashMap<String, Bundle> status = readStatus(db);
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < JOBS.length; i++) {
+            if (job != null ? !job.equals(JOBS[i]) : !isDue(status.get(JOBS[i]), INTERVALS[i], now)) {
+                continue;
+            }
+            if (mStopRequested || SystemClock.uptimeMillis() >= deadline) {
+                return false;
+            }
+            long start = SystemClock.uptimeMillis();
+            long startTime = System.currentTimeMillis();
+            String result;
+            try {
+                result = runJob(db, JOBS[i], deadline, idle);
+            } catch (SQLException e) {
+                Log.e(TAG, "Maintenance job " + JOBS[i] + " failed", e);
+                result = String.valueOf(e.getMessage());
+            }
+            long duration = SystemClock.uptimeMillis() - start;
+            Log.i(TAG, JOBS[i] + ": " + result + " in " + duration + " ms");
+            record(db, JOBS[i], startTime, duration, result);
+            if (RESULT_INCOMPLETE.equals(result)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 让正在执行的时间片在当前项目结束后停止
+     */
+    void stop() {
+        mStopRequested = true;
+    }
+
+    /**
+     * @return 各项目最近一次的执行情况，格式见 {@link NotePad#METHOD_MAINTENANCE_STATUS}
+     */
+    Bundle getStatus() {
+        Bundle result = new Bundle();
+        for (Map.Entry<String, Bundle> entry
+                : readStatus(mOpenHelper.getReadableDatabase()).entrySet()) {
+            result.putBundle(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    private String runJob(SQLiteDatabase db, String job, long deadline, boolean idle) {
+        if (NotePad.MAINTENANCE_PURGE_TRASH.equals(job)) {
+            long now = System.currentTimeMillis();
+            if (NoteTrash.purge(db, now, deadline) > 0) {
+                mListener.onTrashPurged();
+            }
+            return NoteTrash.hasExpired(db, now) ? RESULT_INCOMPLETE : RESULT_OK;
+        } else if (NotePad.MAINTENANCE_VACUUM.equals(job)) {
+            if (!NoteTrash.isIncrementalVacuum(db)) {
+                // 转换只能一次完成，不受时间片限制：较大的数据库推迟到设备空闲时
+                if (!idle && NoteTrash.databaseSize(db) > NoteTrash.SMALL_DATABASE_BYTES) {
+                    return RESULT_DEFERRED;
+                }
+                NoteTrash.enableIncrementalVacuum(db);
+                return RESULT_OK;
+            }
+            return NoteTrash.vacuum(db, deadline) ? RESULT_OK : RESULT_INCOMPLETE;
+        } else if (NotePad.MAINTENANCE_CHECKPOINT.equals(job)) {
+            // 结果的第一列为1表示有读取方占用WAL，检查点没有完成
+            Cursor c = db.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null);
+            try {
+                return c.moveToFirst() && c.getInt(0) != 0 ? RESULT_INCOMPLETE : RESULT_OK;
+            } finally {
+                c.close();
+            }
+        } else if (NotePad.MAINTENANCE_ANALYZE.equals(job)) {
+            db.execSQL("ANALYZE");
+            // 系统SQLite不支持 optimize 时忽略
+            Cursor c = db.rawQuery("PRAGMA optimize", null);
+            try {
+                c.moveToFirst();
+            } finally {
+                c.close();
+            }
+            return RESULT_OK;
+        } else {
+            String result = DatabaseUtils.stringForQuery(db, "PRAGMA quick_check", null);
+            if (!RESULT_OK.equals(result)) {
+                Log.e(TAG, "Database integrity check failed: " + result);
+            }
+            return result;
+        }
+    }
+
+    private static boolean isDue(Bundle status, long interval, long now) {
+        if (status == null) {
+            return true;
+        }
+        String result = status.getString(NotePad.KEY_RESULT);
+        if (RESULT_INCOMPLETE.equals(result) || RESULT_DEFERRED.equals(result)) {
+            return true;
+        }
+        long lastRun = status.getLong(NotePad.KEY_LAST_RUN);
+        // 系统时间被调回时也执行
+        return now - lastRun >= interval || now < lastRun;
+    }
+
+    private static int indexOf(String job) {
+        for (int i = 0; i < JOBS.length; i++) {
+            if (JOBS[i].equals(job)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static HashMap<String, Bundle> readStatus(SQLiteDatabase db) {
+        HashMap<String, Bundle> status = new HashMap<String, Bundle>();
+        Cursor c = db.query(TABLE_NAME, new String[] {
+                COLUMN_JOB, COLUMN_LAST_RUN, COLUMN_DURATION, COLUMN_RESULT },
+                null, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                Bundle job = new Bundle();
+                job.putLong(NotePad.KEY_LAST_RUN, c.getLong(1));
+                job.putLong(NotePad.KEY_DURATION, c.getLong(2));
+                job.putString(NotePad.KEY_RESULT, c.getString(3));
+                status.put(c.getString(0), job);
+            }
+        } finally {
+            c.close();
+        }
+        return status;
+    }
+
+    private static void record(SQLiteDatabase db, String job, long lastRun, long duration,
+                               String result) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_JOB, job);
+        values.put(COLUMN_LAST_RUN, lastRun);
+        values.put(COLUMN_DURATION, duration);
+        values.put(COLUMN_RESULT, result);
+        db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.android.notepad;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+/**
+ * 在设备空闲且充电时执行数据库维护（见 {@link NoteMaintenance}）。
+ *
+ * 每天最多调度一次。执行时连续调用 {@link NotePad#METHOD_RUN_MAINTENANCE}，
+ * 每个时间片之间稍作停顿，让出数据库连接；到期的项目全部完成即结束。
+ * 任务只在设备空闲时执行，因此允许较大的旧数据库一次性转换为增量清理
+ * （见 {@link NotePad#KEY_MAINTENANCE_IDLE}）。
+ * 设备不再空闲时系统停止任务，正在执行的项目结束后停止，剩下的项目按退避策略稍后继续。
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class NoteMaintenanceService extends JobService {
+
+    private static final int JOB_ID = 1;
+
+    /** 两个时间片之间的停顿 */
+    private static final long SLICE_PAUSE_MS = 1000;
+
+    /** 一次执行最多的时间片数，超过后交给系统稍后重新调度 */
+    private static final int MAX_SLICES = 30;
+
+    private AsyncTask<Void, Void, Boolean> mTask;
+
+    /**
+     * 登记周期性的维护任务，已经登记时不重复登记
+     */
+    static void schedule(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) {
+            return;
+        }
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, NoteMaintenanceService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(AlarmManager.INTERVAL_DAY)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mTask = new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... unused) {
+                Bundle extras = new Bundle();
+                extras.putBoolean(NotePad.KEY_MAINTENANCE_IDLE, true);
+                for (int i = 0; i < MAX_SLICES && !isCancelled(); i++) {
+                    if (i > 0) {
+                        SystemClock.sleep(SLICE_PAUSE_MS);
+                    }
+                    Bundle result = getContentResolver().call(NotePad.Notes.CONTENT_URI,
+                            NotePad.METHOD_RUN_MAINTENANCE, null, extras);
+                    if (result != null && result.getBoolean(NotePad.KEY_MAINTENANCE_DONE)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            protected void onPostExecute(Boolean done) {
+                jobFinished(params, !done);
+            }
+        };
+        mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+        getContentResolver().call(NotePad.Notes.CONTENT_URI,
+                NotePad.METHOD_STOP_MAINTENANCE, null, null);
+        return true;
+    }
+}
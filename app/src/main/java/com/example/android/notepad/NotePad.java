@@ -26,6 +26,144 @@ import android.provider.BaseColumns;
 public final class NotePad {
     public static final String AUTHORITY = "com.google.provider.NotePad";
 
+    /**
+     * 分页查询参数：每页最多返回的行数。适用于笔记列表、笔记搜索和待办事项列表的URI。
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * 分页查询参数：上一页最后一行的键，格式为 "时间,_id"。
+     * 笔记取修改时间，待办事项取创建时间。分页结果固定按 (时间, _id) 倒序排列，
+     * 使用分页参数时不能再指定排序方式。
+     */
+    public static final String QUERY_PARAMETER_AFTER = "after";
+
+    /**
+     * 变更通知URI上的参数：变化的类型，取值为 {@link #CHANGE_INSERT}、{@link #CHANGE_UPDATE}
+     * 或 {@link #CHANGE_DELETE}。
+     *
+     * Provider把短时间内（或同一个事务中）的写入合并后再通知，每条变化的记录以单条记录的URI通知，
+     * 例如 notes/5?change=update，观察者可以只刷新这一行。变化的行数较多或无法确定时，
+     * 以不带该参数的目录URI（如 notes）通知，观察者应重新查询整个列表。
+     */
+    public static final String QUERY_PARAMETER_CHANGE = "change";
+
+    public static final String CHANGE_INSERT = "insert";
+    public static final String CHANGE_UPDATE = "update";
+    public static final String CHANGE_DELETE = "delete";
+
+    /**
+     * Provider方法（通过 ContentResolver.call() 调用）：返回单条笔记读取缓存的统计，
+     * 结果中的键见 {@link #KEY_CACHE_HITS} 等常量
+     */
+    public static final String METHOD_CACHE_STATS = "cache_stats";
+
+    /**
+     * 缓存统计：命中次数、未命中次数、淘汰次数（int）
+     */
+    public static final String KEY_CACHE_HITS = "hits";
+    public static final String KEY_CACHE_MISSES = "misses";
+    public static final String KEY_CACHE_EVICTIONS = "evictions";
+
+    /**
+     * 缓存统计：当前占用和上限，单位为字节（int）
+     */
+    public static final String KEY_CACHE_SIZE = "size";
+    public static final String KEY_CACHE_MAX_SIZE = "max_size";
+
+    /**
+     * Provider方法：执行一个时间片的数据库维护（清理回收站、增量清理、WAL检查点、
+     * 更新统计信息、完整性检查），只执行到期的项目，不能在主线程调用。
+     * extras 可以用 {@link #KEY_MAINTENANCE_BUDGET} 指定时间片长度，
+     * 或用 {@link #KEY_MAINTENANCE_JOB} 立即执行某一项（不论是否到期），
+     * 设备空闲时用 {@link #KEY_MAINTENANCE_IDLE} 允许执行不受时间片限制的操作。
+     * 结果中的 {@link #KEY_MAINTENANCE_DONE} 表示到期的项目是否已全部完成。
+     */
+    public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+
+    /**
+     * Provider方法：让正在执行的维护在当前这一项结束后停止，未完成的项目下次继续
+     */
+    public static final String METHOD_STOP_MAINTENANCE = "stop_maintenance";
+
+    /**
+     * Provider方法：返回每个维护项目最近一次的执行情况。结果中以项目名（如
+     * {@link #MAINTENANCE_ANALYZE}）为键，值为包含 {@link #KEY_LAST_RUN}、
+     * {@link #KEY_DURATION} 和 {@link #KEY_RESULT} 的 Bundle，从未执行的项目不在结果中
+     */
+    public static final String METHOD_MAINTENANCE_STATUS = "maintenance_status";
+
+    /**
+     * 维护项目名
+     */
+    public static final String MAINTENANCE_PURGE_TRASH = "purge_trash";
+    public static final String MAINTENANCE_VACUUM = "incremental_vacuum";
+    public static final String MAINTENANCE_CHECKPOINT = "wal_checkpoint";
+    public static final String MAINTENANCE_ANALYZE = "analyze";
+    public static final String MAINTENANCE_INTEGRITY_CHECK = "integrity_check";
+
+    /**
+     * 维护参数：时间片长度，单位为毫秒（long）；维护项目名（String）
+     */
+    public static final String KEY_MAINTENANCE_BUDGET = "budget";
+    public static final String KEY_MAINTENANCE_JOB = "job";
+
+    /**
+     * 维护参数：设备是否空闲（boolean）。只有为true时，较大的旧数据库才会转换为增量清理：
+     * 转换需要一次完整的 VACUUM，无法按时间片中途停止，期间其他写入都要等待
+     */
+    public static final String KEY_MAINTENANCE_IDLE = "idle";
+
+    /**
+     * 维护结果：到期的项目是否已全部完成（boolean）
+     */
+    public static final String KEY_MAINTENANCE_DONE = "done";
+
+    /**
+     * 维护状态：最近一次开始执行的时间（long），耗时毫秒数（long），
+     * 结果（String，"ok"、"incomplete"，或失败的原因）
+     */
+    public static final String KEY_LAST_RUN = "last_run";
+    public static final String KEY_DURATION = "duration";
+    public static final String KEY_RESULT = "result";
+
+    /**
+     * Provider方法：返回各操作的性能统计。结果中以 "操作/URI类型" 为键（如 query/NOTES、
+     * insert/TODOS、openTypedAssetFile/NOTE_ID），值为包含 {@link #KEY_OPERATION_COUNT} 等
+     * 统计的 Bundle；{@link #KEY_HISTOGRAM_BOUNDS} 为耗时分布的区间，
+     * {@link #KEY_SLOW_QUERIES} 为最近的慢查询。同样的内容也可以用
+     * adb shell dumpsys activity provider com.example.android.notepad/.NotePadProvider 查看。
+     */
+    public static final String METHOD_METRICS = "metrics";
+
+    /**
+     * 性能统计：次数、总耗时和最大耗时（微秒）、返回或影响的行数、返回的字节数（long）；
+     * 耗时分布（long[]，每个区间的次数）
+     */
+    public static final String KEY_OPERATION_COUNT = "count";
+    public static final String KEY_OPERATION_TOTAL_MICROS = "total_us";
+    public static final String KEY_OPERATION_MAX_MICROS = "max_us";
+    public static final String KEY_OPERATION_ROWS = "rows";
+    public static final String KEY_OPERATION_BYTES = "bytes";
+    public static final String KEY_OPERATION_HISTOGRAM = "histogram";
+
+    /**
+     * 性能统计：耗时分布各区间的上限，单位为毫秒（long[]）；
+     * 耗时分布比上限多一个区间，即超过最后一个上限的次数
+     */
+    public static final String KEY_HISTOGRAM_BOUNDS = "histogram_bounds_ms";
+
+    /**
+     * 性能统计：最近的慢查询（ArrayList&lt;Bundle&gt;，最早的在前）。每条包含发生时间（long）、
+     * URI类型（String）、执行时间毫秒数（long）、查询语句（String）和查询计划（String）
+     */
+    public static final String KEY_SLOW_QUERIES = "slow_queries";
+    public static final String KEY_SLOW_QUERY_TIME = "time";
+    public static final String KEY_SLOW_QUERY_URI_TYPE = "uri_type";
+    public static final String KEY_SLOW_QUERY_DURATION = "duration_ms";
+    public static final String KEY_SLOW_QUERY_SQL = "sql";
+    public static final String KEY_SLOW_QUERY_PLAN = "plan";
+
     // 禁止实例化此类
     private NotePad() {
     }
@@ -76,6 +214,16 @@ public final class NotePad {
          */
         private static final String PATH_LIVE_FOLDER = "/live_folders/notes";
 
+        /**
+         * 全文搜索的路径
+         */
+        private static final String PATH_SEARCH = "/notes/search";
+
+        /**
+         * 回收站的路径
+         */
+        private static final String PATH_TRASH = "/notes/trash";
+
         /**
          * 笔记列表的完整URI
          */
@@ -99,6 +247,69 @@ public final class NotePad {
         public static final Uri LIVE_FOLDER_URI
                 = Uri.parse(SCHEME + AUTHORITY + PATH_LIVE_FOLDER);
 
+        /**
+         * 全文搜索的URI，搜索关键词通过 {@link #QUERY_PARAMETER_SEARCH} 参数传入
+         */
+        public static final Uri CONTENT_SEARCH_URI
+                = Uri.parse(SCHEME + AUTHORITY + PATH_SEARCH);
+
+        /**
+         * 回收站中的笔记。
+         *
+         * 对 {@link #CONTENT_URI} 和单个笔记URI的 delete() 只把笔记移入回收站（记录删除时间），
+         * 笔记从列表、搜索和单条查询中消失。回收站URI可以查询已删除的笔记（按删除时间倒序）；
+         * 对其中的笔记 update() 且只把 {@link #COLUMN_NAME_DELETED} 设为0即恢复；
+         * 对其 delete() 则永久删除。移入回收站超过30天的笔记由后台清理。
+         */
+        public static final Uri CONTENT_TRASH_URI
+                = Uri.parse(SCHEME + AUTHORITY + PATH_TRASH);
+
+        /**
+         * 回收站中单个笔记的基础URI（需要追加ID）
+         */
+        public static final Uri CONTENT_TRASH_ID_URI_BASE
+                = Uri.parse(SCHEME + AUTHORITY + PATH_TRASH + "/");
+
+        /**
+         * 回收站中笔记ID在URI路径中的位置（0为起始索引）
+         */
+        public static final int TRASH_ID_PATH_POSITION = 2;
+
+        /**
+         * 搜索URI的关键词参数名，多个关键词以空格分隔，按前缀匹配标题和内容
+         */
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * 笔记内容流在笔记URI下的路径段：notes/#/body。
+         *
+         * 用 ContentResolver.openInputStream() 读取笔记内容（UTF-8文本），内容分段写入管道，
+         * 不经过游标，不受 CursorWindow 大小的限制。用 openOutputStream() 写入新的内容，
+         * URI上必须带 {@link #QUERY_PARAMETER_LENGTH} 参数；流关闭后Provider异步保存，
+         * 收到的字符数与声明的不一致时不保存。
+         */
+        public static final String PATH_SEGMENT_BODY = "body";
+
+        /**
+         * 写入内容流时的参数：内容的字符数（Java字符串的长度）
+         */
+        public static final String QUERY_PARAMETER_LENGTH = "length";
+
+        /**
+         * 写入内容流时的可选参数：笔记的新标题，与内容在同一次更新中保存
+         */
+        public static final String QUERY_PARAMETER_TITLE = "title";
+
+        /**
+         * 构造某条笔记的内容流URI
+         */
+        public static Uri buildBodyUri(long noteId) {
+            return CONTENT_ID_URI_BASE.buildUpon()
+                    .appendPath(String.valueOf(noteId))
+                    .appendPath(PATH_SEGMENT_BODY)
+                    .build();
+        }
+
         /*
          * MIME类型定义
          */
@@ -131,6 +342,10 @@ public final class NotePad {
         /**
          * 笔记内容列
          * <P>类型: TEXT</P>
+         * <P>较长的内容在Provider中压缩或分块存储，查询结果中照常返回原文，
+         * 但选择条件中的这一列只能看到以文本存储的短内容（长笔记的这一列为NULL），
+         * 例如 {@code note LIKE ?} 会漏掉所有长笔记。按内容查找请使用 {@link #CONTENT_SEARCH_URI}。
+         * 写入NULL按空内容保存。</P>
          */
         public static final String COLUMN_NAME_NOTE = "note";
 
@@ -145,6 +360,147 @@ public final class NotePad {
          * <P>类型: INTEGER (从System.currentTimeMillis()获取的长整数)</P>
          */
         public static final String COLUMN_NAME_MODIFICATION_DATE = "modified";
+
+        /**
+         * 移入回收站的时间，未删除的笔记为0。
+         * <P>类型: INTEGER (从System.currentTimeMillis()获取的长整数)</P>
+         */
+        public static final String COLUMN_NAME_DELETED = "deleted";
+
+        /**
+         * 回收站的默认排序方式（按删除时间降序）
+         */
+        public static final String TRASH_SORT_ORDER = "deleted DESC";
+
+        /*
+         * 派生列：由Provider在每次写入内容时计算，只读。列表显示预览时只需读取这些列，
+         * 不必把完整内容读入游标。
+         */
+
+        /**
+         * 内容预览：内容的前 {@link #PREVIEW_LENGTH} 个字符，换行替换为空格
+         * <P>类型: TEXT</P>
+         */
+        public static final String COLUMN_NAME_PREVIEW = "preview";
+
+        /**
+         * 内容的字符数
+         * <P>类型: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_CHAR_COUNT = "char_count";
+
+        /**
+         * 内容的行数，空内容为0
+         * <P>类型: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_LINE_COUNT = "line_count";
+
+        /**
+         * 预览列的最大字符数
+         */
+        public static final int PREVIEW_LENGTH = 100;
+    }
+
+    /**
+     * 笔记历史版本的数据结构定义。
+     *
+     * 每次保存笔记内容时记录一个版本，版本以相对上一版本的差量存储，并定期保存完整快照。
+     * 通过 {@link #buildRevisionsUri(long)} 列出某条笔记的版本（不含内容），
+     * 查询单个版本的URI可得到该版本的完整内容；对单个版本的URI调用 update() 即把笔记恢复为该版本。
+     */
+    public static final class NoteRevisions implements BaseColumns {
+
+        // 禁止实例化此类
+        private NoteRevisions() {}
+
+        /**
+         * 表名
+         */
+        public static final String TABLE_NAME = "note_revisions";
+
+        /**
+         * 版本在笔记URI下的路径段：notes/#/revisions 和 notes/#/revisions/#
+         */
+        public static final String PATH_SEGMENT = "revisions";
+
+        /**
+         * 笔记ID在URI路径中的位置（0为起始索引）
+         */
+        public static final int NOTE_ID_PATH_POSITION = 1;
+
+        /**
+         * 版本ID在URI路径中的位置（0为起始索引）
+         */
+        public static final int REVISION_ID_PATH_POSITION = 3;
+
+        /**
+         * 构造某条笔记的版本列表URI
+         */
+        public static Uri buildRevisionsUri(long noteId) {
+            return Notes.CONTENT_ID_URI_BASE.buildUpon()
+                    .appendPath(String.valueOf(noteId))
+                    .appendPath(PATH_SEGMENT)
+                    .build();
+        }
+
+        /**
+         * 构造单个版本的URI
+         */
+        public static Uri buildRevisionUri(long noteId, long revisionId) {
+            return buildRevisionsUri(noteId).buildUpon()
+                    .appendPath(String.valueOf(revisionId))
+                    .build();
+        }
+
+        /**
+         * 版本列表的MIME类型
+         */
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.note.revision";
+
+        /**
+         * 单个版本的MIME类型
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/vnd.google.note.revision";
+
+        /**
+         * 默认排序方式（最新的版本在前）
+         */
+        public static final String DEFAULT_SORT_ORDER = "_id DESC";
+
+        /*
+         * 列定义
+         */
+
+        /**
+         * 所属笔记的ID
+         * <P>类型: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_NOTE_ID = "note_id";
+
+        /**
+         * 版本创建时间
+         * <P>类型: INTEGER (从System.currentTimeMillis()获取的长整数)</P>
+         */
+        public static final String COLUMN_NAME_CREATE_DATE = "created";
+
+        /**
+         * 该版本的笔记标题
+         * <P>类型: TEXT</P>
+         */
+        public static final String COLUMN_NAME_TITLE = "title";
+
+        /**
+         * 该版本笔记内容的字符数
+         * <P>类型: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_LENGTH = "length";
+
+        /**
+         * 该版本的完整笔记内容，只有单个版本的URI返回此列
+         * <P>类型: TEXT</P>
+         */
+        public static final String COLUMN_NAME_NOTE = "note";
     }
 
     /**
@@ -203,6 +559,22 @@ public final class NotePad {
          */
         public static final Uri CONTENT_ID_URI_PATTERN = Uri.parse(SCHEME + AUTHORITY + PATH_TODO_ID + "/#");
 
+        /**
+         * 回收站中的待办事项，用法同 {@link Notes#CONTENT_TRASH_URI}
+         */
+        public static final Uri CONTENT_TRASH_URI = Uri.parse(SCHEME + AUTHORITY + "/todos/trash");
+
+        /**
+         * 回收站中单个待办事项的基础URI（需要追加ID）
+         */
+        public static final Uri CONTENT_TRASH_ID_URI_BASE =
+                Uri.parse(SCHEME + AUTHORITY + "/todos/trash/");
+
+        /**
+         * 回收站中待办事项ID在URI路径中的位置（0为起始索引）
+         */
+        public static final int TRASH_ID_PATH_POSITION = 2;
+
         /*
          * MIME类型定义
          */
@@ -222,6 +594,11 @@ public final class NotePad {
          */
         public static final String DEFAULT_SORT_ORDER = "created DESC";
 
+        /**
+         * 回收站的默认排序方式（按删除时间降序）
+         */
+        public static final String TRASH_SORT_ORDER = "deleted DESC";
+
         /*
          * 列定义
          */
@@ -244,6 +621,12 @@ public final class NotePad {
          */
         public static final String COLUMN_NAME_COMPLETED = "completed";
 
+        /**
+         * 移入回收站的时间，未删除的待办事项为0。
+         * <P>类型: INTEGER (从System.currentTimeMillis()获取的长整数)</P>
+         */
+        public static final String COLUMN_NAME_DELETED = "deleted";
+
         /**
          * 创建时间列
          * <P>类型: INTEGER (从System.currentTimeMillis()获取的长整数)</P>
@@ -17,35 +17,57 @@
 package com.example.android.notepad;
 
 import com.example.android.notepad.NotePad;
+import com.example.android.notepad.core.NoteQueries;
 
 import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.content.ContentProvider.PipeDataWriter;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
 import android.provider.LiveFolders;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 
 public class NotePadProvider extends ContentProvider implements PipeDataWriter<Cursor> {
@@ -58,9 +80,25 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     private static final String DATABASE_NAME = "note_pad.db";
 
     /**
-     * 数据库版本升级为3（原版本为2），以支持待办事项表
+     * 数据库版本：
+     * 3 - 新增待办事项表
+     * 4 - 新增笔记全文索引表
+     * 5 - 新增排序和过滤列上的索引
+     * 6 - 新增笔记历史版本表
+     * 7 - 新增笔记内容压缩列
+     * 8 - 新增笔记预览、字符数和行数列
+     * 9 - 新增笔记分块表
+     * 10 - 新增删除时间列（回收站）
+     * 11 - 新增数据库维护记录表
+     * 12 - 分页时间列（笔记修改时间、待办创建时间）中的NULL改为0
+     * 13 - 新增笔记历史版本的分段表
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 13;
+
+    /**
+     * 笔记全文索引（FTS4虚拟表），docid 与笔记的 _id 一一对应，由触发器保持同步
+     */
+    private static final String NOTES_FTS_TABLE_NAME = "notes_fts";
 
     /**
      * 投影映射：笔记表和待办事项表
@@ -68,17 +106,31 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     private static HashMap<String, String> sNotesProjectionMap;
     private static HashMap<String, String> sTodosProjectionMap;
     private static HashMap<String, String> sLiveFolderProjectionMap;
+    private static HashMap<String, String> sRevisionsProjectionMap;
 
     /**
      * 笔记查询的标准投影
      */
     private static final String[] READ_NOTE_PROJECTION = new String[] {
             NotePad.Notes._ID,
-            NotePad.Notes.COLUMN_NAME_NOTE,
             NotePad.Notes.COLUMN_NAME_TITLE,
     };
-    private static final int READ_NOTE_NOTE_INDEX = 1;
-    private static final int READ_NOTE_TITLE_INDEX = 2;
+    private static final int READ_NOTE_ID_INDEX = 0;
+    private static final int READ_NOTE_TITLE_INDEX = 1;
+
+    /**
+     * 未指定投影时查询笔记返回的列，顺序与笔记表一致，不含内部的压缩内容列
+     */
+    private static final String[] NOTES_DEFAULT_PROJECTION = new String[] {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_NOTE,
+            NotePad.Notes.COLUMN_NAME_CREATE_DATE,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+            NotePad.Notes.COLUMN_NAME_PREVIEW,
+            NotePad.Notes.COLUMN_NAME_CHAR_COUNT,
+            NotePad.Notes.COLUMN_NAME_LINE_COUNT,
+    };
 
     /*
      * URI匹配器的常量定义，新增待办事项相关
@@ -89,6 +141,27 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     // 新增：待办事项列表和单个待办事项的匹配常量
     private static final int TODOS = 4;
     private static final int TODO_ID = 5;
+    // 新增：笔记全文搜索
+    private static final int NOTES_SEARCH = 6;
+    // 新增：笔记历史版本列表和单个版本
+    private static final int NOTE_REVISIONS = 7;
+    private static final int NOTE_REVISION_ID = 8;
+    // 新增：笔记内容流
+    private static final int NOTE_BODY = 9;
+    // 新增：回收站中的笔记和待办事项
+    private static final int NOTES_TRASH = 10;
+    private static final int NOTE_TRASH_ID = 11;
+    private static final int TODOS_TRASH = 12;
+    private static final int TODO_TRASH_ID = 13;
+
+    /**
+     * 性能统计中使用的URI类型名，下标为匹配常量（0 不是匹配常量）
+     */
+    private static final String[] URI_TYPES = {
+            "UNKNOWN", "NOTES", "NOTE_ID", "LIVE_FOLDER_NOTES", "TODOS", "TODO_ID",
+            "NOTES_SEARCH", "NOTE_REVISIONS", "NOTE_REVISION_ID", "NOTE_BODY",
+            "NOTES_TRASH", "NOTE_TRASH_ID", "TODOS_TRASH", "TODO_TRASH_ID",
+    };
 
     /**
      * URI匹配器实例
@@ -98,6 +171,43 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     // 数据库帮助类实例
     private DatabaseHelper mOpenHelper;
 
+    // 当前线程正在进行的批量操作（bulkInsert/applyBatch），不在批量操作中时为null
+    private final ThreadLocal<BatchContext> mBatch = new ThreadLocal<BatchContext>();
+
+    /** 批量操作以外的写入合并通知的时间窗口 */
+    private static final long NOTIFY_DELAY_MS = 100;
+
+    // 批量操作以外的写入产生的、等待合并通知的变化，访问时对其加锁
+    private final ChangeSet mPendingChanges = new ChangeSet();
+    private final Handler mNotifyHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mDispatchPendingChanges = new Runnable() {
+        @Override
+        public void run() {
+            // 在锁外发出通知，不阻塞期间的写入
+            ChangeSet changes = new ChangeSet();
+            synchronized (mPendingChanges) {
+                changes.addAll(mPendingChanges);
+                mPendingChanges.clear();
+            }
+            changes.dispatch(getContext().getContentResolver());
+        }
+    };
+
+    /** 单条笔记读取缓存的容量 */
+    private static final int NOTE_CACHE_BYTES = 1024 * 1024;
+
+    // 最近读取的笔记，按ID缓存完整的一行（列顺序同 NOTES_DEFAULT_PROJECTION）
+    private final NoteCache mNoteCache = new NoteCache(NOTE_CACHE_BYTES);
+
+    // 通过内容流写入的笔记在这个线程上按打开的顺序读取和保存，第一次写入时创建
+    private Handler mBodyWriter;
+
+    // 数据库维护，见 NotePad.METHOD_RUN_MAINTENANCE
+    private NoteMaintenance mMaintenance;
+
+    // 各操作的性能统计，见 NotePad.METHOD_METRICS
+    private final ProviderMetrics mMetrics = new ProviderMetrics();
+
 
     /**
      * 静态代码块：初始化URI匹配器和投影映射
@@ -109,10 +219,19 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
         sUriMatcher.addURI(NotePad.AUTHORITY, "notes", NOTES);
         sUriMatcher.addURI(NotePad.AUTHORITY, "notes/#", NOTE_ID);
         sUriMatcher.addURI(NotePad.AUTHORITY, "live_folders/notes", LIVE_FOLDER_NOTES);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/search", NOTES_SEARCH);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/#/revisions", NOTE_REVISIONS);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/#/revisions/#", NOTE_REVISION_ID);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/#/" + NotePad.Notes.PATH_SEGMENT_BODY,
+                NOTE_BODY);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/trash", NOTES_TRASH);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/trash/#", NOTE_TRASH_ID);
 
         // 新增：待办事项相关URI
         sUriMatcher.addURI(NotePad.AUTHORITY, "todos", TODOS);
         sUriMatcher.addURI(NotePad.AUTHORITY, "todos/#", TODO_ID);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "todos/trash", TODOS_TRASH);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "todos/trash/#", TODO_TRASH_ID);
 
         /*
          * 笔记表的投影映射
@@ -125,6 +244,15 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                 NotePad.Notes.COLUMN_NAME_CREATE_DATE);
         sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
                 NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_PREVIEW, NotePad.Notes.COLUMN_NAME_PREVIEW);
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_CHAR_COUNT,
+                NotePad.Notes.COLUMN_NAME_CHAR_COUNT);
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_LINE_COUNT,
+                NotePad.Notes.COLUMN_NAME_LINE_COUNT);
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_DELETED, NotePad.Notes.COLUMN_NAME_DELETED);
+        sNotesProjectionMap.put(NoteBodyCodec.COLUMN_NOTE_BLOB, NoteBodyCodec.COLUMN_NOTE_BLOB);
+        sNotesProjectionMap.put(NoteChunkStore.COLUMN_CHUNKED_NOTE_ID,
+                NoteChunkStore.CHUNKED_NOTE_ID_EXPRESSION);
 
         /*
          * 新增：待办事项表的投影映射
@@ -136,6 +264,21 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
         sTodosProjectionMap.put(NotePad.Todos.COLUMN_NAME_COMPLETED, NotePad.Todos.COLUMN_NAME_COMPLETED);
         sTodosProjectionMap.put(NotePad.Todos.COLUMN_NAME_CREATE_DATE, NotePad.Todos.COLUMN_NAME_CREATE_DATE);
         sTodosProjectionMap.put(NotePad.Todos.COLUMN_NAME_DUE_DATE, NotePad.Todos.COLUMN_NAME_DUE_DATE);
+        sTodosProjectionMap.put(NotePad.Todos.COLUMN_NAME_DELETED, NotePad.Todos.COLUMN_NAME_DELETED);
+
+        /*
+         * 版本列表的投影映射：只提供版本信息，差量存储列和内容不对外提供
+         */
+        sRevisionsProjectionMap = new HashMap<String, String>();
+        sRevisionsProjectionMap.put(NotePad.NoteRevisions._ID, NotePad.NoteRevisions._ID);
+        sRevisionsProjectionMap.put(NotePad.NoteRevisions.COLUMN_NAME_NOTE_ID,
+                NotePad.NoteRevisions.COLUMN_NAME_NOTE_ID);
+        sRevisionsProjectionMap.put(NotePad.NoteRevisions.COLUMN_NAME_CREATE_DATE,
+                NotePad.NoteRevisions.COLUMN_NAME_CREATE_DATE);
+        sRevisionsProjectionMap.put(NotePad.NoteRevisions.COLUMN_NAME_TITLE,
+                NotePad.NoteRevisions.COLUMN_NAME_TITLE);
+        sRevisionsProjectionMap.put(NotePad.NoteRevisions.COLUMN_NAME_LENGTH,
+                NotePad.NoteRevisions.COLUMN_NAME_LENGTH);
 
         /*
          * 实时文件夹的投影映射
@@ -151,8 +294,69 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
      */
     static class DatabaseHelper extends SQLiteOpenHelper {
 
+        /** 自动检查点的WAL页数阈值 */
+        private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+        /** 检查点后保留的WAL文件大小上限 */
+        private static final long WAL_SIZE_LIMIT_BYTES = 4 * 1024 * 1024;
+
+        // 数据库第一次打开后执行一次，之后置为null
+        private Runnable mOnFirstOpen;
+
         DatabaseHelper(Context context) {
             super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            // 预写日志模式：写事务只追加到-wal文件，读操作使用连接池中的其他连接读取快照，
+            // 编辑器保存或外部应用写入时列表查询不会被阻塞
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        /**
+         * 每次打开主连接时调用（早于onCreate/onUpgrade）：调整同步级别和检查点策略
+         */
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            super.onConfigure(db);
+            // WAL模式下NORMAL只在检查点时同步，断电最多丢失最近提交的事务，不会损坏数据库
+            db.execSQL("PRAGMA synchronous=NORMAL");
+            // 每累计这么多页的WAL就自动做一次检查点，避免-wal文件持续增长拖慢读取
+            executePragma(db, "wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES);
+            // 检查点之后把-wal文件截断到此大小
+            executePragma(db, "journal_size_limit=" + WAL_SIZE_LIMIT_BYTES);
+            // 新建的数据库开启增量清理，回收站清理后可以截掉空闲页；
+            // 已有的数据库由维护任务转换（见 NoteTrash.enableIncrementalVacuum）
+            executePragma(db, "auto_vacuum=INCREMENTAL");
+        }
+
+        /**
+         * 设置数据库第一次打开（含创建和升级）后要执行的操作，在打开数据库的线程上调用
+         */
+        synchronized void setOnFirstOpen(Runnable onFirstOpen) {
+            mOnFirstOpen = onFirstOpen;
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            super.onOpen(db);
+            Runnable onFirstOpen;
+            synchronized (this) {
+                onFirstOpen = mOnFirstOpen;
+                mOnFirstOpen = null;
+            }
+            if (onFirstOpen != null) {
+                onFirstOpen.run();
+            }
+        }
+
+        /**
+         * 执行会返回结果行的PRAGMA语句（execSQL不允许返回结果）
+         */
+        private static void executePragma(SQLiteDatabase db, String pragma) {
+            Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
         }
 
         /**
@@ -166,7 +370,13 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                     + NotePad.Notes.COLUMN_NAME_TITLE + " TEXT,"
                     + NotePad.Notes.COLUMN_NAME_NOTE + " TEXT,"
                     + NotePad.Notes.COLUMN_NAME_CREATE_DATE + " INTEGER,"
-                    + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " INTEGER"
+                    + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " INTEGER,"
+                    + NoteBodyCodec.COLUMN_NOTE_BLOB + " BLOB,"
+                    + NotePad.Notes.COLUMN_NAME_PREVIEW + " TEXT,"
+                    + NotePad.Notes.COLUMN_NAME_CHAR_COUNT + " INTEGER,"
+                    + NotePad.Notes.COLUMN_NAME_LINE_COUNT + " INTEGER,"
+                    + NoteChunkStore.COLUMN_CHUNK_COUNT + " INTEGER DEFAULT 0,"
+                    + NotePad.Notes.COLUMN_NAME_DELETED + " INTEGER NOT NULL DEFAULT 0"
                     + ");");
 
             // 新增：创建待办事项表
@@ -176,8 +386,22 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                     + NotePad.Todos.COLUMN_NAME_CONTENT + " TEXT,"
                     + NotePad.Todos.COLUMN_NAME_COMPLETED + " INTEGER DEFAULT 0,"
                     + NotePad.Todos.COLUMN_NAME_CREATE_DATE + " INTEGER,"
-                    + NotePad.Todos.COLUMN_NAME_DUE_DATE + " INTEGER"
+                    + NotePad.Todos.COLUMN_NAME_DUE_DATE + " INTEGER,"
+                    + NotePad.Todos.COLUMN_NAME_DELETED + " INTEGER NOT NULL DEFAULT 0"
                     + ");");
+
+            // 新增：创建笔记全文索引
+            createNotesFtsTable(db);
+
+            createIndexes(db);
+            createNotesListIndex(db);
+
+            // 新增：创建笔记历史版本表
+            NoteRevisionStore.createTable(db);
+
+            NoteChunkStore.createTable(db);
+
+            NoteMaintenance.createTable(db);
         }
 
         /**
@@ -199,8 +423,174 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                         + NotePad.Todos.COLUMN_NAME_DUE_DATE + " INTEGER"
                         + ");");
             }
+
+            // 版本3升级到4时，添加全文索引并回填已有笔记
+            if (oldVersion < 4) {
+                createNotesFtsTable(db);
+                db.execSQL("INSERT INTO " + NOTES_FTS_TABLE_NAME + " (docid, "
+                        + NotePad.Notes.COLUMN_NAME_TITLE + ", "
+                        + NotePad.Notes.COLUMN_NAME_NOTE + ") SELECT "
+                        + NotePad.Notes._ID + ", "
+                        + NotePad.Notes.COLUMN_NAME_TITLE + ", "
+                        + NotePad.Notes.COLUMN_NAME_NOTE + " FROM " + NotePad.Notes.TABLE_NAME);
+            }
+
+            // 版本4升级到5时添加的排序和过滤用的索引在升级到10时创建
+
+            // 版本5升级到6时，添加历史版本表；已有笔记从下一次保存开始记录版本
+            if (oldVersion < 6) {
+                NoteRevisionStore.createTable(db);
+            }
+
+            // 版本6升级到7时，添加压缩内容列；全文索引的更新触发器改为在内容列为NULL时保留原有内容，
+            // 已有的长笔记登记到队列，由后台线程压缩（见 NotePadProvider.onCreate）
+            if (oldVersion < 7) {
+                db.execSQL("ALTER TABLE " + NotePad.Notes.TABLE_NAME + " ADD COLUMN "
+                        + NoteBodyCodec.COLUMN_NOTE_BLOB + " BLOB");
+                db.execSQL("DROP TRIGGER IF EXISTS notes_fts_update");
+                createNotesFtsUpdateTrigger(db);
+                NoteBodyCodec.createMigrationQueue(db);
+            }
+
+            // 版本7升级到8时，添加内容派生列并回填；列表索引改为同时包含这些列
+            if (oldVersion < 8) {
+                db.execSQL("ALTER TABLE " + NotePad.Notes.TABLE_NAME + " ADD COLUMN "
+                        + NotePad.Notes.COLUMN_NAME_PREVIEW + " TEXT");
+                db.execSQL("ALTER TABLE " + NotePad.Notes.TABLE_NAME + " ADD COLUMN "
+                        + NotePad.Notes.COLUMN_NAME_CHAR_COUNT + " INTEGER");
+                db.execSQL("ALTER TABLE " + NotePad.Notes.TABLE_NAME + " ADD COLUMN "
+                        + NotePad.Notes.COLUMN_NAME_LINE_COUNT + " INTEGER");
+                NoteSummary.backfill(db);
+                // 列表索引在升级到10时重建
+                db.execSQL("DROP INDEX IF EXISTS notes_modified_index");
+            }
+
+            // 版本8升级到9时，添加块数列和分块表；已有的大笔记在下一次保存时改为分块存储
+            if (oldVersion < 9) {
+                db.execSQL("ALTER TABLE " + NotePad.Notes.TABLE_NAME + " ADD COLUMN "
+                        + NoteChunkStore.COLUMN_CHUNK_COUNT + " INTEGER DEFAULT 0");
+                NoteChunkStore.createTable(db);
+            }
+
+            // 版本9升级到10时，添加删除时间列；列表索引改为以删除时间开头，只扫描未删除的行
+            if (oldVersion < 10) {
+                db.execSQL("ALTER TABLE " + NotePad.Notes.TABLE_NAME + " ADD COLUMN "
+                        + NotePad.Notes.COLUMN_NAME_DELETED + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("ALTER TABLE " + NotePad.Todos.TABLE_NAME + " ADD COLUMN "
+                        + NotePad.Todos.COLUMN_NAME_DELETED + " INTEGER NOT NULL DEFAULT 0");
+                db.execSQL("DROP INDEX IF EXISTS notes_modified_index");
+                db.execSQL("DROP INDEX IF EXISTS todos_created_index");
+                createIndexes(db);
+                createNotesListIndex(db);
+            }
+
+            // 版本10升级到11时，添加数据库维护记录表
+            if (oldVersion < 11) {
+                NoteMaintenance.createTable(db);
+            }
+
+            // 版本11升级到12时，把分页时间列中的NULL改为0：键集分页的比较条件取不到NULL，
+            // 0 在倒序中与NULL一样排在最后
+            if (oldVersion < 12) {
+                db.execSQL("UPDATE " + NotePad.Notes.TABLE_NAME + " SET "
+                        + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " = 0 WHERE "
+                        + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " IS NULL");
+                db.execSQL("UPDATE " + NotePad.Todos.TABLE_NAME + " SET "
+                        + NotePad.Todos.COLUMN_NAME_CREATE_DATE + " = 0 WHERE "
+                        + NotePad.Todos.COLUMN_NAME_CREATE_DATE + " IS NULL");
+            }
+
+            // 版本12升级到13时，添加历史版本的段数列和分段表，大的快照和差量改为分段存储；
+            // 从6之前的版本升级时，上面的 createTable 已经创建了它们
+            if (oldVersion >= 6 && oldVersion < 13) {
+                NoteRevisionStore.addSegments(db);
+            }
             // 如需更多版本升级，可在此添加
         }
+
+        /**
+         * 笔记列表的索引：未删除的笔记按修改时间倒序，同时包含列表所需的 _id、标题和内容派生列，
+         * 无需回表也无需临时排序。显示预览的列表同样只读索引，不会读到笔记内容所在的溢出页。
+         * 回收站按删除时间倒序，同样使用这个索引。
+         */
+        private static void createNotesListIndex(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS notes_modified_index ON "
+                    + NotePad.Notes.TABLE_NAME + " ("
+                    + NotePad.Notes.COLUMN_NAME_DELETED + ", "
+                    + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + ", "
+                    + NotePad.Notes._ID + ", "
+                    + NotePad.Notes.COLUMN_NAME_TITLE + ", "
+                    + NotePad.Notes.COLUMN_NAME_PREVIEW + ", "
+                    + NotePad.Notes.COLUMN_NAME_CHAR_COUNT + ", "
+                    + NotePad.Notes.COLUMN_NAME_LINE_COUNT + ")");
+        }
+
+        /**
+         * 创建待办事项访问路径上的索引：
+         * 未删除的待办按创建时间倒序，覆盖列表投影；
+         * 待办的完成状态（清除已完成）和截止时间过滤各有单独的索引。
+         */
+        private static void createIndexes(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS todos_created_index ON "
+                    + NotePad.Todos.TABLE_NAME + " ("
+                    + NotePad.Todos.COLUMN_NAME_DELETED + ", "
+                    + NotePad.Todos.COLUMN_NAME_CREATE_DATE + ", "
+                    + NotePad.Todos._ID + ", "
+                    + NotePad.Todos.COLUMN_NAME_TITLE + ", "
+                    + NotePad.Todos.COLUMN_NAME_COMPLETED + ", "
+                    + NotePad.Todos.COLUMN_NAME_DUE_DATE + ")");
+
+            db.execSQL("CREATE INDEX IF NOT EXISTS todos_completed_index ON "
+                    + NotePad.Todos.TABLE_NAME + " (" + NotePad.Todos.COLUMN_NAME_COMPLETED + ")");
+
+            db.execSQL("CREATE INDEX IF NOT EXISTS todos_due_date_index ON "
+                    + NotePad.Todos.TABLE_NAME + " (" + NotePad.Todos.COLUMN_NAME_DUE_DATE + ")");
+        }
+
+        /**
+         * 创建笔记全文索引表，以及在笔记表增删改时同步索引的触发器。
+         * 优先使用ICU分词器以支持中文分词，系统SQLite不支持时退回默认分词器。
+         */
+        private static void createNotesFtsTable(SQLiteDatabase db) {
+            String columns = NotePad.Notes.COLUMN_NAME_TITLE + ", " + NotePad.Notes.COLUMN_NAME_NOTE;
+            try {
+                db.execSQL("CREATE VIRTUAL TABLE " + NOTES_FTS_TABLE_NAME
+                        + " USING fts4(" + columns + ", tokenize=icu)");
+            } catch (SQLException e) {
+                Log.w(TAG, "ICU tokenizer unavailable, falling back to simple tokenizer", e);
+                db.execSQL("CREATE VIRTUAL TABLE " + NOTES_FTS_TABLE_NAME
+                        + " USING fts4(" + columns + ")");
+            }
+
+            db.execSQL("CREATE TRIGGER notes_fts_insert AFTER INSERT ON "
+                    + NotePad.Notes.TABLE_NAME + " BEGIN "
+                    + "INSERT INTO " + NOTES_FTS_TABLE_NAME + " (docid, " + columns + ") VALUES ("
+                    + "new." + NotePad.Notes._ID + ", "
+                    + "new." + NotePad.Notes.COLUMN_NAME_TITLE + ", "
+                    + "new." + NotePad.Notes.COLUMN_NAME_NOTE + "); END");
+
+            createNotesFtsUpdateTrigger(db);
+
+            db.execSQL("CREATE TRIGGER notes_fts_delete AFTER DELETE ON "
+                    + NotePad.Notes.TABLE_NAME + " BEGIN "
+                    + "DELETE FROM " + NOTES_FTS_TABLE_NAME
+                    + " WHERE docid = old." + NotePad.Notes._ID + "; END");
+        }
+
+        /**
+         * 只有标题或内容变化时才需要重建索引行，单独更新修改时间不会触发。
+         * 内容被压缩存储时内容列为NULL，索引保留原有内容，由Provider另行写入原文。
+         */
+        private static void createNotesFtsUpdateTrigger(SQLiteDatabase db) {
+            String columns = NotePad.Notes.COLUMN_NAME_TITLE + ", " + NotePad.Notes.COLUMN_NAME_NOTE;
+            db.execSQL("CREATE TRIGGER notes_fts_update AFTER UPDATE OF " + columns + " ON "
+                    + NotePad.Notes.TABLE_NAME + " BEGIN "
+                    + "UPDATE " + NOTES_FTS_TABLE_NAME + " SET "
+                    + NotePad.Notes.COLUMN_NAME_TITLE + " = new." + NotePad.Notes.COLUMN_NAME_TITLE + ", "
+                    + NotePad.Notes.COLUMN_NAME_NOTE + " = COALESCE(new."
+                    + NotePad.Notes.COLUMN_NAME_NOTE + ", " + NotePad.Notes.COLUMN_NAME_NOTE + ")"
+                    + " WHERE docid = old." + NotePad.Notes._ID + "; END");
+        }
     }
 
     /**
@@ -209,29 +599,123 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     @Override
     public boolean onCreate() {
         mOpenHelper = new DatabaseHelper(getContext());
+        mMaintenance = new NoteMaintenance(mOpenHelper, new NoteMaintenance.Listener() {
+            @Override
+            public void onTrashPurged() {
+                notifyChange(NotePad.Notes.CONTENT_TRASH_URI, null, null);
+                notifyChange(NotePad.Todos.CONTENT_TRASH_URI, null, null);
+            }
+        });
+        // 不在启动时打开数据库：只访问文件流或根本不访问数据库的调用方不必等待升级和压缩检查
+        mOpenHelper.setOnFirstOpen(new Runnable() {
+            @Override
+            public void run() {
+                startMaintenance();
+            }
+        });
         return true;
     }
 
+    /**
+     * 数据库第一次打开（升级已由打开它的调用方完成）后，在后台线程压缩升级前已有的长笔记。
+     * 没有待压缩的笔记时只检查一次队列表是否存在。
+     * 然后登记空闲时的数据库维护；系统不支持 JobScheduler 时直接执行一个时间片。
+     */
+    private void startMaintenance() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    int count = NoteBodyCodec.compressQueuedNotes(mOpenHelper.getWritableDatabase());
+                    if (count > 0) {
+                        Log.i(TAG, "Compressed " + count + " existing notes");
+                    }
+                } catch (SQLException e) {
+                    Log.e(TAG, "Failed to compress existing notes", e);
+                    return;
+                }
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    NoteMaintenanceService.schedule(getContext());
+                } else {
+                    mMaintenance.run(NoteMaintenance.DEFAULT_BUDGET_MS, null);
+                }
+            }
+        }, "NoteMaintenance");
+        thread.start();
+    }
+
     /**
      * 查询数据：支持笔记和待办事项
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
 
+    /**
+     * 可取消的查询：取消信号会传给SQLite，正在执行的查询（如全文搜索）会被中断，
+     * 调用方收到 OperationCanceledException。
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        String uriType = getUriType(uri);
+        long start = mMetrics.begin(ProviderMetrics.OP_QUERY, uriType);
+        try {
+            Cursor c = doQuery(uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal, uriType);
+            return new ProviderMetrics.MeteredCursor(c, mMetrics, uriType);
+        } finally {
+            // 行数在游标关闭时计入，不在这里另外计数
+            mMetrics.end(ProviderMetrics.OP_QUERY, uriType, start, 0);
+        }
+    }
+
+    private Cursor doQuery(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                           String sortOrder, CancellationSignal cancellationSignal,
+                           String uriType) {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
         String table;
+        // 查询笔记内容时追加的压缩内容列和分块笔记ID列，结果需要还原
+        String[] decodeProjection = null;
 
-        // 根据URI匹配不同的表和投影
+        // 根据URI匹配不同的表和投影；笔记和待办事项只查询未删除的行，回收站只查询已删除的行，
+        // 删除条件总是第一个条件，其后的条件以 AND 连接
         switch (sUriMatcher.match(uri)) {
             case NOTES:
                 qb.setTables(NotePad.Notes.TABLE_NAME);
                 qb.setProjectionMap(sNotesProjectionMap);
+                qb.appendWhere(NoteTrash.LIVE);
+                decodeProjection = appendBodyColumns(projection);
+                break;
+            case NOTES_TRASH:
+                qb.setTables(NotePad.Notes.TABLE_NAME);
+                qb.setProjectionMap(sNotesProjectionMap);
+                qb.appendWhere(NoteTrash.TRASHED);
+                decodeProjection = appendBodyColumns(projection);
+                break;
+            case NOTE_TRASH_ID:
+                qb.setTables(NotePad.Notes.TABLE_NAME);
+                qb.setProjectionMap(sNotesProjectionMap);
+                decodeProjection = appendBodyColumns(projection);
+                qb.appendWhere(NoteTrash.TRASHED + " AND " + NotePad.Notes._ID + "="
+                        + parseLong(uri.getPathSegments().get(NotePad.Notes.TRASH_ID_PATH_POSITION),
+                                uri));
                 break;
             case NOTE_ID:
+                // 编辑器、标题编辑和分享会反复读取同一条笔记，不带条件的读取由缓存提供
+                if (selection == null) {
+                    Cursor cached = queryCachedNote(uri, projection);
+                    if (cached != null) {
+                        return cached;
+                    }
+                }
                 qb.setTables(NotePad.Notes.TABLE_NAME);
                 qb.setProjectionMap(sNotesProjectionMap);
-                qb.appendWhere(
+                decodeProjection = appendBodyColumns(projection);
+                qb.appendWhere(NoteTrash.LIVE + " AND " +
                         NotePad.Notes._ID + "=" +
                                 uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION));
                 break;
@@ -239,17 +723,58 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
             case TODOS:
                 qb.setTables(NotePad.Todos.TABLE_NAME);
                 qb.setProjectionMap(sTodosProjectionMap);
+                qb.appendWhere(NoteTrash.LIVE);
                 break;
             case TODO_ID:
                 qb.setTables(NotePad.Todos.TABLE_NAME);
                 qb.setProjectionMap(sTodosProjectionMap);
-                qb.appendWhere(
+                qb.appendWhere(NoteTrash.LIVE + " AND " +
                         NotePad.Todos._ID + "=" +
                                 uri.getPathSegments().get(NotePad.Todos.TODO_ID_PATH_POSITION));
                 break;
+            case TODOS_TRASH:
+                qb.setTables(NotePad.Todos.TABLE_NAME);
+                qb.setProjectionMap(sTodosProjectionMap);
+                qb.appendWhere(NoteTrash.TRASHED);
+                break;
+            case TODO_TRASH_ID:
+                qb.setTables(NotePad.Todos.TABLE_NAME);
+                qb.setProjectionMap(sTodosProjectionMap);
+                qb.appendWhere(NoteTrash.TRASHED + " AND " + NotePad.Todos._ID + "="
+                        + parseLong(uri.getPathSegments().get(NotePad.Todos.TRASH_ID_PATH_POSITION),
+                                uri));
+                break;
             case LIVE_FOLDER_NOTES:
                 qb.setTables(NotePad.Notes.TABLE_NAME);
                 qb.setProjectionMap(sLiveFolderProjectionMap);
+                qb.appendWhere(NoteTrash.LIVE);
+                break;
+            // 新增：笔记的历史版本列表
+            case NOTE_REVISIONS:
+                qb.setTables(NotePad.NoteRevisions.TABLE_NAME);
+                qb.setProjectionMap(sRevisionsProjectionMap);
+                qb.appendWhere(NotePad.NoteRevisions.COLUMN_NAME_NOTE_ID + "=" + uri.getPathSegments()
+                        .get(NotePad.NoteRevisions.NOTE_ID_PATH_POSITION));
+                break;
+            // 单个版本：按差量链还原出完整内容
+            case NOTE_REVISION_ID: {
+                Cursor c = NoteRevisionStore.queryRevision(mOpenHelper.getReadableDatabase(),
+                        parseRevisionNoteId(uri), parseRevisionId(uri), projection);
+                c.setNotificationUri(getContext().getContentResolver(), uri);
+                return c;
+            }
+            // 新增：全文搜索，通过索引表找到匹配的笔记ID，避免对笔记表做全表扫描
+            case NOTES_SEARCH:
+                qb.setTables(NotePad.Notes.TABLE_NAME);
+                qb.setProjectionMap(sNotesProjectionMap);
+                decodeProjection = appendBodyColumns(projection);
+                qb.appendWhere(NoteTrash.LIVE);
+                String keyword = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH);
+                String match = TextUtils.isEmpty(keyword) ? "" : NoteQueries.ftsMatch(keyword);
+                if (match.length() > 0) {
+                    qb.appendWhere(" AND " + NoteQueries.searchWhere(NOTES_FTS_TABLE_NAME,
+                            DatabaseUtils.sqlEscapeString(match)));
+                }
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
@@ -261,6 +786,14 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
             // 根据不同表使用各自的默认排序
             if (sUriMatcher.match(uri) == TODOS || sUriMatcher.match(uri) == TODO_ID) {
                 orderBy = NotePad.Todos.DEFAULT_SORT_ORDER;
+            } else if (sUriMatcher.match(uri) == NOTES_TRASH
+                    || sUriMatcher.match(uri) == NOTE_TRASH_ID) {
+                orderBy = NotePad.Notes.TRASH_SORT_ORDER;
+            } else if (sUriMatcher.match(uri) == TODOS_TRASH
+                    || sUriMatcher.match(uri) == TODO_TRASH_ID) {
+                orderBy = NotePad.Todos.TRASH_SORT_ORDER;
+            } else if (sUriMatcher.match(uri) == NOTE_REVISIONS) {
+                orderBy = NotePad.NoteRevisions.DEFAULT_SORT_ORDER;
             } else {
                 orderBy = NotePad.Notes.DEFAULT_SORT_ORDER;
             }
@@ -268,16 +801,290 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
             orderBy = sortOrder;
         }
 
-        // 执行查询
+        // 分页参数：limit 限制返回行数，after 从上一页最后一行之后继续
+        String limit = uri.getQueryParameter(NotePad.QUERY_PARAMETER_LIMIT);
+        String after = uri.getQueryParameter(NotePad.QUERY_PARAMETER_AFTER);
+        if (limit != null || after != null) {
+            orderBy = appendPageClause(qb, uri, sortOrder, after);
+            if (limit != null) {
+                limit = String.valueOf(parsePositiveLong(limit, uri));
+            }
+        }
+
+        // 执行查询：getCount() 执行语句并填充第一个CursorWindow，超过阈值时记录查询计划。
+        // 这是唯一一次计数，之后的 getCount() 直接返回缓存的行数
         SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        String[] columns = decodeProjection != null ? decodeProjection : projection;
+        long start = SystemClock.uptimeMillis();
         Cursor c = qb.query(
-                db, projection, selection, selectionArgs, null, null, orderBy);
+                db, columns, selection, selectionArgs, null, null, orderBy, limit, cancellationSignal);
+        c.getCount();
+        long elapsed = SystemClock.uptimeMillis() - start;
+        if (mMetrics.isSlowQuery(elapsed)) {
+            mMetrics.recordSlowQuery(db, uriType,
+                    qb.buildQuery(columns, selection, null, null, orderBy, limit),
+                    selectionArgs, elapsed);
+        }
+        if (decodeProjection != null) {
+            c = new CompressedNoteCursor(db, c);
+        }
+
+        // 设置通知URI：搜索结果随笔记表的任何变化刷新
+        if (sUriMatcher.match(uri) == NOTES_SEARCH) {
+            c.setNotificationUri(getContext().getContentResolver(), NotePad.Notes.CONTENT_URI);
+        } else {
+            c.setNotificationUri(getContext().getContentResolver(), uri);
+        }
+        return c;
+    }
+
+    /**
+     * 从缓存读取单条笔记，未缓存时从数据库读取完整的一行并放入缓存。
+     * @return 按投影排列的游标；投影包含缓存行以外的列或笔记不存在时返回null，由常规查询处理
+     */
+    private Cursor queryCachedNote(Uri uri, String[] projection) {
+        if (projection == null) {
+            projection = NOTES_DEFAULT_PROJECTION;
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = Arrays.asList(NOTES_DEFAULT_PROJECTION).indexOf(projection[i]);
+            if (columns[i] < 0) {
+                return null;
+            }
+        }
+
+        long id = parseLong(uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION), uri);
+        Object[] row = mNoteCache.get(id);
+        if (row == null) {
+            long generation = mNoteCache.generation();
+            row = readNoteRow(id);
+            if (row == null) {
+                return null;
+            }
+            mNoteCache.put(id, row, generation);
+        }
 
-        // 设置通知URI
+        MatrixCursor c = new MatrixCursor(projection, 1);
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = row[columns[i]];
+        }
+        c.addRow(values);
         c.setNotificationUri(getContext().getContentResolver(), uri);
         return c;
     }
 
+    /**
+     * 从数据库读取一条笔记的全部列（内容已还原）
+     * @return 列顺序同 NOTES_DEFAULT_PROJECTION，笔记不存在或已删除时返回null
+     */
+    private Object[] readNoteRow(long id) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Cursor c = new CompressedNoteCursor(db, db.query(
+                NotePad.Notes.TABLE_NAME, appendBodyColumns(NOTES_DEFAULT_PROJECTION),
+                NoteTrash.where(NoteTrash.LIVE, NotePad.Notes._ID + " = " + id),
+                null, null, null, null));
+        try {
+            if (!c.moveToFirst()) {
+                return null;
+            }
+            Object[] row = new Object[NOTES_DEFAULT_PROJECTION.length];
+            for (int i = 0; i < row.length; i++) {
+                switch (c.getType(i)) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = c.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = c.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[i] = c.getBlob(i);
+                        break;
+                    default:
+                        row[i] = c.getString(i);
+                        break;
+                }
+            }
+            return row;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * 笔记被修改或删除后使其缓存失效。在写入提交之后调用。
+     */
+    private void invalidateNoteCache(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case NOTE_ID:
+                mNoteCache.remove(parseLong(
+                        uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION), uri));
+                break;
+            case NOTES:
+                mNoteCache.clear();
+                break;
+        }
+    }
+
+    /**
+     * 返回单条笔记读取缓存的命中统计，见 {@link NotePad#METHOD_CACHE_STATS}；
+     * 执行、停止数据库维护和返回维护状态，见 {@link NotePad#METHOD_RUN_MAINTENANCE} 等；
+     * 返回各操作的性能统计，见 {@link NotePad#METHOD_METRICS}
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (NotePad.METHOD_CACHE_STATS.equals(method)) {
+            return mNoteCache.getStats();
+        }
+        if (NotePad.METHOD_RUN_MAINTENANCE.equals(method)) {
+            long budget = NoteMaintenance.DEFAULT_BUDGET_MS;
+            String job = null;
+            boolean idle = false;
+            if (extras != null) {
+                budget = extras.getLong(NotePad.KEY_MAINTENANCE_BUDGET, budget);
+                job = extras.getString(NotePad.KEY_MAINTENANCE_JOB);
+                idle = extras.getBoolean(NotePad.KEY_MAINTENANCE_IDLE);
+            }
+            Bundle result = new Bundle();
+            result.putBoolean(NotePad.KEY_MAINTENANCE_DONE, mMaintenance.run(budget, job, idle));
+            return result;
+        }
+        if (NotePad.METHOD_STOP_MAINTENANCE.equals(method)) {
+            mMaintenance.stop();
+            return null;
+        }
+        if (NotePad.METHOD_MAINTENANCE_STATUS.equals(method)) {
+            return mMaintenance.getStatus();
+        }
+        if (NotePad.METHOD_METRICS.equals(method)) {
+            return mMetrics.toBundle();
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * adb shell dumpsys activity provider com.example.android.notepad/.NotePadProvider
+     * 输出性能统计、慢查询和笔记缓存的命中统计
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        Bundle cache = mNoteCache.getStats();
+        writer.println("Note cache:");
+        for (String key : cache.keySet()) {
+            writer.println("  " + key + ": " + cache.get(key));
+        }
+    }
+
+    /**
+     * @return 性能统计中使用的URI类型名
+     */
+    private static String getUriType(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        return match == UriMatcher.NO_MATCH ? URI_TYPES[0] : URI_TYPES[match];
+    }
+
+    /**
+     * 内存紧张时释放笔记缓存：进程进入后台较久后清空，运行中内存不足时减半
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_MODERATE) {
+            mNoteCache.clear();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            mNoteCache.trimToSize(mNoteCache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mNoteCache.clear();
+    }
+
+    /**
+     * 投影包含笔记内容（或未指定投影）时，在末尾追加压缩内容列和分块笔记ID列，查询结果由
+     * {@link CompressedNoteCursor} 还原。列表等不读取内容的投影不需要还原，返回null，
+     * 这类查询既不读取内容也不读取压缩列和分块。
+     */
+    private static String[] appendBodyColumns(String[] projection) {
+        if (projection == null) {
+            projection = NOTES_DEFAULT_PROJECTION;
+        } else if (!Arrays.asList(projection).contains(NotePad.Notes.COLUMN_NAME_NOTE)) {
+            return null;
+        }
+        String[] columns = Arrays.copyOf(projection, projection.length + 2);
+        columns[projection.length] = NoteBodyCodec.COLUMN_NOTE_BLOB;
+        columns[projection.length + 1] = NoteChunkStore.COLUMN_CHUNKED_NOTE_ID;
+        return columns;
+    }
+
+    /**
+     * 为分页查询加上键集条件，返回分页使用的排序。
+     *
+     * 分页固定按 (时间, _id) 倒序排列，这样每一页都能从索引中上一页结束的位置继续读取，
+     * 而不必像 OFFSET 那样先跳过前面所有的行。after 的格式为 "时间,_id"，取自上一页的最后一行。
+     * 键集条件与前面的条件以 AND 连接：分页的URI总是先加上了未删除条件，搜索还有全文索引条件。
+     * 时间列由插入和升级保证不为NULL，NULL不满足比较条件，会从分页中漏掉。
+     */
+    private static String appendPageClause(SQLiteQueryBuilder qb, Uri uri, String sortOrder,
+                                           String after) {
+        String timeColumn;
+        switch (sUriMatcher.match(uri)) {
+            case NOTES:
+            case NOTES_SEARCH:
+                timeColumn = NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE;
+                break;
+            case TODOS:
+                timeColumn = NotePad.Todos.COLUMN_NAME_CREATE_DATE;
+                break;
+            default:
+                throw new IllegalArgumentException("Paging is not supported for " + uri);
+        }
+        if (!TextUtils.isEmpty(sortOrder)) {
+            throw new IllegalArgumentException("Paging uses its own sort order: " + uri);
+        }
+
+        if (after != null) {
+            String[] key = after.split(",");
+            if (key.length != 2) {
+                throw new IllegalArgumentException("Invalid page key in " + uri);
+            }
+            qb.appendWhere(" AND " + NoteQueries.pageWhere(timeColumn,
+                    parseLong(key[0], uri), parseLong(key[1], uri)));
+        }
+        return NoteQueries.pageOrder(timeColumn);
+    }
+
+    private static long parseLong(String value, Uri uri) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number in " + uri);
+        }
+    }
+
+    private static long parseRevisionNoteId(Uri uri) {
+        return parseLong(uri.getPathSegments().get(NotePad.NoteRevisions.NOTE_ID_PATH_POSITION), uri);
+    }
+
+    private static long parseRevisionId(Uri uri) {
+        return parseLong(uri.getPathSegments().get(NotePad.NoteRevisions.REVISION_ID_PATH_POSITION),
+                uri);
+    }
+
+    private static long parsePositiveLong(String value, Uri uri) {
+        long number = parseLong(value, uri);
+        if (number <= 0) {
+            throw new IllegalArgumentException("Invalid limit in " + uri);
+        }
+        return number;
+    }
+
     /**
      * 获取MIME类型
      */
@@ -286,14 +1093,25 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
         switch (sUriMatcher.match(uri)) {
             case NOTES:
             case LIVE_FOLDER_NOTES:
+            case NOTES_SEARCH:
+            case NOTES_TRASH:
                 return NotePad.Notes.CONTENT_TYPE;
             case NOTE_ID:
+            case NOTE_TRASH_ID:
                 return NotePad.Notes.CONTENT_ITEM_TYPE;
             // 新增：待办事项的MIME类型
             case TODOS:
+            case TODOS_TRASH:
                 return NotePad.Todos.CONTENT_TYPE;
             case TODO_ID:
+            case TODO_TRASH_ID:
                 return NotePad.Todos.CONTENT_ITEM_TYPE;
+            case NOTE_REVISIONS:
+                return NotePad.NoteRevisions.CONTENT_TYPE;
+            case NOTE_REVISION_ID:
+                return NotePad.NoteRevisions.CONTENT_ITEM_TYPE;
+            case NOTE_BODY:
+                return ClipDescription.MIMETYPE_TEXT_PLAIN;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
@@ -310,12 +1128,19 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
         switch (sUriMatcher.match(uri)) {
             case NOTES:
             case LIVE_FOLDER_NOTES:
+            case NOTES_SEARCH:
             case TODOS:  // 待办事项不支持数据流
                 return null;
             case NOTE_ID:
                 return NOTE_STREAM_TYPES.filterMimeTypes(mimeTypeFilter);
             case TODO_ID:  // 待办事项不支持数据流
                 return null;
+            case NOTE_BODY:  // 内容流本身就是文本，由 openFile() 直接打开
+            case NOTES_TRASH:  // 回收站中的内容不提供数据流
+            case NOTE_TRASH_ID:
+            case TODOS_TRASH:
+            case TODO_TRASH_ID:
+                return null;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
@@ -324,10 +1149,24 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     @Override
     public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
             throws FileNotFoundException {
+        String uriType = getUriType(uri);
+        long start = mMetrics.begin(ProviderMetrics.OP_OPEN_TYPED_ASSET_FILE, uriType);
+        AssetFileDescriptor afd = null;
+        try {
+            return afd = doOpenTypedAssetFile(uri, mimeTypeFilter, opts);
+        } finally {
+            mMetrics.end(ProviderMetrics.OP_OPEN_TYPED_ASSET_FILE, uriType, start,
+                    afd != null ? 1 : 0);
+        }
+    }
+
+    private AssetFileDescriptor doOpenTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
         String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
         if (mimeTypes != null) {
-            Cursor c = query(
-                    uri, READ_NOTE_PROJECTION, null, null, null);
+            // 不经过 query()：这次读取已计入 openTypedAssetFile 的统计
+            Cursor c = doQuery(
+                    uri, READ_NOTE_PROJECTION, null, null, null, null, getUriType(uri));
             if (c == null || !c.moveToFirst()) {
                 if (c != null) c.close();
                 throw new FileNotFoundException("Unable to query " + uri);
@@ -343,54 +1182,222 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
                                 Bundle opts, Cursor c) {
         FileOutputStream fout = new FileOutputStream(output.getFileDescriptor());
+        ProviderMetrics.CountingOutputStream counter = new ProviderMetrics.CountingOutputStream(fout);
         PrintWriter pw = null;
         try {
-            pw = new PrintWriter(new OutputStreamWriter(fout, "UTF-8"));
+            pw = new PrintWriter(new OutputStreamWriter(counter, "UTF-8"));
             pw.println(c.getString(READ_NOTE_TITLE_INDEX));
             pw.println("");
-            pw.println(c.getString(READ_NOTE_NOTE_INDEX));
-        } catch (UnsupportedEncodingException e) {
+            // 内容不经过游标，分段写入
+            NoteBodyStream.copyNote(mOpenHelper.getReadableDatabase(),
+                    c.getLong(READ_NOTE_ID_INDEX), pw);
+            pw.println();
+        } catch (IOException e) {
             Log.w(TAG, "Error writing data", e);
         } finally {
             c.close();
             if (pw != null) pw.flush();
             try { fout.close(); } catch (IOException e) {}
+            mMetrics.addBytes(ProviderMetrics.OP_OPEN_TYPED_ASSET_FILE, getUriType(uri),
+                    counter.getCount());
         }
     }
 
+    /**
+     * 打开笔记的内容流（notes/#/body），见 {@link NotePad.Notes#PATH_SEGMENT_BODY}。
+     * 读取时在后台线程把内容分段写入管道；写入时返回管道的写入端，由 mBodyWriter 线程读取并保存。
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != NOTE_BODY) {
+            return super.openFile(uri, mode);
+        }
+        String uriType = getUriType(uri);
+        long start = mMetrics.begin(ProviderMetrics.OP_OPEN_FILE, uriType);
+        ParcelFileDescriptor fd = null;
+        try {
+            return fd = openBody(uri, mode);
+        } finally {
+            mMetrics.end(ProviderMetrics.OP_OPEN_FILE, uriType, start, fd != null ? 1 : 0);
+        }
+    }
+
+    private ParcelFileDescriptor openBody(Uri uri, String mode) throws FileNotFoundException {
+        long noteId = parseLong(
+                uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION), uri);
+        if ("r".equals(mode)) {
+            if (DatabaseUtils.queryNumEntries(mOpenHelper.getReadableDatabase(),
+                    NotePad.Notes.TABLE_NAME,
+                    NoteTrash.where(NoteTrash.LIVE, NotePad.Notes._ID + " = " + noteId)) == 0) {
+                throw new FileNotFoundException("No note for " + uri);
+            }
+            return openPipeHelper(uri, ClipDescription.MIMETYPE_TEXT_PLAIN, null, noteId,
+                    mBodyPipeWriter);
+        }
+        if ("w".equals(mode) || "wt".equals(mode)) {
+            return openBodyForWrite(uri, noteId);
+        }
+        throw new FileNotFoundException("Unsupported mode " + mode + " for " + uri);
+    }
+
+    /**
+     * 把笔记内容分段写入读取方的管道
+     */
+    private final PipeDataWriter<Long> mBodyPipeWriter = new PipeDataWriter<Long>() {
+        @Override
+        public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                    Bundle opts, Long noteId) {
+            FileOutputStream fout = new FileOutputStream(output.getFileDescriptor());
+            ProviderMetrics.CountingOutputStream counter =
+                    new ProviderMetrics.CountingOutputStream(fout);
+            Writer out = null;
+            try {
+                out = new OutputStreamWriter(counter, "UTF-8");
+                NoteBodyStream.copyNote(mOpenHelper.getReadableDatabase(), noteId, out);
+                out.flush();
+            } catch (IOException e) {
+                // 包括读取方提前关闭管道
+                Log.w(TAG, "Error writing note body for " + uri, e);
+            } finally {
+                try { fout.close(); } catch (IOException e) {}
+                mMetrics.addBytes(ProviderMetrics.OP_OPEN_FILE, getUriType(uri),
+                        counter.getCount());
+            }
+        }
+    };
+
+    /**
+     * 创建管道并返回写入端。写入方关闭后，mBodyWriter 线程读完内容，
+     * 确认字符数与URI上的 length 参数一致后按普通的更新保存；
+     * URI上带 title 参数时标题和内容在同一次更新（同一个事务）中保存。
+     */
+    private ParcelFileDescriptor openBodyForWrite(final Uri uri, final long noteId)
+            throws FileNotFoundException {
+        String length = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_LENGTH);
+        if (length == null) {
+            throw new IllegalArgumentException("Missing "
+                    + NotePad.Notes.QUERY_PARAMETER_LENGTH + " parameter: " + uri);
+        }
+        final long expectedLength = parseLong(length, uri);
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Unable to create pipe for " + uri);
+        }
+        getBodyWriter().post(new Runnable() {
+            @Override
+            public void run() {
+                saveBody(pipe[0], uri, noteId, expectedLength);
+            }
+        });
+        return pipe[1];
+    }
+
+    private void saveBody(ParcelFileDescriptor input, Uri uri, long noteId, long length) {
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(input);
+        String text = null;
+        try {
+            text = NoteBodyStream.readText(in, length);
+        } catch (IOException e) {
+            Log.w(TAG, "Error reading note body for " + uri, e);
+        } finally {
+            try { in.close(); } catch (IOException e) {}
+        }
+        if (text == null) {
+            Log.w(TAG, "Incomplete note body for " + uri + ", not saved");
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, text);
+        String title = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_TITLE);
+        if (title != null) {
+            values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
+        }
+        try {
+            update(ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, noteId),
+                    values, null, null);
+        } catch (SQLException e) {
+            Log.e(TAG, "Failed to save note body for " + uri, e);
+        }
+    }
+
+    private synchronized Handler getBodyWriter() {
+        if (mBodyWriter == null) {
+            HandlerThread thread = new HandlerThread("NoteBodyWriter",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mBodyWriter = new Handler(thread.getLooper());
+        }
+        return mBodyWriter;
+    }
+
     /**
      * 插入数据：支持笔记和待办事项
      */
     @Override
     public Uri insert(Uri uri, ContentValues initialValues) {
+        String uriType = getUriType(uri);
+        long start = mMetrics.begin(ProviderMetrics.OP_INSERT, uriType);
+        Uri result = null;
+        try {
+            return result = doInsert(uri, initialValues);
+        } finally {
+            mMetrics.end(ProviderMetrics.OP_INSERT, uriType, start, result != null ? 1 : 0);
+        }
+    }
+
+    private Uri doInsert(Uri uri, ContentValues initialValues) {
         // 验证URI
         int match = sUriMatcher.match(uri);
         if (match != NOTES && match != TODOS) {
             throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
+        // 执行插入
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long rowId = insertRow(db, match, initialValues, mBatch.get());
+        Uri contentUri = (match == NOTES)
+                ? NotePad.Notes.CONTENT_ID_URI_BASE : NotePad.Todos.CONTENT_ID_URI_BASE;
+
+        if (rowId > 0) {
+            notifyChange(uri, new long[] { rowId }, NotePad.CHANGE_INSERT);
+            return ContentUris.withAppendedId(contentUri, rowId);
+        }
+
+        throw new SQLException("Failed to insert row into " + uri);
+    }
+
+    /**
+     * 插入一行：补全默认值后写入对应的表。处于批量操作中时复用已编译的插入语句。
+     * @return 新行的ID，失败时返回-1
+     */
+    private long insertRow(SQLiteDatabase db, int match, ContentValues initialValues,
+                           BatchContext batch) {
         ContentValues values = (initialValues != null) ? new ContentValues(initialValues) : new ContentValues();
         Long now = System.currentTimeMillis();
 
-        // 根据不同表设置默认值
+        // 根据不同表设置默认值；分页时间列显式传入NULL时同样使用默认值，键集分页取不到NULL的行
         if (match == NOTES) {
             // 笔记表默认值
             if (!values.containsKey(NotePad.Notes.COLUMN_NAME_CREATE_DATE)) {
                 values.put(NotePad.Notes.COLUMN_NAME_CREATE_DATE, now);
             }
-            if (!values.containsKey(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE)) {
+            if (values.get(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE) == null) {
                 values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, now);
             }
             if (!values.containsKey(NotePad.Notes.COLUMN_NAME_TITLE)) {
                 Resources r = Resources.getSystem();
                 values.put(NotePad.Notes.COLUMN_NAME_TITLE, r.getString(android.R.string.untitled));
             }
-            if (!values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)) {
+            // 内容列为NULL表示内容以压缩或分块存储，调用方传入的NULL按空内容保存
+            if (values.get(NotePad.Notes.COLUMN_NAME_NOTE) == null) {
                 values.put(NotePad.Notes.COLUMN_NAME_NOTE, "");
             }
         } else {
             // 新增：待办事项表默认值
-            if (!values.containsKey(NotePad.Todos.COLUMN_NAME_CREATE_DATE)) {
+            if (values.get(NotePad.Todos.COLUMN_NAME_CREATE_DATE) == null) {
                 values.put(NotePad.Todos.COLUMN_NAME_CREATE_DATE, now);
             }
             if (!values.containsKey(NotePad.Todos.COLUMN_NAME_COMPLETED)) {
@@ -405,116 +1412,654 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
             }
         }
 
-        // 执行插入
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-        long rowId;
-        Uri contentUri;
+        if (match == NOTES) {
+            String text = values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE);
+            NoteSummary.put(values, text);
+            List<String> chunks = NoteChunkStore.encode(values);
+            if (chunks != null || NoteBodyCodec.encode(values) != null) {
+                return insertEncodedNote(db, values, text, chunks, batch);
+            }
+        }
+        return insertValues(db, match, values, batch);
+    }
 
+    private static long insertValues(SQLiteDatabase db, int match, ContentValues values,
+                                     BatchContext batch) {
+        String table = (match == NOTES) ? NotePad.Notes.TABLE_NAME : NotePad.Todos.TABLE_NAME;
+        if (batch != null) {
+            return batch.getInsertStatement(db, table, values).executeInsert();
+        }
         if (match == NOTES) {
-            rowId = db.insert(NotePad.Notes.TABLE_NAME, NotePad.Notes.COLUMN_NAME_NOTE, values);
-            contentUri = NotePad.Notes.CONTENT_ID_URI_BASE;
+            return db.insert(table, NotePad.Notes.COLUMN_NAME_NOTE, values);
         } else {
-            rowId = db.insert(NotePad.Todos.TABLE_NAME, NotePad.Todos.COLUMN_NAME_CONTENT, values);
-            contentUri = NotePad.Todos.CONTENT_ID_URI_BASE;
+            return db.insert(table, NotePad.Todos.COLUMN_NAME_CONTENT, values);
         }
+    }
 
-        if (rowId > 0) {
-            Uri insertedUri = ContentUris.withAppendedId(contentUri, rowId);
-            getContext().getContentResolver().notifyChange(insertedUri, null);
-            return insertedUri;
+    /**
+     * 插入内容被压缩或分块存储的笔记，并在同一个事务中写入分块、把原文写入全文索引
+     * @param chunks 分块存储时的分块，压缩存储时为null
+     */
+    private static long insertEncodedNote(SQLiteDatabase db, ContentValues values, String text,
+                                          List<String> chunks, BatchContext batch) {
+        db.beginTransaction();
+        try {
+            long rowId = insertValues(db, NOTES, values, batch);
+            if (rowId > 0) {
+                if (chunks != null) {
+                    NoteChunkStore.write(db, rowId, chunks);
+                }
+                indexNoteText(db, NotePad.Notes._ID + " = " + rowId, null, text);
+            }
+            db.setTransactionSuccessful();
+            return rowId;
+        } finally {
+            db.endTransaction();
         }
+    }
 
-        throw new SQLException("Failed to insert row into " + uri);
+    /**
+     * 把压缩或分块存储的笔记原文写入全文索引（触发器只能看到为NULL的内容列）
+     * @param where 选出笔记行的条件
+     */
+    private static void indexNoteText(SQLiteDatabase db, String where, Object[] whereArgs,
+                                      String text) {
+        Object[] bindArgs = new Object[1 + (whereArgs != null ? whereArgs.length : 0)];
+        bindArgs[0] = text;
+        if (whereArgs != null) {
+            System.arraycopy(whereArgs, 0, bindArgs, 1, whereArgs.length);
+        }
+        db.execSQL("UPDATE " + NOTES_FTS_TABLE_NAME + " SET " + NotePad.Notes.COLUMN_NAME_NOTE
+                + " = ? WHERE docid IN (SELECT " + NotePad.Notes._ID + " FROM "
+                + NotePad.Notes.TABLE_NAME + " WHERE " + where + ")", bindArgs);
+    }
+
+    /**
+     * 批量插入：所有行在同一个事务中写入，只提交一次，结束后发出一次变更通知
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        String uriType = getUriType(uri);
+        long start = mMetrics.begin(ProviderMetrics.OP_BULK_INSERT, uriType);
+        int count = 0;
+        try {
+            return count = doBulkInsert(uri, values);
+        } finally {
+            mMetrics.end(ProviderMetrics.OP_BULK_INSERT, uriType, start, count);
+        }
+    }
+
+    private int doBulkInsert(Uri uri, ContentValues[] values) {
+        int match = sUriMatcher.match(uri);
+        if (match != NOTES && match != TODOS) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BatchContext batch = beginBatch(db);
+        boolean successful = false;
+        try {
+            for (ContentValues value : values) {
+                long rowId = insertRow(db, match, value, batch);
+                if (rowId <= 0) {
+                    throw new SQLException("Failed to insert row into " + uri);
+                }
+                // 行数较多时 ChangeSet 会合并为一次目录级通知
+                batch.changes.addItem(getTableUri(uri), rowId, NotePad.CHANGE_INSERT);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endBatch(db, batch, successful);
+        }
+        return values.length;
     }
 
     /**
-     * 删除数据：支持笔记和待办事项
+     * 批量执行操作：所有操作在同一个事务中执行，任一操作失败则全部回滚。
+     * 各操作产生的通知被合并，事务提交后每条变化的记录只通知一次。
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BatchContext batch = beginBatch(db);
+        boolean successful = false;
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+            return results;
+        } finally {
+            endBatch(db, batch, successful);
+        }
+    }
+
+    /**
+     * 开始批量操作：开启事务并为当前线程登记批量上下文。
+     * 已经处于批量操作中时（嵌套调用）沿用外层上下文。
+     */
+    private BatchContext beginBatch(SQLiteDatabase db) {
+        BatchContext batch = mBatch.get();
+        if (batch == null) {
+            batch = new BatchContext();
+            mBatch.set(batch);
+        }
+        batch.depth++;
+        db.beginTransaction();
+        return batch;
+    }
+
+    /**
+     * 结束批量操作：结束本层事务；只有最外层结束时才释放已编译语句、清理缓存并发出合并后的通知。
+     * 任何一层未成功，整个事务都会回滚，因此只有各层都成功时才算提交。
+     * @param successful 本层操作是否成功完成
+     */
+    private void endBatch(SQLiteDatabase db, BatchContext batch, boolean successful) {
+        db.endTransaction();
+        if (!successful) {
+            batch.failed = true;
+        }
+        if (--batch.depth > 0) {
+            return;
+        }
+        mBatch.remove();
+        batch.closeStatements();
+        // 事务进行中其他线程可能把提交前的内容放回了缓存，本线程也可能缓存了随后回滚的内容
+        if (batch.failed || batch.changes.contains(NotePad.Notes.CONTENT_URI)) {
+            mNoteCache.clear();
+        }
+        // 事务就是合并的范围，提交后立即通知
+        if (!batch.failed) {
+            batch.changes.dispatch(getContext().getContentResolver());
+        }
+    }
+
+    /**
+     * 记录写入产生的变化。批量操作中的变化在事务提交后通知，其他写入在 NOTIFY_DELAY_MS 内合并后通知。
+     * @param uri 写入使用的URI
+     * @param ids 变化的记录ID，为null时表示无法确定，通知整个表
+     * @param change 变化类型，见 {@link NotePad#CHANGE_INSERT} 等常量
+     */
+    private void notifyChange(Uri uri, long[] ids, String change) {
+        Uri tableUri = getTableUri(uri);
+        BatchContext batch = mBatch.get();
+        if (batch != null) {
+            addChanges(batch.changes, tableUri, ids, change);
+            return;
+        }
+        synchronized (mPendingChanges) {
+            boolean scheduled = !mPendingChanges.isEmpty();
+            addChanges(mPendingChanges, tableUri, ids, change);
+            if (!scheduled) {
+                mNotifyHandler.postDelayed(mDispatchPendingChanges, NOTIFY_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * 返回写入URI所在表的目录URI，变化按表合并
+     */
+    private static Uri getTableUri(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case NOTES:
+            case NOTE_ID:
+                return NotePad.Notes.CONTENT_URI;
+            case TODOS:
+            case TODO_ID:
+                return NotePad.Todos.CONTENT_URI;
+            case NOTES_TRASH:
+            case NOTE_TRASH_ID:
+                return NotePad.Notes.CONTENT_TRASH_URI;
+            case TODOS_TRASH:
+            case TODO_TRASH_ID:
+                return NotePad.Todos.CONTENT_TRASH_URI;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+    }
+
+    private static void addChanges(ChangeSet changes, Uri tableUri, long[] ids, String change) {
+        if (ids == null) {
+            changes.addTable(tableUri);
+            return;
+        }
+        for (long id : ids) {
+            changes.addItem(tableUri, id, change);
+        }
+    }
+
+    /**
+     * 一次批量操作的上下文：嵌套深度、待通知的变化和可复用的已编译插入语句
+     */
+    private static class BatchContext {
+        int depth;
+        /** 是否有某一层批量操作未成功，此时整个事务回滚 */
+        boolean failed;
+        final ChangeSet changes = new ChangeSet();
+        final HashMap<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+
+        /**
+         * 按表名和列集合缓存插入语句，相同结构的行只编译一次，并绑定本行的值
+         */
+        SQLiteStatement getInsertStatement(SQLiteDatabase db, String table, ContentValues values) {
+            ArrayList<String> columns = new ArrayList<String>(values.keySet());
+            Collections.sort(columns);
+            String key = table + ":" + TextUtils.join(",", columns);
+
+            SQLiteStatement statement = statements.get(key);
+            if (statement == null) {
+                StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+                sql.append(TextUtils.join(",", columns)).append(") VALUES (");
+                for (int i = 0; i < columns.size(); i++) {
+                    sql.append(i == 0 ? "?" : ",?");
+                }
+                sql.append(")");
+                statement = db.compileStatement(sql.toString());
+                statements.put(key, statement);
+            }
+
+            statement.clearBindings();
+            for (int i = 0; i < columns.size(); i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns.get(i)));
+            }
+            return statement;
+        }
+
+        void closeStatements() {
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+            statements.clear();
+        }
+    }
+
+    /**
+     * 删除数据：笔记和待办事项移入回收站，回收站中的记录永久删除
      */
     @Override
     public int delete(Uri uri, String where, String[] whereArgs) {
+        String uriType = getUriType(uri);
+        long start = mMetrics.begin(ProviderMetrics.OP_DELETE, uriType);
+        int count = 0;
+        try {
+            return count = doDelete(uri, where, whereArgs);
+        } finally {
+            mMetrics.end(ProviderMetrics.OP_DELETE, uriType, start, count);
+        }
+    }
+
+    private int doDelete(Uri uri, String where, String[] whereArgs) {
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         String finalWhere;
         int count;
         int match = sUriMatcher.match(uri);
+        // 删除的记录ID，用于逐条通知；为null时通知整个表
+        long[] ids;
 
         switch (match) {
             case NOTES:
-                count = db.delete(NotePad.Notes.TABLE_NAME, where, whereArgs);
+                // 在同一个事务中先找出要删除的笔记
+                db.beginTransaction();
+                try {
+                    finalWhere = NoteTrash.where(NoteTrash.LIVE, where);
+                    ids = queryIds(db, NotePad.Notes.TABLE_NAME, finalWhere, whereArgs,
+                            ChangeSet.MAX_ITEM_CHANGES);
+                    count = moveToTrash(db, NotePad.Notes.TABLE_NAME, finalWhere, whereArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case NOTE_ID:
-                finalWhere = NotePad.Notes._ID + "=" +
-                        uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION);
+                String noteId = uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION);
+                finalWhere = NotePad.Notes._ID + "=" + noteId;
                 if (where != null) finalWhere += " AND " + where;
-                count = db.delete(NotePad.Notes.TABLE_NAME, finalWhere, whereArgs);
+                count = moveToTrash(db, NotePad.Notes.TABLE_NAME,
+                        NoteTrash.where(NoteTrash.LIVE, finalWhere), whereArgs);
+                ids = new long[] { parseLong(noteId, uri) };
                 break;
             // 新增：待办事项删除
             case TODOS:
-                count = db.delete(NotePad.Todos.TABLE_NAME, where, whereArgs);
+                db.beginTransaction();
+                try {
+                    finalWhere = NoteTrash.where(NoteTrash.LIVE, where);
+                    ids = queryIds(db, NotePad.Todos.TABLE_NAME, finalWhere, whereArgs,
+                            ChangeSet.MAX_ITEM_CHANGES);
+                    count = moveToTrash(db, NotePad.Todos.TABLE_NAME, finalWhere, whereArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case TODO_ID:
-                finalWhere = NotePad.Todos._ID + "=" +
-                        uri.getPathSegments().get(NotePad.Todos.TODO_ID_PATH_POSITION);
+                String todoId = uri.getPathSegments().get(NotePad.Todos.TODO_ID_PATH_POSITION);
+                finalWhere = NotePad.Todos._ID + "=" + todoId;
                 if (where != null) finalWhere += " AND " + where;
-                count = db.delete(NotePad.Todos.TABLE_NAME, finalWhere, whereArgs);
+                count = moveToTrash(db, NotePad.Todos.TABLE_NAME,
+                        NoteTrash.where(NoteTrash.LIVE, finalWhere), whereArgs);
+                ids = new long[] { parseLong(todoId, uri) };
                 break;
+            // 回收站：永久删除，分块、版本和全文索引由触发器删除
+            case NOTES_TRASH:
+            case NOTE_TRASH_ID:
+            case TODOS_TRASH:
+            case TODO_TRASH_ID:
+                String table = getTrashTable(match);
+                finalWhere = getTrashWhere(uri, match, where);
+                db.beginTransaction();
+                try {
+                    ids = queryIds(db, table, finalWhere, whereArgs, ChangeSet.MAX_ITEM_CHANGES);
+                    count = db.delete(table, finalWhere, whereArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (count > 0) {
+                    notifyChange(uri, ids, NotePad.CHANGE_DELETE);
+                }
+                return count;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        invalidateNoteCache(uri);
+        if (count > 0) {
+            notifyChange(uri, ids, NotePad.CHANGE_DELETE);
+            notifyChange(match == NOTES || match == NOTE_ID
+                    ? NotePad.Notes.CONTENT_TRASH_URI : NotePad.Todos.CONTENT_TRASH_URI,
+                    ids, NotePad.CHANGE_INSERT);
+        }
+        return count;
+    }
+
+    /**
+     * 把满足条件的行移入回收站：只记录删除时间，行在清理时才真正删除
+     * @param where 已限定为未删除的行的条件
+     */
+    private static int moveToTrash(SQLiteDatabase db, String table, String where,
+                                   String[] whereArgs) {
+        ContentValues values = new ContentValues();
+        values.put(NoteTrash.COLUMN_DELETED, System.currentTimeMillis());
+        return db.update(table, values, where, whereArgs);
+    }
+
+    /**
+     * 从回收站恢复：只允许把删除时间设为0，恢复的记录重新出现在列表中
+     */
+    private int restoreFromTrash(SQLiteDatabase db, Uri uri, int match, ContentValues values,
+                                 String where, String[] whereArgs) {
+        if (values == null || values.size() != 1
+                || !Long.valueOf(0).equals(values.getAsLong(NoteTrash.COLUMN_DELETED))) {
+            throw new IllegalArgumentException(
+                    "Only " + NoteTrash.COLUMN_DELETED + " = 0 can be written to " + uri);
+        }
+        String table = getTrashTable(match);
+        String finalWhere = getTrashWhere(uri, match, where);
+        long[] ids;
+        int count;
+        db.beginTransaction();
+        try {
+            ids = queryIds(db, table, finalWhere, whereArgs, ChangeSet.MAX_ITEM_CHANGES);
+            count = db.update(table, values, finalWhere, whereArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (count > 0) {
+            notifyChange(uri, ids, NotePad.CHANGE_DELETE);
+            notifyChange(table.equals(NotePad.Notes.TABLE_NAME)
+                    ? NotePad.Notes.CONTENT_URI : NotePad.Todos.CONTENT_URI,
+                    ids, NotePad.CHANGE_INSERT);
+        }
         return count;
     }
 
+    private static String getTrashTable(int match) {
+        return (match == NOTES_TRASH || match == NOTE_TRASH_ID)
+                ? NotePad.Notes.TABLE_NAME : NotePad.Todos.TABLE_NAME;
+    }
+
+    /**
+     * 回收站URI对应的条件：只选出已删除的行，单条记录的URI再限定ID
+     */
+    private static String getTrashWhere(Uri uri, int match, String where) {
+        if (match == NOTE_TRASH_ID || match == TODO_TRASH_ID) {
+            // 笔记和待办事项的回收站URI中ID的位置相同
+            where = NoteTrash.where(BaseColumns._ID + " = " + parseLong(
+                    uri.getPathSegments().get(NotePad.Notes.TRASH_ID_PATH_POSITION), uri), where);
+        }
+        return NoteTrash.where(NoteTrash.TRASHED, where);
+    }
+
     /**
      * 更新数据：支持笔记和待办事项
      */
     @Override
     public int update(Uri uri, ContentValues values, String where, String[] whereArgs) {
+        String uriType = getUriType(uri);
+        long start = mMetrics.begin(ProviderMetrics.OP_UPDATE, uriType);
+        int count = 0;
+        try {
+            return count = doUpdate(uri, values, where, whereArgs);
+        } finally {
+            mMetrics.end(ProviderMetrics.OP_UPDATE, uriType, start, count);
+        }
+    }
+
+    private int doUpdate(Uri uri, ContentValues values, String where, String[] whereArgs) {
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         int count;
         String finalWhere;
         int match = sUriMatcher.match(uri);
 
-        // 对于笔记更新，自动更新修改时间
+        // 对于笔记更新，自动更新修改时间和内容派生列；较长的内容压缩存储，很长的内容分块存储
+        String text = null;
+        List<String> chunks = null;
+        // 内容不以文本存储时，需要由Provider单独写入全文索引
+        boolean encoded = false;
+        // 更新的记录ID，用于逐条通知；为null时通知整个表
+        long[] ids;
+        if (values != null && values.containsKey(NoteTrash.COLUMN_DELETED)
+                && (match == NOTES || match == NOTE_ID || match == TODOS || match == TODO_ID)) {
+            throw new IllegalArgumentException("Use delete() to move rows to the trash: " + uri);
+        }
+        if (values != null && values.containsKey(NotePad.Todos.COLUMN_NAME_CREATE_DATE)
+                && values.get(NotePad.Todos.COLUMN_NAME_CREATE_DATE) == null
+                && (match == TODOS || match == TODO_ID)) {
+            throw new IllegalArgumentException("The paging time column cannot be null: " + uri);
+        }
         if (match == NOTES || match == NOTE_ID) {
-            if (values == null) {
-                values = new ContentValues();
-            }
+            values = (values == null) ? new ContentValues() : new ContentValues(values);
             values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, System.currentTimeMillis());
+            // 内容列为NULL时全文索引保留原有内容（见 createNotesFtsUpdateTrigger），
+            // 调用方清空内容时按空内容保存，索引随之清空
+            if (values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)
+                    && values.get(NotePad.Notes.COLUMN_NAME_NOTE) == null) {
+                values.put(NotePad.Notes.COLUMN_NAME_NOTE, "");
+            }
+            text = values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE);
+            NoteSummary.put(values, text);
+            chunks = NoteChunkStore.encode(values);
+            encoded = NoteBodyCodec.encode(values) != null || chunks != null;
         }
 
         switch (match) {
             case NOTES:
-                count = db.update(NotePad.Notes.TABLE_NAME, values, where, whereArgs);
+                // 更新后的行不一定还满足原条件，先找出要更新的笔记；
+                // 内容不以文本存储时需要全部ID，以便逐条写入分块和全文索引
+                db.beginTransaction();
+                try {
+                    finalWhere = NoteTrash.where(NoteTrash.LIVE, where);
+                    ids = queryIds(db, NotePad.Notes.TABLE_NAME, finalWhere, whereArgs,
+                            encoded ? 0 : ChangeSet.MAX_ITEM_CHANGES);
+                    count = db.update(NotePad.Notes.TABLE_NAME, values, finalWhere, whereArgs);
+                    for (int i = 0; encoded && i < ids.length; i++) {
+                        if (chunks != null) {
+                            NoteChunkStore.write(db, ids[i], chunks);
+                        }
+                        indexNoteText(db, NotePad.Notes._ID + " = " + ids[i], null, text);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case NOTE_ID:
                 String noteId = uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION);
                 finalWhere = NotePad.Notes._ID + "=" + noteId;
                 if (where != null) finalWhere += " AND " + where;
-                count = db.update(NotePad.Notes.TABLE_NAME, values, finalWhere, whereArgs);
+                finalWhere = NoteTrash.where(NoteTrash.LIVE, finalWhere);
+                ids = new long[] { parseLong(noteId, uri) };
+                if (!values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE)) {
+                    count = db.update(NotePad.Notes.TABLE_NAME, values, finalWhere, whereArgs);
+                    break;
+                }
+                // 内容变化时在同一个事务中记录一个历史版本
+                db.beginTransaction();
+                try {
+                    count = db.update(NotePad.Notes.TABLE_NAME, values, finalWhere, whereArgs);
+                    if (count > 0) {
+                        // 分块存储时只改写内容变化的分块；没有分块变化说明内容未变，索引也无需重写
+                        boolean changed = chunks == null || NoteChunkStore.write(db, ids[0], chunks);
+                        if (encoded && changed) {
+                            indexNoteText(db, NotePad.Notes._ID + " = " + noteId, null, text);
+                        }
+                        recordRevision(db, ids[0], values, text);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
+            // 把笔记恢复为某个历史版本，恢复本身也会记录为一个新版本
+            case NOTE_REVISION_ID:
+                return restoreRevision(db, uri);
+            // 从回收站恢复
+            case NOTES_TRASH:
+            case NOTE_TRASH_ID:
+            case TODOS_TRASH:
+            case TODO_TRASH_ID:
+                return restoreFromTrash(db, uri, match, values, where, whereArgs);
             // 新增：待办事项更新
             case TODOS:
-                count = db.update(NotePad.Todos.TABLE_NAME, values, where, whereArgs);
+                db.beginTransaction();
+                try {
+                    finalWhere = NoteTrash.where(NoteTrash.LIVE, where);
+                    ids = queryIds(db, NotePad.Todos.TABLE_NAME, finalWhere, whereArgs,
+                            ChangeSet.MAX_ITEM_CHANGES);
+                    count = db.update(NotePad.Todos.TABLE_NAME, values, finalWhere, whereArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case TODO_ID:
                 String todoId = uri.getPathSegments().get(NotePad.Todos.TODO_ID_PATH_POSITION);
                 finalWhere = NotePad.Todos._ID + "=" + todoId;
                 if (where != null) finalWhere += " AND " + where;
-                count = db.update(NotePad.Todos.TABLE_NAME, values, finalWhere, whereArgs);
+                count = db.update(NotePad.Todos.TABLE_NAME, values,
+                        NoteTrash.where(NoteTrash.LIVE, finalWhere), whereArgs);
+                ids = new long[] { parseLong(todoId, uri) };
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        invalidateNoteCache(uri);
+        if (count > 0) {
+            notifyChange(uri, ids, NotePad.CHANGE_UPDATE);
+        }
         return count;
     }
 
+    /**
+     * 返回满足条件的记录ID
+     * @param limit 最多返回的个数，超过时返回null；为0时不限
+     */
+    private static long[] queryIds(SQLiteDatabase db, String table, String where,
+                                   String[] whereArgs, int limit) {
+        Cursor c = db.query(table, new String[] { BaseColumns._ID }, where, whereArgs,
+                null, null, null, limit > 0 ? String.valueOf(limit + 1) : null);
+        try {
+            if (limit > 0 && c.getCount() > limit) {
+                return null;
+            }
+            long[] ids = new long[c.getCount()];
+            for (int i = 0; c.moveToNext(); i++) {
+                ids[i] = c.getLong(0);
+            }
+            return ids;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * 记录笔记的当前内容（未压缩的原文）为一个历史版本。更新中没有标题时读取笔记现有的标题。
+     */
+    private static void recordRevision(SQLiteDatabase db, long noteId, ContentValues values,
+                                       String text) {
+        String title = values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE);
+        if (title == null) {
+            title = DatabaseUtils.stringForQuery(db, "SELECT " + NotePad.Notes.COLUMN_NAME_TITLE
+                    + " FROM " + NotePad.Notes.TABLE_NAME + " WHERE " + NotePad.Notes._ID
+                    + "=" + noteId, null);
+        }
+        NoteRevisionStore.record(db, noteId, title, text,
+                values.getAsLong(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE));
+    }
+
+    /**
+     * 把笔记的标题和内容恢复为指定版本
+     * @return 更新的笔记数，版本不存在时为0
+     */
+    private int restoreRevision(SQLiteDatabase db, Uri uri) {
+        long noteId = parseRevisionNoteId(uri);
+        long revisionId = parseRevisionId(uri);
+
+        Cursor revision = NoteRevisionStore.queryRevision(db, noteId, revisionId, new String[] {
+                NotePad.NoteRevisions.COLUMN_NAME_TITLE, NotePad.NoteRevisions.COLUMN_NAME_NOTE });
+        ContentValues values = new ContentValues();
+        try {
+            if (!revision.moveToFirst()) {
+                return 0;
+            }
+            values.put(NotePad.Notes.COLUMN_NAME_TITLE, revision.getString(0));
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE, revision.getString(1));
+        } finally {
+            revision.close();
+        }
+        return update(ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, noteId),
+                values, null, null);
+    }
+
     /**
      * 测试用方法
      */
     DatabaseHelper getOpenHelperForTest() {
         return mOpenHelper;
     }
+
+    /**
+     * 测试用方法
+     */
+    ProviderMetrics getMetricsForTest() {
+        return mMetrics;
+    }
+
+    /**
+     * 测试用方法：等待此前关闭的内容流全部保存完毕
+     */
+    void waitForBodyWritesForTest() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        getBodyWriter().post(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
 }
\ No newline at end of file
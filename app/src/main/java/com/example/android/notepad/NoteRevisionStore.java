@@ -0,0 +1,457 @@
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.notepad.NotePad.NoteRevisions;
+
+import java.util.List;
+
+/**
+ * 笔记历史版本的存储格式，供 {@link NotePadProvider} 使用。
+ *
+ * 每个版本要么是完整快照（snapshot列），要么是相对前一个版本的差量：
+ * 保留前一版本开头 prefix 个字符和结尾 suffix 个字符，中间替换为 middle。
+ * 一次编辑通常只改动一处，差量的大小与改动量成正比，而与笔记长度无关。
+ * 每隔 {@link #SNAPSHOT_INTERVAL} 个版本（或差量不比全文小时）保存一次快照，
+ * 还原任意版本最多回放这么多个差量。
+ *
+ * 保留策略：距上一个版本不足 {@link #MERGE_WINDOW_MILLIS} 的保存并入上一个版本，
+ * 自动保存不会为每次停顿都产生一个版本；每条笔记最多保留 {@link #MAX_REVISIONS} 个版本，
+ * 删除旧版本前先把保留下来的最早版本改写为快照，保证差量链总是从快照开始。
+ *
+ * 快照或差量的内容达到 {@link #SEGMENTED_CHARS} 个字符时不写入版本表，而是按
+ * {@link NoteChunkStore#split} 切分后逐段压缩存入 {@link #SEGMENTS_TABLE_NAME}：
+ * 单个值超过 CursorWindow（约2MB）时读不出来，大笔记有了一个版本之后就无法再保存。
+ * 读取时逐段查询和解压，每一行都远小于一个窗口。
+ */
+final class NoteRevisionStore {
+
+    /** 每隔多少个版本保存一次完整快照 */
+    static final int SNAPSHOT_INTERVAL = 16;
+
+    /** 每条笔记最多保留的版本数 */
+    static final int MAX_REVISIONS = 50;
+
+    /** 在此时间内的连续保存合并为一个版本 */
+    static final long MERGE_WINDOW_MILLIS = 60 * 1000;
+
+    /** 达到这么多字符的快照或差量内容分段存储，与笔记内容的分块阈值相同 */
+    static final int SEGMENTED_CHARS = NoteChunkStore.CHUNKED_NOTE_CHARS;
+
+    /** 分段存储的快照和差量内容 */
+    static final String SEGMENTS_TABLE_NAME = "note_revision_segments";
+
+    /*
+     * 内部存储列，不通过Provider对外提供
+     */
+    static final String COLUMN_SNAPSHOT = "snapshot";
+    static final String COLUMN_PREFIX = "prefix";
+    static final String COLUMN_SUFFIX = "suffix";
+    static final String COLUMN_MIDDLE = "middle";
+    // 内容分段存储时为段数，此时 snapshot 或 middle 列为NULL；否则为0
+    static final String COLUMN_SEGMENT_COUNT = "segment_count";
+
+    /*
+     * 分段表的列
+     */
+    private static final String COLUMN_REVISION_ID = "revision_id";
+    private static final String COLUMN_SEQUENCE = "seq";
+    private static final String COLUMN_TEXT = "text";
+    private static final String COLUMN_DATA = "data";
+
+    private static final String[] CHAIN_PROJECTION = new String[] {
+            NoteRevisions._ID,
+            NoteRevisions.COLUMN_NAME_CREATE_DATE,
+            COLUMN_SNAPSHOT,
+            COLUMN_PREFIX,
+            COLUMN_SUFFIX,
+            COLUMN_MIDDLE,
+            COLUMN_SEGMENT_COUNT
+    };
+
+    private NoteRevisionStore() {
+    }
+
+    /**
+     * 创建版本表、分段表、按笔记查找版本的索引，以及删除笔记时清理其版本的触发器
+     */
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + NoteRevisions.TABLE_NAME + " ("
+                + NoteRevisions._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + NoteRevisions.COLUMN_NAME_NOTE_ID + " INTEGER NOT NULL,"
+                + NoteRevisions.COLUMN_NAME_CREATE_DATE + " INTEGER,"
+                + NoteRevisions.COLUMN_NAME_TITLE + " TEXT,"
+                + NoteRevisions.COLUMN_NAME_LENGTH + " INTEGER,"
+                + COLUMN_SNAPSHOT + " TEXT,"
+                + COLUMN_PREFIX + " INTEGER,"
+                + COLUMN_SUFFIX + " INTEGER,"
+                + COLUMN_MIDDLE + " TEXT,"
+                + COLUMN_SEGMENT_COUNT + " INTEGER NOT NULL DEFAULT 0"
+                + ");");
+
+        db.execSQL("CREATE INDEX note_revisions_note_index ON " + NoteRevisions.TABLE_NAME
+                + " (" + NoteRevisions.COLUMN_NAME_NOTE_ID + ", " + NoteRevisions._ID + ")");
+
+        db.execSQL("CREATE TRIGGER note_revisions_delete AFTER DELETE ON "
+                + NotePad.Notes.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + NoteRevisions.TABLE_NAME + " WHERE "
+                + NoteRevisions.COLUMN_NAME_NOTE_ID + " = old." + NotePad.Notes._ID + "; END");
+
+        createSegmentsTable(db);
+    }
+
+    /**
+     * 为已有的版本表添加段数列和分段表（数据库版本13）。已有的版本都不分段
+     */
+    static void addSegments(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + NoteRevisions.TABLE_NAME + " ADD COLUMN "
+                + COLUMN_SEGMENT_COUNT + " INTEGER NOT NULL DEFAULT 0");
+        createSegmentsTable(db);
+    }
+
+    /**
+     * 创建分段表，以及删除版本（包括删除笔记时由触发器删除的版本）时清理其分段的触发器
+     */
+    private static void createSegmentsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SEGMENTS_TABLE_NAME + " ("
+                + COLUMN_REVISION_ID + " INTEGER NOT NULL,"
+                + COLUMN_SEQUENCE + " INTEGER NOT NULL,"
+                + COLUMN_TEXT + " TEXT,"
+                + COLUMN_DATA + " BLOB,"
+                + "PRIMARY KEY (" + COLUMN_REVISION_ID + ", " + COLUMN_SEQUENCE + ")"
+                + ");");
+
+        db.execSQL("CREATE TRIGGER note_revision_segments_delete AFTER DELETE ON "
+                + NoteRevisions.TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + SEGMENTS_TABLE_NAME + " WHERE "
+                + COLUMN_REVISION_ID + " = old." + NoteRevisions._ID + "; END");
+    }
+
+    /**
+     * 记录笔记的一个新版本。内容与最新版本相同时只更新标题。
+     * 调用方负责开启事务。
+     */
+    static void record(SQLiteDatabase db, long noteId, String title, String text, long now) {
+        if (text == null) {
+            text = "";
+        }
+        Chain latest = loadChain(db, noteId, Long.MAX_VALUE);
+
+        if (latest != null && text.equals(latest.text)) {
+            ContentValues values = new ContentValues();
+            values.put(NoteRevisions.COLUMN_NAME_TITLE, title);
+            updateRevision(db, latest.lastId, values);
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(NoteRevisions.COLUMN_NAME_TITLE, title);
+        values.put(NoteRevisions.COLUMN_NAME_LENGTH, text.length());
+
+        List<String> segments;
+        if (latest != null && now - latest.lastCreated < MERGE_WINDOW_MILLIS) {
+            // 并入最新版本：快照直接替换内容，差量改为相对它的前一个版本重新计算
+            if (latest.previousText == null) {
+                segments = putSnapshot(values, text);
+            } else {
+                segments = putDelta(values, latest.previousText, text);
+            }
+            updateRevision(db, latest.lastId, values);
+            writeSegments(db, latest.lastId, segments);
+            return;
+        }
+
+        values.put(NoteRevisions.COLUMN_NAME_NOTE_ID, noteId);
+        values.put(NoteRevisions.COLUMN_NAME_CREATE_DATE, now);
+        if (latest == null || latest.deltaCount + 1 >= SNAPSHOT_INTERVAL) {
+            segments = putSnapshot(values, text);
+        } else {
+            segments = putDelta(values, latest.text, text);
+        }
+        long revisionId = db.insert(NoteRevisions.TABLE_NAME, null, values);
+        writeSegments(db, revisionId, segments);
+
+        prune(db, noteId);
+    }
+
+    /**
+     * 还原某个版本的完整内容，版本不存在时返回null
+     */
+    static String readText(SQLiteDatabase db, long noteId, long revisionId) {
+        Chain chain = loadChain(db, noteId, revisionId);
+        return (chain != null && chain.lastId == revisionId) ? chain.text : null;
+    }
+
+    /**
+     * 查询单个版本，结果包含还原后的完整内容。projection为null时返回所有列。
+     */
+    static Cursor queryRevision(SQLiteDatabase db, long noteId, long revisionId,
+                                String[] projection) {
+        String[] columns = new String[] {
+                NoteRevisions._ID,
+                NoteRevisions.COLUMN_NAME_NOTE_ID,
+                NoteRevisions.COLUMN_NAME_CREATE_DATE,
+                NoteRevisions.COLUMN_NAME_TITLE,
+                NoteRevisions.COLUMN_NAME_LENGTH
+        };
+        if (projection == null) {
+            projection = new String[] {
+                    NoteRevisions._ID,
+                    NoteRevisions.COLUMN_NAME_NOTE_ID,
+                    NoteRevisions.COLUMN_NAME_CREATE_DATE,
+                    NoteRevisions.COLUMN_NAME_TITLE,
+                    NoteRevisions.COLUMN_NAME_LENGTH,
+                    NoteRevisions.COLUMN_NAME_NOTE
+            };
+        }
+        MatrixCursor result = new MatrixCursor(projection, 1);
+
+        Cursor row = db.query(NoteRevisions.TABLE_NAME, columns,
+                NoteRevisions._ID + "=? AND " + NoteRevisions.COLUMN_NAME_NOTE_ID + "=?",
+                new String[] { String.valueOf(revisionId), String.valueOf(noteId) },
+                null, null, null);
+        try {
+            if (!row.moveToFirst()) {
+                return result;
+            }
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                if (NoteRevisions.COLUMN_NAME_NOTE.equals(projection[i])) {
+                    values[i] = readText(db, noteId, revisionId);
+                } else {
+                    int index = row.getColumnIndex(projection[i]);
+                    if (index < 0) {
+                        throw new IllegalArgumentException("Invalid column " + projection[i]);
+                    }
+                    switch (row.getType(index)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            values[i] = null;
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values[i] = row.getLong(index);
+                            break;
+                        default:
+                            values[i] = row.getString(index);
+                            break;
+                    }
+                }
+            }
+            result.addRow(values);
+        } finally {
+            row.close();
+        }
+        return result;
+    }
+
+    /**
+     * 只保留最新的 {@link #MAX_REVISIONS} 个版本
+     */
+    private static void prune(SQLiteDatabase db, long noteId) {
+        String[] args = new String[] { String.valueOf(noteId) };
+        Cursor cursor = db.query(NoteRevisions.TABLE_NAME,
+                new String[] { NoteRevisions._ID, COLUMN_PREFIX },
+                NoteRevisions.COLUMN_NAME_NOTE_ID + "=?", args, null, null,
+                NoteRevisions._ID + " DESC", (MAX_REVISIONS - 1) + ",2");
+        long oldestKept;
+        boolean isSnapshot;
+        try {
+            // 第 MAX_REVISIONS 个版本之后还有更早的版本时才需要清理
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            oldestKept = cursor.getLong(0);
+            isSnapshot = cursor.isNull(1);
+            if (!cursor.moveToNext()) {
+                return;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // 保留下来的最早版本必须是快照，否则删掉前面的版本后它就无法还原
+        if (!isSnapshot) {
+            ContentValues values = new ContentValues();
+            List<String> segments = putSnapshot(values, readText(db, noteId, oldestKept));
+            updateRevision(db, oldestKept, values);
+            writeSegments(db, oldestKept, segments);
+        }
+        db.delete(NoteRevisions.TABLE_NAME, NoteRevisions.COLUMN_NAME_NOTE_ID + "=? AND "
+                + NoteRevisions._ID + "<" + oldestKept, args);
+    }
+
+    private static void updateRevision(SQLiteDatabase db, long revisionId, ContentValues values) {
+        db.update(NoteRevisions.TABLE_NAME, values, NoteRevisions._ID + "=" + revisionId, null);
+    }
+
+    /**
+     * 写入快照。快照的 prefix 列为NULL，以此与差量区分（分段存储的快照 snapshot 列也为NULL）
+     * @return 需要分段存储时返回分段，见 {@link #putText}
+     */
+    private static List<String> putSnapshot(ContentValues values, String text) {
+        values.putNull(COLUMN_PREFIX);
+        values.putNull(COLUMN_SUFFIX);
+        values.putNull(COLUMN_MIDDLE);
+        return putText(values, COLUMN_SNAPSHOT, text);
+    }
+
+    /**
+     * 计算从 base 到 text 的差量：两者相同的开头和结尾之外的部分即为改动
+     * @return 需要分段存储时返回分段，见 {@link #putText}
+     */
+    private static List<String> putDelta(ContentValues values, String base, String text) {
+        int max = Math.min(base.length(), text.length());
+        int prefix = 0;
+        while (prefix < max && base.charAt(prefix) == text.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix && base.charAt(base.length() - 1 - suffix)
+                == text.charAt(text.length() - 1 - suffix)) {
+            suffix++;
+        }
+        String middle = text.substring(prefix, text.length() - suffix);
+
+        // 改动超过全文一半时差量并不省空间，直接存快照
+        if (middle.length() * 2 > text.length()) {
+            return putSnapshot(values, text);
+        }
+        values.putNull(COLUMN_SNAPSHOT);
+        values.put(COLUMN_PREFIX, prefix);
+        values.put(COLUMN_SUFFIX, suffix);
+        return putText(values, COLUMN_MIDDLE, middle);
+    }
+
+    /**
+     * 把快照或差量的内容写入 column。内容达到 {@link #SEGMENTED_CHARS} 时该列为NULL，
+     * 由调用方在写入版本行之后用 {@link #writeSegments} 写入分段
+     * @return 需要分段存储时返回分段，否则返回null
+     */
+    private static List<String> putText(ContentValues values, String column, String text) {
+        if (text.length() < SEGMENTED_CHARS) {
+            values.put(column, text);
+            values.put(COLUMN_SEGMENT_COUNT, 0);
+            return null;
+        }
+        List<String> segments = NoteChunkStore.split(text);
+        values.putNull(column);
+        values.put(COLUMN_SEGMENT_COUNT, segments.size());
+        return segments;
+    }
+
+    /**
+     * 替换版本的分段：删除原有的分段，再逐段压缩写入。调用方负责开启事务
+     * @param segments {@link #putText} 的结果，为null时只删除原有的分段
+     */
+    private static void writeSegments(SQLiteDatabase db, long revisionId, List<String> segments) {
+        db.delete(SEGMENTS_TABLE_NAME, COLUMN_REVISION_ID + "=" + revisionId, null);
+        if (segments == null) {
+            return;
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_REVISION_ID, revisionId);
+            values.put(COLUMN_SEQUENCE, i);
+            byte[] compressed = NoteBodyCodec.compress(segments.get(i));
+            if (compressed != null) {
+                values.put(COLUMN_DATA, compressed);
+            } else {
+                values.put(COLUMN_TEXT, segments.get(i));
+            }
+            db.insert(SEGMENTS_TABLE_NAME, null, values);
+        }
+    }
+
+    /**
+     * 按顺序拼接版本的所有分段，每次只读取和解压一段
+     */
+    private static String readSegments(SQLiteDatabase db, long revisionId) {
+        StringBuilder text = new StringBuilder();
+        Cursor c = db.query(SEGMENTS_TABLE_NAME, new String[] { COLUMN_TEXT, COLUMN_DATA },
+                COLUMN_REVISION_ID + "=" + revisionId, null, null, null, COLUMN_SEQUENCE);
+        try {
+            while (c.moveToNext()) {
+                if (c.isNull(0)) {
+                    text.append(NoteBodyCodec.decompress(c.getBlob(1)));
+                } else {
+                    text.append(c.getString(0));
+                }
+            }
+        } finally {
+            c.close();
+        }
+        return text.toString();
+    }
+
+    /**
+     * 读出当前行的快照或差量内容：分段存储时从分段表读取
+     */
+    private static String readContent(SQLiteDatabase db, Cursor cursor, int column) {
+        if (cursor.getInt(6) > 0) {
+            return readSegments(db, cursor.getLong(0));
+        }
+        return cursor.getString(column);
+    }
+
+    private static String applyDelta(String base, int prefix, int suffix, String middle) {
+        StringBuilder text = new StringBuilder(prefix + middle.length() + suffix);
+        text.append(base, 0, prefix);
+        text.append(middle);
+        text.append(base, base.length() - suffix, base.length());
+        return text.toString();
+    }
+
+    /**
+     * 读取从最近的快照到指定版本（含）的差量链并逐个回放。
+     * @param upToId 版本ID上限，传 Long.MAX_VALUE 表示最新版本
+     * @return 没有任何版本时返回null
+     */
+    private static Chain loadChain(SQLiteDatabase db, long noteId, long upToId) {
+        String note = String.valueOf(noteId);
+        String upTo = String.valueOf(upToId);
+        Cursor cursor = db.query(NoteRevisions.TABLE_NAME, CHAIN_PROJECTION,
+                NoteRevisions.COLUMN_NAME_NOTE_ID + "=? AND " + NoteRevisions._ID + "<=? AND "
+                        + NoteRevisions._ID + ">=(SELECT MAX(" + NoteRevisions._ID + ") FROM "
+                        + NoteRevisions.TABLE_NAME + " WHERE "
+                        + NoteRevisions.COLUMN_NAME_NOTE_ID + "=? AND "
+                        + NoteRevisions._ID + "<=? AND " + COLUMN_PREFIX + " IS NULL)",
+                new String[] { note, upTo, note, upTo },
+                null, null, NoteRevisions._ID);
+        try {
+            Chain chain = null;
+            while (cursor.moveToNext()) {
+                if (chain == null) {
+                    chain = new Chain();
+                    chain.text = readContent(db, cursor, 2);
+                    chain.previousText = null;
+                } else {
+                    chain.previousText = chain.text;
+                    chain.text = applyDelta(chain.text, cursor.getInt(3), cursor.getInt(4),
+                            readContent(db, cursor, 5));
+                    chain.deltaCount++;
+                }
+                chain.lastId = cursor.getLong(0);
+                chain.lastCreated = cursor.getLong(1);
+            }
+            return chain;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 回放差量链的结果
+     */
+    private static class Chain {
+        long lastId;
+        long lastCreated;
+        // 链上最后一个版本的内容
+        String text;
+        // 最后一个版本之前那个版本的内容；最后一个版本是快照时为null
+        String previousText;
+        // 快照之后的差量数
+        int deltaCount;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.notepad;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.notepad.NotePad.Notes;
+
+/**
+ * 笔记内容的派生列（预览、字符数、行数），供 {@link NotePadProvider} 在写入内容时维护。
+ *
+ * 字符数和预览按Unicode码点计算，与SQLite的 length() 和 substr() 一致，
+ * 这样升级时可以直接用SQL回填以文本存储的笔记，结果与Java计算的相同。
+ */
+final class NoteSummary {
+
+    private NoteSummary() {
+    }
+
+    /**
+     * 按写入值中的笔记内容补全派生列。写入值不含内容时去掉调用方传入的派生列，
+     * 派生列只能由Provider计算。
+     * @param text 未压缩的笔记内容
+     */
+    static void put(ContentValues values, String text) {
+        if (!values.containsKey(Notes.COLUMN_NAME_NOTE)) {
+            values.remove(Notes.COLUMN_NAME_PREVIEW);
+            values.remove(Notes.COLUMN_NAME_CHAR_COUNT);
+            values.remove(Notes.COLUMN_NAME_LINE_COUNT);
+            return;
+        }
+        if (text == null) {
+            text = "";
+        }
+        int charCount = text.codePointCount(0, text.length());
+        int previewEnd = text.offsetByCodePoints(0, Math.min(charCount, Notes.PREVIEW_LENGTH));
+        values.put(Notes.COLUMN_NAME_PREVIEW, text.substring(0, previewEnd).replace('\n', ' '));
+        values.put(Notes.COLUMN_NAME_CHAR_COUNT, charCount);
+        values.put(Notes.COLUMN_NAME_LINE_COUNT, countLines(text));
+    }
+
+    private static int countLines(String text) {
+        if (text.length() == 0) {
+            return 0;
+        }
+        int lines = 1;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * 为已有的笔记回填派生列：以文本存储的内容直接在SQL中计算，压缩存储的内容解压后计算
+     */
+    static void backfill(SQLiteDatabase db) {
+        db.execSQL("UPDATE " + Notes.TABLE_NAME + " SET "
+                + Notes.COLUMN_NAME_PREVIEW + " = replace(substr(IFNULL(" + Notes.COLUMN_NAME_NOTE
+                + ", ''), 1, " + Notes.PREVIEW_LENGTH + "), char(10), ' '), "
+                + Notes.COLUMN_NAME_CHAR_COUNT + " = length(IFNULL(" + Notes.COLUMN_NAME_NOTE
+                + ", '')), "
+                + Notes.COLUMN_NAME_LINE_COUNT + " = CASE WHEN IFNULL(length("
+                + Notes.COLUMN_NAME_NOTE + "), 0) = 0 THEN 0 ELSE length(" + Notes.COLUMN_NAME_NOTE
+                + ") - length(replace(" + Notes.COLUMN_NAME_NOTE + ", char(10), '')) + 1 END"
+                + " WHERE " + NoteBodyCodec.COLUMN_NOTE_BLOB + " IS NULL");
+
+        Cursor c = db.query(Notes.TABLE_NAME,
+                new String[] { Notes._ID, NoteBodyCodec.COLUMN_NOTE_BLOB },
+                NoteBodyCodec.COLUMN_NOTE_BLOB + " IS NOT NULL", null, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (c.moveToNext()) {
+                String text = NoteBodyCodec.decompress(c.getBlob(1));
+                values.clear();
+                values.put(Notes.COLUMN_NAME_NOTE, text);
+                put(values, text);
+                values.remove(Notes.COLUMN_NAME_NOTE);
+                db.update(Notes.TABLE_NAME, values, Notes._ID + " = " + c.getLong(0), null);
+            }
+        } finally {
+            c.close();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.notepad;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+
+/**
+ * 回收站的清理，供 {@link NotePadProvider} 使用。
+ *
+ * 笔记和待办事项的删除只在 {@link #COLUMN_DELETED} 列记录删除时间，行仍留在表中，
+ * 大量删除不会立即产生零散的空闲页。移入回收站超过 {@link #RETENTION_MS} 的行由
+ * {@link #purge} 分批永久删除，每批一个短事务，不会长时间占用写锁；
+ * 删除后用 {@link #vacuum} 把空闲页从数据库文件末尾截掉，文件随之变小。
+ * 两者都在截止时间后停止，由 {@link NoteMaintenance} 在后续的时间片中继续。
+ *
+ * 升级前创建的数据库没有开启增量清理，需要用 {@link #enableIncrementalVacuum} 转换一次。
+ * 转换要执行完整的 VACUUM，重写整个数据库文件并全程持有写锁，无法按截止时间中途停止。
+ */
+final class NoteTrash {
+
+    /**
+     * 删除时间列，笔记表和待办事项表相同，未删除的行为0
+     */
+    static final String COLUMN_DELETED = NotePad.Notes.COLUMN_NAME_DELETED;
+
+    /** 未删除的行的条件 */
+    static final String LIVE = COLUMN_DELETED + " = 0";
+
+    /** 回收站中的行的条件 */
+    static final String TRASHED = COLUMN_DELETED + " > 0";
+
+    /** 回收站中的行保留的时间 */
+    static final long RETENTION_MS = 30L * 24 * 60 * 60 * 1000;
+
+    /** 每个事务永久删除的行数 */
+    private static final int PURGE_BATCH_SIZE = 50;
+
+    /** 每次增量清理释放的页数 */
+    private static final int VACUUM_BATCH_PAGES = 256;
+
+    /** PRAGMA auto_vacuum 的取值：增量清理 */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * 不超过这个大小的数据库可以在任何时间片中转换为增量清理，完整的 VACUUM 很快结束；
+     * 更大的数据库只在设备空闲时的维护任务中转换
+     */
+    static final long SMALL_DATABASE_BYTES = 4 * 1024 * 1024;
+
+    private NoteTrash() {
+    }
+
+    /**
+     * 把条件限定为未删除（或回收站中）的行
+     * @param condition {@link #LIVE} 或 {@link #TRASHED}
+     * @param where 调用方的条件，可以为null
+     */
+    static String where(String condition, String where) {
+        return where == null ? condition : condition + " AND (" + where + ")";
+    }
+
+    /**
+     * 分批永久删除回收站中过期的笔记和待办事项（分块、版本和全文索引由触发器删除）
+     * @param now 当前时间，早于 now - RETENTION_MS 删除的行被清理
+     * @param deadline 到这个时间（SystemClock.uptimeMillis()）后不再开始新的一批
+     * @return 永久删除的行数
+     */
+    static int purge(SQLiteDatabase db, long now, long deadline) {
+        long cutoff = now - RETENTION_MS;
+        return purgeTable(db, NotePad.Notes.TABLE_NAME, cutoff, deadline)
+                + purgeTable(db, NotePad.Todos.TABLE_NAME, cutoff, deadline);
+    }
+
+    /**
+     * @return 回收站中是否还有过期的行
+     */
+    static boolean hasExpired(SQLiteDatabase db, long now) {
+        String expired = expiredWhere(now - RETENTION_MS);
+        return DatabaseUtils.queryNumEntries(db, NotePad.Notes.TABLE_NAME, expired) > 0
+                || DatabaseUtils.queryNumEntries(db, NotePad.Todos.TABLE_NAME, expired) > 0;
+    }
+
+    private static String expiredWhere(long cutoff) {
+        return TRASHED + " AND " + COLUMN_DELETED + " < " + cutoff;
+    }
+
+    private static int purgeTable(SQLiteDatabase db, String table, long cutoff, long deadline) {
+        String expired = expiredWhere(cutoff);
+        int total = 0;
+        int count;
+        do {
+            if (SystemClock.uptimeMillis() >= deadline) {
+                break;
+            }
+            db.beginTransaction();
+            try {
+                count = db.delete(table, BaseColumns._ID + " IN (SELECT " + BaseColumns._ID
+                        + " FROM " + table + " WHERE " + expired + " LIMIT "
+                        + PURGE_BATCH_SIZE + ")", null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            total += count;
+        } while (count == PURGE_BATCH_SIZE);
+        return total;
+    }
+
+    /**
+     * @return 数据库是否已开启增量清理
+     */
+    static boolean isIncrementalVacuum(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    /**
+     * @return 数据库文件的大小（字节）
+     */
+    static long databaseSize(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    /**
+     * 开启增量清理并整理一次数据库。VACUUM 不能在升级的事务中执行，耗时与数据库大小成正比，
+     * 期间持有写锁且无法中途停止，调用方应根据 {@link #databaseSize} 决定是否执行。
+     * 不能在事务中调用。
+     */
+    static void enableIncrementalVacuum(SQLiteDatabase db) {
+        executePragma(db, "auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+        db.execSQL("VACUUM");
+    }
+
+    /**
+     * 分批释放数据库文件中的空闲页，数据库须已开启增量清理（见 {@link #isIncrementalVacuum}）。
+     * 不能在事务中调用。
+     * @param deadline 到这个时间（SystemClock.uptimeMillis()）后不再开始新的一批
+     * @return 是否已没有空闲页
+     */
+    static boolean vacuum(SQLiteDatabase db, long deadline) {
+        // 每次释放一批，批之间让出写锁
+        while (DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) > 0) {
+            if (SystemClock.uptimeMillis() >= deadline) {
+                return false;
+            }
+            // incremental_vacuum 每一步释放一页，读完结果才会全部执行
+            Cursor c = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_BATCH_PAGES + ")", null);
+            try {
+                c.getCount();
+            } finally {
+                c.close();
+            }
+        }
+        return true;
+    }
+
+    private static void executePragma(SQLiteDatabase db, String pragma) {
+        Cursor c = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            c.moveToFirst();
+        } finally {
+            c.close();
+        }
+    }
+}
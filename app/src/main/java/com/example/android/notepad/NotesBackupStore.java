@@ -0,0 +1,353 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.example.android.notepad.core.Note;
+import com.example.android.notepad.core.NoteBackupFormat;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 笔记备份的文件存储。
+ *
+ * 备份保存在应用私有目录的 backup/ 下，由一个全量快照 base.json.gz 和若干增量文件
+ * delta-N.json.gz 组成，每个文件都是 gzip 压缩的 JSON 数组，元素格式见 {@link NoteBackupFormat}。
+ *
+ * 每次备份只写出修改时间晚于上次备份水位线的笔记，作为一个新的增量文件追加；
+ * 增量文件积累到一定数量后合并为新的全量快照。所有文件都流式读写，先写临时文件再改名，
+ * 中途失败不会破坏已有备份。
+ */
+class NotesBackupStore {
+    private static final String TAG = "NotesBackupStore";
+
+    private static final String PREFS_NAME = "NotesBackup";
+    // 旧版本把整份备份放在这个 SharedPreferences 键里，首次使用时迁移为快照文件
+    private static final String KEY_LEGACY_BACKUP = "backup_data";
+    // 已备份笔记的最大修改时间
+    private static final String KEY_WATERMARK = "last_backup_modified";
+
+    private static final String BACKUP_DIR = "backup";
+    private static final String BASE_FILE = "base.json.gz";
+    private static final String DELTA_PREFIX = "delta-";
+    private static final String FILE_SUFFIX = ".json.gz";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** 增量文件达到这个数量时合并为新的快照 */
+    private static final int MAX_DELTA_FILES = 8;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String[] BACKUP_PROJECTION = new String[] {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_NOTE,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
+    };
+
+    // 备份、合并与恢复可能来自不同线程，同一时间只允许一个操作访问备份文件
+    private static final Object sLock = new Object();
+
+    private final Context mContext;
+    private final File mDir;
+
+    NotesBackupStore(Context context) {
+        mContext = context.getApplicationContext();
+        mDir = new File(mContext.getFilesDir(), BACKUP_DIR);
+    }
+
+    /**
+     * 备份自上次备份以来修改过的笔记。应在后台线程调用。
+     * @return 本次写出的笔记数
+     */
+    int backup(ContentResolver resolver) throws IOException {
+        synchronized (sLock) {
+            migrateLegacyBackup();
+
+            File base = new File(mDir, BASE_FILE);
+            long watermark = base.exists() ? getPreferences().getLong(KEY_WATERMARK, 0) : 0;
+
+            Cursor cursor = resolver.query(
+                    NotePad.Notes.CONTENT_URI,
+                    BACKUP_PROJECTION,
+                    NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " > ?",
+                    new String[] { String.valueOf(watermark) },
+                    NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " ASC");
+            if (cursor == null) {
+                throw new IOException("Unable to query notes");
+            }
+
+            int count;
+            long newWatermark = watermark;
+            File target = base.exists() ? new File(mDir, nextDeltaName()) : base;
+            File temp = new File(mDir, target.getName() + TEMP_SUFFIX);
+            try {
+                count = cursor.getCount();
+                if (count == 0) {
+                    return 0;
+                }
+                JsonWriter writer = openWriter(temp);
+                try {
+                    writer.beginArray();
+                    while (cursor.moveToNext()) {
+                        long modified = cursor.getLong(3);
+                        NoteBackupFormat.writeNote(writer, new Note(cursor.getLong(0),
+                                cursor.getString(1), cursor.getString(2), modified));
+                        newWatermark = Math.max(newWatermark, modified);
+                    }
+                    writer.endArray();
+                } finally {
+                    writer.close();
+                }
+            } finally {
+                cursor.close();
+            }
+
+            commit(temp, target);
+            getPreferences().edit().putLong(KEY_WATERMARK, newWatermark).apply();
+
+            if (listDeltaFiles().size() >= MAX_DELTA_FILES) {
+                compact();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 把快照和所有增量文件合并为一个新的快照。同一笔记只保留最新的版本，
+     * 从最新的增量文件往旧的方向读，已经写出过的ID直接跳过。
+     */
+    void compact() throws IOException {
+        synchronized (sLock) {
+            List<File> files = getBackupFilesNewestFirst();
+            if (files.size() <= 1) {
+                return;
+            }
+
+            File base = new File(mDir, BASE_FILE);
+            File temp = new File(mDir, BASE_FILE + TEMP_SUFFIX);
+            LongHashSet written = new LongHashSet();
+            JsonWriter writer = openWriter(temp);
+            try {
+                writer.beginArray();
+                for (File file : files) {
+                    JsonReader reader = new JsonReader(openReader(file));
+                    try {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            copyNoteIfNew(reader, writer, written);
+                        }
+                        reader.endArray();
+                    } finally {
+                        reader.close();
+                    }
+                }
+                writer.endArray();
+            } finally {
+                writer.close();
+            }
+
+            commit(temp, base);
+            for (File delta : listDeltaFiles()) {
+                if (!delta.delete()) {
+                    Log.w(TAG, "Unable to delete merged delta " + delta);
+                }
+            }
+        }
+    }
+
+    /**
+     * 是否存在可恢复的备份
+     */
+    boolean hasBackup() {
+        synchronized (sLock) {
+            return new File(mDir, BASE_FILE).exists()
+                    || getPreferences().contains(KEY_LEGACY_BACKUP);
+        }
+    }
+
+    /**
+     * 返回所有备份文件，最新的增量文件在前、快照在最后。恢复时按这个顺序读取，
+     * 同一笔记先读到的就是最新版本。
+     */
+    List<File> getBackupFilesNewestFirst() throws IOException {
+        synchronized (sLock) {
+            migrateLegacyBackup();
+            List<File> files = listDeltaFiles();
+            Collections.reverse(files);
+            File base = new File(mDir, BASE_FILE);
+            if (base.exists()) {
+                files.add(base);
+            }
+            return files;
+        }
+    }
+
+    /**
+     * 打开一个备份文件的字符流，内容是一个JSON数组
+     */
+    Reader openReader(File file) throws IOException {
+        return new InputStreamReader(new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), BUFFER_SIZE),
+                "UTF-8");
+    }
+
+    /**
+     * 旧版本的备份保存在 SharedPreferences 中，把它转写为快照文件后删除。
+     * 旧数据比所有新格式的备份文件都早：已有快照时并入快照的末尾，
+     * 只补上快照中没有的笔记，恢复时快照和增量中的版本优先。
+     */
+    private void migrateLegacyBackup() throws IOException {
+        SharedPreferences prefs = getPreferences();
+        String legacy = prefs.getString(KEY_LEGACY_BACKUP, null);
+        if (legacy == null) {
+            return;
+        }
+
+        ensureDir();
+        File base = new File(mDir, BASE_FILE);
+        File temp = new File(mDir, BASE_FILE + TEMP_SUFFIX);
+        boolean hasBase = base.exists();
+        LongHashSet written = hasBase ? new LongHashSet() : null;
+        long watermark = 0;
+        JsonReader reader = new JsonReader(new StringReader(legacy));
+        JsonWriter writer = openWriter(temp);
+        try {
+            writer.beginArray();
+            if (hasBase) {
+                JsonReader baseReader = new JsonReader(openReader(base));
+                try {
+                    baseReader.beginArray();
+                    while (baseReader.hasNext()) {
+                        copyNoteIfNew(baseReader, writer, written);
+                    }
+                    baseReader.endArray();
+                } finally {
+                    baseReader.close();
+                }
+            }
+            if (!legacy.isEmpty()) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    watermark = Math.max(watermark, copyNoteIfNew(reader, writer, written));
+                }
+                reader.endArray();
+            }
+            writer.endArray();
+        } finally {
+            writer.close();
+            reader.close();
+        }
+
+        commit(temp, base);
+        if (!hasBase) {
+            prefs.edit().putLong(KEY_WATERMARK, watermark).apply();
+        }
+        prefs.edit().remove(KEY_LEGACY_BACKUP).apply();
+    }
+
+    /**
+     * 从 reader 读出一条笔记，如果它的ID还没写过则写入 writer
+     * @param written 已写出的ID集合；为null时不判重
+     * @return 这条笔记的修改时间
+     */
+    private static long copyNoteIfNew(JsonReader reader, JsonWriter writer, LongHashSet written)
+            throws IOException {
+        Note note = NoteBackupFormat.readNote(reader);
+        if (written == null || written.add(note.getId())) {
+            NoteBackupFormat.writeNote(writer, note);
+        }
+        return note.getModified();
+    }
+
+    private JsonWriter openWriter(File file) throws IOException {
+        ensureDir();
+        return new JsonWriter(new OutputStreamWriter(new GZIPOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), BUFFER_SIZE),
+                "UTF-8"));
+    }
+
+    private static void commit(File temp, File target) throws IOException {
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + target);
+        }
+    }
+
+    private void ensureDir() throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Unable to create " + mDir);
+        }
+    }
+
+    /**
+     * 按序号升序列出增量文件
+     */
+    private List<File> listDeltaFiles() {
+        File[] files = mDir.listFiles();
+        List<File> deltas = new ArrayList<File>();
+        if (files == null) {
+            return deltas;
+        }
+        for (File file : files) {
+            if (deltaSequence(file) >= 0) {
+                deltas.add(file);
+            }
+        }
+        Collections.sort(deltas, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = deltaSequence(lhs);
+                long r = deltaSequence(rhs);
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        return deltas;
+    }
+
+    private String nextDeltaName() {
+        List<File> deltas = listDeltaFiles();
+        long next = deltas.isEmpty() ? 1 : deltaSequence(deltas.get(deltas.size() - 1)) + 1;
+        return DELTA_PREFIX + next + FILE_SUFFIX;
+    }
+
+    /**
+     * 增量文件的序号，不是增量文件时返回-1
+     */
+    private static long deltaSequence(File file) {
+        String name = file.getName();
+        if (!name.startsWith(DELTA_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(DELTA_PREFIX.length(),
+                    name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private SharedPreferences getPreferences() {
+        return mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.example.android.notepad.core.NoteExport;
+import com.example.android.notepad.core.NoteStore;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * 把所有笔记导出为文本文件的后台任务。
+ *
+ * 由 {@link NoteExport} 按页（键集分页，每页 {@link #PAGE_SIZE} 条）读取笔记，
+ * 逐行直接编码写入带缓冲的UTF-8输出流，不在内存中拼接整个导出内容。
+ * 先写入同目录下的临时文件，完成后改名覆盖目标文件；取消或失败时删除临时文件，
+ * 已有的导出文件保持不变。
+ */
+class NotesExportTask extends AsyncTask<Void, Integer, File> {
+    private static final String TAG = "NotesExportTask";
+
+    /** 每次查询读取的笔记数 */
+    private static final int PAGE_SIZE = 200;
+
+    /** 每写出多少条笔记汇报一次进度 */
+    private static final int PROGRESS_INTERVAL = 100;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 导出过程的回调，均在主线程调用
+     */
+    interface Callbacks {
+        void onExportProgress(int exported, int total);
+
+        void onExportFinished(File file);
+
+        void onExportCancelled();
+
+        void onExportFailed(Exception e);
+    }
+
+    private final NoteStore mStore;
+    private final File mTarget;
+    // 只在主线程读写；界面销毁时置为null，之后的进度和结果不再回调
+    private Callbacks mCallbacks;
+    private Exception mError;
+
+    NotesExportTask(ContentResolver resolver, File target, Callbacks callbacks) {
+        mStore = new ResolverNoteStore(resolver);
+        mTarget = target;
+        mCallbacks = callbacks;
+    }
+
+    @Override
+    protected File doInBackground(Void... params) {
+        File temp = new File(mTarget.getParentFile(), mTarget.getName() + ".tmp");
+        boolean committed = false;
+        try {
+            File dir = mTarget.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+
+            final int total = mStore.count();
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(temp), "UTF-8"), BUFFER_SIZE);
+            try {
+                int exported = NoteExport.write(mStore, writer, PAGE_SIZE,
+                        new NoteExport.Listener() {
+                            @Override
+                            public boolean onNoteExported(int exported) {
+                                if (isCancelled()) {
+                                    return false;
+                                }
+                                if (exported % PROGRESS_INTERVAL == 0) {
+                                    publishProgress(exported, total);
+                                }
+                                return true;
+                            }
+                        });
+                if (exported < 0) {
+                    return null;
+                }
+                publishProgress(exported, total);
+            } finally {
+                writer.close();
+            }
+
+            if (isCancelled()) {
+                return null;
+            }
+            if (!temp.renameTo(mTarget)) {
+                throw new IOException("Unable to replace " + mTarget);
+            }
+            committed = true;
+            return mTarget;
+        } catch (IOException e) {
+            mError = e;
+            return null;
+        } finally {
+            if (!committed && temp.exists() && !temp.delete()) {
+                Log.w(TAG, "Unable to delete " + temp);
+            }
+        }
+    }
+
+    /**
+     * 解除回调，之后任务仍会结束并清理临时文件，但不再通知调用者。应在主线程调用。
+     * 界面销毁时先解除再取消，取消不会被当成用户的操作提示出来。
+     */
+    void detach() {
+        mCallbacks = null;
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        if (mCallbacks != null) {
+            mCallbacks.onExportProgress(values[0], values[1]);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(File file) {
+        if (mCallbacks == null) {
+            return;
+        }
+        if (mError != null) {
+            mCallbacks.onExportFailed(mError);
+        } else {
+            mCallbacks.onExportFinished(file);
+        }
+    }
+
+    @Override
+    protected void onCancelled(File file) {
+        if (mCallbacks != null) {
+            mCallbacks.onExportCancelled();
+        }
+    }
+}
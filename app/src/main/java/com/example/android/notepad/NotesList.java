@@ -3,19 +3,25 @@ package com.example.android.notepad;
 import com.example.android.notepad.NotePad;
 
 import android.app.ListActivity;
+import android.app.LoaderManager;
+import android.app.ProgressDialog;
 import android.content.ClipboardManager;
 import android.content.ClipData;
 import android.content.ComponentName;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.Loader;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
 import android.text.TextUtils;
 import android.text.format.DateFormat;
 import android.util.Log;
@@ -25,6 +31,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ContextMenu.ContextMenuInfo;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.SearchView;
@@ -32,13 +39,10 @@ import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.util.Date;
 
 public class NotesList extends ListActivity {
@@ -48,6 +52,8 @@ public class NotesList extends ListActivity {
     private static final int PERMISSION_REQUEST_CODE = 1001;
     // 新增：待办事项菜单ID
     private static final int MENU_TODO_LIST = 100;
+    // 回收站菜单ID
+    private static final int MENU_TRASH = 101;
 
     /**
      * 扩展投影字段：新增修改时间列
@@ -58,15 +64,47 @@ public class NotesList extends ListActivity {
             NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE // 2 新增：修改时间
     };
 
+    /** The index of the ID column */
+    private static final int COLUMN_INDEX_ID = 0;
     /** The index of the title column */
     private static final int COLUMN_INDEX_TITLE = 1;
     /** 新增：修改时间列索引 */
     private static final int COLUMN_INDEX_MODIFY_DATE = 2;
 
+    /** 搜索输入的防抖间隔：停止输入这么久之后才真正发起查询 */
+    private static final long SEARCH_DEBOUNCE_MILLIS = 300;
+
+    /** 保存搜索关键词的状态键 */
+    private static final String STATE_SEARCH_KEYWORD = "searchKeyword";
+
+    /** 笔记列表Loader的ID */
+    private static final int LOADER_NOTES = 0;
+
+    /** 列表每页加载的笔记数 */
+    private static final int PAGE_SIZE = 100;
+    /** 距离列表底部还剩这么多行时开始加载下一页 */
+    private static final int PAGE_PREFETCH_ROWS = 20;
+
     // 搜索相关变量
     private SimpleCursorAdapter mAdapter;
     private String mSearchKeyword = "";
 
+    // 查询由Loader在后台线程执行，主线程只负责防抖和把最新结果交给适配器
+    private final Handler mHandler = new Handler();
+
+    // 备份文件存储，以及正在进行的恢复任务和进度框
+    private NotesBackupStore mBackupStore;
+    private NotesRestoreTask mRestoreTask;
+    private NotesExportTask mExportTask;
+    private ProgressDialog mProgressDialog;
+
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updateNotesList();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -82,15 +120,33 @@ public class NotesList extends ListActivity {
         }
 
         getListView().setOnCreateContextMenuListener(this);
+        getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                if (totalItemCount > 0
+                        && firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_PREFETCH_ROWS) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        mBackupStore = new NotesBackupStore(this);
+        if (savedInstanceState != null) {
+            mSearchKeyword = savedInstanceState.getString(STATE_SEARCH_KEYWORD, "");
+        }
 
         // 初始化适配器和搜索框
         initNotesAdapter();
         initSearchView();
     }
 
-    // 初始化笔记列表适配器
+    // 初始化笔记列表适配器，数据由Loader在后台查询后填充
     private void initNotesAdapter() {
-        Cursor cursor = getNotesCursor(mSearchKeyword);
 
         String[] dataColumns = {
                 NotePad.Notes.COLUMN_NAME_TITLE,
@@ -104,7 +160,7 @@ public class NotesList extends ListActivity {
         mAdapter = new SimpleCursorAdapter(
                 this,
                 R.layout.noteslist_item,
-                cursor,
+                null,
                 dataColumns,
                 viewIDs,
                 0
@@ -125,6 +181,8 @@ public class NotesList extends ListActivity {
         };
 
         setListAdapter(mAdapter);
+        // 配置变化后重建Activity时直接复用已有的Loader和查询结果
+        getLoaderManager().initLoader(LOADER_NOTES, null, mNotesLoaderCallbacks);
     }
 
     // 初始化搜索框
@@ -142,8 +200,11 @@ public class NotesList extends ListActivity {
 
                 @Override
                 public boolean onQueryTextChange(String newText) {
-                    mSearchKeyword = newText.trim();
-                    updateNotesList();
+                    String keyword = newText.trim();
+                    if (!keyword.equals(mSearchKeyword)) {
+                        mSearchKeyword = keyword;
+                        scheduleSearch();
+                    }
                     return true;
                 }
             });
@@ -159,153 +220,213 @@ public class NotesList extends ListActivity {
         }
     }
 
-    // 根据搜索关键词获取笔记游标
-    private Cursor getNotesCursor(String keyword) {
-        String selection = null;
-        String[] selectionArgs = null;
-
-        if (!TextUtils.isEmpty(keyword)) {
-            selection = NotePad.Notes.COLUMN_NAME_TITLE + " LIKE ? OR " +
-                    NotePad.Notes.COLUMN_NAME_NOTE + " LIKE ?";
-            selectionArgs = new String[]{"%" + keyword + "%", "%" + keyword + "%"};
+    // 根据搜索关键词得到列表的URI：有关键词时走全文索引，不再对标题和内容做LIKE全表扫描
+    private Uri getNotesUri(String keyword) {
+        if (TextUtils.isEmpty(keyword)) {
+            return getIntent().getData();
         }
+        return NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, keyword)
+                .build();
+    }
 
-        return managedQuery(
-                getIntent().getData(),
-                PROJECTION,
-                selection,
-                selectionArgs,
-                NotePad.Notes.DEFAULT_SORT_ORDER
-        );
+    // 输入时防抖：每次按键都重新计时，到时再按最新关键词重新加载
+    private void scheduleSearch() {
+        mHandler.removeCallbacks(mSearchRunnable);
+        mHandler.postDelayed(mSearchRunnable, SEARCH_DEBOUNCE_MILLIS);
     }
 
-    // 更新笔记列表
+    // 更新笔记列表：按当前关键词重新创建Loader，正在执行的旧查询会被取消
     private void updateNotesList() {
-        Cursor oldCursor = mAdapter.getCursor();
-        if (oldCursor != null && !oldCursor.isClosed()) {
-            oldCursor.close();
-        }
+        mHandler.removeCallbacks(mSearchRunnable);
+        getLoaderManager().restartLoader(LOADER_NOTES, null, mNotesLoaderCallbacks);
+    }
 
-        Cursor newCursor = getNotesCursor(mSearchKeyword);
-        mAdapter.changeCursor(newCursor);
+    // 滚动接近底部时由Loader在后台加载下一页，并追加到当前游标
+    private void loadNextPage() {
+        Loader<Cursor> loader = getLoaderManager().getLoader(LOADER_NOTES);
+        if (loader != null) {
+            ((PagedCursorLoader) loader).loadNextPage(mPageCallbacks);
+        }
     }
 
+    private final LoaderManager.LoaderCallbacks<Cursor> mNotesLoaderCallbacks =
+            new LoaderManager.LoaderCallbacks<Cursor>() {
+                @Override
+                public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+                    return new PagedCursorLoader(NotesList.this, getNotesUri(mSearchKeyword),
+                            PROJECTION, PAGE_SIZE, COLUMN_INDEX_ID, COLUMN_INDEX_MODIFY_DATE);
+                }
+
+                @Override
+                public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+                    // swapCursor 不关闭旧游标，旧游标由Loader负责关闭
+                    mAdapter.swapCursor(cursor);
+                }
+
+                @Override
+                public void onLoaderReset(Loader<Cursor> loader) {
+                    mAdapter.swapCursor(null);
+                }
+            };
+
+    private final PagedCursorLoader.Callbacks mPageCallbacks = new PagedCursorLoader.Callbacks() {
+        @Override
+        public void onPageAppended(PagedCursor cursor) {
+            if (mAdapter.getCursor() == cursor) {
+                mAdapter.notifyDataSetChanged();
+            }
+        }
+    };
+
     // ========== 导出/备份/恢复核心功能 ==========
-    // 1. 导出笔记为本地TXT文件
+    // 1. 导出笔记为本地TXT文件（后台流式写入，可取消）
     private void exportNotes() {
-        try {
-            // 获取所有笔记数据
-            Cursor cursor = managedQuery(NotePad.Notes.CONTENT_URI,
-                    new String[]{NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_TITLE, NotePad.Notes.COLUMN_NAME_NOTE},
-                    null, null, null);
-
-            // 拼接笔记内容
-            StringBuilder sb = new StringBuilder();
-            if (cursor.moveToFirst()) {
-                do {
-                    String title = cursor.getString(cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE));
-                    String content = cursor.getString(cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE));
-                    sb.append("========== 笔记：").append(title == null ? "无标题" : title).append(" ==========\n")
-                            .append(content == null ? "" : content).append("\n\n");
-                } while (cursor.moveToNext());
-            }
-            cursor.close();
+        if (mExportTask != null) {
+            return;
+        }
 
-            // 使用应用私有目录（无需WRITE_EXTERNAL_STORAGE权限）
-            File dir = getExternalFilesDir(Environment.DIRECTORY_DOCUMENTS);
-            if (!dir.exists()) {
-                dir.mkdirs(); // 创建目录
-            }
-            File file = new File(dir, "notes_export.txt");
-            FileWriter writer = new FileWriter(file);
-            writer.write(sb.toString());
-            writer.close();
-
-            Toast.makeText(this, "导出成功！路径：" + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
-        } catch (Exception e) {
-            Toast.makeText(this, "导出失败：" + e.getMessage(), Toast.LENGTH_SHORT).show();
-            e.printStackTrace();
+        // 使用应用私有目录（无需WRITE_EXTERNAL_STORAGE权限）
+        File dir = getExternalFilesDir(Environment.DIRECTORY_DOCUMENTS);
+        if (dir == null) {
+            Toast.makeText(this, "导出失败：存储不可用", Toast.LENGTH_SHORT).show();
+            return;
         }
-    }
+        File file = new File(dir, "notes_export.txt");
 
-    // 2. 备份笔记（序列化到SharedPreferences）
-    private void backupNotes() {
-        try {
-            // 获取所有笔记数据并转JSON
-            Cursor cursor = managedQuery(NotePad.Notes.CONTENT_URI,
-                    new String[]{NotePad.Notes._ID, NotePad.Notes.COLUMN_NAME_TITLE, NotePad.Notes.COLUMN_NAME_NOTE, NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE},
-                    null, null, null);
-
-            JSONArray jsonArray = new JSONArray();
-            if (cursor.moveToFirst()) {
-                do {
-                    JSONObject jsonObj = new JSONObject();
-                    jsonObj.put("id", cursor.getLong(0));
-                    jsonObj.put("title", cursor.getString(1) == null ? "" : cursor.getString(1));
-                    jsonObj.put("content", cursor.getString(2) == null ? "" : cursor.getString(2));
-                    jsonObj.put("time", cursor.getLong(3));
-                    jsonArray.put(jsonObj);
-                } while (cursor.moveToNext());
+        mProgressDialog = new ProgressDialog(this);
+        mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mProgressDialog.setMessage("正在导出笔记…");
+        mProgressDialog.setCancelable(true);
+        mProgressDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialog) {
+                if (mExportTask != null) {
+                    mExportTask.cancel(false);
+                }
             }
-            cursor.close();
-
-            // 保存到SharedPreferences
-            getSharedPreferences("NotesBackup", Context.MODE_PRIVATE)
-                    .edit()
-                    .putString("backup_data", jsonArray.toString())
-                    .apply();
-
-            Toast.makeText(this, "备份成功！（已保存到本地）", Toast.LENGTH_SHORT).show();
-        } catch (Exception e) {
-            Toast.makeText(this, "备份失败：" + e.getMessage(), Toast.LENGTH_SHORT).show();
-            e.printStackTrace();
-        }
+        });
+        mProgressDialog.show();
+
+        mExportTask = new NotesExportTask(getContentResolver(), file,
+                new NotesExportTask.Callbacks() {
+                    @Override
+                    public void onExportProgress(int exported, int total) {
+                        if (mProgressDialog != null) {
+                            mProgressDialog.setMax(total);
+                            mProgressDialog.setProgress(exported);
+                        }
+                    }
+
+                    @Override
+                    public void onExportFinished(File file) {
+                        finishExport();
+                        Toast.makeText(NotesList.this, "导出成功！路径：" + file.getAbsolutePath(),
+                                Toast.LENGTH_LONG).show();
+                    }
+
+                    @Override
+                    public void onExportCancelled() {
+                        finishExport();
+                        Toast.makeText(NotesList.this, "已取消导出", Toast.LENGTH_SHORT).show();
+                    }
+
+                    @Override
+                    public void onExportFailed(Exception e) {
+                        finishExport();
+                        Toast.makeText(NotesList.this, "导出失败：" + e.getMessage(),
+                                Toast.LENGTH_SHORT).show();
+                        Log.e(TAG, "Export failed", e);
+                    }
+                });
+        mExportTask.execute();
     }
 
-    // 3. 恢复笔记（从SharedPreferences反序列化）
-    private void restoreNotes() {
-        try {
-            // 读取备份数据
-            String backupData = getSharedPreferences("NotesBackup", Context.MODE_PRIVATE)
-                    .getString("backup_data", "");
-            if (backupData.isEmpty()) {
-                Toast.makeText(this, "无备份数据！", Toast.LENGTH_SHORT).show();
-                return;
+    private void finishExport() {
+        mExportTask = null;
+        dismissProgressDialog();
+    }
+
+    // 2. 备份笔记（在后台线程增量写入应用私有目录下的备份文件）
+    private void backupNotes() {
+        mProgressDialog = ProgressDialog.show(this, null, "正在备份笔记…", true, false);
+        new AsyncTask<Void, Void, Integer>() {
+            private IOException mError;
+
+            @Override
+            protected Integer doInBackground(Void... params) {
+                try {
+                    return mBackupStore.backup(getContentResolver());
+                } catch (IOException e) {
+                    mError = e;
+                    return 0;
+                }
             }
 
-            // 解析JSON
-            JSONArray jsonArray = new JSONArray(backupData);
-            ContentValues values = new ContentValues();
-
-            // 遍历恢复每条笔记
-            for (int i = 0; i < jsonArray.length(); i++) {
-                JSONObject jsonObj = jsonArray.getJSONObject(i);
-
-                // 检查笔记是否已存在
-                Cursor cursor = getContentResolver().query(
-                        NotePad.Notes.CONTENT_URI,
-                        new String[]{NotePad.Notes._ID},
-                        NotePad.Notes._ID + "=?",
-                        new String[]{String.valueOf(jsonObj.getLong("id"))},
-                        null);
-
-                if (cursor == null || cursor.getCount() == 0) {
-                    // 新增笔记
-                    values.clear();
-                    values.put(NotePad.Notes.COLUMN_NAME_TITLE, jsonObj.getString("title"));
-                    values.put(NotePad.Notes.COLUMN_NAME_NOTE, jsonObj.getString("content"));
-                    values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, jsonObj.getLong("time"));
-                    getContentResolver().insert(NotePad.Notes.CONTENT_URI, values);
+            @Override
+            protected void onPostExecute(Integer count) {
+                dismissProgressDialog();
+                if (mError != null) {
+                    Toast.makeText(NotesList.this, "备份失败：" + mError.getMessage(),
+                            Toast.LENGTH_SHORT).show();
+                    Log.e(TAG, "Backup failed", mError);
+                } else if (count == 0) {
+                    Toast.makeText(NotesList.this, "备份已是最新！", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(NotesList.this, "备份成功！本次备份 " + count + " 条笔记",
+                            Toast.LENGTH_SHORT).show();
                 }
-                if (cursor != null) cursor.close();
             }
+        }.execute();
+    }
 
-            // 刷新列表
-            updateNotesList();
-            Toast.makeText(this, "恢复成功！共恢复 " + jsonArray.length() + " 条笔记", Toast.LENGTH_SHORT).show();
-        } catch (Exception e) {
-            Toast.makeText(this, "恢复失败：" + e.getMessage(), Toast.LENGTH_SHORT).show();
-            e.printStackTrace();
+    // 3. 恢复笔记（在后台线程流式解析备份文件并分批写入）
+    private void restoreNotes() {
+        if (mRestoreTask != null) {
+            return;
+        }
+
+        if (!mBackupStore.hasBackup()) {
+            Toast.makeText(this, "无备份数据！", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        mProgressDialog = ProgressDialog.show(this, null, "正在恢复笔记…", true, false);
+        mRestoreTask = new NotesRestoreTask(getContentResolver(), mBackupStore,
+                new NotesRestoreTask.Callbacks() {
+                    @Override
+                    public void onRestoreProgress(int processed) {
+                        mProgressDialog.setMessage("正在恢复笔记…已处理 " + processed + " 条");
+                    }
+
+                    @Override
+                    public void onRestoreFinished(int restored) {
+                        finishRestore();
+                        Toast.makeText(NotesList.this, "恢复成功！共恢复 " + restored + " 条笔记",
+                                Toast.LENGTH_SHORT).show();
+                    }
+
+                    @Override
+                    public void onRestoreFailed(Exception e) {
+                        finishRestore();
+                        Toast.makeText(NotesList.this, "恢复失败：" + e.getMessage(),
+                                Toast.LENGTH_SHORT).show();
+                        Log.e(TAG, "Restore failed", e);
+                    }
+                });
+        mRestoreTask.execute();
+    }
+
+    private void finishRestore() {
+        mRestoreTask = null;
+        // 列表由Loader监听数据变化自动刷新
+        dismissProgressDialog();
+    }
+
+    private void dismissProgressDialog() {
+        if (mProgressDialog != null) {
+            mProgressDialog.dismiss();
+            mProgressDialog = null;
         }
     }
 
@@ -331,6 +452,8 @@ public class NotesList extends ListActivity {
         // 修改：将图标替换为更通用的ic_menu_add
         menu.add(Menu.NONE, MENU_TODO_LIST, Menu.NONE, "待办事项")
                 .setIcon(android.R.drawable.ic_menu_add);
+        menu.add(Menu.NONE, MENU_TRASH, Menu.NONE, R.string.menu_trash)
+                .setIcon(android.R.drawable.ic_menu_delete);
 
         Intent intent = new Intent();
         intent.setComponent(new ComponentName(this, NoteEditor.class));
@@ -403,6 +526,12 @@ public class NotesList extends ListActivity {
             startActivity(intent);
             return true;
         }
+        // 回收站：查看和恢复删除的笔记
+        else if (itemId == MENU_TRASH) {
+            startActivity(new Intent(this, TrashList.class)
+                    .setData(NotePad.Notes.CONTENT_TRASH_URI));
+            return true;
+        }
         else if (itemId == R.id.menu_add) {
             Intent insertIntent = new Intent(this, NoteEditor.class);
             insertIntent.setAction(Intent.ACTION_INSERT);
@@ -518,12 +647,26 @@ public class NotesList extends ListActivity {
         }
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SEARCH_KEYWORD, mSearchKeyword);
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        Cursor cursor = mAdapter.getCursor();
-        if (cursor != null && !cursor.isClosed()) {
-            cursor.close();
+        mHandler.removeCallbacks(mSearchRunnable);
+        if (mRestoreTask != null) {
+            mRestoreTask.cancel(false);
+            mRestoreTask = null;
+        }
+        if (mExportTask != null) {
+            // 离开或旋转屏幕不是用户取消，不提示“已取消导出”
+            mExportTask.detach();
+            mExportTask.cancel(false);
+            mExportTask = null;
         }
+        dismissProgressDialog();
     }
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.example.android.notepad.core.Note;
+import com.example.android.notepad.core.NoteBackupFormat;
+import com.example.android.notepad.core.NoteStore;
+import com.google.gson.stream.JsonReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * 从备份中恢复笔记的后台任务。
+ *
+ * 备份文件用 JsonReader 流式解析，不会整体载入为 JSONArray；已有笔记的ID只查询一次，
+ * 放进 LongHashSet 判断是否需要恢复；缺失的笔记攒够一批后通过 {@link NoteStore#insert}
+ * （bulkInsert）在一个事务中写入。
+ * 笔记按备份中的ID恢复，重复恢复同一份备份不会产生重复笔记。备份文件从新到旧读取，
+ * 同一笔记在多个增量中出现时恢复最新的版本。
+ */
+class NotesRestoreTask extends AsyncTask<Void, Integer, Integer> {
+    private static final String TAG = "NotesRestoreTask";
+
+    /** 每个事务写入的笔记数 */
+    private static final int BATCH_SIZE = 500;
+
+    /** 每解析多少条笔记汇报一次进度 */
+    private static final int PROGRESS_INTERVAL = 200;
+
+    /**
+     * 恢复过程的回调，均在主线程调用
+     */
+    interface Callbacks {
+        void onRestoreProgress(int processed);
+
+        void onRestoreFinished(int restored);
+
+        void onRestoreFailed(Exception e);
+    }
+
+    private final ContentResolver mResolver;
+    private final NoteStore mNotes;
+    private final NotesBackupStore mStore;
+    private final Callbacks mCallbacks;
+    private Exception mError;
+
+    NotesRestoreTask(ContentResolver resolver, NotesBackupStore store, Callbacks callbacks) {
+        mResolver = resolver;
+        mNotes = new ResolverNoteStore(resolver);
+        mStore = store;
+        mCallbacks = callbacks;
+    }
+
+    @Override
+    protected Integer doInBackground(Void... params) {
+        LongHashSet knownIds = loadExistingIds();
+        ArrayList<Note> batch = new ArrayList<Note>(BATCH_SIZE);
+        int processed = 0;
+        int restored = 0;
+
+        try {
+            for (File file : mStore.getBackupFilesNewestFirst()) {
+                JsonReader reader = new JsonReader(mStore.openReader(file));
+                try {
+                    reader.beginArray();
+                    while (reader.hasNext() && !isCancelled()) {
+                        Note note = NoteBackupFormat.readNote(reader);
+                        processed++;
+
+                        // 备份中没有ID的笔记无法判重，直接恢复
+                        if (!note.hasId() || knownIds.add(note.getId())) {
+                            batch.add(note);
+                            if (batch.size() >= BATCH_SIZE) {
+                                restored += flush(batch);
+                            }
+                        }
+
+                        if (processed % PROGRESS_INTERVAL == 0) {
+                            publishProgress(processed);
+                        }
+                    }
+                } finally {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "Error closing backup file " + file, e);
+                    }
+                }
+            }
+            restored += flush(batch);
+        } catch (IOException e) {
+            mError = e;
+        } catch (RuntimeException e) {
+            // JsonReader 对格式错误抛出 IllegalStateException 等运行时异常
+            mError = e;
+        }
+        return restored;
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        mCallbacks.onRestoreProgress(values[0]);
+    }
+
+    @Override
+    protected void onPostExecute(Integer restored) {
+        if (mError != null) {
+            mCallbacks.onRestoreFailed(mError);
+        } else {
+            mCallbacks.onRestoreFinished(restored);
+        }
+    }
+
+    /**
+     * 一次查询取出所有已有笔记的ID
+     */
+    private LongHashSet loadExistingIds() {
+        Cursor cursor = mResolver.query(
+                NotePad.Notes.CONTENT_URI,
+                new String[] { NotePad.Notes._ID },
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return new LongHashSet();
+        }
+        try {
+            LongHashSet ids = new LongHashSet(cursor.getCount());
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int flush(ArrayList<Note> batch) throws IOException {
+        int count = mNotes.insert(batch);
+        batch.clear();
+        return count;
+    }
+}
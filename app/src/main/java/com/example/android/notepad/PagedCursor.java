@@ -0,0 +1,302 @@
+package com.example.android.notepad;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.DataSetObservable;
+import android.database.DataSetObserver;
+import android.net.Uri;
+
+import java.util.ArrayList;
+
+/**
+ * 把分页加载的多个游标拼接为一个游标，供列表适配器使用。
+ *
+ * 新的一页直接追加在末尾，适配器只需 notifyDataSetChanged()，不必重建游标和适配器。
+ * 每个位置记录所在的页和页内的行，这样单条记录的变化可以用 {@link #applyChanges} 就地应用：
+ * 去掉旧行，把重新查询到的几行作为一页加入并排到各自的位置，已加载的其他行不需要重新查询。
+ * 不再有行引用的页（行都已被更新或删除）随即关闭；页数达到 {@link #MAX_PAGES} 后，
+ * 由 {@link PagedCursorLoader} 改为重新加载，合并为一页。
+ * 同时记录最后一行的分页键，用于构造下一页的URI（参见 {@link NotePad#QUERY_PARAMETER_AFTER}）。
+ */
+class PagedCursor extends AbstractCursor {
+
+    /** 页数的上限，超过后应重新加载，而不是继续就地应用变化 */
+    static final int MAX_PAGES = 32;
+
+    private final String[] mColumnNames;
+    private final int mIdColumn;
+    private final int mTimeColumn;
+
+    private final ArrayList<Cursor> mPages = new ArrayList<Cursor>();
+    // 每个位置的行：高32位是页的序号，低32位是页内的位置
+    private long[] mRows = new long[0];
+    private int mCount;
+    private Cursor mCurrentPage;
+
+    // 就地应用变化后需要通知的数据集观察者（AbstractCursor 自己的观察者列表不对子类开放）
+    private final DataSetObservable mChangeObservable = new DataSetObservable();
+
+    private long mLastTime;
+    private long mLastId;
+    private boolean mHasMorePages;
+
+    /**
+     * @param firstPage 第一页
+     * @param limit 第一页请求的行数，返回行数不足时说明没有下一页
+     * @param idColumn _id 列在游标中的位置
+     * @param timeColumn 分页时间列（笔记为修改时间，待办事项为创建时间）在游标中的位置
+     */
+    PagedCursor(Cursor firstPage, int limit, int idColumn, int timeColumn) {
+        mColumnNames = firstPage.getColumnNames();
+        mIdColumn = idColumn;
+        mTimeColumn = timeColumn;
+        addPage(firstPage, limit);
+    }
+
+    /**
+     * 构造第一页的URI
+     */
+    static Uri firstPageUri(Uri base, int limit) {
+        return base.buildUpon()
+                .appendQueryParameter(NotePad.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                .build();
+    }
+
+    /**
+     * 构造紧接当前最后一行的下一页URI
+     */
+    Uri nextPageUri(Uri base, int limit) {
+        return firstPageUri(base, limit).buildUpon()
+                .appendQueryParameter(NotePad.QUERY_PARAMETER_AFTER, mLastTime + "," + mLastId)
+                .build();
+    }
+
+    boolean hasMorePages() {
+        return mHasMorePages;
+    }
+
+    /**
+     * @return 打开的页数，包括就地应用变化时加入的页
+     */
+    int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * 追加一页
+     * @param limit 这一页请求的行数
+     */
+    void addPage(Cursor page, int limit) {
+        int rows = page.getCount();
+        mHasMorePages = rows >= limit;
+        if (rows == 0 && !mPages.isEmpty()) {
+            page.close();
+            return;
+        }
+
+        int pageIndex = mPages.size();
+        mPages.add(page);
+        if (mRows.length < mCount + rows) {
+            long[] newRows = new long[Math.max(mCount + rows, mRows.length * 2)];
+            System.arraycopy(mRows, 0, newRows, 0, mCount);
+            mRows = newRows;
+        }
+        for (int i = 0; i < rows; i++) {
+            mRows[mCount++] = ((long) pageIndex << 32) | i;
+        }
+        onRowsChanged();
+    }
+
+    /**
+     * 就地应用数据变化：去掉 removedIds 中的行，再把 changed 中的行合并到各自的位置。
+     * 排在已加载的最后一行之后的行，如果还有下一页，留给后面的页加载。
+     * 完成后通知数据集观察者（列表适配器）刷新。
+     * @param changed 变化的记录的最新内容，列与本游标相同，按分页顺序 (时间, _id) 倒序排列；
+     *                由本游标负责关闭
+     * @param removedIds 要去掉旧行的记录ID，包括 changed 中的记录
+     */
+    void applyChanges(Cursor changed, LongHashSet removedIds) {
+        int changedPage = mPages.size();
+        int changedCount = changed.getCount();
+        mPages.add(changed);
+
+        long[] rows = new long[mCount + changedCount];
+        int count = 0;
+        int next = 0;
+        for (int i = 0; i < mCount; i++) {
+            Cursor page = moveToRow(mRows[i]);
+            long id = page.getLong(mIdColumn);
+            if (removedIds.contains(id)) {
+                continue;
+            }
+            long time = page.getLong(mTimeColumn);
+            while (next < changedCount && changed.moveToPosition(next)
+                    && isBefore(changed.getLong(mTimeColumn), changed.getLong(mIdColumn), time, id)) {
+                rows[count++] = ((long) changedPage << 32) | next++;
+            }
+            rows[count++] = mRows[i];
+        }
+        if (!mHasMorePages) {
+            while (next < changedCount) {
+                rows[count++] = ((long) changedPage << 32) | next++;
+            }
+        }
+        mRows = rows;
+        mCount = count;
+        releaseUnusedPages();
+        onRowsChanged();
+        mPos = -1;
+        mChangeObservable.notifyChanged();
+    }
+
+    /**
+     * 关闭不再有行引用的页，并把其余的页重新编号
+     */
+    private void releaseUnusedPages() {
+        int pageCount = mPages.size();
+        boolean[] used = new boolean[pageCount];
+        for (int i = 0; i < mCount; i++) {
+            used[(int) (mRows[i] >>> 32)] = true;
+        }
+        int[] newIndex = new int[pageCount];
+        int kept = 0;
+        for (int i = 0; i < pageCount; i++) {
+            if (used[i]) {
+                newIndex[i] = kept;
+                mPages.set(kept++, mPages.get(i));
+            } else {
+                mPages.get(i).close();
+            }
+        }
+        if (kept == pageCount) {
+            return;
+        }
+        for (int i = pageCount - 1; i >= kept; i--) {
+            mPages.remove(i);
+        }
+        for (int i = 0; i < mCount; i++) {
+            long row = mRows[i];
+            mRows[i] = ((long) newIndex[(int) (row >>> 32)] << 32) | (row & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * 分页顺序中 (time1, id1) 是否排在 (time2, id2) 之前
+     */
+    private static boolean isBefore(long time1, long id1, long time2, long id2) {
+        return time1 > time2 || (time1 == time2 && id1 > id2);
+    }
+
+    /**
+     * 行发生变化后更新最后一行的分页键，并让当前行失效，下次访问时重新定位到对应的页
+     */
+    private void onRowsChanged() {
+        if (mCount > 0) {
+            Cursor page = moveToRow(mRows[mCount - 1]);
+            mLastTime = page.getLong(mTimeColumn);
+            mLastId = page.getLong(mIdColumn);
+        }
+        mCurrentPage = null;
+    }
+
+    private Cursor moveToRow(long row) {
+        Cursor page = mPages.get((int) (row >>> 32));
+        page.moveToPosition((int) row);
+        return page;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        long row = mRows[newPosition];
+        mCurrentPage = mPages.get((int) (row >>> 32));
+        return mCurrentPage.moveToPosition((int) row);
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        super.registerDataSetObserver(observer);
+        mChangeObservable.registerObserver(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        super.unregisterDataSetObserver(observer);
+        mChangeObservable.unregisterObserver(observer);
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        return currentPage().getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return currentPage().getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return currentPage().getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return currentPage().getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return currentPage().getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return currentPage().getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return currentPage().getBlob(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return currentPage().getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return currentPage().isNull(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Cursor page : mPages) {
+            page.close();
+        }
+        mPages.clear();
+        mCurrentPage = null;
+    }
+
+    private Cursor currentPage() {
+        if (mCurrentPage == null) {
+            int position = getPosition();
+            if (position < 0 || position >= mCount) {
+                throw new IllegalStateException("Cursor position " + position + " out of range");
+            }
+            onMove(position, position);
+        }
+        return mCurrentPage;
+    }
+}
@@ -0,0 +1,347 @@
+package com.example.android.notepad;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * 按页加载列表数据的 {@link CursorLoader}，结果为 {@link PagedCursor}。
+ *
+ * 查询在后台线程执行，结果随Loader跨配置变化保留。滚动到底部时用 {@link #loadNextPage}
+ * 在后台查询下一页并追加到当前游标。
+ *
+ * Provider以单条记录的URI通知变化时（见 {@link NotePad#QUERY_PARAMETER_CHANGE}），
+ * 只在后台查询变化的几条记录，用 {@link PagedCursor#applyChanges} 就地更新当前游标；
+ * 删除的记录不需要查询。只有整表变化时才重新查询，并保持已经加载的行数，
+ * Activity只需 swapCursor()，列表不会跳回顶部。
+ */
+class PagedCursorLoader extends CursorLoader {
+    private static final String TAG = "PagedCursorLoader";
+
+    /** 合并变化通知的时间窗口 */
+    private static final long CHANGE_DELAY_MS = 50;
+
+    /**
+     * 下一页追加完成的回调，在主线程调用
+     */
+    interface Callbacks {
+        void onPageAppended(PagedCursor cursor);
+    }
+
+    private final Uri mBaseUri;
+    private final int mPageSize;
+    private final int mIdColumn;
+    private final int mTimeColumn;
+
+    // 重新加载时第一页的行数：已经追加过的页在刷新后仍然保留
+    private volatile int mLimit;
+    private PagedCursor mCursor;
+    private boolean mLoadingPage;
+
+    // 等待应用的单条记录变化，只在主线程访问
+    private final HashSet<Long> mChangedIds = new HashSet<Long>();
+    private final HashSet<Long> mDeletedIds = new HashSet<Long>();
+    private boolean mTableChanged;
+    // 正在后台查询变化的记录
+    private boolean mApplyingChanges;
+    // 正在重新加载整个列表
+    private boolean mReloading;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ContentObserver mChangeObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onDataChanged(uri);
+        }
+    };
+    private final Runnable mApplyPendingChanges = new Runnable() {
+        @Override
+        public void run() {
+            applyPendingChanges();
+        }
+    };
+    private boolean mObserverRegistered;
+
+    /**
+     * @param baseUri 不带分页参数的列表URI
+     * @param idColumn _id 列在投影中的位置
+     * @param timeColumn 分页时间列在投影中的位置
+     */
+    PagedCursorLoader(Context context, Uri baseUri, String[] projection, int pageSize,
+                      int idColumn, int timeColumn) {
+        super(context, baseUri, projection, null, null, null);
+        mBaseUri = baseUri;
+        mPageSize = pageSize;
+        mIdColumn = idColumn;
+        mTimeColumn = timeColumn;
+        mLimit = pageSize;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        int limit = mLimit;
+        // 分页查询固定按时间倒序，不需要排序参数
+        setUri(PagedCursor.firstPageUri(mBaseUri, limit));
+        // 父类负责取消信号和预先填充CursorWindow；数据变化由 mChangeObserver 处理
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        return new PagedCursor(cursor, limit, mIdColumn, mTimeColumn);
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (!isReset()) {
+            mCursor = (PagedCursor) cursor;
+            mLoadingPage = false;
+            mReloading = false;
+        }
+        super.deliverResult(cursor);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            // 监听整个表：搜索结果的URI不是单条记录URI的上级
+            Uri tableUri = new Uri.Builder().scheme(mBaseUri.getScheme())
+                    .authority(mBaseUri.getAuthority())
+                    .appendPath(mBaseUri.getPathSegments().get(0))
+                    .build();
+            getContext().getContentResolver().registerContentObserver(tableUri, true,
+                    mChangeObserver);
+            mObserverRegistered = true;
+        }
+        super.onStartLoading();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mChangeObserver);
+            mObserverRegistered = false;
+        }
+        mHandler.removeCallbacks(mApplyPendingChanges);
+        clearPendingChanges();
+        mReloading = false;
+        mCursor = null;
+    }
+
+    /**
+     * 父类在游标上注册的观察者收到任何变化都会重新加载整个列表，这里忽略它，
+     * 变化由 mChangeObserver 按通知的URI处理
+     */
+    @Override
+    public void onContentChanged() {
+    }
+
+    /**
+     * 记录一次变化通知，合并 CHANGE_DELAY_MS 内的通知后统一应用
+     */
+    private void onDataChanged(Uri uri) {
+        if (uri != null && !isListChange(uri)) {
+            // 表下的其他URI（例如回收站）的变化与列表无关
+            return;
+        }
+        String change = uri != null ? uri.getQueryParameter(NotePad.QUERY_PARAMETER_CHANGE) : null;
+        if (change == null) {
+            mTableChanged = true;
+        } else if (NotePad.CHANGE_DELETE.equals(change)) {
+            mDeletedIds.add(ContentUris.parseId(uri));
+        } else {
+            mChangedIds.add(ContentUris.parseId(uri));
+        }
+        mHandler.removeCallbacks(mApplyPendingChanges);
+        mHandler.postDelayed(mApplyPendingChanges, CHANGE_DELAY_MS);
+    }
+
+    /**
+     * @return 是否为表本身或其中单条记录的变化
+     */
+    private static boolean isListChange(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.size() == 1
+                || (segments.size() == 2 && TextUtils.isDigitsOnly(segments.get(1)));
+    }
+
+    /**
+     * 应用等待中的变化：删除的行直接去掉，插入和更新的行在后台查询后合并到当前游标。
+     * 整表变化、变化的记录太多、当前游标的页数已达上限，或者Loader已停止、正在加载时，
+     * 改为重新加载整个列表。
+     */
+    private void applyPendingChanges() {
+        if (mApplyingChanges) {
+            // 上一批还没有应用完，完成后再处理
+            return;
+        }
+        final PagedCursor cursor = mCursor;
+        if (mTableChanged || mChangedIds.size() + mDeletedIds.size() > ChangeSet.MAX_ITEM_CHANGES
+                || !isStarted() || mReloading || mLoadingPage
+                || cursor == null || cursor.isClosed()
+                || cursor.getPageCount() >= PagedCursor.MAX_PAGES) {
+            clearPendingChanges();
+            reload();
+            return;
+        }
+        if (mChangedIds.isEmpty() && mDeletedIds.isEmpty()) {
+            return;
+        }
+
+        final LongHashSet removedIds = new LongHashSet(mChangedIds.size() + mDeletedIds.size());
+        for (long id : mDeletedIds) {
+            removedIds.add(id);
+        }
+        final ArrayList<String> changedIds = new ArrayList<String>();
+        for (long id : mChangedIds) {
+            removedIds.add(id);
+            if (!mDeletedIds.contains(id)) {
+                changedIds.add(String.valueOf(id));
+            }
+        }
+        clearPendingChanges();
+
+        final String[] projection = getProjection();
+        if (changedIds.isEmpty()) {
+            applyChanges(cursor, new MatrixCursor(projection, 0), removedIds);
+            return;
+        }
+
+        final String idColumn = projection[mIdColumn];
+        final String timeColumn = projection[mTimeColumn];
+        mApplyingChanges = true;
+        new AsyncTask<Void, Void, Cursor>() {
+            @Override
+            protected Cursor doInBackground(Void... params) {
+                // 按列表的URI查询，搜索结果中不再匹配的记录不会返回，随旧行一起去掉
+                Cursor rows = getContext().getContentResolver().query(mBaseUri, projection,
+                        idColumn + " IN (" + TextUtils.join(",", changedIds) + ")", null,
+                        timeColumn + " DESC, " + idColumn + " DESC");
+                if (rows != null) {
+                    rows.getCount();
+                }
+                return rows;
+            }
+
+            @Override
+            protected void onPostExecute(Cursor rows) {
+                mApplyingChanges = false;
+                // 期间已经重新加载、正在加载或Loader已重置，这批变化改为重新加载
+                if (rows == null || cursor != mCursor || cursor.isClosed()
+                        || mReloading || mLoadingPage) {
+                    if (rows != null) {
+                        rows.close();
+                    }
+                    reload();
+                    return;
+                }
+                applyChanges(cursor, rows, removedIds);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private void applyChanges(PagedCursor cursor, Cursor rows, LongHashSet removedIds) {
+        cursor.applyChanges(rows, removedIds);
+        mLimit = Math.max(mPageSize, cursor.getCount());
+        // 应用期间又收到的变化
+        if (mTableChanged || !mChangedIds.isEmpty() || !mDeletedIds.isEmpty()) {
+            applyPendingChanges();
+        }
+    }
+
+    /**
+     * 重新加载整个列表；Loader已停止时在下次启动时加载
+     */
+    private void reload() {
+        if (!isReset()) {
+            super.onContentChanged();
+        }
+    }
+
+    @Override
+    protected void onForceLoad() {
+        mReloading = true;
+        super.onForceLoad();
+    }
+
+    private void clearPendingChanges() {
+        mChangedIds.clear();
+        mDeletedIds.clear();
+        mTableChanged = false;
+    }
+
+    /**
+     * 在后台查询下一页并追加到当前结果。没有下一页或正在加载时直接返回。
+     * 只能在主线程调用。
+     */
+    void loadNextPage(final Callbacks callbacks) {
+        final PagedCursor cursor = mCursor;
+        if (mLoadingPage || cursor == null || cursor.isClosed() || !cursor.hasMorePages()) {
+            return;
+        }
+        mLoadingPage = true;
+
+        final Uri uri = cursor.nextPageUri(mBaseUri, mPageSize);
+        final String[] projection = getProjection();
+        new AsyncTask<Void, Void, Cursor>() {
+            @Override
+            protected Cursor doInBackground(Void... params) {
+                // 查询失败时这一页作废，下次滚动到底部时重试，不让异常结束进程
+                try {
+                    Cursor page = getContext().getContentResolver().query(uri, projection,
+                            null, null, null);
+                    if (page != null) {
+                        page.getCount();
+                    }
+                    return page;
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Failed to load page " + uri, e);
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Cursor page) {
+                // 期间已经重新加载或Loader已重置，这一页作废；加载状态已随重新加载清除
+                if (cursor != mCursor) {
+                    if (page != null) {
+                        page.close();
+                    }
+                    return;
+                }
+                try {
+                    if (page == null) {
+                        return;
+                    }
+                    if (cursor.isClosed()) {
+                        page.close();
+                        return;
+                    }
+                    cursor.addPage(page, mPageSize);
+                    mLimit = cursor.getCount();
+                } finally {
+                    mLoadingPage = false;
+                }
+                callbacks.onPageAppended(cursor);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+}
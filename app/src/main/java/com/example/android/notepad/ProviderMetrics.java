@@ -0,0 +1,323 @@
+package com.example.android.notepad;
+
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link NotePadProvider} 各操作的耗时、行数和字节数统计，以及慢查询记录。
+ *
+ * 按 "操作/URI类型"（如 query/NOTES）分别统计次数、总耗时、最大耗时、耗时分布、
+ * 返回或影响的行数和返回的字节数。每次操作同时是一个 systrace 区段（Android 4.3及以上）。
+ * 执行时间超过 {@link #SLOW_QUERY_MS} 的查询连同 EXPLAIN QUERY PLAN 的结果
+ * 记入固定大小的环形缓冲区，新的记录覆盖最早的记录。
+ *
+ * 统计通过 {@link NotePad#METHOD_METRICS} 和 dumpsys 读取。所有方法都是线程安全的。
+ */
+final class ProviderMetrics {
+    private static final String TAG = "ProviderMetrics";
+
+    static final String OP_QUERY = "query";
+    static final String OP_INSERT = "insert";
+    static final String OP_BULK_INSERT = "bulkInsert";
+    static final String OP_UPDATE = "update";
+    static final String OP_DELETE = "delete";
+    static final String OP_OPEN_TYPED_ASSET_FILE = "openTypedAssetFile";
+    static final String OP_OPEN_FILE = "openFile";
+
+    /** 耗时分布各区间的上限（毫秒，含），最后还有一个不设上限的区间 */
+    static final long[] HISTOGRAM_BOUNDS_MS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000 };
+
+    /** 慢查询的阈值 */
+    static final long SLOW_QUERY_MS = 100;
+
+    /** 保留的慢查询条数 */
+    static final int SLOW_QUERY_CAPACITY = 16;
+
+    private static final boolean TRACE_ENABLED =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    private final TreeMap<String, Stats> mStats = new TreeMap<String, Stats>();
+    private final ArrayDeque<Bundle> mSlowQueries = new ArrayDeque<Bundle>(SLOW_QUERY_CAPACITY);
+    private volatile long mSlowQueryMs = SLOW_QUERY_MS;
+
+    private static class Stats {
+        long count;
+        long totalMicros;
+        long maxMicros;
+        long rows;
+        long bytes;
+        final long[] histogram = new long[HISTOGRAM_BOUNDS_MS.length + 1];
+    }
+
+    /**
+     * 开始一次操作，与 {@link #end} 成对调用（在同一个线程上）
+     * @return 开始时间，传给 {@link #end}
+     */
+    long begin(String op, String uriType) {
+        if (TRACE_ENABLED) {
+            Trace.beginSection("NotePad." + op + ":" + uriType);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * 结束一次操作，记录耗时和行数
+     * @param rows 返回或影响的行数
+     */
+    void end(String op, String uriType, long start, long rows) {
+        long micros = (System.nanoTime() - start) / 1000;
+        if (TRACE_ENABLED) {
+            Trace.endSection();
+        }
+        int bucket = HISTOGRAM_BOUNDS_MS.length;
+        for (int i = 0; i < HISTOGRAM_BOUNDS_MS.length; i++) {
+            if (micros <= HISTOGRAM_BOUNDS_MS[i] * 1000) {
+                bucket = i;
+                break;
+            }
+        }
+        synchronized (mStats) {
+            Stats stats = getStats(op, uriType);
+            stats.count++;
+            stats.totalMicros += micros;
+            stats.maxMicros = Math.max(stats.maxMicros, micros);
+            stats.rows += Math.max(rows, 0);
+            stats.histogram[bucket]++;
+        }
+    }
+
+    /**
+     * 记录一次操作返回的行数，用于结束时还没有计数的操作（查询的行数在游标关闭时计入）
+     */
+    void addRows(String op, String uriType, long rows) {
+        synchronized (mStats) {
+            getStats(op, uriType).rows += Math.max(rows, 0);
+        }
+    }
+
+    /**
+     * 记录一次操作返回的字节数（例如游标关闭或数据流写完时）
+     */
+    void addBytes(String op, String uriType, long bytes) {
+        synchronized (mStats) {
+            getStats(op, uriType).bytes += bytes;
+        }
+    }
+
+    private Stats getStats(String op, String uriType) {
+        String key = op + "/" + uriType;
+        Stats stats = mStats.get(key);
+        if (stats == null) {
+            stats = new Stats();
+            mStats.put(key, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * @return 查询的执行时间是否超过慢查询阈值
+     */
+    boolean isSlowQuery(long elapsedMs) {
+        return elapsedMs >= mSlowQueryMs;
+    }
+
+    /**
+     * 记录一条慢查询及其查询计划
+     * @param sql 完整的查询语句
+     */
+    void recordSlowQuery(SQLiteDatabase db, String uriType, String sql, String[] selectionArgs,
+                         long elapsedMs) {
+        StringBuilder plan = new StringBuilder();
+        try {
+            Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            try {
+                int detail = c.getColumnIndexOrThrow("detail");
+                while (c.moveToNext()) {
+                    plan.append(c.getString(detail)).append('\n');
+                }
+            } finally {
+                c.close();
+            }
+        } catch (SQLException e) {
+            plan.append(e.getMessage());
+        }
+        Log.w(TAG, "Slow query on " + uriType + " (" + elapsedMs + " ms): " + sql + "\n" + plan);
+
+        Bundle entry = new Bundle();
+        entry.putLong(NotePad.KEY_SLOW_QUERY_TIME, System.currentTimeMillis());
+        entry.putString(NotePad.KEY_SLOW_QUERY_URI_TYPE, uriType);
+        entry.putLong(NotePad.KEY_SLOW_QUERY_DURATION, elapsedMs);
+        entry.putString(NotePad.KEY_SLOW_QUERY_SQL, sql);
+        entry.putString(NotePad.KEY_SLOW_QUERY_PLAN, plan.toString());
+        synchronized (mSlowQueries) {
+            if (mSlowQueries.size() == SLOW_QUERY_CAPACITY) {
+                mSlowQueries.removeFirst();
+            }
+            mSlowQueries.addLast(entry);
+        }
+    }
+
+    /**
+     * @return 统计结果，格式见 {@link NotePad#METHOD_METRICS}
+     */
+    Bundle toBundle() {
+        Bundle result = new Bundle();
+        result.putLongArray(NotePad.KEY_HISTOGRAM_BOUNDS, HISTOGRAM_BOUNDS_MS);
+        synchronized (mStats) {
+            for (Map.Entry<String, Stats> entry : mStats.entrySet()) {
+                Stats stats = entry.getValue();
+                Bundle operation = new Bundle();
+                operation.putLong(NotePad.KEY_OPERATION_COUNT, stats.count);
+                operation.putLong(NotePad.KEY_OPERATION_TOTAL_MICROS, stats.totalMicros);
+                operation.putLong(NotePad.KEY_OPERATION_MAX_MICROS, stats.maxMicros);
+                operation.putLong(NotePad.KEY_OPERATION_ROWS, stats.rows);
+                operation.putLong(NotePad.KEY_OPERATION_BYTES, stats.bytes);
+                operation.putLongArray(NotePad.KEY_OPERATION_HISTOGRAM, stats.histogram.clone());
+                result.putBundle(entry.getKey(), operation);
+            }
+        }
+        synchronized (mSlowQueries) {
+            result.putParcelableArrayList(NotePad.KEY_SLOW_QUERIES,
+                    new ArrayList<Bundle>(mSlowQueries));
+        }
+        return result;
+    }
+
+    /**
+     * 以文本形式输出统计和慢查询，供 dumpsys 使用
+     */
+    void dump(PrintWriter pw) {
+        pw.println("Operations (count, avg/max ms, rows, bytes, histogram by ms):");
+        StringBuilder bounds = new StringBuilder();
+        for (long bound : HISTOGRAM_BOUNDS_MS) {
+            bounds.append("<=").append(bound).append(' ');
+        }
+        pw.println("  histogram buckets: " + bounds + ">" +
+                HISTOGRAM_BOUNDS_MS[HISTOGRAM_BOUNDS_MS.length - 1]);
+        synchronized (mStats) {
+            for (Map.Entry<String, Stats> entry : mStats.entrySet()) {
+                Stats stats = entry.getValue();
+                StringBuilder histogram = new StringBuilder();
+                for (long count : stats.histogram) {
+                    histogram.append(count).append(' ');
+                }
+                pw.println(String.format(Locale.US, "  %s: %d, %.2f/%.2f ms, %d rows, %d bytes, [%s]",
+                        entry.getKey(), stats.count,
+                        stats.totalMicros / 1000.0 / Math.max(stats.count, 1),
+                        stats.maxMicros / 1000.0, stats.rows, stats.bytes,
+                        histogram.toString().trim()));
+            }
+        }
+
+        pw.println("Slow queries (>= " + mSlowQueryMs + " ms, newest last):");
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        synchronized (mSlowQueries) {
+            for (Bundle entry : mSlowQueries) {
+                pw.println("  " + format.format(new Date(entry.getLong(NotePad.KEY_SLOW_QUERY_TIME)))
+                        + " " + entry.getString(NotePad.KEY_SLOW_QUERY_URI_TYPE)
+                        + " " + entry.getLong(NotePad.KEY_SLOW_QUERY_DURATION) + " ms");
+                pw.println("    " + entry.getString(NotePad.KEY_SLOW_QUERY_SQL));
+                for (String line : entry.getString(NotePad.KEY_SLOW_QUERY_PLAN).split("\n")) {
+                    pw.println("      " + line);
+                }
+            }
+        }
+    }
+
+    /**
+     * 测试用方法：修改慢查询阈值
+     */
+    void setSlowQueryThresholdForTest(long ms) {
+        mSlowQueryMs = ms;
+    }
+
+    /**
+     * 统计查询的行数和读取方取走的字节数的游标，关闭时计入统计。
+     * 只统计在本进程中通过 getString()/getBlob() 读取的值；跨进程读取时
+     * 结果按 CursorWindow 整块传递，只计行数。
+     */
+    static class MeteredCursor extends CrossProcessCursorWrapper {
+        private final ProviderMetrics mMetrics;
+        private final String mUriType;
+        private long mBytes;
+
+        MeteredCursor(Cursor cursor, ProviderMetrics metrics, String uriType) {
+            super(cursor);
+            mMetrics = metrics;
+            mUriType = uriType;
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            String value = super.getString(columnIndex);
+            if (value != null) {
+                mBytes += 2 * value.length();
+            }
+            return value;
+        }
+
+        @Override
+        public byte[] getBlob(int columnIndex) {
+            byte[] value = super.getBlob(columnIndex);
+            if (value != null) {
+                mBytes += value.length;
+            }
+            return value;
+        }
+
+        @Override
+        public void close() {
+            if (!isClosed()) {
+                // 查询时已经计数，这里的 getCount() 只返回缓存的行数
+                mMetrics.addRows(OP_QUERY, mUriType, getCount());
+                mMetrics.addBytes(OP_QUERY, mUriType, mBytes);
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * 统计写入数据流的字节数的输出流
+     */
+    static class CountingOutputStream extends FilterOutputStream {
+        private long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            mCount += length;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.notepad.core.Note;
+import com.example.android.notepad.core.NoteStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 通过 {@link NotePadProvider} 读写笔记的 {@link NoteStore}，供导出和恢复使用。
+ *
+ * 分页使用Provider的 limit/after 参数，写入使用 bulkInsert（一个事务）。
+ */
+class ResolverNoteStore implements NoteStore {
+
+    private static final String[] NOTE_PROJECTION = new String[] {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_NOTE,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
+    };
+
+    private final ContentResolver mResolver;
+
+    ResolverNoteStore(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    @Override
+    public int count() throws IOException {
+        Cursor cursor = query(NotePad.Notes.CONTENT_URI, new String[] { NotePad.Notes._ID });
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public List<Note> page(Note after, int limit) throws IOException {
+        Uri.Builder builder = NotePad.Notes.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NotePad.QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+        if (after != null) {
+            builder.appendQueryParameter(NotePad.QUERY_PARAMETER_AFTER,
+                    after.getModified() + "," + after.getId());
+        }
+        return readNotes(query(builder.build(), NOTE_PROJECTION));
+    }
+
+    @Override
+    public int insert(List<Note> notes) throws IOException {
+        if (notes.isEmpty()) {
+            return 0;
+        }
+        ContentValues[] values = new ContentValues[notes.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = toValues(notes.get(i));
+        }
+        return mResolver.bulkInsert(NotePad.Notes.CONTENT_URI, values);
+    }
+
+    @Override
+    public List<Note> search(String keyword, int limit) throws IOException {
+        return readNotes(query(NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, keyword)
+                .appendQueryParameter(NotePad.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                .build(), NOTE_PROJECTION));
+    }
+
+    /**
+     * 笔记的写入值，未知的列不写入，由Provider填默认值
+     */
+    static ContentValues toValues(Note note) {
+        ContentValues values = new ContentValues();
+        if (note.hasId()) {
+            values.put(NotePad.Notes._ID, note.getId());
+        }
+        if (note.getTitle() != null) {
+            values.put(NotePad.Notes.COLUMN_NAME_TITLE, note.getTitle());
+        }
+        if (note.getContent() != null) {
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE, note.getContent());
+        }
+        if (note.hasModified()) {
+            values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, note.getModified());
+        }
+        return values;
+    }
+
+    private Cursor query(Uri uri, String[] projection) throws IOException {
+        Cursor cursor = mResolver.query(uri, projection, null, null, null);
+        if (cursor == null) {
+            throw new IOException("Unable to query notes");
+        }
+        return cursor;
+    }
+
+    /**
+     * 读出游标中按 {@link #NOTE_PROJECTION} 排列的所有笔记并关闭游标
+     */
+    private static List<Note> readNotes(Cursor cursor) {
+        try {
+            List<Note> notes = new ArrayList<Note>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                notes.add(new Note(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                        cursor.getLong(3)));
+            }
+            return notes;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -17,7 +17,10 @@
 package com.example.android.notepad;
 
 import android.app.Activity;
+import android.app.LoaderManager;
 import android.content.ContentValues;
+import android.content.CursorLoader;
+import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -25,7 +28,7 @@ import android.view.View;
 import android.widget.EditText;
 
 
-public class TitleEditor extends Activity {
+public class TitleEditor extends Activity implements LoaderManager.LoaderCallbacks<Cursor> {
 
 
     public static final String EDIT_TITLE_ACTION = "com.android.notepad.action.EDIT_TITLE";
@@ -39,6 +42,9 @@ public class TitleEditor extends Activity {
     // The position of the title column in a Cursor returned by the provider.
     private static final int COLUMN_INDEX_TITLE = 1;
 
+    // The ID of the loader that queries the note.
+    private static final int LOADER_TITLE = 0;
+
     // A Cursor object that will contain the results of querying the provider for a note.
     private Cursor mCursor;
 
@@ -48,6 +54,10 @@ public class TitleEditor extends Activity {
     // A URI object for the note whose title is being edited.
     private Uri mUri;
 
+    // Whether the EditText already holds the title, either from the first load or restored
+    // along with the rest of the view state after a configuration change.
+    private boolean mTitleShown;
+
     /**
      * This method is called by Android when the Activity is first started. From the incoming
      * Intent, it determines what kind of editing is desired, and then does it.
@@ -63,50 +73,55 @@ public class TitleEditor extends Activity {
         // title we need to edit.
         mUri = getIntent().getData();
 
+        // Gets the View ID for the EditText box
+        mText = (EditText) this.findViewById(R.id.title);
+        mTitleShown = savedInstanceState != null;
+
         /*
-         * Using the URI passed in with the triggering Intent, gets the note.
-         *
-         * Note: This is being done on the UI thread. It will block the thread until the query
-         * completes. In a sample app, going against a simple provider based on a local database,
-         * the block will be momentary, but in a real app you should use
-         * android.content.AsyncQueryHandler or android.os.AsyncTask.
+         * Using the URI passed in with the triggering Intent, gets the note. The query runs on
+         * a background thread and the loader keeps its result across configuration changes.
          */
+        getLoaderManager().initLoader(LOADER_TITLE, null, this);
+    }
 
-        mCursor = managedQuery(
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        return new CursorLoader(
+            this,
             mUri,        // The URI for the note that is to be retrieved.
             PROJECTION,  // The columns to retrieve
             null,        // No selection criteria are used, so no where columns are needed.
             null,        // No where columns are used, so no where values are needed.
             null         // No sort order is needed.
         );
-
-        // Gets the View ID for the EditText box
-        mText = (EditText) this.findViewById(R.id.title);
     }
 
     /**
-     * This method is called when the Activity is about to come to the foreground. This happens
-     * when the Activity comes to the top of the task stack, OR when it is first starting.
+     * Called when the query completes, and again whenever the note changes in the provider.
      *
-     * Displays the current title for the selected note.
+     * Displays the current title for the selected note the first time the note is loaded.
+     * Later loads leave the text box alone, so they don't overwrite what the user is typing.
      */
     @Override
-    protected void onResume() {
-        super.onResume();
-
-        // Verifies that the query made in onCreate() actually worked. If it worked, then the
-        // Cursor object is not null. If it is *empty*, then mCursor.getCount() == 0.
-        if (mCursor != null) {
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        mCursor = cursor;
 
-            // The Cursor was just retrieved, so its index is set to one record *before* the first
-            // record retrieved. This moves it to the first record.
-            mCursor.moveToFirst();
+        // The Cursor was just retrieved, so its index is set to one record *before* the first
+        // record retrieved. This moves it to the first record.
+        if (!mTitleShown && cursor != null && cursor.moveToFirst()) {
 
             // Displays the current title text in the EditText object.
-            mText.setText(mCursor.getString(COLUMN_INDEX_TITLE));
+            mText.setText(cursor.getString(COLUMN_INDEX_TITLE));
+            mTitleShown = true;
         }
     }
 
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        // The loader closes the cursor itself.
+        mCursor = null;
+    }
+
     /**
      * This method is called when the Activity loses focus.
      *
@@ -1,9 +1,11 @@
 package com.example.android.notepad;
 
 import android.app.ListActivity;
-import android.content.ContentValues;
+import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -13,6 +15,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
@@ -23,22 +26,38 @@ import android.widget.Toast;
 
 import com.example.android.notepad.NotePad.Todos;
 
-public class TodoList extends ListActivity {
+public class TodoList extends ListActivity implements LoaderManager.LoaderCallbacks<Cursor> {
     private static final String[] PROJECTION = new String[] {
             Todos._ID,
             Todos.COLUMN_NAME_TITLE,
             Todos.COLUMN_NAME_COMPLETED,
-            Todos.COLUMN_NAME_DUE_DATE
+            Todos.COLUMN_NAME_DUE_DATE,
+            Todos.COLUMN_NAME_CREATE_DATE
     };
 
     private static final int COLUMN_INDEX_ID = 0;
     private static final int COLUMN_INDEX_TITLE = 1;
     private static final int COLUMN_INDEX_COMPLETED = 2;
+    private static final int COLUMN_INDEX_CREATE_DATE = 4;
+
+    // 列表每页加载的待办数，以及距离底部还剩多少行时加载下一页
+    private static final int PAGE_SIZE = 100;
+    private static final int PAGE_PREFETCH_ROWS = 20;
+
+    private static final int LOADER_TODOS = 0;
+
+    private TodoAdapter mAdapter;
+
+    // 勾选后、游标反映新状态之前显示的完成状态。
+    // 写入在 TodoStatusWriter 中合并后批量执行，游标由Loader逐行更新
+    private TodoStatusOverlay mCompletedOverlay;
+    private TodoStatusWriter mStatusWriter;
 
     // 定义菜单ID常量
     private static final int MENU_ADD_TODO = 1;
     private static final int MENU_CLEAR_COMPLETED = 2;
     private static final int MENU_BACK_TO_NOTES = 3;
+    private static final int MENU_TRASH = 4;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -58,26 +77,75 @@ public class TodoList extends ListActivity {
         }
 
         getListView().setOnCreateContextMenuListener(this);
-        fillData();
+        getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                if (totalItemCount > 0
+                        && firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_PREFETCH_ROWS) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        mStatusWriter = TodoStatusWriter.getInstance(this);
+        mCompletedOverlay = new TodoStatusOverlay(mStatusWriter);
+        mAdapter = new TodoAdapter();
+        setListAdapter(mAdapter);
+        getLoaderManager().initLoader(LOADER_TODOS, null, this);
+    }
+
+    // 滚动接近底部时由Loader在后台加载下一页，并追加到当前游标
+    private void loadNextPage() {
+        Loader<Cursor> loader = getLoaderManager().getLoader(LOADER_TODOS);
+        if (loader != null) {
+            ((PagedCursorLoader) loader).loadNextPage(new PagedCursorLoader.Callbacks() {
+                @Override
+                public void onPageAppended(PagedCursor cursor) {
+                    if (mAdapter.getCursor() == cursor) {
+                        mAdapter.notifyDataSetChanged();
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        return new PagedCursorLoader(this, Todos.CONTENT_URI, PROJECTION, PAGE_SIZE,
+                COLUMN_INDEX_ID, COLUMN_INDEX_CREATE_DATE);
     }
 
-    private void fillData() {
-        Cursor cursor = getContentResolver().query(
-                Todos.CONTENT_URI,
-                PROJECTION,
-                null,
-                null,
-                Todos.DEFAULT_SORT_ORDER
-        );
-        startManagingCursor(cursor);
-        TodoAdapter adapter = new TodoAdapter(cursor);
-        setListAdapter(adapter);
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        // 重新加载的结果已包含写入完成的状态，只保留仍在队列中的勾选
+        mCompletedOverlay.onReloaded();
+        // 整表变化后Loader在后台重新查询，这里只替换游标，不重建适配器；
+        // 单条记录的变化由Loader直接应用到当前游标，不经过这里
+        mAdapter.swapCursor(cursor);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // 离开界面时不再等待合并，尽快写入
+        mStatusWriter.flushNow();
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        mAdapter.swapCursor(null);
     }
 
     // 内部类形式的适配器
     private class TodoAdapter extends CursorAdapter {
-        public TodoAdapter(Cursor c) {
-            super(TodoList.this, c);
+        public TodoAdapter() {
+            // 不自动重新查询：数据变化由Loader负责
+            super(TodoList.this, null, 0);
         }
 
         @Override
@@ -98,10 +166,13 @@ public class TodoList extends ListActivity {
                 // 获取待办事项ID和标题
                 final long id = cursor.getLong(COLUMN_INDEX_ID);
                 String title = cursor.getString(COLUMN_INDEX_TITLE);
-                int completed = cursor.getInt(COLUMN_INDEX_COMPLETED);
+                boolean completed = mCompletedOverlay.isCompleted(id,
+                        cursor.getInt(COLUMN_INDEX_COMPLETED) == 1);
 
                 todoTitle.setText(title);
-                todoCheckbox.setChecked(completed == 1);
+                // 先移除复用视图上旧的监听器，避免setChecked触发上一行的更新
+                todoCheckbox.setOnCheckedChangeListener(null);
+                todoCheckbox.setChecked(completed);
 
                 // 存储ID到视图标签
                 view.setTag(id);
@@ -117,14 +188,10 @@ public class TodoList extends ListActivity {
         }
     }
 
-    // 更新待办事项状态的方法
+    // 更新待办事项状态：勾选框已经显示新的状态，记入覆盖层后交给后台队列写入，
+    // 不在主线程等待数据库，也不刷新列表
     private void updateTodoStatus(long id, boolean isCompleted) {
-        ContentValues values = new ContentValues();
-        values.put(Todos.COLUMN_NAME_COMPLETED, isCompleted ? 1 : 0);
-
-        Uri uri = Uri.parse(Todos.CONTENT_URI + "/" + id);
-        getContentResolver().update(uri, values, null, null);
-        fillData(); // 刷新列表
+        mCompletedOverlay.setCompleted(id, isCompleted);
     }
 
     @Override
@@ -135,6 +202,8 @@ public class TodoList extends ListActivity {
                 .setIcon(android.R.drawable.ic_menu_add);
         menu.add(Menu.NONE, MENU_CLEAR_COMPLETED, Menu.NONE, "清除已完成")
                 .setIcon(android.R.drawable.ic_menu_delete);
+        menu.add(Menu.NONE, MENU_TRASH, Menu.NONE, R.string.menu_trash)
+                .setIcon(android.R.drawable.ic_menu_delete);
         return true;
     }
 
@@ -149,14 +218,23 @@ public class TodoList extends ListActivity {
                 startActivity(intent);
                 return true;
             case MENU_CLEAR_COMPLETED:
-                getContentResolver().delete(
-                        Todos.CONTENT_URI,
-                        Todos.COLUMN_NAME_COMPLETED + " = 1",
-                        null
-                );
-                fillData();
+                // 在之前的勾选写入之后删除，队列中刚勾选完成的事项也会被清除
+                final ContentResolver resolver = getContentResolver();
+                mStatusWriter.flushThen(new Runnable() {
+                    @Override
+                    public void run() {
+                        resolver.delete(
+                                Todos.CONTENT_URI,
+                                Todos.COLUMN_NAME_COMPLETED + " = 1",
+                                null
+                        );
+                    }
+                });
                 Toast.makeText(this, "已清除完成的事项", Toast.LENGTH_SHORT).show();
                 return true;
+            case MENU_TRASH:
+                startActivity(new Intent(this, TrashList.class).setData(Todos.CONTENT_TRASH_URI));
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -170,12 +248,6 @@ public class TodoList extends ListActivity {
         startActivity(intent);
     }
 
-    @Override
-    protected void onResume() {
-        super.onResume();
-        fillData();
-    }
-
     @Override
     public void onCreateContextMenu(ContextMenu menu, View v, ContextMenu.ContextMenuInfo menuInfo) {
         super.onCreateContextMenu(menu, v, menuInfo);
@@ -0,0 +1,62 @@
+package com.example.android.notepad;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * 勾选后、游标反映新状态之前显示的完成状态，供 {@link TodoList} 使用，只在主线程访问。
+ *
+ * 勾选时记下新的状态并交给 {@link TodoStatusWriter} 写入，列表显示这里的状态而不是游标中的。
+ * 写入完成、游标也已经是新的状态时，这条记录在下次显示时清除；
+ * 列表重新加载后（包括写入失败后的重新加载）清除所有不再等待写入的记录，改为显示数据库中的状态。
+ */
+final class TodoStatusOverlay {
+    private final TodoStatusWriter mWriter;
+
+    // 待办ID -> 是否完成
+    private final HashMap<Long, Boolean> mCompleted = new HashMap<Long, Boolean>();
+
+    TodoStatusOverlay(TodoStatusWriter writer) {
+        mWriter = writer;
+    }
+
+    /**
+     * 记下勾选的状态，交给后台队列写入
+     */
+    void setCompleted(long id, boolean completed) {
+        mCompleted.put(id, completed);
+        mWriter.setCompleted(id, completed);
+    }
+
+    /**
+     * @param stored 游标中的完成状态
+     * @return 应该显示的完成状态
+     */
+    boolean isCompleted(long id, boolean stored) {
+        Boolean overlay = mCompleted.get(id);
+        if (overlay == null) {
+            return stored;
+        }
+        if (overlay == stored && !mWriter.isPending(id)) {
+            // 写入已完成，游标已经是新的状态
+            mCompleted.remove(id);
+        }
+        return overlay;
+    }
+
+    /**
+     * 列表重新加载后调用：重新加载的结果已包含写入完成的状态，只保留仍在队列中的勾选
+     */
+    void onReloaded() {
+        Iterator<Long> ids = mCompleted.keySet().iterator();
+        while (ids.hasNext()) {
+            if (!mWriter.isPending(ids.next())) {
+                ids.remove();
+            }
+        }
+    }
+
+    boolean contains(long id) {
+        return mCompleted.containsKey(id);
+    }
+}
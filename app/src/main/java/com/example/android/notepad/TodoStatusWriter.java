@@ -0,0 +1,155 @@
+package com.example.android.notepad;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 待办完成状态的后台写入队列。
+ *
+ * 勾选时只记录新的状态，{@link #FLUSH_DELAY_MS} 内的勾选合并后用一次 applyBatch()
+ * 写入，Provider在一个事务中执行并在提交后统一通知。同一条待办在写入前被反复勾选时
+ * 只写最后的状态。界面在写入完成前应显示队列中的状态，见 {@link #isPending} 和
+ * {@link TodoStatusOverlay}。
+ */
+final class TodoStatusWriter {
+    private static final String TAG = "TodoStatusWriter";
+
+    /** 合并勾选的时间窗口 */
+    private static final long FLUSH_DELAY_MS = 300;
+
+    private static TodoStatusWriter sInstance;
+
+    private final ContentResolver mResolver;
+    private final Handler mWriter;
+
+    // 等待写入的完成状态（按待办ID合并），以及正在写入的待办ID；只在持有 mPending 锁时访问
+    private final LinkedHashMap<Long, Boolean> mPending = new LinkedHashMap<Long, Boolean>();
+    private final HashSet<Long> mWriting = new HashSet<Long>();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    static synchronized TodoStatusWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TodoStatusWriter(
+                    context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    private TodoStatusWriter(ContentResolver resolver) {
+        this(resolver, startWriterThread());
+    }
+
+    /**
+     * @param looper 执行写入的线程，测试中可以传入主线程的 Looper
+     */
+    TodoStatusWriter(ContentResolver resolver, Looper looper) {
+        mResolver = resolver;
+        mWriter = new Handler(looper);
+    }
+
+    private static Looper startWriterThread() {
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        return thread.getLooper();
+    }
+
+    /**
+     * 提交一条待办的完成状态，在合并窗口结束时写入
+     */
+    void setCompleted(long id, boolean completed) {
+        synchronized (mPending) {
+            boolean scheduled = !mPending.isEmpty();
+            mPending.put(id, completed);
+            if (scheduled) {
+                return;
+            }
+        }
+        mWriter.postDelayed(mFlush, FLUSH_DELAY_MS);
+    }
+
+    /**
+     * 不再等待合并窗口，立即写入队列中的状态，例如界面进入后台时
+     */
+    void flushNow() {
+        mWriter.removeCallbacks(mFlush);
+        mWriter.post(mFlush);
+    }
+
+    /**
+     * 立即写入队列中的状态，然后在写线程上执行一个操作，
+     * 例如按完成状态删除待办时，先让之前的勾选生效
+     */
+    void flushThen(Runnable action) {
+        flushNow();
+        mWriter.post(action);
+    }
+
+    /**
+     * @return 这条待办是否有尚未写入或正在写入的状态
+     */
+    boolean isPending(long id) {
+        synchronized (mPending) {
+            return mPending.containsKey(id) || mWriting.contains(id);
+        }
+    }
+
+    private void flush() {
+        LinkedHashMap<Long, Boolean> batch;
+        synchronized (mPending) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            batch = new LinkedHashMap<Long, Boolean>(mPending);
+            mPending.clear();
+            mWriting.addAll(batch.keySet());
+        }
+
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(batch.size());
+        for (Map.Entry<Long, Boolean> entry : batch.entrySet()) {
+            operations.add(ContentProviderOperation.newUpdate(
+                    ContentUris.withAppendedId(NotePad.Todos.CONTENT_ID_URI_BASE, entry.getKey()))
+                    .withValue(NotePad.Todos.COLUMN_NAME_COMPLETED, entry.getValue() ? 1 : 0)
+                    .build());
+        }
+        Exception failure = null;
+        try {
+            mResolver.applyBatch(NotePad.AUTHORITY, operations);
+        } catch (RemoteException e) {
+            failure = e;
+        } catch (OperationApplicationException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        synchronized (mPending) {
+            mWriting.removeAll(batch.keySet());
+        }
+
+        if (failure != null) {
+            // 通知整个表变化，界面重新加载后显示数据库中的实际状态
+            Log.e(TAG, "Failed to write todo status", failure);
+            mResolver.notifyChange(NotePad.Todos.CONTENT_URI, null);
+        }
+    }
+}
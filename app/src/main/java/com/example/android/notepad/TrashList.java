@@ -0,0 +1,146 @@
+package com.example.android.notepad;
+
+import android.app.ListActivity;
+import android.app.LoaderManager;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.CursorLoader;
+import android.content.Intent;
+import android.content.Loader;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.text.format.DateFormat;
+import android.view.ContextMenu;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ListView;
+import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.util.Date;
+
+/**
+ * 回收站列表：显示 Intent 数据URI（{@link NotePad.Notes#CONTENT_TRASH_URI} 或
+ * {@link NotePad.Todos#CONTENT_TRASH_URI}）中已删除的记录，按删除时间倒序。
+ * 点击一项即恢复，长按可以永久删除。
+ */
+public class TrashList extends ListActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+
+    // 笔记表和待办表的ID、标题、删除时间列同名，两个回收站共用一个投影
+    private static final String[] PROJECTION = new String[] {
+            NotePad.Notes._ID, // 0
+            NotePad.Notes.COLUMN_NAME_TITLE, // 1
+            NotePad.Notes.COLUMN_NAME_DELETED // 2
+    };
+
+    private static final int COLUMN_INDEX_TITLE = 1;
+    private static final int COLUMN_INDEX_DELETED = 2;
+
+    private static final int LOADER_TRASH = 0;
+
+    private static final int MENU_RESTORE = 1;
+    private static final int MENU_DELETE_FOREVER = 2;
+
+    private SimpleCursorAdapter mAdapter;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        Intent intent = getIntent();
+        if (intent.getData() == null) {
+            intent.setData(NotePad.Notes.CONTENT_TRASH_URI);
+        }
+        setTitle(NotePad.Todos.CONTENT_TRASH_URI.equals(intent.getData())
+                ? R.string.title_todos_trash : R.string.title_notes_trash);
+
+        getListView().setOnCreateContextMenuListener(this);
+
+        mAdapter = new SimpleCursorAdapter(
+                this,
+                R.layout.noteslist_item,
+                null,
+                new String[] { NotePad.Notes.COLUMN_NAME_TITLE, NotePad.Notes.COLUMN_NAME_DELETED },
+                new int[] { android.R.id.text1, R.id.note_modify_time },
+                0
+        ) {
+            @Override
+            public void bindView(View view, Context context, Cursor cursor) {
+                super.bindView(view, context, cursor);
+                TextView timeView = (TextView) view.findViewById(R.id.note_modify_time);
+                long deleted = cursor.getLong(COLUMN_INDEX_DELETED);
+                timeView.setText(getString(R.string.trash_deleted_at,
+                        DateFormat.format("yyyy-MM-dd HH:mm", new Date(deleted))));
+            }
+        };
+        setListAdapter(mAdapter);
+        getLoaderManager().initLoader(LOADER_TRASH, null, this);
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        // 回收站不分页：超过30天的记录由后台清理，数量有限
+        return new CursorLoader(this, getIntent().getData(), PROJECTION, null, null, null);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        mAdapter.swapCursor(cursor);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        mAdapter.swapCursor(null);
+    }
+
+    @Override
+    protected void onListItemClick(ListView l, View v, int position, long id) {
+        restore(id);
+    }
+
+    @Override
+    public void onCreateContextMenu(ContextMenu menu, View view, ContextMenu.ContextMenuInfo menuInfo) {
+        AdapterView.AdapterContextMenuInfo info = (AdapterView.AdapterContextMenuInfo) menuInfo;
+        Cursor cursor = (Cursor) getListAdapter().getItem(info.position);
+        if (cursor == null) {
+            return;
+        }
+        menu.setHeaderTitle(cursor.getString(COLUMN_INDEX_TITLE));
+        menu.add(Menu.NONE, MENU_RESTORE, Menu.NONE, R.string.menu_restore);
+        menu.add(Menu.NONE, MENU_DELETE_FOREVER, Menu.NONE, R.string.menu_delete_forever);
+    }
+
+    @Override
+    public boolean onContextItemSelected(MenuItem item) {
+        AdapterView.AdapterContextMenuInfo info =
+                (AdapterView.AdapterContextMenuInfo) item.getMenuInfo();
+        switch (item.getItemId()) {
+            case MENU_RESTORE:
+                restore(info.id);
+                return true;
+            case MENU_DELETE_FOREVER:
+                getContentResolver().delete(getItemUri(info.id), null, null);
+                return true;
+            default:
+                return super.onContextItemSelected(item);
+        }
+    }
+
+    // 恢复：Provider只接受把删除时间设为0的更新，列表由Loader监听数据变化自动刷新
+    private void restore(long id) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_DELETED, 0);
+        if (getContentResolver().update(getItemUri(id), values, null, null) > 0) {
+            Toast.makeText(this, R.string.trash_restored, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private Uri getItemUri(long id) {
+        return ContentUris.withAppendedId(getIntent().getData(), id);
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.android.notepad;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the text kept outside the window of a large note. The window itself is simulated with a
+ * StringBuilder, shifted the way LargeNoteWindow shifts the EditText.
+ */
+public class LargeNoteBufferTest {
+
+    private static final int SHIFT_LINES = 3;
+    private static final int SHIFT_CHARS = 1000;
+
+    private final LargeNoteBuffer mBuffer = new LargeNoteBuffer();
+    private final StringBuilder mWindow = new StringBuilder();
+
+    /*
+     * Tests that the window starts at the first lines and that shifting forward to the end and
+     * back to the start keeps the full text intact at every step.
+     */
+    @Test
+    public void testShiftAcrossWholeNote() {
+        String note = lines(0, 20);
+        mBuffer.load(note);
+        assertFalse(mBuffer.hasHead());
+        assertEquals(note, mBuffer.getText(mWindow));
+
+        mWindow.append(mBuffer.takeFromTail(SHIFT_LINES, SHIFT_CHARS));
+        mWindow.append(mBuffer.takeFromTail(SHIFT_LINES, SHIFT_CHARS));
+        assertEquals(lines(0, 6), mWindow.toString());
+        assertEquals(note, mBuffer.getText(mWindow));
+
+        // Forward to the end: each step appends three lines and moves three lines to the head.
+        while (mBuffer.hasTail()) {
+            shiftForward();
+            assertEquals(note, mBuffer.getText(mWindow));
+        }
+        // The last step found only two lines, so the window ends one line shorter.
+        assertEquals(lines(15, 20), mWindow.toString());
+        assertTrue(mBuffer.hasHead());
+
+        // Back to the start: each step prepends three lines and moves three lines to the tail.
+        while (mBuffer.hasHead()) {
+            shiftBackward();
+            assertEquals(note, mBuffer.getText(mWindow));
+        }
+        assertEquals(lines(0, 5), mWindow.toString());
+    }
+
+    /*
+     * Tests that edits made inside the window survive shifts at both ends.
+     */
+    @Test
+    public void testShiftAfterEdits() {
+        mBuffer.load(lines(0, 12));
+        mWindow.append(mBuffer.takeFromTail(SHIFT_LINES, SHIFT_CHARS));
+        mWindow.append(mBuffer.takeFromTail(SHIFT_LINES, SHIFT_CHARS));
+
+        // Insert a line at the top of the window, then shift it out to the head.
+        mWindow.insert(0, "inserted\n");
+        shiftForward();
+        shiftForward();
+        String expected = "inserted\n" + lines(0, 12);
+        assertEquals(expected, mBuffer.getText(mWindow));
+
+        // Delete a line at the bottom of the window, then shift it back from the head.
+        int lastLine = mWindow.lastIndexOf("\n", mWindow.length() - 2) + 1;
+        String removed = mWindow.substring(lastLine);
+        mWindow.delete(lastLine, mWindow.length());
+        expected = expected.substring(0, expected.length() - removed.length());
+        while (mBuffer.hasHead()) {
+            shiftBackward();
+            assertEquals(expected, mBuffer.getText(mWindow));
+        }
+        assertTrue(mWindow.toString().startsWith("inserted\n"));
+    }
+
+    /*
+     * Tests that a long paragraph is taken in pieces of about SHIFT_CHARS, and that a piece never
+     * ends between the two halves of a surrogate pair.
+     */
+    @Test
+    public void testLongParagraphAndSurrogates() {
+        StringBuilder paragraph = new StringBuilder();
+        while (paragraph.length() < 3 * SHIFT_CHARS) {
+            paragraph.append("😀");
+        }
+        // Shift the boundary so that a cut at SHIFT_CHARS would split a pair.
+        String note = "x" + paragraph + "\n";
+        mBuffer.load(note);
+
+        String first = mBuffer.takeFromTail(SHIFT_LINES, SHIFT_CHARS);
+        assertTrue(first.length() <= SHIFT_CHARS + 1);
+        assertFalse(Character.isHighSurrogate(first.charAt(first.length() - 1)));
+        mWindow.append(first);
+        while (mBuffer.hasTail()) {
+            String piece = mBuffer.takeFromTail(SHIFT_LINES, SHIFT_CHARS);
+            assertFalse(Character.isLowSurrogate(piece.charAt(0)));
+            mWindow.append(piece);
+        }
+        assertEquals(note, mWindow.toString());
+
+        // Taking from the head also keeps the pairs together.
+        mBuffer.putHead(mWindow, 0, mWindow.length() - 1);
+        mWindow.delete(0, mWindow.length() - 1);
+        while (mBuffer.hasHead()) {
+            String piece = mBuffer.takeFromHead(SHIFT_LINES, SHIFT_CHARS);
+            assertFalse(Character.isLowSurrogate(piece.charAt(0)));
+            mWindow.insert(0, piece);
+        }
+        assertEquals(note, mWindow.toString());
+    }
+
+    // Appends lines from the tail and moves as many whole lines from the top to the head.
+    private void shiftForward() {
+        mWindow.append(mBuffer.takeFromTail(SHIFT_LINES, SHIFT_CHARS));
+        int cut = lineStart(mWindow, SHIFT_LINES);
+        mBuffer.putHead(mWindow, 0, cut);
+        mWindow.delete(0, cut);
+    }
+
+    // Prepends lines from the head and moves as many whole lines from the bottom to the tail.
+    private void shiftBackward() {
+        String added = mBuffer.takeFromHead(SHIFT_LINES, SHIFT_CHARS);
+        int cut = lineStart(mWindow, countLines(mWindow) - SHIFT_LINES);
+        mBuffer.putTail(mWindow, cut, mWindow.length());
+        mWindow.delete(cut, mWindow.length());
+        mWindow.insert(0, added);
+    }
+
+    private static int lineStart(CharSequence text, int line) {
+        int offset = 0;
+        for (int i = 0; i < line && offset < text.length(); offset++) {
+            if (text.charAt(offset) == '\n') {
+                i++;
+            }
+        }
+        return offset;
+    }
+
+    private static int countLines(CharSequence text) {
+        int lines = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private static String lines(int from, int to) {
+        StringBuilder text = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            text.append("Line ").append(i).append('\n');
+        }
+        return text.toString();
+    }
+}
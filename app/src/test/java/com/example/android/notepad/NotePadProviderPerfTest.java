@@ -0,0 +1,440 @@
+package com.example.android.notepad;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.notepad.core.NoteTextGenerator;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.SQLiteMode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Performance regression suite for the note pad provider, run on the JVM under Robolectric
+ * with the real SQLite library.
+ *
+ * The provider is seeded through bulkInsert with a large dataset (100,000 notes and 50,000
+ * todos by default) whose note bodies follow a skewed size distribution: mostly short notes,
+ * some long enough to be compressed and a few long enough to be stored in chunks. The suite
+ * then times the list query, scrolling, search, export, bulk insert, restore and clearing
+ * completed todos, and compares the medians with provider-perf-baseline.properties. Any
+ * operation slower than its baseline by more than the tolerance, or without a baseline, fails
+ * the test (see PerfBaseline).
+ *
+ * The suite is skipped unless enabled, since seeding takes minutes:
+ * ./gradlew :app:testDebugUnitTest -Pperf --tests '*NotePadProviderPerfTest'
+ * Optional properties: -Pnotepad.perf.notes=N, -Pnotepad.perf.todos=N,
+ * -Pnotepad.perf.tolerance=0.25. The measurements are written to
+ * app/build/reports/perf/provider-perf.properties; copy that file over the baseline in
+ * src/test/resources to accept a new baseline. A run on a dataset the baseline was not
+ * recorded with fails at once, unless -Pnotepad.perf.record=true is passed to only measure.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class NotePadProviderPerfTest {
+
+    private static final String BASELINE_RESOURCE = "/provider-perf-baseline.properties";
+
+    private static final long START_TIME = NoteTextGenerator.START_TIME;
+
+    // Rows per bulkInsert call while seeding.
+    private static final int SEED_BATCH = 1000;
+
+    // Rows per page, as in NotesList and TodoList.
+    private static final int PAGE_SIZE = 100;
+
+    // Pages read by the scrolling benchmark.
+    private static final int SCROLL_PAGES = 20;
+
+    // Notes written by each bulk insert measurement.
+    private static final int BULK_INSERT_SIZE = 1000;
+
+    // Every n-th note is removed before the restore is timed.
+    private static final int RESTORE_EVERY = 10;
+
+    private static final String[] NOTE_LIST_PROJECTION = new String[] {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
+    };
+
+    private static final String[] TODO_LIST_PROJECTION = new String[] {
+            NotePad.Todos._ID,
+            NotePad.Todos.COLUMN_NAME_TITLE,
+            NotePad.Todos.COLUMN_NAME_COMPLETED,
+            NotePad.Todos.COLUMN_NAME_DUE_DATE,
+            NotePad.Todos.COLUMN_NAME_CREATE_DATE
+    };
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    // The tasks are run synchronously through doInBackground(), their callbacks are not used.
+    private static final NotesExportTask.Callbacks NO_EXPORT_CALLBACKS =
+            new NotesExportTask.Callbacks() {
+                @Override
+                public void onExportProgress(int exported, int total) {
+                }
+
+                @Override
+                public void onExportFinished(File file) {
+                }
+
+                @Override
+                public void onExportCancelled() {
+                }
+
+                @Override
+                public void onExportFailed(Exception e) {
+                }
+            };
+
+    private static final NotesRestoreTask.Callbacks NO_RESTORE_CALLBACKS =
+            new NotesRestoreTask.Callbacks() {
+                @Override
+                public void onRestoreProgress(int processed) {
+                }
+
+                @Override
+                public void onRestoreFinished(int restored) {
+                }
+
+                @Override
+                public void onRestoreFailed(Exception e) {
+                }
+            };
+
+    private final Properties mResults = new Properties();
+    private final List<String> mRegressions = new ArrayList<String>();
+
+    // Fixed seed, so that every run works on the same dataset.
+    private final NoteTextGenerator mText = new NoteTextGenerator(NoteTextGenerator.SEED);
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private PerfBaseline mBaseline;
+    private int mNoteCount;
+    private int mTodoCount;
+    private double mTolerance;
+    private boolean mRecord;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue("Performance suite disabled, run with -Pperf",
+                Boolean.getBoolean("notepad.perf"));
+        mNoteCount = Integer.getInteger("notepad.perf.notes", 100000);
+        mTodoCount = Integer.getInteger("notepad.perf.todos", 50000);
+        mTolerance = Double.parseDouble(System.getProperty("notepad.perf.tolerance", "0.25"));
+        mRecord = Boolean.getBoolean("notepad.perf.record");
+
+        // Fail before the minutes of seeding if there is nothing to compare with.
+        mBaseline = PerfBaseline.load(getClass().getResourceAsStream(BASELINE_RESOURCE),
+                mTolerance);
+        String unusable = mBaseline.checkDataset(mNoteCount, mTodoCount);
+        if (unusable != null && !mRecord) {
+            fail(unusable + "; run with -Pnotepad.perf.record=true to record a baseline");
+        }
+
+        Robolectric.setupContentProvider(NotePadProvider.class, NotePad.AUTHORITY);
+        mContext = RuntimeEnvironment.getApplication();
+        mResolver = mContext.getContentResolver();
+    }
+
+    /*
+     * Seeding dominates the run time, so all operations are timed in one test on one dataset.
+     * The operations that change the data run last.
+     */
+    @Test
+    public void testProviderPerformance() throws Exception {
+        long seedStart = System.nanoTime();
+        seedNotes();
+        seedTodos();
+        System.out.println(String.format(Locale.US, "Seeded %d notes and %d todos in %.1f s",
+                mNoteCount, mTodoCount, (System.nanoTime() - seedStart) / 1e9));
+
+        measure("list_first_page", 2, 10, new Operation() {
+            @Override
+            public void run() {
+                readAll(query(PagedCursor.firstPageUri(NotePad.Notes.CONTENT_URI, PAGE_SIZE),
+                        NOTE_LIST_PROJECTION));
+            }
+        });
+
+        measure("list_scroll", 1, 5, new Operation() {
+            @Override
+            public void run() {
+                String after = null;
+                for (int page = 0; page < SCROLL_PAGES; page++) {
+                    Uri.Builder builder = PagedCursor.firstPageUri(NotePad.Notes.CONTENT_URI,
+                            PAGE_SIZE).buildUpon();
+                    if (after != null) {
+                        builder.appendQueryParameter(NotePad.QUERY_PARAMETER_AFTER, after);
+                    }
+                    Cursor cursor = query(builder.build(), NOTE_LIST_PROJECTION);
+                    try {
+                        if (!cursor.moveToLast()) {
+                            break;
+                        }
+                        after = cursor.getLong(2) + "," + cursor.getLong(0);
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            }
+        });
+
+        measure("todo_list_first_page", 2, 10, new Operation() {
+            @Override
+            public void run() {
+                readAll(query(PagedCursor.firstPageUri(NotePad.Todos.CONTENT_URI, PAGE_SIZE),
+                        TODO_LIST_PROJECTION));
+            }
+        });
+
+        // The most frequent word matches most notes, the least frequent only a few.
+        measureSearch("search_common_word", NoteTextGenerator.word(0));
+        measureSearch("search_rare_word",
+                NoteTextGenerator.word(NoteTextGenerator.VOCABULARY_SIZE - 1));
+        measureSearch("search_two_words",
+                NoteTextGenerator.word(0) + " " + NoteTextGenerator.word(1));
+
+        final File exportFile = new File(mContext.getCacheDir(), "export.txt");
+        measure("export", 0, 3, new Operation() {
+            @Override
+            public void run() {
+                assertNotNull(new NotesExportTask(mResolver, exportFile, NO_EXPORT_CALLBACKS)
+                        .doInBackground());
+            }
+        });
+
+        measure("bulk_insert_" + BULK_INSERT_SIZE, 1, 5, new Operation() {
+            @Override
+            public void run() {
+                ContentValues[] values = new ContentValues[BULK_INSERT_SIZE];
+                long now = START_TIME + mNoteCount * 60000L;
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = createNote(now + i);
+                }
+                assertEquals(BULK_INSERT_SIZE,
+                        mResolver.bulkInsert(NotePad.Notes.CONTENT_URI, values));
+            }
+        });
+
+        measureRestore();
+
+        measure("delete_completed_todos", 0, 1, new Operation() {
+            @Override
+            public void run() {
+                mResolver.delete(NotePad.Todos.CONTENT_URI,
+                        NotePad.Todos.COLUMN_NAME_COMPLETED + " = 1", null);
+            }
+        });
+
+        writeResults();
+        if (!mRegressions.isEmpty()) {
+            fail("Performance regressions beyond " + Math.round(mTolerance * 100) + "%:\n  "
+                    + join(mRegressions, "\n  "));
+        }
+    }
+
+    private void measureSearch(String name, String keyword) throws Exception {
+        final Uri uri = PagedCursor.firstPageUri(NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, keyword)
+                .build(), PAGE_SIZE);
+        measure(name, 2, 10, new Operation() {
+            @Override
+            public void run() {
+                readAll(query(uri, NOTE_LIST_PROJECTION));
+            }
+        });
+    }
+
+    /*
+     * Backs up every note, removes every tenth one for good (through the trash) and times the
+     * restore that brings them back.
+     */
+    private void measureRestore() throws Exception {
+        final NotesBackupStore store = new NotesBackupStore(mContext);
+        store.backup(mResolver);
+        String removed = "(" + NotePad.Notes._ID + " % " + RESTORE_EVERY + ") = 0";
+        final int expected = mResolver.delete(NotePad.Notes.CONTENT_URI, removed, null);
+        mResolver.delete(NotePad.Notes.CONTENT_TRASH_URI, null, null);
+
+        measure("restore", 0, 1, new Operation() {
+            @Override
+            public void run() {
+                assertEquals(Integer.valueOf(expected),
+                        new NotesRestoreTask(mResolver, store, NO_RESTORE_CALLBACKS)
+                                .doInBackground());
+            }
+        });
+    }
+
+    /*
+     * Runs the operation warmups + runs times and records the median of the timed runs.
+     */
+    private void measure(String name, int warmups, int runs, Operation operation)
+            throws Exception {
+        for (int i = 0; i < warmups; i++) {
+            operation.run();
+        }
+        double[] times = new double[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            times[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(times);
+        double median = runs % 2 == 1 ? times[runs / 2]
+                : (times[runs / 2 - 1] + times[runs / 2]) / 2;
+        mResults.setProperty(name, String.format(Locale.US, "%.2f", median));
+
+        if (mRecord) {
+            System.out.println(String.format(Locale.US, "%-24s %10.2f ms", name, median));
+            return;
+        }
+        PerfBaseline.Result result = mBaseline.compare(name, median);
+        if (result.regression) {
+            mRegressions.add(result.line);
+        }
+        System.out.println(result.line);
+    }
+
+    private Cursor query(Uri uri, String[] projection) {
+        Cursor cursor = mResolver.query(uri, projection, null, null, null);
+        assertNotNull(cursor);
+        return cursor;
+    }
+
+    // Reads every column of every row, as a list adapter binding all rows would.
+    private static void readAll(Cursor cursor) {
+        try {
+            int columns = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < columns; i++) {
+                    cursor.getString(i);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void seedNotes() {
+        List<ContentValues> batch = new ArrayList<ContentValues>(SEED_BATCH);
+        for (int i = 0; i < mNoteCount; i++) {
+            batch.add(createNote(START_TIME + i * 60000L));
+            if (batch.size() == SEED_BATCH || i == mNoteCount - 1) {
+                mResolver.bulkInsert(NotePad.Notes.CONTENT_URI,
+                        batch.toArray(new ContentValues[batch.size()]));
+                batch.clear();
+            }
+        }
+    }
+
+    private void seedTodos() {
+        List<ContentValues> batch = new ArrayList<ContentValues>(SEED_BATCH);
+        for (int i = 0; i < mTodoCount; i++) {
+            ContentValues values = new ContentValues();
+            values.put(NotePad.Todos.COLUMN_NAME_TITLE, mText.words(2 + mText.nextInt(6)));
+            if (mText.nextInt(3) == 0) {
+                values.put(NotePad.Todos.COLUMN_NAME_CONTENT, mText.words(5 + mText.nextInt(30)));
+            }
+            values.put(NotePad.Todos.COLUMN_NAME_COMPLETED, mText.nextInt(10) < 4 ? 1 : 0);
+            long created = START_TIME + i * 60000L;
+            values.put(NotePad.Todos.COLUMN_NAME_CREATE_DATE, created);
+            if (mText.nextBoolean()) {
+                values.put(NotePad.Todos.COLUMN_NAME_DUE_DATE,
+                        created + mText.nextInt(30) * 86400000L);
+            }
+            batch.add(values);
+            if (batch.size() == SEED_BATCH || i == mTodoCount - 1) {
+                mResolver.bulkInsert(NotePad.Todos.CONTENT_URI,
+                        batch.toArray(new ContentValues[batch.size()]));
+                batch.clear();
+            }
+        }
+    }
+
+    private ContentValues createNote(long modified) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, mText.words(2 + mText.nextInt(6)));
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, mText.text(nextBodyLength()));
+        values.put(NotePad.Notes.COLUMN_NAME_CREATE_DATE, modified);
+        values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, modified);
+        return values;
+    }
+
+    /*
+     * Body lengths in characters: 60% short notes, 30% up to the compression threshold,
+     * 9.8% compressed and 0.2% long enough to be stored in chunks.
+     */
+    private int nextBodyLength() {
+        int bucket = mText.nextInt(1000);
+        if (bucket < 600) {
+            return 20 + mText.nextInt(400);
+        } else if (bucket < 900) {
+            return 420 + mText.nextInt(NoteBodyCodec.COMPRESSION_THRESHOLD - 420);
+        } else if (bucket < 998) {
+            return NoteBodyCodec.COMPRESSION_THRESHOLD
+                    + mText.nextInt(NoteChunkStore.CHUNKED_NOTE_CHARS / 4);
+        } else {
+            return NoteChunkStore.CHUNKED_NOTE_CHARS
+                    + mText.nextInt(NoteChunkStore.CHUNKED_NOTE_CHARS);
+        }
+    }
+
+    private void writeResults() throws IOException {
+        mResults.setProperty(PerfBaseline.KEY_NOTES, String.valueOf(mNoteCount));
+        mResults.setProperty(PerfBaseline.KEY_TODOS, String.valueOf(mTodoCount));
+        File file = new File(System.getProperty("notepad.perf.output",
+                "build/reports/perf/provider-perf.properties"));
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            mResults.store(out, "Median milliseconds per operation, see NotePadProviderPerfTest");
+        } finally {
+            out.close();
+        }
+        System.out.println("Results written to " + file);
+    }
+
+    private static String join(List<String> lines, String separator) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            if (text.length() > 0) {
+                text.append(separator);
+            }
+            text.append(line);
+        }
+        return text.toString();
+    }
+}
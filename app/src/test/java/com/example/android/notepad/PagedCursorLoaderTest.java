@@ -0,0 +1,247 @@
+package com.example.android.notepad;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Loader;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.SQLiteMode;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests the change notifications of NotePadProvider and how PagedCursorLoader applies them to
+ * the loaded list in place.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class PagedCursorLoaderTest {
+
+    // NotePadProvider.NOTIFY_DELAY_MS
+    private static final long NOTIFY_DELAY_MS = 100;
+
+    // How long to wait for the loader's background queries.
+    private static final long TIMEOUT_MS = 5000;
+
+    private static final int PAGE_SIZE = 3;
+
+    private static final String[] PROJECTION = new String[] {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
+    };
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private ShadowContentResolver mShadowResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(NotePadProvider.class, NotePad.AUTHORITY);
+        mContext = RuntimeEnvironment.getApplication();
+        mResolver = mContext.getContentResolver();
+        mShadowResolver = shadowOf(mResolver);
+    }
+
+    /*
+     * Tests that single writes are notified per note after NOTIFY_DELAY_MS, with the writes in
+     * that window coalesced, and that a batch is notified as soon as it commits.
+     */
+    @Test
+    public void testChangeNotifications() throws Exception {
+        long first = insertNote("First", 1000);
+        idle(NOTIFY_DELAY_MS / 2);
+        updateNote(first, "First, edited", 2000);
+        long second = insertNote("Second", 3000);
+        assertEquals(0, mShadowResolver.getNotifiedUris().size());
+
+        // The timer started with the first write; the insert and update of the same note
+        // are notified as one insert.
+        idle(NOTIFY_DELAY_MS / 2);
+        assertNotified(changeUri(NotePad.Notes.CONTENT_URI, first, NotePad.CHANGE_INSERT),
+                changeUri(NotePad.Notes.CONTENT_URI, second, NotePad.CHANGE_INSERT));
+
+        mShadowResolver.getNotifiedUris().clear();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newDelete(
+                ContentUris.withAppendedId(NotePad.Notes.CONTENT_URI, second)).build());
+        mResolver.applyBatch(NotePad.AUTHORITY, operations);
+        // A deleted note moves to the trash.
+        assertNotified(changeUri(NotePad.Notes.CONTENT_URI, second, NotePad.CHANGE_DELETE),
+                changeUri(NotePad.Notes.CONTENT_TRASH_URI, second, NotePad.CHANGE_INSERT));
+    }
+
+    /*
+     * Tests that inserts, updates and deletes reach the same PagedCursor through its observers,
+     * with the pages loaded so far kept and without a reload.
+     */
+    @Test
+    public void testLoaderAppliesChangesInPlace() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            insertNote("Note " + i, i * 1000L);
+        }
+        idle(NOTIFY_DELAY_MS);
+
+        PagedCursorLoader loader = new PagedCursorLoader(mContext, NotePad.Notes.CONTENT_URI,
+                PROJECTION, PAGE_SIZE, 0, 2);
+        final List<Cursor> results = new ArrayList<Cursor>();
+        loader.registerListener(0, new Loader.OnLoadCompleteListener<Cursor>() {
+            @Override
+            public void onLoadComplete(Loader<Cursor> loader, Cursor data) {
+                results.add(data);
+            }
+        });
+        loader.startLoading();
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return !results.isEmpty();
+            }
+        });
+        final PagedCursor cursor = (PagedCursor) results.get(0);
+        assertIds(cursor, 5, 4, 3);
+
+        final boolean[] appended = new boolean[1];
+        loader.loadNextPage(new PagedCursorLoader.Callbacks() {
+            @Override
+            public void onPageAppended(PagedCursor cursor) {
+                appended[0] = true;
+            }
+        });
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return appended[0];
+            }
+        });
+        assertIds(cursor, 5, 4, 3, 2, 1);
+
+        final int[] changes = new int[1];
+        cursor.registerDataSetObserver(new DataSetObserver() {
+            @Override
+            public void onChanged() {
+                changes[0]++;
+            }
+        });
+
+        // Move the last note of the first page to the top, insert a note between the pages.
+        updateNote(3, "Note 3, edited", 6000);
+        long inserted = insertNote("Inserted", 2500);
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return changes[0] > 0;
+            }
+        });
+        assertIds(cursor, 3, 5, 4, inserted, 2, 1);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Note 3, edited", cursor.getString(1));
+
+        // Delete the notes at the boundary and at the end.
+        final int applied = changes[0];
+        mResolver.delete(ContentUris.withAppendedId(NotePad.Notes.CONTENT_URI, inserted),
+                null, null);
+        mResolver.delete(ContentUris.withAppendedId(NotePad.Notes.CONTENT_URI, 1), null, null);
+        waitFor(new Condition() {
+            @Override
+            public boolean isMet() {
+                return changes[0] > applied;
+            }
+        });
+        assertIds(cursor, 3, 5, 4, 2);
+
+        // The list was never reloaded.
+        assertEquals(1, results.size());
+        assertSame(cursor, results.get(0));
+        loader.reset();
+    }
+
+    private long insertNote(String title, long time) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, title);
+        values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, time);
+        Uri uri = mResolver.insert(NotePad.Notes.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private void updateNote(long id, String title, long time) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
+        values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, time);
+        assertEquals(1, mResolver.update(ContentUris.withAppendedId(NotePad.Notes.CONTENT_URI, id),
+                values, null, null));
+    }
+
+    private static Uri changeUri(Uri tableUri, long id, String change) {
+        return ContentUris.withAppendedId(tableUri, id).buildUpon()
+                .appendQueryParameter(NotePad.QUERY_PARAMETER_CHANGE, change)
+                .build();
+    }
+
+    private void assertNotified(Uri... expected) {
+        List<ShadowContentResolver.NotifiedUri> notified = mShadowResolver.getNotifiedUris();
+        Uri[] uris = new Uri[notified.size()];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = notified.get(i).uri;
+        }
+        assertArrayEquals(expected, uris);
+    }
+
+    private static void assertIds(Cursor cursor, long... expected) {
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        assertArrayEquals(expected, ids);
+    }
+
+    private static void idle(long ms) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(ms));
+    }
+
+    /*
+     * Runs the main looper, including the notification delays, until the condition is met.
+     * The loader queries on real background threads, so this also gives them time to finish.
+     */
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.isMet()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for the loader");
+            }
+            idle(10);
+            Thread.sleep(10);
+        }
+    }
+}
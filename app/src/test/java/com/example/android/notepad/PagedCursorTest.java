@@ -0,0 +1,197 @@
+package com.example.android.notepad;
+
+import android.database.DataSetObserver;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the in-place merge of changed rows into a PagedCursor, in particular at the boundaries
+ * between pages, and the release of pages whose rows have all been replaced.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23)
+public class PagedCursorTest {
+
+    private static final String[] COLUMNS = new String[] { "_id", "title", "modified" };
+    private static final int ID_COLUMN = 0;
+    private static final int TIME_COLUMN = 2;
+    private static final int PAGE_SIZE = 3;
+
+    private PagedCursor mCursor;
+    private MatrixCursor mFirstPage;
+    private MatrixCursor mSecondPage;
+    private int mChangeCount;
+
+    /*
+     * Loads two full pages: ids 6 to 4, then ids 3 to 1, each modified at id * 10.
+     */
+    @Before
+    public void setUp() {
+        mFirstPage = page(6, 5, 4);
+        mSecondPage = page(3, 2, 1);
+        mCursor = new PagedCursor(mFirstPage, PAGE_SIZE, ID_COLUMN, TIME_COLUMN);
+        mCursor.addPage(mSecondPage, PAGE_SIZE);
+        mCursor.registerDataSetObserver(new DataSetObserver() {
+            @Override
+            public void onChanged() {
+                mChangeCount++;
+            }
+        });
+        assertIds(6, 5, 4, 3, 2, 1);
+        assertTrue(mCursor.hasMorePages());
+    }
+
+    /*
+     * Tests that a new row is placed by its paging key, including between two pages, and that
+     * a row older than the last loaded one is left to the next page.
+     */
+    @Test
+    public void testInsert() {
+        MatrixCursor changed = new MatrixCursor(COLUMNS);
+        changed.addRow(row(9, "new", 70));
+        changed.addRow(row(8, "boundary", 35));
+        changed.addRow(row(7, "old", 5));
+        mCursor.applyChanges(changed, ids(9, 8, 7));
+
+        assertIds(9, 6, 5, 4, 8, 3, 2, 1);
+        assertEquals(1, mChangeCount);
+        assertTitle(4, "boundary");
+        // The last loaded row is unchanged, so is the next page.
+        assertEquals(nextPageUri(10, 1), mCursor.nextPageUri(NotePad.Notes.CONTENT_URI, PAGE_SIZE));
+
+        // Once there are no more pages, older rows are appended.
+        mCursor.addPage(new MatrixCursor(COLUMNS), PAGE_SIZE);
+        assertFalse(mCursor.hasMorePages());
+        changed = new MatrixCursor(COLUMNS);
+        changed.addRow(row(7, "old", 5));
+        mCursor.applyChanges(changed, ids(7));
+        assertIds(9, 6, 5, 4, 8, 3, 2, 1, 7);
+        assertEquals(nextPageUri(5, 7), mCursor.nextPageUri(NotePad.Notes.CONTENT_URI, PAGE_SIZE));
+    }
+
+    /*
+     * Tests that updated rows move across the page boundary in both directions and show their
+     * new contents.
+     */
+    @Test
+    public void testUpdate() {
+        // The last row of the first page moves into the second page, the first row of the
+        // second page moves to the top.
+        MatrixCursor changed = new MatrixCursor(COLUMNS);
+        changed.addRow(row(3, "moved up", 70));
+        changed.addRow(row(4, "moved down", 15));
+        mCursor.applyChanges(changed, ids(4, 3));
+
+        assertIds(3, 6, 5, 2, 4, 1);
+        assertTitle(0, "moved up");
+        assertTitle(4, "moved down");
+        assertEquals(1, mChangeCount);
+        assertFalse(mFirstPage.isClosed());
+        assertFalse(mSecondPage.isClosed());
+        assertEquals(3, mCursor.getPageCount());
+    }
+
+    /*
+     * Tests that deleting the rows at the page boundary and at the end keeps the other rows and
+     * moves the key of the next page back to the new last row.
+     */
+    @Test
+    public void testDelete() {
+        mCursor.applyChanges(new MatrixCursor(COLUMNS), ids(4, 3, 1));
+
+        assertIds(6, 5, 2);
+        assertEquals(1, mChangeCount);
+        assertEquals(nextPageUri(20, 2), mCursor.nextPageUri(NotePad.Notes.CONTENT_URI, PAGE_SIZE));
+        assertTrue(mCursor.hasMorePages());
+        // The empty change page has no rows and is released at once.
+        assertEquals(2, mCursor.getPageCount());
+    }
+
+    /*
+     * Tests that a page is closed once all its rows have been replaced, that repeated updates of
+     * the same row do not keep a page per update, and that the remaining rows stay readable.
+     */
+    @Test
+    public void testReleasesReplacedPages() {
+        MatrixCursor changed = new MatrixCursor(COLUMNS);
+        changed.addRow(row(3, "three", 30));
+        changed.addRow(row(2, "two", 20));
+        changed.addRow(row(1, "one", 10));
+        mCursor.applyChanges(changed, ids(3, 2, 1));
+        assertTrue(mSecondPage.isClosed());
+        assertFalse(mFirstPage.isClosed());
+        assertEquals(2, mCursor.getPageCount());
+
+        for (int i = 0; i < 2 * PagedCursor.MAX_PAGES; i++) {
+            MatrixCursor update = new MatrixCursor(COLUMNS);
+            update.addRow(row(5, "update " + i, 50));
+            mCursor.applyChanges(update, ids(5));
+        }
+        assertEquals(3, mCursor.getPageCount());
+        assertIds(6, 5, 4, 3, 2, 1);
+        assertTitle(1, "update " + (2 * PagedCursor.MAX_PAGES - 1));
+        assertTitle(3, "three");
+        assertTitle(5, "one");
+
+        mCursor.close();
+        assertTrue(mFirstPage.isClosed());
+        assertTrue(changed.isClosed());
+    }
+
+    private void assertIds(long... expected) {
+        long[] ids = new long[mCursor.getCount()];
+        for (int i = 0; mCursor.moveToPosition(i); i++) {
+            ids[i] = mCursor.getLong(ID_COLUMN);
+            if (i > 0) {
+                // The rows stay in paging order.
+                mCursor.moveToPosition(i - 1);
+                long previousTime = mCursor.getLong(TIME_COLUMN);
+                mCursor.moveToPosition(i);
+                assertTrue(previousTime >= mCursor.getLong(TIME_COLUMN));
+            }
+        }
+        assertArrayEquals(expected, ids);
+    }
+
+    private void assertTitle(int position, String expected) {
+        assertTrue(mCursor.moveToPosition(position));
+        assertEquals(expected, mCursor.getString(1));
+    }
+
+    private static Uri nextPageUri(long time, long id) {
+        return PagedCursor.firstPageUri(NotePad.Notes.CONTENT_URI, PAGE_SIZE).buildUpon()
+                .appendQueryParameter(NotePad.QUERY_PARAMETER_AFTER, time + "," + id)
+                .build();
+    }
+
+    private static MatrixCursor page(long... ids) {
+        MatrixCursor page = new MatrixCursor(COLUMNS);
+        for (long id : ids) {
+            page.addRow(row(id, "Note " + id, id * 10));
+        }
+        return page;
+    }
+
+    private static Object[] row(long id, String title, long time) {
+        return new Object[] { id, title, time };
+    }
+
+    private static LongHashSet ids(long... ids) {
+        LongHashSet set = new LongHashSet();
+        for (long id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+}
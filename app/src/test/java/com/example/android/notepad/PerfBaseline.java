@@ -0,0 +1,87 @@
+package com.example.android.notepad;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * The stored medians that NotePadProviderPerfTest compares its measurements with.
+ *
+ * The baseline file holds the dataset size it was recorded with (notes, todos) and one median
+ * in milliseconds per operation. A measurement is a regression when it is slower than its
+ * baseline by more than the tolerance plus SLACK_MS, or when the operation has no baseline at
+ * all: a gate with missing entries would otherwise pass without comparing anything.
+ */
+final class PerfBaseline {
+
+    static final String KEY_NOTES = "notes";
+    static final String KEY_TODOS = "todos";
+
+    // Regressions smaller than this are noise, whatever the tolerance.
+    static final double SLACK_MS = 2;
+
+    private final Properties mTimes;
+    private final double mTolerance;
+
+    PerfBaseline(Properties times, double tolerance) {
+        mTimes = times;
+        mTolerance = tolerance;
+    }
+
+    /*
+     * Reads a baseline file. A missing file is an empty baseline.
+     */
+    static PerfBaseline load(InputStream in, double tolerance) throws IOException {
+        Properties times = new Properties();
+        if (in != null) {
+            try {
+                times.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return new PerfBaseline(times, tolerance);
+    }
+
+    /*
+     * Returns why this baseline cannot be compared with a run on the given dataset, or null if
+     * it can.
+     */
+    String checkDataset(int notes, int todos) {
+        if (!String.valueOf(notes).equals(mTimes.getProperty(KEY_NOTES))
+                || !String.valueOf(todos).equals(mTimes.getProperty(KEY_TODOS))) {
+            return "Baseline was recorded with " + mTimes.getProperty(KEY_NOTES) + " notes and "
+                    + mTimes.getProperty(KEY_TODOS) + " todos, this run has " + notes
+                    + " notes and " + todos + " todos";
+        }
+        if (mTimes.size() == 2) {
+            return "Baseline has no timings";
+        }
+        return null;
+    }
+
+    /*
+     * Returns the report line of a measurement, and whether it is a regression.
+     */
+    Result compare(String name, double median) {
+        String line = String.format(Locale.US, "%-24s %10.2f ms", name, median);
+        String baseline = mTimes.getProperty(name);
+        if (baseline == null) {
+            return new Result(line + "  (no baseline)", true);
+        }
+        double limit = Double.parseDouble(baseline) * (1 + mTolerance) + SLACK_MS;
+        line += String.format(Locale.US, "  (baseline %s ms, limit %.2f ms)", baseline, limit);
+        return new Result(line, median > limit);
+    }
+
+    static final class Result {
+        final String line;
+        final boolean regression;
+
+        Result(String line, boolean regression) {
+            this.line = line;
+            this.regression = regression;
+        }
+    }
+}
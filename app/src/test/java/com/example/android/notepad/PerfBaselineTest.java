@@ -0,0 +1,53 @@
+package com.example.android.notepad;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the regression check of the provider performance suite, which only runs on demand.
+ */
+public class PerfBaselineTest {
+
+    private static final String BASELINE = "notes=1000\ntodos=500\nlist_first_page=10.00\n";
+
+    @Test
+    public void testRegression() throws IOException {
+        PerfBaseline baseline = load(BASELINE);
+        assertNull(baseline.checkDataset(1000, 500));
+
+        // The limit is 10 ms * 1.25 + 2 ms.
+        PerfBaseline.Result result = baseline.compare("list_first_page", 14.5);
+        assertFalse(result.line, result.regression);
+        result = baseline.compare("list_first_page", 14.51);
+        assertTrue(result.regression);
+        assertEquals("list_first_page               14.51 ms"
+                + "  (baseline 10.00 ms, limit 14.50 ms)", result.line);
+        // Faster is never a regression.
+        assertFalse(baseline.compare("list_first_page", 1).regression);
+    }
+
+    @Test
+    public void testMissingBaseline() throws IOException {
+        // An operation without a baseline cannot pass the gate.
+        PerfBaseline.Result result = load(BASELINE).compare("export", 1);
+        assertTrue(result.regression);
+        assertTrue(result.line, result.line.endsWith("(no baseline)"));
+
+        // Neither can a baseline without timings or from another dataset.
+        assertNotNull(load("notes=1000\ntodos=500\n").checkDataset(1000, 500));
+        assertNotNull(load(BASELINE).checkDataset(100000, 500));
+        assertNotNull(PerfBaseline.load(null, 0.25).checkDataset(1000, 500));
+    }
+
+    private static PerfBaseline load(String text) throws IOException {
+        return PerfBaseline.load(new ByteArrayInputStream(text.getBytes("ISO-8859-1")), 0.25);
+    }
+}
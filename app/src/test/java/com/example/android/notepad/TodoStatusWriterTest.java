@@ -0,0 +1,216 @@
+package com.example.android.notepad;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.SQLiteMode;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests how TodoStatusWriter coalesces and batches completion toggles, and how the
+ * TodoStatusOverlay shown by TodoList is cleared once a write has completed or failed.
+ * The writer runs on the main looper here, so that the test controls when it flushes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23)
+@SQLiteMode(SQLiteMode.Mode.NATIVE)
+public class TodoStatusWriterTest {
+
+    // TodoStatusWriter.FLUSH_DELAY_MS
+    private static final long FLUSH_DELAY_MS = 300;
+
+    /**
+     * Records the size of every batch, and fails the batches while sFailBatches is set.
+     */
+    public static class RecordingProvider extends NotePadProvider {
+        static final List<Integer> sBatchSizes = new ArrayList<Integer>();
+        static boolean sFailBatches;
+
+        @Override
+        public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            sBatchSizes.add(operations.size());
+            if (sFailBatches) {
+                throw new OperationApplicationException("Failing for the test");
+            }
+            return super.applyBatch(operations);
+        }
+    }
+
+    private ContentResolver mResolver;
+    private ShadowContentResolver mShadowResolver;
+    private TodoStatusWriter mWriter;
+    private TodoStatusOverlay mOverlay;
+    private long mFirst;
+    private long mSecond;
+
+    @Before
+    public void setUp() {
+        RecordingProvider.sBatchSizes.clear();
+        RecordingProvider.sFailBatches = false;
+        Robolectric.setupContentProvider(RecordingProvider.class, NotePad.AUTHORITY);
+        mResolver = RuntimeEnvironment.getApplication().getContentResolver();
+        mShadowResolver = shadowOf(mResolver);
+        mWriter = new TodoStatusWriter(mResolver, Looper.getMainLooper());
+        mOverlay = new TodoStatusOverlay(mWriter);
+        mFirst = insertTodo("First");
+        mSecond = insertTodo("Second");
+        idle(FLUSH_DELAY_MS);
+        mShadowResolver.getNotifiedUris().clear();
+    }
+
+    /*
+     * Tests that toggles of one todo within the window are written once, with the last state,
+     * together with the other todos toggled in the same window, in a single applyBatch().
+     */
+    @Test
+    public void testCoalescesToggles() {
+        mWriter.setCompleted(mFirst, true);
+        idle(100);
+        mWriter.setCompleted(mFirst, false);
+        mWriter.setCompleted(mSecond, true);
+        idle(100);
+        mWriter.setCompleted(mFirst, true);
+        assertTrue(mWriter.isPending(mFirst));
+        assertTrue(mWriter.isPending(mSecond));
+
+        // The window started with the first toggle.
+        idle(FLUSH_DELAY_MS - 201);
+        assertTrue(RecordingProvider.sBatchSizes.isEmpty());
+        idle(1);
+        assertEquals(1, RecordingProvider.sBatchSizes.size());
+        assertEquals(2, (int) RecordingProvider.sBatchSizes.get(0));
+        assertTrue(isCompleted(mFirst));
+        assertTrue(isCompleted(mSecond));
+        assertFalse(mWriter.isPending(mFirst));
+        assertFalse(mWriter.isPending(mSecond));
+
+        // A toggle after the write starts a new window.
+        mWriter.setCompleted(mFirst, false);
+        idle(FLUSH_DELAY_MS);
+        assertEquals(2, RecordingProvider.sBatchSizes.size());
+        assertEquals(1, (int) RecordingProvider.sBatchSizes.get(1));
+        assertFalse(isCompleted(mFirst));
+    }
+
+    /*
+     * Tests that flushNow() writes without waiting for the window, and flushThen() runs its
+     * action after the write.
+     */
+    @Test
+    public void testFlushNow() {
+        mWriter.setCompleted(mFirst, true);
+        final boolean[] completedWhenRun = new boolean[1];
+        mWriter.flushThen(new Runnable() {
+            @Override
+            public void run() {
+                completedWhenRun[0] = isCompleted(mFirst);
+            }
+        });
+        idle(0);
+        assertEquals(1, RecordingProvider.sBatchSizes.size());
+        assertTrue(completedWhenRun[0]);
+
+        // The delayed flush finds nothing left to write.
+        idle(FLUSH_DELAY_MS);
+        assertEquals(1, RecordingProvider.sBatchSizes.size());
+    }
+
+    /*
+     * Tests that the overlay shows the toggled state until the write has completed and the
+     * cursor shows the new state, and the cursor state after that.
+     */
+    @Test
+    public void testOverlayClearedAfterWrite() {
+        mOverlay.setCompleted(mFirst, true);
+        assertTrue(mOverlay.isCompleted(mFirst, false));
+
+        idle(FLUSH_DELAY_MS);
+        assertTrue(isCompleted(mFirst));
+        // The cursor hasn't been updated yet.
+        assertTrue(mOverlay.isCompleted(mFirst, false));
+        assertTrue(mOverlay.contains(mFirst));
+        // Once it has, the overlay is no longer needed.
+        assertTrue(mOverlay.isCompleted(mFirst, true));
+        assertFalse(mOverlay.contains(mFirst));
+        assertFalse(mOverlay.isCompleted(mFirst, false));
+
+        // A reload also clears the toggles that have been written, but keeps pending ones.
+        mOverlay.setCompleted(mFirst, false);
+        idle(FLUSH_DELAY_MS);
+        mOverlay.setCompleted(mSecond, true);
+        mOverlay.onReloaded();
+        assertFalse(mOverlay.contains(mFirst));
+        assertTrue(mOverlay.contains(mSecond));
+    }
+
+    /*
+     * Tests that a failed write leaves the database unchanged, notifies the whole table so that
+     * the list reloads, and that the reload clears the overlay.
+     */
+    @Test
+    public void testOverlayClearedOnFailure() {
+        RecordingProvider.sFailBatches = true;
+        mOverlay.setCompleted(mFirst, true);
+        idle(FLUSH_DELAY_MS);
+
+        assertEquals(1, RecordingProvider.sBatchSizes.size());
+        assertFalse(isCompleted(mFirst));
+        assertFalse(mWriter.isPending(mFirst));
+        List<ShadowContentResolver.NotifiedUri> notified = mShadowResolver.getNotifiedUris();
+        assertEquals(1, notified.size());
+        assertEquals(NotePad.Todos.CONTENT_URI, notified.get(0).uri);
+
+        // TodoList.onLoadFinished() after the reload.
+        mOverlay.onReloaded();
+        assertFalse(mOverlay.contains(mFirst));
+        assertFalse(mOverlay.isCompleted(mFirst, false));
+    }
+
+    private long insertTodo(String title) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Todos.COLUMN_NAME_TITLE, title);
+        Uri uri = mResolver.insert(NotePad.Todos.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private boolean isCompleted(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(NotePad.Todos.CONTENT_URI, id),
+                new String[] { NotePad.Todos.COLUMN_NAME_COMPLETED }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0) == 1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void idle(long ms) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(ms));
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.android.notepad.core;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于 SQLite-JDBC 的 {@link NoteStore}，供基准测试使用。
+ *
+ * 表结构、列表索引和全文索引与 NotePadProvider 中的笔记表一致（只保留这里用到的列），
+ * 分页和搜索使用与Provider相同的 {@link NoteQueries} 片段，查询计划相同。
+ */
+class JdbcNoteStore implements NoteStore {
+
+    static final String TABLE_NAME = "notes";
+    static final String FTS_TABLE_NAME = "notes_fts";
+
+    private static final String LIVE = "deleted = 0";
+    private static final String ORDER = NoteQueries.pageOrder("modified");
+    private static final String COLUMNS = NoteQueries.ID + ", title, note, modified";
+
+    private final Connection mConnection;
+
+    JdbcNoteStore(Connection connection) {
+        mConnection = connection;
+    }
+
+    /**
+     * 在空数据库中创建笔记表、列表索引、全文索引表和同步全文索引的触发器
+     */
+    static void createSchema(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("CREATE TABLE " + TABLE_NAME + " ("
+                    + NoteQueries.ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "title TEXT,"
+                    + "note TEXT,"
+                    + "created INTEGER,"
+                    + "modified INTEGER,"
+                    + "deleted INTEGER NOT NULL DEFAULT 0"
+                    + ")");
+            statement.execute("CREATE INDEX notes_modified_index ON " + TABLE_NAME
+                    + " (deleted, modified, " + NoteQueries.ID + ", title)");
+            statement.execute("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4(title, note)");
+            statement.execute("CREATE TRIGGER notes_fts_insert AFTER INSERT ON " + TABLE_NAME
+                    + " BEGIN INSERT INTO " + FTS_TABLE_NAME + " (docid, title, note) VALUES ("
+                    + "new." + NoteQueries.ID + ", new.title, new.note); END");
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Override
+    public int count() throws IOException {
+        try {
+            Statement statement = mConnection.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery(
+                        "SELECT COUNT(*) FROM " + TABLE_NAME + " WHERE " + LIVE);
+                return rs.next() ? rs.getInt(1) : 0;
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public List<Note> page(Note after, int limit) throws IOException {
+        String where = LIVE;
+        if (after != null) {
+            where += " AND " + NoteQueries.pageWhere("modified", after.getModified(), after.getId());
+        }
+        try {
+            PreparedStatement statement = mConnection.prepareStatement("SELECT " + COLUMNS
+                    + " FROM " + TABLE_NAME + " WHERE " + where + " ORDER BY " + ORDER + " LIMIT ?");
+            try {
+                statement.setInt(1, limit);
+                return readNotes(statement.executeQuery(), limit);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public int insert(List<Note> notes) throws IOException {
+        try {
+            boolean autoCommit = mConnection.getAutoCommit();
+            mConnection.setAutoCommit(false);
+            PreparedStatement statement = mConnection.prepareStatement("INSERT INTO " + TABLE_NAME
+                    + " (" + NoteQueries.ID + ", title, note, created, modified)"
+                    + " VALUES (?, ?, ?, ?, ?)");
+            try {
+                long now = System.currentTimeMillis();
+                for (Note note : notes) {
+                    if (note.hasId()) {
+                        statement.setLong(1, note.getId());
+                    } else {
+                        statement.setNull(1, java.sql.Types.INTEGER);
+                    }
+                    statement.setString(2, note.getTitle());
+                    statement.setString(3, note.getContent());
+                    // 与Provider相同，修改时间未知时使用当前时间
+                    long modified = note.hasModified() ? note.getModified() : now;
+                    statement.setLong(4, modified);
+                    statement.setLong(5, modified);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                mConnection.commit();
+            } catch (SQLException e) {
+                mConnection.rollback();
+                throw e;
+            } finally {
+                statement.close();
+                mConnection.setAutoCommit(autoCommit);
+            }
+            return notes.size();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public List<Note> search(String keyword, int limit) throws IOException {
+        String match = NoteQueries.ftsMatch(keyword);
+        String where = LIVE;
+        if (match.length() > 0) {
+            where += " AND " + NoteQueries.searchWhere(FTS_TABLE_NAME, "?");
+        }
+        try {
+            PreparedStatement statement = mConnection.prepareStatement("SELECT " + COLUMNS
+                    + " FROM " + TABLE_NAME + " WHERE " + where + " ORDER BY " + ORDER + " LIMIT ?");
+            try {
+                int index = 1;
+                if (match.length() > 0) {
+                    statement.setString(index++, match);
+                }
+                statement.setInt(index, limit);
+                return readNotes(statement.executeQuery(), limit);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static List<Note> readNotes(ResultSet rs, int limit) throws SQLException {
+        List<Note> notes = new ArrayList<Note>(limit);
+        while (rs.next()) {
+            notes.add(new Note(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getLong(4)));
+        }
+        return notes;
+    }
+}
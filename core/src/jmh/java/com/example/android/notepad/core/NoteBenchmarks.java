@@ -0,0 +1,147 @@
+package com.example.android.notepad.core;
+
+import com.google.gson.stream.JsonReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 导出、备份、恢复解析和全文搜索的基准测试，数据集见 {@link NoteDatasets}。
+ *
+ * 导出和备份的输出直接丢弃，只测读取、格式化和编码（备份含gzip压缩）；
+ * 恢复只测解析，按应用的批大小攒批后丢弃，不写入数据库。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NoteBenchmarks {
+
+    /** 与 NotesExportTask 相同的页大小 */
+    private static final int EXPORT_PAGE_SIZE = 200;
+
+    /** 与 NotesRestoreTask 相同的批大小 */
+    private static final int RESTORE_BATCH_SIZE = 500;
+
+    /** 搜索返回的条数，约为一屏半 */
+    private static final int SEARCH_LIMIT = 50;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int notes;
+
+    private Connection mConnection;
+    private NoteStore mStore;
+    private File mBackup;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        mConnection = NoteDatasets.open(notes);
+        mStore = new JdbcNoteStore(mConnection);
+        mBackup = NoteDatasets.backupFile(notes, mStore);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        mConnection.close();
+    }
+
+    @Benchmark
+    public int export() throws IOException {
+        return NoteExport.write(mStore, new NullWriter(), EXPORT_PAGE_SIZE, null);
+    }
+
+    @Benchmark
+    public int backup() throws IOException {
+        return NoteDatasets.writeBackup(mStore, new NullOutputStream());
+    }
+
+    @Benchmark
+    public long restoreParse() throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(mBackup), BUFFER_SIZE), BUFFER_SIZE),
+                "UTF-8"));
+        List<Note> batch = new ArrayList<Note>(RESTORE_BATCH_SIZE);
+        long checksum = 0;
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Note note = NoteBackupFormat.readNote(reader);
+                batch.add(note);
+                if (batch.size() == RESTORE_BATCH_SIZE) {
+                    checksum += batch.get(batch.size() - 1).getId();
+                    batch.clear();
+                }
+            }
+            reader.endArray();
+        } finally {
+            reader.close();
+        }
+        return checksum + batch.size();
+    }
+
+    @Benchmark
+    public int searchCommonWord() throws IOException {
+        return mStore.search(NoteDatasets.COMMON_WORD, SEARCH_LIMIT).size();
+    }
+
+    @Benchmark
+    public int searchRareWord() throws IOException {
+        return mStore.search(NoteDatasets.RARE_WORD, SEARCH_LIMIT).size();
+    }
+
+    @Benchmark
+    public int searchTwoWords() throws IOException {
+        return mStore.search(NoteDatasets.COMMON_WORD + " " + NoteDatasets.RARE_WORD,
+                SEARCH_LIMIT).size();
+    }
+
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(char[] buffer, int offset, int count) {
+        }
+
+        @Override
+        public void write(String str, int offset, int count) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) {
+        }
+    }
+}
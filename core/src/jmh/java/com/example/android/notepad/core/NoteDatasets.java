@@ -0,0 +1,152 @@
+package com.example.android.notepad.core;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 基准测试的数据集：指定条数的笔记数据库，以及由它导出的备份文件。
+ *
+ * 内容由 {@link NoteTextGenerator} 以固定种子生成，{@link #COMMON_WORD} 出现在大部分笔记中，
+ * {@link #RARE_WORD} 只出现在少数笔记中。生成一个百万条的数据集需要几分钟，
+ * 因此结果缓存在 notepad.jmh.dataDir 目录（默认 build/jmh-data）中，之后直接打开。
+ */
+final class NoteDatasets {
+
+    private static final int INSERT_BATCH_SIZE = 10000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** 出现频率最高的词 */
+    static final String COMMON_WORD = NoteTextGenerator.word(0);
+
+    /** 出现频率最低的词 */
+    static final String RARE_WORD = NoteTextGenerator.word(NoteTextGenerator.VOCABULARY_SIZE - 1);
+
+    private NoteDatasets() {
+    }
+
+    /**
+     * 打开 size 条笔记的数据库，不存在时先生成
+     */
+    static Connection open(int size) throws IOException, SQLException {
+        File file = new File(getDataDir(), "notes-" + size + ".db");
+        if (!file.exists()) {
+            File temp = new File(file.getPath() + ".tmp");
+            temp.delete();
+            Connection connection = connect(temp);
+            try {
+                JdbcNoteStore.createSchema(connection);
+                generate(new JdbcNoteStore(connection), size);
+            } finally {
+                connection.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to create " + file);
+            }
+        }
+        return connect(file);
+    }
+
+    /**
+     * 返回 store 中所有笔记的全量备份文件（格式与应用的 base.json.gz 相同），不存在时先导出
+     */
+    static File backupFile(int size, NoteStore store) throws IOException {
+        File file = new File(getDataDir(), "backup-" + size + ".json.gz");
+        if (!file.exists()) {
+            File temp = new File(file.getPath() + ".tmp");
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                writeBackup(store, out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to create " + file);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * 把 store 中的所有笔记以备份格式写入 gzip 压缩的输出流，不关闭 out
+     * @return 写出的条数
+     */
+    static int writeBackup(NoteStore store, OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(gzip, "UTF-8"));
+        int count = 0;
+        writer.beginArray();
+        Note after = null;
+        while (true) {
+            List<Note> page = store.page(after, 1000);
+            for (Note note : page) {
+                NoteBackupFormat.writeNote(writer, note);
+                count++;
+            }
+            if (page.size() < 1000) {
+                break;
+            }
+            after = page.get(page.size() - 1);
+        }
+        writer.endArray();
+        writer.flush();
+        gzip.finish();
+        return count;
+    }
+
+    private static void generate(NoteStore store, int size) throws IOException {
+        NoteTextGenerator generator = new NoteTextGenerator(NoteTextGenerator.SEED);
+        List<Note> batch = new ArrayList<Note>(INSERT_BATCH_SIZE);
+        for (int i = 1; i <= size; i++) {
+            String title = generator.words(2 + generator.nextInt(5));
+            StringBuilder content = new StringBuilder();
+            int lines = 1 + generator.nextInt(8);
+            for (int line = 0; line < lines; line++) {
+                if (line > 0) {
+                    content.append('\n');
+                }
+                content.append(generator.words(3 + generator.nextInt(15)));
+            }
+            // 同一分钟内多次修改，键集分页需要按ID区分修改时间相同的笔记
+            long modified = NoteTextGenerator.START_TIME + (i / 4) * 60000L;
+            batch.add(new Note(i, title, content.toString(), modified));
+            if (batch.size() == INSERT_BATCH_SIZE) {
+                store.insert(batch);
+                batch.clear();
+            }
+        }
+        store.insert(batch);
+    }
+
+    private static File getDataDir() throws IOException {
+        File dir = new File(System.getProperty("notepad.jmh.dataDir", "build/jmh-data"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        return dir;
+    }
+
+    private static Connection connect(File file) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        Statement statement = connection.createStatement();
+        try {
+            // 与应用相同使用WAL
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("PRAGMA synchronous = NORMAL");
+        } finally {
+            statement.close();
+        }
+        return connection;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.notepad.core;
+
+/**
+ * 一条笔记：导出、备份和恢复在各存储实现之间传递的不可变值。
+ *
+ * 只包含这些流程需要的列；预览、字符数等派生列由存储自己维护。
+ */
+public final class Note {
+
+    /** 没有ID（例如旧备份中缺少ID）的笔记 */
+    public static final long NO_ID = -1;
+
+    /** 修改时间未知（例如旧备份中缺少时间）的笔记；0 是有效的时间，不表示未知 */
+    public static final long NO_MODIFIED = Long.MIN_VALUE;
+
+    private final long mId;
+    private final String mTitle;
+    private final String mContent;
+    private final long mModified;
+
+    /**
+     * @param title 标题，未知时为null
+     * @param content 内容，未知时为null
+     * @param modified 修改时间，未知时为 {@link #NO_MODIFIED}
+     */
+    public Note(long id, String title, String content, long modified) {
+        mId = id;
+        mTitle = title;
+        mContent = content;
+        mModified = modified;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public String getContent() {
+        return mContent;
+    }
+
+    public long getModified() {
+        return mModified;
+    }
+
+    public boolean hasId() {
+        return mId != NO_ID;
+    }
+
+    public boolean hasModified() {
+        return mModified != NO_MODIFIED;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Note)) {
+            return false;
+        }
+        Note other = (Note) o;
+        return mId == other.mId && mModified == other.mModified
+                && equal(mTitle, other.mTitle) && equal(mContent, other.mContent);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mId ^ (mId >>> 32)) * 31 + (int) (mModified ^ (mModified >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "Note{id=" + mId + ", title=" + mTitle + ", modified=" + mModified + "}";
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.notepad.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * 备份文件中一条笔记的JSON格式：{"id":..., "title":..., "content":..., "time":...}。
+ *
+ * 备份文件是这种对象组成的数组，由调用方流式读写（beginArray/endArray），
+ * 这里只负责单个对象，不会把整个文件载入内存。
+ */
+public final class NoteBackupFormat {
+
+    private static final String NAME_ID = "id";
+    private static final String NAME_TITLE = "title";
+    private static final String NAME_CONTENT = "content";
+    private static final String NAME_TIME = "time";
+
+    private NoteBackupFormat() {
+    }
+
+    /**
+     * 写出一条笔记，标题和内容为null时写为空字符串，修改时间未知时写为null
+     */
+    public static void writeNote(JsonWriter writer, Note note) throws IOException {
+        writer.beginObject();
+        writer.name(NAME_ID).value(note.getId());
+        writer.name(NAME_TITLE).value(note.getTitle() == null ? "" : note.getTitle());
+        writer.name(NAME_CONTENT).value(note.getContent() == null ? "" : note.getContent());
+        writer.name(NAME_TIME);
+        if (note.hasModified()) {
+            writer.value(note.getModified());
+        } else {
+            writer.nullValue();
+        }
+        writer.endObject();
+    }
+
+    /**
+     * 读出一条笔记。缺少或为null的字段按未知处理（见 {@link Note}），不认识的字段跳过
+     */
+    public static Note readNote(JsonReader reader) throws IOException {
+        long id = Note.NO_ID;
+        String title = null;
+        String content = null;
+        long time = Note.NO_MODIFIED;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (NAME_ID.equals(name)) {
+                id = reader.nextLong();
+            } else if (NAME_TITLE.equals(name)) {
+                title = reader.nextString();
+            } else if (NAME_CONTENT.equals(name)) {
+                content = reader.nextString();
+            } else if (NAME_TIME.equals(name)) {
+                time = reader.nextLong();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Note(id, title, content, time);
+    }
+}
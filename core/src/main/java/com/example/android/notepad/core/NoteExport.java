@@ -0,0 +1,68 @@
+package com.example.android.notepad.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * 把笔记导出为纯文本。
+ *
+ * 按页（键集分页）从 {@link NoteStore} 读取，逐条写入调用方的 Writer，
+ * 内存中只保留当前这一页，不拼接整个导出内容。
+ */
+public final class NoteExport {
+
+    /**
+     * 导出进度的回调，在导出的线程上调用
+     */
+    public interface Listener {
+        /**
+         * 每写出一条笔记调用一次
+         * @param exported 已写出的条数
+         * @return false 时停止导出
+         */
+        boolean onNoteExported(int exported);
+    }
+
+    private NoteExport() {
+    }
+
+    /**
+     * 导出所有笔记
+     * @param pageSize 每次从存储读取的条数
+     * @param listener 可以为null
+     * @return 写出的条数；被 listener 停止时返回-1
+     */
+    public static int write(NoteStore store, Writer writer, int pageSize, Listener listener)
+            throws IOException {
+        int exported = 0;
+        Note after = null;
+        while (true) {
+            List<Note> page = store.page(after, pageSize);
+            for (Note note : page) {
+                writeNote(writer, note.getTitle(), note.getContent());
+                exported++;
+                if (listener != null && !listener.onNoteExported(exported)) {
+                    return -1;
+                }
+            }
+            if (page.size() < pageSize) {
+                return exported;
+            }
+            after = page.get(page.size() - 1);
+        }
+    }
+
+    /**
+     * 写出一条笔记：标题行、内容和一个空行
+     */
+    public static void writeNote(Writer writer, String title, String content) throws IOException {
+        writer.write("========== 笔记：");
+        writer.write(title == null ? "无标题" : title);
+        writer.write(" ==========\n");
+        if (content != null) {
+            writer.write(content);
+        }
+        writer.write("\n\n");
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.android.notepad.core;
+
+/**
+ * 笔记和待办事项查询中与存储实现无关的SQL片段，Provider 和其他存储实现共用。
+ */
+public final class NoteQueries {
+
+    /** 主键列，与 android.provider.BaseColumns._ID 相同 */
+    public static final String ID = "_id";
+
+    private NoteQueries() {
+    }
+
+    /**
+     * 将用户输入的关键词转换为FTS的MATCH表达式：按空白拆分，每个词做前缀匹配，多个词之间为AND关系。
+     * 去掉双引号，避免用户输入破坏查询语法。
+     * @return MATCH表达式；没有有效的词时为空字符串
+     */
+    public static String ftsMatch(String keyword) {
+        StringBuilder match = new StringBuilder();
+        for (String token : keyword.trim().split("\\s+")) {
+            token = token.replace("\"", "");
+            if (token.length() == 0) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append('"').append(token).append("\"*");
+        }
+        return match.toString();
+    }
+
+    /**
+     * 通过全文索引表限定匹配的行，避免对主表做全表扫描。索引表的 docid 与主表的ID一一对应
+     * @param matchArg MATCH 的参数：已转义的字符串字面量，或参数占位符 "?"
+     */
+    public static String searchWhere(String ftsTable, String matchArg) {
+        return ID + " IN (SELECT docid FROM " + ftsTable + " WHERE " + ftsTable + " MATCH "
+                + matchArg + ")";
+    }
+
+    /**
+     * 键集分页的条件：排在上一页最后一行 (time, id) 之后的行，与 {@link #pageOrder} 配合使用
+     * @param timeColumn 排序的时间列
+     */
+    public static String pageWhere(String timeColumn, long time, long id) {
+        return "(" + timeColumn + " < " + time + " OR (" + timeColumn + " = " + time
+                + " AND " + ID + " < " + id + "))";
+    }
+
+    /**
+     * 键集分页的排序：时间倒序，相同时按ID倒序，保证顺序唯一
+     */
+    public static String pageOrder(String timeColumn) {
+        return timeColumn + " DESC, " + ID + " DESC";
+    }
+}
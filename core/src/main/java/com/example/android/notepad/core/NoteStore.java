@@ -0,0 +1,39 @@
+package com.example.android.notepad.core;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 笔记的存储。应用中由 ContentProvider 实现，基准测试中由 SQLite-JDBC 实现；
+ * {@link NoteExport} 等只通过这个接口读写笔记。
+ *
+ * 方法可能访问磁盘，不应在主线程调用。只涉及未删除（不在回收站中）的笔记。
+ */
+public interface NoteStore {
+
+    /**
+     * @return 笔记总数
+     */
+    int count() throws IOException;
+
+    /**
+     * 按修改时间倒序（相同时按ID倒序）读取一页，见 {@link NoteQueries#pageWhere}
+     * @param after 上一页的最后一条，为null时从第一条开始
+     * @param limit 最多返回的条数
+     * @return 这一页的笔记，少于 limit 条说明已经读完
+     */
+    List<Note> page(Note after, int limit) throws IOException;
+
+    /**
+     * 在一个事务中写入一批笔记。有ID的笔记按原ID写入，没有ID的由存储分配
+     * @return 写入的条数
+     */
+    int insert(List<Note> notes) throws IOException;
+
+    /**
+     * 全文搜索，关键词的处理见 {@link NoteQueries#ftsMatch}
+     * @param limit 最多返回的条数
+     * @return 按修改时间倒序排列的匹配笔记
+     */
+    List<Note> search(String keyword, int limit) throws IOException;
+}
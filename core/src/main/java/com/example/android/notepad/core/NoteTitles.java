@@ -0,0 +1,28 @@
+package com.example.android.notepad.core;
+
+/**
+ * 新建笔记未指定标题时，由内容生成标题。
+ */
+public final class NoteTitles {
+
+    /** 生成的标题最多包含的字符数 */
+    public static final int MAX_LENGTH = 30;
+
+    private NoteTitles() {
+    }
+
+    /**
+     * 取内容的前 {@link #MAX_LENGTH} 个字符；内容更长时在最后一个空格处截断，避免切断单词
+     */
+    public static String fromText(String text) {
+        int length = text.length();
+        String title = text.substring(0, Math.min(MAX_LENGTH, length));
+        if (length > MAX_LENGTH) {
+            int lastSpace = title.lastIndexOf(' ');
+            if (lastSpace > 0) {
+                title = title.substring(0, lastSpace);
+            }
+        }
+        return title;
+    }
+}
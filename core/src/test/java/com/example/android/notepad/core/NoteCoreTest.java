@@ -0,0 +1,262 @@
+package com.example.android.notepad.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the platform-independent note model, formats and query fragments.
+ */
+public class NoteCoreTest {
+
+    @Test
+    public void testTitleFromText() {
+        assertEquals("Short note", NoteTitles.fromText("Short note"));
+        assertEquals("", NoteTitles.fromText(""));
+        // Longer text is cut back to the last space within the first 30 characters.
+        assertEquals("The quick brown fox jumps",
+                NoteTitles.fromText("The quick brown fox jumps over the lazy dog"));
+        String word = "abcdefghijklmnopqrstuvwxyzabcdefghij";
+        assertEquals(word.substring(0, NoteTitles.MAX_LENGTH), NoteTitles.fromText(word));
+    }
+
+    @Test
+    public void testBackupRoundTrip() throws IOException {
+        List<Note> notes = Arrays.asList(
+                new Note(1, "Title", "Line 1\nLine 2 \"quoted\"", 1000),
+                new Note(2, "", "", 2000));
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginArray();
+        for (Note note : notes) {
+            NoteBackupFormat.writeNote(writer, note);
+        }
+        writer.endArray();
+        writer.close();
+
+        JsonReader reader = new JsonReader(new StringReader(out.toString()));
+        List<Note> read = new ArrayList<Note>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            read.add(NoteBackupFormat.readNote(reader));
+        }
+        reader.endArray();
+        assertEquals(notes, read);
+    }
+
+    @Test
+    public void testBackupMissingFields() throws IOException {
+        Note note = NoteBackupFormat.readNote(new JsonReader(new StringReader(
+                "{\"title\":null,\"content\":\"text\",\"extra\":[1,2]}")));
+        assertFalse(note.hasId());
+        assertEquals(null, note.getTitle());
+        assertEquals("text", note.getContent());
+        assertFalse(note.hasModified());
+    }
+
+    @Test
+    public void testBackupModifiedTime() throws IOException {
+        // A time of 0 is a known time, not a missing one.
+        Note note = NoteBackupFormat.readNote(new JsonReader(new StringReader(
+                "{\"id\":1,\"time\":0}")));
+        assertTrue(note.hasModified());
+        assertEquals(0, note.getModified());
+        assertFalse(NoteBackupFormat.readNote(new JsonReader(new StringReader(
+                "{\"id\":1,\"time\":null}"))).hasModified());
+
+        // An unknown time is written as null and stays unknown.
+        StringWriter out = new StringWriter();
+        NoteBackupFormat.writeNote(new JsonWriter(out),
+                new Note(1, "Title", "Body", Note.NO_MODIFIED));
+        assertTrue(out.toString(), out.toString().contains("\"time\":null"));
+        assertFalse(NoteBackupFormat.readNote(new JsonReader(new StringReader(out.toString())))
+                .hasModified());
+    }
+
+    @Test
+    public void testFtsMatch() {
+        assertEquals("\"foo\"* \"bar\"*", NoteQueries.ftsMatch("  foo   bar "));
+        assertEquals("\"foo\"*", NoteQueries.ftsMatch("\"foo\" \"\""));
+        assertEquals("", NoteQueries.ftsMatch("   "));
+    }
+
+    @Test
+    public void testTextGenerator() {
+        // The same seed gives the same text, so that every benchmark run uses the same data.
+        NoteTextGenerator first = new NoteTextGenerator(NoteTextGenerator.SEED);
+        NoteTextGenerator second = new NoteTextGenerator(NoteTextGenerator.SEED);
+        assertEquals(first.text(500), second.text(500));
+        assertEquals(first.words(10), second.words(10));
+
+        // No word is a prefix of another, so prefix searches for one never match the other.
+        String common = NoteTextGenerator.word(0);
+        String rare = NoteTextGenerator.word(NoteTextGenerator.VOCABULARY_SIZE - 1);
+        assertFalse(rare.startsWith(common));
+        assertFalse(common.startsWith(rare));
+        assertTrue(first.text(200).length() >= 200);
+    }
+
+    @Test
+    public void testExportPages() throws IOException {
+        final List<Note> notes = new ArrayList<Note>();
+        for (int i = 1; i <= 5; i++) {
+            notes.add(new Note(i, "Note " + i, "Body " + i, 1000 * (i % 3)));
+        }
+        NoteStore store = new ListNoteStore(notes);
+
+        StringWriter out = new StringWriter();
+        final List<Integer> progress = new ArrayList<Integer>();
+        assertEquals(5, NoteExport.write(store, out, 2, new NoteExport.Listener() {
+            @Override
+            public boolean onNoteExported(int exported) {
+                progress.add(exported);
+                return true;
+            }
+        }));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), progress);
+        // Newest first, ties broken by descending id.
+        String text = out.toString();
+        int[] order = { 5, 2, 4, 1, 3 };
+        int position = 0;
+        for (int id : order) {
+            int next = text.indexOf("========== 笔记：Note " + id + " ==========\nBody " + id);
+            assertTrue("Note " + id, next >= position);
+            position = next;
+        }
+
+        // A listener returning false stops the export.
+        assertEquals(-1, NoteExport.write(store, new StringWriter(), 2, new NoteExport.Listener() {
+            @Override
+            public boolean onNoteExported(int exported) {
+                return exported < 3;
+            }
+        }));
+    }
+
+    @Test
+    public void testInsertAndSearch() throws IOException {
+        NoteStore store = new ListNoteStore(Arrays.asList(
+                new Note(1, "Groceries", "Milk, eggs and bread", 1000)));
+        assertEquals(3, store.insert(Arrays.asList(
+                new Note(5, "Meeting notes", "Discuss the budget", 3000),
+                new Note(Note.NO_ID, "Bread recipe", "Flour, water, salt", 2000),
+                new Note(Note.NO_ID, "Untitled", "Budget draft", 0))));
+        assertEquals(4, store.count());
+
+        // Ids are kept or assigned after the largest one.
+        List<Note> all = store.page(null, 10);
+        assertEquals(Arrays.asList(5L, 6L, 1L, 7L), ids(all));
+
+        // Terms are prefixes of words, case-insensitive, and all of them must match.
+        assertEquals(Arrays.asList(6L, 1L), ids(store.search("bread", 10)));
+        assertEquals(Arrays.asList(5L, 7L), ids(store.search("BUDG", 10)));
+        assertEquals(Arrays.asList(6L), ids(store.search("bread \"flour\"", 10)));
+        assertEquals(Arrays.asList(5L), ids(store.search("budget", 1)));
+        assertEquals(Collections.<Long>emptyList(), ids(store.search("read", 10)));
+        // A keyword without terms matches every note.
+        assertEquals(ids(all), ids(store.search("  ", 10)));
+    }
+
+    private static List<Long> ids(List<Note> notes) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Note note : notes) {
+            ids.add(note.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * In-memory store that pages with the same keyset order as the provider, and searches with
+     * the same prefix terms as the full-text index.
+     */
+    private static class ListNoteStore implements NoteStore {
+        private final List<Note> mNotes;
+
+        ListNoteStore(List<Note> notes) {
+            mNotes = new ArrayList<Note>();
+            insert(notes);
+        }
+
+        @Override
+        public int count() {
+            return mNotes.size();
+        }
+
+        @Override
+        public List<Note> page(Note after, int limit) {
+            int start = after == null ? 0 : mNotes.indexOf(after) + 1;
+            return new ArrayList<Note>(
+                    mNotes.subList(start, Math.min(start + limit, mNotes.size())));
+        }
+
+        @Override
+        public int insert(List<Note> notes) {
+            long nextId = 1;
+            for (Note note : mNotes) {
+                nextId = Math.max(nextId, note.getId() + 1);
+            }
+            for (Note note : notes) {
+                if (!note.hasId()) {
+                    note = new Note(nextId, note.getTitle(), note.getContent(),
+                            note.hasModified() ? note.getModified() : System.currentTimeMillis());
+                }
+                nextId = Math.max(nextId, note.getId() + 1);
+                mNotes.add(note);
+            }
+            Collections.sort(mNotes, new Comparator<Note>() {
+                @Override
+                public int compare(Note lhs, Note rhs) {
+                    if (lhs.getModified() != rhs.getModified()) {
+                        return lhs.getModified() > rhs.getModified() ? -1 : 1;
+                    }
+                    return lhs.getId() > rhs.getId() ? -1 : (lhs.getId() == rhs.getId() ? 0 : 1);
+                }
+            });
+            return notes.size();
+        }
+
+        @Override
+        public List<Note> search(String keyword, int limit) {
+            // "foo"* "bar"* -> foo, bar
+            String match = NoteQueries.ftsMatch(keyword);
+            String[] terms = match.length() == 0 ? new String[0]
+                    : match.replace("\"", "").replace("*", "").toLowerCase().split(" ");
+            List<Note> found = new ArrayList<Note>();
+            for (Note note : mNotes) {
+                if (found.size() < limit && matches(note, terms)) {
+                    found.add(note);
+                }
+            }
+            return found;
+        }
+
+        private static boolean matches(Note note, String[] terms) {
+            String[] words = (note.getTitle() + " " + note.getContent()).toLowerCase()
+                    .split("[^\\p{L}\\p{N}]+");
+            for (String term : terms) {
+                boolean found = false;
+                for (String word : words) {
+                    found |= word.startsWith(term);
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
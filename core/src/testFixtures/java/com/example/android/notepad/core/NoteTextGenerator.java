@@ -0,0 +1,109 @@
+package com.example.android.notepad.core;
+
+import java.util.Random;
+
+/**
+ * 基准测试和性能回归测试共用的测试数据生成器：固定种子的随机数，使每次运行使用相同的数据集。
+ *
+ * 词表中的词互不为前缀，词频近似齐普夫分布：序号越小越常见，{@link #word}(0) 出现在大部分文本中，
+ * 最后一个词只出现在少数文本中。core 的 JMH 基准（NoteDatasets）和 app 的
+ * NotePadProviderPerfTest 都通过这里生成内容，两者的搜索结果可以直接对照。
+ */
+public final class NoteTextGenerator {
+
+    /** 默认种子 */
+    public static final long SEED = 20161018L;
+
+    /** 生成的笔记中最早的修改时间（2016-01-01 UTC） */
+    public static final long START_TIME = 1451606400000L;
+
+    /** 词表大小 */
+    public static final int VOCABULARY_SIZE = 5000;
+
+    // 一行中的词数，见 text()
+    private static final int WORDS_PER_LINE = 12;
+
+    private static final String[] VOCABULARY = createVocabulary();
+
+    private final Random mRandom;
+
+    public NoteTextGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * @param index 词频排名，0 最常见
+     */
+    public static String word(int index) {
+        return VOCABULARY[index];
+    }
+
+    /**
+     * 按词频随机取一个词：r^3 使序号小的词远比序号大的常见
+     */
+    public String nextWord() {
+        double r = mRandom.nextDouble();
+        return VOCABULARY[(int) (r * r * r * VOCABULARY_SIZE)];
+    }
+
+    /**
+     * @return count 个以空格分隔的词，用作标题或一行内容
+     */
+    public String words(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(nextWord());
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return 长度约为 length 个字符的文本，每行 {@value #WORDS_PER_LINE} 个词
+     */
+    public String text(int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        int wordsInLine = 0;
+        while (text.length() < length) {
+            if (wordsInLine == WORDS_PER_LINE) {
+                text.append('\n');
+                wordsInLine = 0;
+            } else if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(nextWord());
+            wordsInLine++;
+        }
+        return text.toString();
+    }
+
+    /**
+     * 与生成内容共用同一个随机数序列，使整个数据集只由种子决定
+     */
+    public int nextInt(int bound) {
+        return mRandom.nextInt(bound);
+    }
+
+    public boolean nextBoolean() {
+        return mRandom.nextBoolean();
+    }
+
+    /**
+     * 互不为前缀的随机词（字母、序号、结尾的字母），避免前缀匹配时常用词和罕见词互相命中
+     */
+    private static String[] createVocabulary() {
+        Random random = new Random(SEED);
+        String[] words = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 4 + random.nextInt(6);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words[i] = word.append(i).append('x').toString();
+        }
+        return words;
+    }
+}